@@ -1,5 +1,31 @@
+import struct
+
+import numpy as np
 from py4j.java_gateway import JavaGateway
 
+"""
+    Reads the named arrays out of a packed result record (bytes) made by
+    CalProcessingServer's RandData.getResultRecord, returning a dict from
+    array name to numpy array. See asl.sensor.utils.BinaryRecord for layout.
+"""
+def unpackRecord(record):
+    (version, count) = struct.unpack_from('<ii', record, 0)
+    if version != 1:
+        raise ValueError('Unsupported result record version: ' + str(version))
+    offset = 8
+    arrays = {}
+    for _ in range(count):
+        (nameLength,) = struct.unpack_from('<i', record, offset)
+        offset += 4
+        name = record[offset:offset + nameLength].decode('utf-8')
+        offset += nameLength
+        (length,) = struct.unpack_from('<i', record, offset)
+        offset += 4
+        arrays[name] = np.frombuffer(record, dtype='<f8', count=length,
+                                     offset=offset)
+        offset += 8 * length
+    return arrays
+
 """
     cal = Filename of calibration signal
     out = Filename of sensor output to calibration
@@ -8,18 +34,16 @@ from py4j.java_gateway import JavaGateway
     start = Lower bound of time region of interest, in milliseconds since epoch
     end = Upper bound of region of interest, in milliseconds since epoch
     lf = True if the data under examination is a low-frequency cal
+    Returns a dict of numpy arrays; poles and zeros have real and imaginary
+    parts interleaved, and curves are named by plot, index and axis
+    (e.g., 'amp.0.x' for the frequencies of the initial amplitude curve);
+    the time spent in each stage of the calculation is under 'stage.' names
+    (e.g., 'stage.solver.fit' is [runs, total ms, max ms, allocated bytes])
 """
 def getCalc(cal, out, resp, embd, start, end, lf):
     gateway = JavaGateway()
-    exp = 
-	gateway.entry_point.populateDataAndRun(cal, out, resp, embd, start, end, lf)
-    zerosIn = exp.getInitialZeros();
-    zerosOut = exp.getFitZeros();
-    polesIn = exp.getInitialPoles();
-    polesOut = exp.getFitPoles();
-    initResid = exp.getInitResidual();
-    fitResid = exp.getFitResidual();
-    freqs = exp.getFreqList();
-    magCurves = exp.getAmplitudesAsArrays();
-    phaseCurves = exp.getPhasesAsArrays();
-
+    exp = gateway.entry_point.populateDataAndRun(cal, out, resp, embd,
+                                                 start, end, lf)
+    # everything numeric comes back as one byte array in one round trip
+    data = unpackRecord(exp.getResultRecord())
+    return data
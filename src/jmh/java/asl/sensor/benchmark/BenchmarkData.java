@@ -0,0 +1,128 @@
+package asl.sensor.benchmark;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import asl.sensor.input.DataBlock;
+import asl.sensor.input.DataStore;
+import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.TimeSeriesUtils;
+
+/**
+ * Loads the seed and response files that the benchmarks run on. These are
+ * the same files (and, for the experiments, the same time windows) used by
+ * the unit tests, read relative to the project root, which is the working
+ * directory the gradle jmh task runs benchmarks from.
+ * @author akearns
+ *
+ */
+public class BenchmarkData {
+  
+  /**
+   * One day of 1Hz data (with a second sensor's data for the same time)
+   */
+  public static final String LONG_PERIOD_NORTH =
+      "test-data/azi-16off/00_LH1.512.seed";
+  public static final String LONG_PERIOD_EAST =
+      "test-data/azi-16off/00_LH2.512.seed";
+  public static final String LONG_PERIOD_REF =
+      "test-data/azi-16off/XX_LH1.512.seed";
+  
+  /**
+   * High-frequency randomized calibration: signal, sensor output, response
+   */
+  public static final String RAND_CAL_INPUT =
+      "test-data/random-high-32+70i/_EC0.512.seed";
+  public static final String RAND_CAL_OUTPUT =
+      "test-data/random-high-32+70i/00_EHZ.512.seed";
+  public static final String RAND_CAL_RESP =
+      "test-data/random-high-32+70i/RESP.XX.NS088..BHZ.STS1.360.2400";
+  
+  /**
+   * Get the name of the first channel in a seed file
+   * @param filename Seed file to read
+   * @return SNCL name of channel, used as a filter when reading the data
+   * @throws FileNotFoundException if the file doesn't exist
+   */
+  public static String getFirstChannel(String filename)
+      throws FileNotFoundException {
+    return TimeSeriesUtils.getMplexNameList(filename).get(0);
+  }
+  
+  /**
+   * Load the first channel of a seed file
+   * @param filename Seed file to read
+   * @return Data of that channel
+   * @throws FileNotFoundException if the file doesn't exist
+   */
+  public static DataBlock loadBlock(String filename)
+      throws FileNotFoundException {
+    return TimeSeriesUtils.getTimeSeries( filename, getFirstChannel(filename) );
+  }
+  
+  /**
+   * Load the data used by the azimuth unit test, trimmed to the same window
+   * @return DataStore with test north, test east, and reference north data
+   * @throws FileNotFoundException if the files don't exist
+   */
+  public static DataStore loadAzimuthData() throws FileNotFoundException {
+    DataStore ds = new DataStore();
+    String[] files =
+        new String[]{LONG_PERIOD_NORTH, LONG_PERIOD_EAST, LONG_PERIOD_REF};
+    for (int i = 0; i < files.length; ++i) {
+      ds.setBlock( i, files[i], getFirstChannel(files[i]) );
+    }
+    
+    Calendar cCal = getStartCalendar(ds);
+    cCal.set(Calendar.HOUR, 10);
+    cCal.set(Calendar.MINUTE, 30);
+    long start = cCal.getTime().getTime();
+    cCal.set(Calendar.HOUR, 15);
+    cCal.set(Calendar.MINUTE, 0);
+    long end = cCal.getTime().getTime();
+    ds.trim(start, end, 2);
+    
+    return ds;
+  }
+  
+  /**
+   * Load the data used by the high-frequency randomized calibration unit
+   * test, trimmed to the same window
+   * @return DataStore with calibration input, sensor output and its response
+   * @throws IOException if the files can't be read
+   */
+  public static DataStore loadRandomizedData() throws IOException {
+    DataStore ds = new DataStore();
+    ds.setBlock( 0, loadBlock(RAND_CAL_INPUT) );
+    ds.setBlock( 1, loadBlock(RAND_CAL_OUTPUT) );
+    ds.setResponse( 1, new InstrumentResponse(RAND_CAL_RESP) );
+    
+    Calendar cCal = getStartCalendar(ds);
+    cCal.set(Calendar.MINUTE, 36);
+    cCal.set(Calendar.SECOND, 0);
+    long start = cCal.getTime().getTime();
+    cCal.set(Calendar.MINUTE, 41);
+    long end = cCal.getTime().getTime();
+    ds.trim(start, end);
+    
+    return ds;
+  }
+  
+  /**
+   * Get a UTC calendar set to the start of the first block of data
+   * @param ds DataStore with data loaded in the first block
+   * @return Calendar to set window times with
+   */
+  private static Calendar getStartCalendar(DataStore ds) {
+    Calendar cCal = Calendar.getInstance( TimeZone.getTimeZone("UTC") );
+    cCal.setTimeInMillis( ds.getBlock(0).getStartTime() );
+    return cCal;
+  }
+  
+  private BenchmarkData() {
+    // only static loading methods
+  }
+
+}
@@ -0,0 +1,72 @@
+package asl.sensor.benchmark;
+
+import java.io.FileNotFoundException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asl.sensor.input.DataBlock;
+import asl.sensor.utils.TimeSeriesUtils;
+
+/**
+ * Benchmarks of reading in data: decoding miniSEED records into a map of
+ * contiguous data, and building the data array of a block after a trim.
+ * @author akearns
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InputBenchmark {
+  
+  private String channel;
+  private DataBlock block;
+  private long start;
+  private long end;
+  private long step;
+  private int trimCount;
+  
+  @Setup
+  public void setUp() throws FileNotFoundException {
+    String file = BenchmarkData.LONG_PERIOD_NORTH;
+    channel = BenchmarkData.getFirstChannel(file);
+    block = BenchmarkData.loadBlock(file);
+    start = block.getStartTime();
+    end = block.getEndTime();
+    // move the trimmed window a little each time so nothing is reused
+    step = block.getInterval();
+    trimCount = 0;
+  }
+  
+  @Benchmark
+  public Pair<Long, Map<Long, double[]>> decodeSeed()
+      throws FileNotFoundException {
+    return TimeSeriesUtils.getTimeSeriesMap(
+        BenchmarkData.LONG_PERIOD_NORTH, channel);
+  }
+  
+  @Benchmark
+  public double[] getDataAfterTrim() {
+    trimCount = (trimCount + 1) % 100;
+    long offset = trimCount * step;
+    // trims off about a quarter of the day at each end
+    long quarter = (end - start) / 4;
+    block.trim(start + quarter + offset, end - quarter + offset);
+    return block.getData();
+  }
+
+}
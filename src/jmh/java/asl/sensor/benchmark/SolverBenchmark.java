@@ -0,0 +1,62 @@
+package asl.sensor.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asl.sensor.experiment.AzimuthExperiment;
+import asl.sensor.experiment.RandomizedExperiment;
+import asl.sensor.input.DataStore;
+
+/**
+ * Benchmarks of the experiments built around a least-squares solver: an
+ * azimuth fit (over the full range and each sliding window) and a
+ * high-frequency randomized calibration fit. Each benchmark runs the whole
+ * experiment on a fresh copy of the data with result caching turned off,
+ * so every run does the full calculation.
+ * @author akearns
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SolverBenchmark {
+  
+  private DataStore azimuthData;
+  private DataStore randomizedData;
+  
+  @Setup
+  public void setUp() throws IOException {
+    azimuthData = BenchmarkData.loadAzimuthData();
+    randomizedData = BenchmarkData.loadRandomizedData();
+  }
+  
+  @Benchmark
+  public double azimuthFit() {
+    AzimuthExperiment azi = new AzimuthExperiment();
+    azi.runExperimentOnData( new DataStore(azimuthData) );
+    return azi.getFitAngle();
+  }
+  
+  @Benchmark
+  public double randomizedHighFreqFit() {
+    RandomizedExperiment rand = new RandomizedExperiment();
+    rand.setLowFreq(false);
+    rand.runExperimentOnData( new DataStore(randomizedData) );
+    return rand.getFitResidual();
+  }
+
+}
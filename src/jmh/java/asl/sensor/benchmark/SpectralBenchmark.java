@@ -0,0 +1,90 @@
+package asl.sensor.benchmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.complex.Complex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asl.sensor.input.DataBlock;
+import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.TimeSeriesUtils;
+
+/**
+ * Benchmarks of the spectral calculations behind most experiments: Welch
+ * and multitaper PSDs, crosspower with responses removed, evaluating a
+ * response curve, and decimation. All run over a day of 1Hz data.
+ * @author akearns
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SpectralBenchmark {
+  
+  private double[] north;
+  private double[] east;
+  private long interval;
+  private InstrumentResponse response;
+  private double[] freqs;
+  
+  @Setup
+  public void setUp() throws IOException {
+    DataBlock northBlock =
+        BenchmarkData.loadBlock(BenchmarkData.LONG_PERIOD_NORTH);
+    DataBlock eastBlock =
+        BenchmarkData.loadBlock(BenchmarkData.LONG_PERIOD_EAST);
+    int len = Math.min( northBlock.size(), eastBlock.size() );
+    north = Arrays.copyOf(northBlock.getData(), len);
+    east = Arrays.copyOf(eastBlock.getData(), len);
+    interval = northBlock.getInterval();
+    response = new InstrumentResponse(BenchmarkData.RAND_CAL_RESP);
+    freqs = FFTResult.spectralCalc(north, north, interval).getFreqs();
+  }
+  
+  @Benchmark
+  public FFTResult welchPSD() {
+    return FFTResult.spectralCalc(north, north, interval);
+  }
+  
+  @Benchmark
+  public FFTResult welchCrossPSD() {
+    return FFTResult.spectralCalc(north, east, interval);
+  }
+  
+  @Benchmark
+  public FFTResult multitaperPSD() {
+    return FFTResult.spectralCalcMultitaper(north, north, interval);
+  }
+  
+  @Benchmark
+  public FFTResult crossPower() {
+    return FFTResult.crossPower(north, east, response, response, interval);
+  }
+  
+  @Benchmark
+  public Complex[] applyResponse() {
+    return response.applyResponseToInput(freqs);
+  }
+  
+  @Benchmark
+  public double[] decimate() {
+    // 1Hz down to 0.1Hz
+    return TimeSeriesUtils.decimate(north, interval, interval * 10);
+  }
+
+}
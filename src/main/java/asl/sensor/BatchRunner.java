@@ -0,0 +1,932 @@
+package asl.sensor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+
+import asl.sensor.experiment.Experiment;
+import asl.sensor.experiment.ExperimentEnum;
+import asl.sensor.gui.ExperimentPanel;
+import asl.sensor.gui.ExperimentPanelFactory;
+import asl.sensor.gui.RandomizedPanel;
+import asl.sensor.input.DataBlock;
+import asl.sensor.input.DataStore;
+import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.ReportingUtils;
+import asl.sensor.utils.TimeSeriesUtils;
+
+/**
+ * Runs experiments over sets of data listed in a manifest file without the
+ * GUI, so that many stations' data can be processed at once. Each job's
+ * experiment backend is run directly on the job's thread; the report is laid
+ * out by the same experiment panel the GUI uses (created by
+ * ExperimentPanelFactory), so that it matches the one saved from the GUI.
+ * Panels are Swing components, so they are only made and used on the event
+ * thread, and only to set up the backend and collect the report's charts and
+ * text; the charts are then drawn and the files written on the job's thread.
+ * Jobs are run on a fixed-size thread pool, so no more jobs run at once than
+ * the number of threads. Because jobs share one heap, memory is also limited
+ * by an estimate of each job's use from the size of its input files: jobs
+ * estimated to need more than the per-job limit fail without being run, and
+ * jobs wait to start until there is enough room in the heap for their
+ * estimate alongside the other running jobs. This is only an estimate (the
+ * heap a job actually uses also depends on the experiment and on how well
+ * its data compresses), so it doesn't guarantee that jobs fit in the heap;
+ * a job that runs out of memory fails without stopping the rest.
+ * <br>
+ * The manifest is a plain text file. Lines starting with '#' are comments.
+ * Settings before the first job apply to the whole batch:
+ * <ul>
+ * <li>output: folder to write results into (default: current folder)</li>
+ * <li>threads: number of jobs to run at once (default: number of cores)</li>
+ * <li>jobMemoryMB: per-job memory limit (default: heap size / threads)</li>
+ * <li>pdfImages: lossless or jpeg, how charts are stored in PDF reports
+ * (default: lossless; jpeg makes smaller reports that are faster to write)
+ * </li>
+ * <li>jpegQuality: quality of JPEG report images, from 0 to 1</li>
+ * </ul>
+ * Each job starts with a line reading [job], followed by these settings:
+ * <ul>
+ * <li>name: unique name of the job, used as its output folder name (so it
+ * can't contain path separators or characters that Windows doesn't allow in
+ * filenames, or be a name Windows reserves for devices, such as NUL)</li>
+ * <li>experiment: name of the ExperimentEnum value to run, e.g., NOISE</li>
+ * <li>seed.N: comma-separated miniSEED files to load as input N (from 0),
+ * with multiple files being concatenated (i.e., data crossing days)</li>
+ * <li>filter.N: SNCL of the data to load from input N's files (optional;
+ * uses the first data in the file if not given)</li>
+ * <li>resp.N: RESP file to use as input N's response</li>
+ * <li>embeddedResp.N: name of an embedded response to use for input N</li>
+ * <li>start, end: time range to trim data to, as yyyy-MM-dd'T'HH:mm:ss in
+ * UTC (optional; data is trimmed to its common range if not given)</li>
+ * <li>lowFreq: true to run a low-frequency randomized calibration</li>
+ * </ul>
+ * Each job's results are written to a subfolder named after the job: the
+ * PDF report, the report text and chart images (as saved by the GUI), and
+ * the plotted data as CSV. A summary of all jobs is written to the output
+ * folder as batchSummary.csv.
+ * @author akearns
+ *
+ */
+public class BatchRunner {
+  
+  public static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+  
+  // rough bytes of heap used per byte of (compressed) miniSEED input:
+  // decompressed samples as doubles, copies made while trimming and
+  // concatenating, and FFT buffers during the experiment
+  public static final long HEAP_PER_SEED_BYTE = 32;
+  
+  private static final long BYTES_PER_MB = 1024 * 1024;
+  
+  /**
+   * Charts and text making up an experiment's report, taken from its panel
+   * on the event thread so the files can be written from any thread
+   * @author akearns
+   *
+   */
+  private static class Report {
+    
+    private final JFreeChart[] charts;
+    private final JFreeChart[] secondPageCharts;
+    private final String insetText;
+    private final String[] additionalPages;
+    private final String allText;
+    private final String pdfFilename;
+    private final int[] responseIndices;
+    
+    /**
+     * Collect the report contents from a panel whose results have been set
+     * @param ep Panel holding the completed experiment
+     */
+    private Report(ExperimentPanel ep) {
+      charts = ep.getCharts();
+      secondPageCharts = ep.getSecondPageCharts();
+      insetText = ep.getInsetDataText();
+      additionalPages = ep.getAdditionalReportPages();
+      allText = ep.getAllTextData();
+      pdfFilename = ep.getPDFFilename();
+      responseIndices = ep.getResponseIndices();
+    }
+    
+  }
+  
+  /**
+   * Description of a single experiment to run: its type, input files,
+   * responses, and time range, as read from a manifest
+   * @author akearns
+   *
+   */
+  public static class Job {
+    
+    private final String name;
+    private final ExperimentEnum experiment;
+    private final String[][] seedFiles;
+    private final String[] filters;
+    private final String[] responses;
+    private final boolean[] embedded;
+    private long start, end;
+    private boolean lowFreq;
+    
+    /**
+     * Create a new job with no inputs set
+     * @param name Name of the job (used for its output folder)
+     * @param experiment Type of experiment to run
+     * @throws IllegalArgumentException If the name can't be used as a folder
+     * name (see checkJobName)
+     */
+    public Job(String name, ExperimentEnum experiment) {
+      checkJobName(name);
+      this.name = name;
+      this.experiment = experiment;
+      seedFiles = new String[DataStore.FILE_COUNT][];
+      filters = new String[DataStore.FILE_COUNT];
+      responses = new String[DataStore.FILE_COUNT];
+      embedded = new boolean[DataStore.FILE_COUNT];
+      start = 0L;
+      end = 0L;
+      lowFreq = false;
+    }
+    
+    /**
+     * Get the type of experiment this job runs
+     * @return Experiment type
+     */
+    public ExperimentEnum getExperiment() {
+      return experiment;
+    }
+    
+    /**
+     * Get the name of this job
+     * @return Job name
+     */
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * Get an estimate of the heap used by this job from its input file sizes
+     * @return Estimated memory use in MB
+     */
+    public long getMemoryEstimateMB() {
+      long bytes = 0L;
+      for (String[] files : seedFiles) {
+        if (files == null) {
+          continue;
+        }
+        for (String file : files) {
+          bytes += new File(file).length();
+        }
+      }
+      bytes *= HEAP_PER_SEED_BYTE;
+      return (bytes + BYTES_PER_MB - 1) / BYTES_PER_MB;
+    }
+    
+    /**
+     * Load the data and responses of this job into a new datastore and trim
+     * it to the job's time range (or the data's common range if none set)
+     * @return Datastore holding this job's inputs
+     * @throws IOException If any input file cannot be read
+     */
+    public DataStore loadData() throws IOException {
+      DataStore ds = new DataStore();
+      for (int i = 0; i < DataStore.FILE_COUNT; ++i) {
+        if (seedFiles[i] != null) {
+          DataBlock db;
+          if (filters[i] == null) {
+            db = TimeSeriesUtils.getFirstTimeSeries(seedFiles[i]);
+          } else {
+            db = TimeSeriesUtils.getTimeSeries(seedFiles[i], filters[i]);
+          }
+          ds.setBlock(i, db);
+        }
+        if (responses[i] != null) {
+          InstrumentResponse ir;
+          if (embedded[i]) {
+            ir = InstrumentResponse.loadEmbeddedResponse(responses[i]);
+          } else {
+            ir = new InstrumentResponse(responses[i]);
+          }
+          ds.setResponse(i, ir);
+        }
+      }
+      
+      if (start != 0L || end != 0L) {
+        ds.trim(start, end);
+      } else if ( ds.numberOfBlocksSet() > 1 ) {
+        ds.trimToCommonTime();
+      }
+      return ds;
+    }
+    
+    /**
+     * Set whether a randomized calibration should be run as low-frequency
+     * @param lowFreq True if a low-frequency calibration should be run
+     */
+    public void setLowFreq(boolean lowFreq) {
+      this.lowFreq = lowFreq;
+    }
+    
+    /**
+     * Set the response used for one of the job's inputs
+     * @param idx Index of the input the response is used with
+     * @param response RESP filename or name of embedded response
+     * @param isEmbedded True if the response is embedded in the program
+     */
+    public void setResponse(int idx, String response, boolean isEmbedded) {
+      responses[idx] = response;
+      embedded[idx] = isEmbedded;
+    }
+    
+    /**
+     * Set the data used for one of the job's inputs
+     * @param idx Index of the input to set
+     * @param files MiniSEED files to load and concatenate for the input
+     * @param filter SNCL of the data to load, or null to use the first
+     */
+    public void setSeed(int idx, String[] files, String filter) {
+      seedFiles[idx] = files;
+      filters[idx] = filter;
+    }
+    
+    /**
+     * Set the time range to trim the job's data to
+     * @param start Start time in ms since epoch
+     * @param end End time in ms since epoch
+     */
+    public void setTimeRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+  
+  }
+  
+  /**
+   * Outcome of running a single job: whether it succeeded, how long it took,
+   * where its results were written, and the error message if it failed
+   * @author akearns
+   *
+   */
+  public static class JobResult {
+    
+    private final Job job;
+    private final boolean success;
+    private final String message;
+    private final long elapsed;
+    
+    /**
+     * Create a record of a job's outcome
+     * @param job Job that was run
+     * @param success True if the job completed and its results were written
+     * @param message Error message if the job failed (empty otherwise)
+     * @param elapsed Time taken to run the job, in ms
+     */
+    public JobResult(Job job, boolean success, String message, long elapsed) {
+      this.job = job;
+      this.success = success;
+      this.message = message;
+      this.elapsed = elapsed;
+    }
+    
+    /**
+     * Get the time taken to run the job
+     * @return Elapsed time in ms
+     */
+    public long getElapsedMillis() {
+      return elapsed;
+    }
+    
+    /**
+     * Get the job this result came from
+     * @return Job that was run
+     */
+    public Job getJob() {
+      return job;
+    }
+    
+    /**
+     * Get the error message from the job, if it failed
+     * @return Error message, or empty string if job succeeded
+     */
+    public String getMessage() {
+      return message;
+    }
+    
+    /**
+     * Whether the job completed and its results were written
+     * @return True if job succeeded
+     */
+    public boolean isSuccessful() {
+      return success;
+    }
+  
+  }
+  
+  /**
+   * Check that a job name can be used as the name of its output folder on
+   * any platform, i.e., that it stays inside the output folder and is a
+   * valid filename on Windows as well as elsewhere
+   * @param name Name of a job
+   * @throws IllegalArgumentException If the name can't be used
+   */
+  private static void checkJobName(String name) {
+    if ( name.isEmpty() || name.equals(".") || name.equals("..") ) {
+      throw new IllegalArgumentException("Invalid job name: '" + name + "'");
+    }
+    for (int i = 0; i < name.length(); ++i) {
+      char c = name.charAt(i);
+      if ( c < ' ' || "/\\<>:\"|?*".indexOf(c) >= 0 ) {
+        throw new IllegalArgumentException(
+            "Job name " + name + " contains a character not allowed in " +
+            "folder names: '" + c + "'");
+      }
+    }
+    // Windows drops these from the end of filenames
+    char last = name.charAt(name.length() - 1);
+    if (last == '.' || last == ' ') {
+      throw new IllegalArgumentException(
+          "Job name can't end with a period or space: '" + name + "'");
+    }
+    // names of devices, which Windows reserves even with an extension
+    String base = name.split("\\.")[0].trim().toUpperCase();
+    if ( base.matches("CON|PRN|AUX|NUL|COM[1-9]|LPT[1-9]") ) {
+      throw new IllegalArgumentException(
+          "Job name is reserved on Windows: " + name);
+    }
+  }
+  
+  /**
+   * Read in a manifest file and construct a runner for the jobs in it
+   * (see the class documentation for the manifest format)
+   * @param in Source of manifest text
+   * @return Runner with the jobs and settings given in the manifest
+   * @throws IOException If the manifest cannot be read
+   * @throws IllegalArgumentException If the manifest has an invalid entry
+   */
+  public static BatchRunner fromManifest(Reader in) throws IOException {
+    
+    BufferedReader br = new BufferedReader(in);
+    Map<String, String> settings = new HashMap<String, String>();
+    List<Map<String, String>> jobEntries = 
+        new ArrayList<Map<String, String>>();
+    Map<String, String> current = settings;
+    
+    String line;
+    int lineNumber = 0;
+    while ( ( line = br.readLine() ) != null ) {
+      ++lineNumber;
+      line = line.trim();
+      if ( line.isEmpty() || line.startsWith("#") ) {
+        continue;
+      }
+      if ( line.equalsIgnoreCase("[job]") ) {
+        current = new HashMap<String, String>();
+        jobEntries.add(current);
+        continue;
+      }
+      int split = line.indexOf('=');
+      if (split < 1) {
+        throw new IllegalArgumentException(
+            "Manifest line " + lineNumber + " is not of form key = value");
+      }
+      String key = line.substring(0, split).trim();
+      String value = line.substring(split + 1).trim();
+      current.put(key, value);
+    }
+    
+    File output = new File(".");
+    int threads = Runtime.getRuntime().availableProcessors();
+    long jobMemoryMB = -1; // set from thread count after parsing
+    ReportingUtils.PageEncoding encoding =
+        ReportingUtils.PageEncoding.LOSSLESS;
+    float jpegQuality = ReportingUtils.DEFAULT_JPEG_QUALITY;
+    for ( String key : settings.keySet() ) {
+      String value = settings.get(key);
+      if ( key.equals("output") ) {
+        output = new File(value);
+      } else if ( key.equals("threads") ) {
+        threads = Integer.parseInt(value);
+      } else if ( key.equals("jobMemoryMB") ) {
+        jobMemoryMB = Long.parseLong(value);
+      } else if ( key.equals("pdfImages") ) {
+        encoding = ReportingUtils.PageEncoding.valueOf( value.toUpperCase() );
+      } else if ( key.equals("jpegQuality") ) {
+        jpegQuality = Float.parseFloat(value);
+      } else {
+        throw new IllegalArgumentException("Unknown batch setting: " + key);
+      }
+    }
+    if (jobMemoryMB < 0) {
+      jobMemoryMB = getHeapBudgetMB() / Math.max(1, threads);
+    }
+    
+    BatchRunner runner = new BatchRunner(output, threads, jobMemoryMB);
+    runner.setPageOptions( 
+        new ReportingUtils.PageOptions(encoding, jpegQuality) );
+    Set<String> names = new HashSet<String>();
+    for (int i = 0; i < jobEntries.size(); ++i) {
+      Job job = parseJob( jobEntries.get(i), "job" + (i + 1) );
+      if ( !names.add( job.getName() ) ) {
+        throw new IllegalArgumentException(
+            "Duplicate job name in manifest: " + job.getName() );
+      }
+      runner.addJob(job);
+    }
+    return runner;
+  }
+  
+  /**
+   * Get the amount of heap that running jobs may use at once, leaving
+   * some room for the rest of the program
+   * @return Heap available to jobs in MB
+   */
+  private static long getHeapBudgetMB() {
+    return 3 * Runtime.getRuntime().maxMemory() / (4 * BYTES_PER_MB);
+  }
+  
+  /**
+   * Get the index a manifest key refers to, i.e., the 2 in "seed.2"
+   * @param key Manifest key with an index suffix
+   * @return Index of input data the key refers to
+   */
+  private static int getKeyIndex(String key) {
+    int idx = Integer.parseInt( key.substring( key.indexOf('.') + 1 ) );
+    if (idx < 0 || idx >= DataStore.FILE_COUNT) {
+      throw new IllegalArgumentException("Input index out of range: " + key);
+    }
+    return idx;
+  }
+  
+  /**
+   * Run a task on the Swing event thread and wait for its result. Panels are
+   * Swing components, so they are only created and used through here.
+   * @param task Task to run
+   * @return Result of the task
+   * @throws Exception Any exception thrown by the task
+   */
+  private static <T> T onEventThread(Callable<T> task) throws Exception {
+    FutureTask<T> future = new FutureTask<T>(task);
+    SwingUtilities.invokeLater(future);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+  
+  /**
+   * Create a job from the key-value settings under a manifest's [job] line
+   * @param entries Settings of the job
+   * @param defaultName Name to give the job if it does not specify one
+   * @return Job with the given settings
+   */
+  private static Job parseJob(Map<String, String> entries,
+      String defaultName) {
+    
+    String name = defaultName;
+    if ( entries.containsKey("name") ) {
+      name = entries.get("name");
+    }
+    if ( !entries.containsKey("experiment") ) {
+      throw new IllegalArgumentException("No experiment given for " + name);
+    }
+    ExperimentEnum exp =
+        ExperimentEnum.valueOf( entries.get("experiment").toUpperCase() );
+    Job job = new Job(name, exp);
+    
+    SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+    sdf.setTimeZone( TimeZone.getTimeZone("UTC") );
+    long start = 0L;
+    long end = 0L;
+    String[] filters = new String[DataStore.FILE_COUNT];
+    
+    try {
+      for ( String key : entries.keySet() ) {
+        String value = entries.get(key);
+        if ( key.equals("name") || key.equals("experiment") ) {
+          continue;
+        } else if ( key.startsWith("seed.") ) {
+          String[] files = value.split(",");
+          for (int i = 0; i < files.length; ++i) {
+            files[i] = files[i].trim();
+          }
+          job.setSeed(getKeyIndex(key), files, null);
+        } else if ( key.startsWith("filter.") ) {
+          filters[getKeyIndex(key)] = value;
+        } else if ( key.startsWith("resp.") ) {
+          job.setResponse(getKeyIndex(key), value, false);
+        } else if ( key.startsWith("embeddedResp.") ) {
+          job.setResponse(getKeyIndex(key), value, true);
+        } else if ( key.equals("start") ) {
+          start = sdf.parse(value).getTime();
+        } else if ( key.equals("end") ) {
+          end = sdf.parse(value).getTime();
+        } else if ( key.equals("lowFreq") ) {
+          job.setLowFreq( Boolean.parseBoolean(value) );
+        } else {
+          throw new IllegalArgumentException(
+              "Unknown setting " + key + " in job " + name);
+        }
+      }
+    } catch (ParseException e) {
+      throw new IllegalArgumentException(
+          "Invalid time in job " + name + " (expected " + DATE_FORMAT + ")");
+    }
+    
+    // filters are applied after all seed files have been read in, as the
+    // keys are not read in any particular order
+    for (int i = 0; i < filters.length; ++i) {
+      if (filters[i] != null) {
+        if (job.seedFiles[i] == null) {
+          throw new IllegalArgumentException(
+              "Filter given for input " + i + " without data in job " + name);
+        }
+        job.setSeed(i, job.seedFiles[i], filters[i]);
+      }
+    }
+    job.setTimeRange(start, end);
+    return job;
+  }
+  
+  /**
+   * Run the jobs listed in a manifest file, writing a line per job to
+   * standard output as each finishes. Exits with a non-zero status if any
+   * job failed.
+   * @param args Manifest filename, optionally followed by an output folder
+   * to use instead of the one given in the manifest
+   */
+  public static void main(String[] args) {
+    
+    // panels are used to lay out reports, but are never displayed
+    System.setProperty("java.awt.headless", "true");
+    
+    if (args.length < 1) {
+      System.out.println("Usage: BatchRunner manifest [output folder]");
+      System.exit(2);
+    }
+    
+    BatchRunner runner;
+    try {
+      FileReader in = new FileReader(args[0]);
+      try {
+        runner = fromManifest(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      System.out.println("Could not read manifest: " + e.getMessage());
+      System.exit(2);
+      return;
+    }
+    if (args.length > 1) {
+      runner.outputFolder = new File(args[1]);
+    }
+    
+    List<JobResult> results = runner.runAll();
+    int failures = 0;
+    for (JobResult result : results) {
+      if ( !result.isSuccessful() ) {
+        ++failures;
+      }
+    }
+    System.out.println( results.size() + " jobs run, " + failures +
+        " failed; see batchSummary.csv in " + runner.outputFolder );
+    System.exit(failures > 0 ? 1 : 0);
+  }
+  
+  /**
+   * Write the data plotted by an experiment as CSV, one row per data point,
+   * with columns for the plot (data collection) index and series name
+   * @param file File to write to
+   * @param data Data collections produced by an experiment
+   * @throws IOException If the file cannot be written
+   */
+  private static void writeDataCSV(File file, List<XYSeriesCollection> data)
+      throws IOException {
+    PrintWriter out = new PrintWriter(file);
+    try {
+      out.println("plot,series,x,y");
+      for (int i = 0; i < data.size(); ++i) {
+        XYSeriesCollection xysc = data.get(i);
+        for (int j = 0; j < xysc.getSeriesCount(); ++j) {
+          XYSeries xys = xysc.getSeries(j);
+          // quote series names since they can contain commas
+          String seriesName =
+              "\"" + xys.getKey().toString().replace("\"", "\"\"") + "\"";
+          for (int k = 0; k < xys.getItemCount(); ++k) {
+            out.print(i);
+            out.print(',');
+            out.print(seriesName);
+            out.print(',');
+            out.print( xys.getX(k) );
+            out.print(',');
+            out.println( xys.getY(k) );
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+  
+  /**
+   * Write an experiment's PDF report, matching the one saved from the GUI
+   * (aside from plots of the input data, which are not produced in batches)
+   * @param file File to write to
+   * @param report Charts and text of the completed experiment's report
+   * @param ds Data the experiment was run on (for response pages)
+   * @param options How to store the report's chart images
+   * @throws IOException If the report cannot be written
+   */
+  private static void writeReport(File file, Report report, DataStore ds,
+      ReportingUtils.PageOptions options) throws IOException {
+    PDDocument pdf = new PDDocument();
+    try {
+      // same layout as ExperimentPanel.savePDFResults
+      int width = 1280;
+      int height = 960;
+      ReportingUtils.chartPagesToPDF( width, height, pdf, options,
+          report.charts, report.secondPageCharts );
+      ReportingUtils.textToPDFPage(report.insetText, pdf);
+      ReportingUtils.textListToPDFPages(pdf, report.additionalPages);
+      List<String> responses = new ArrayList<String>();
+      for (int idx : report.responseIndices) {
+        if ( ds.responseIsSet(idx) ) {
+          responses.add( ds.getResponse(idx).toString() );
+        }
+      }
+      if ( responses.size() > 0 ) {
+        ReportingUtils.textListToPDFPages( pdf,
+            responses.toArray( new String[responses.size()] ) );
+      }
+      pdf.save(file);
+    } finally {
+      pdf.close();
+    }
+  }
+  
+  private File outputFolder;
+  private final int threads;
+  private final long jobMemoryMB;
+  private final List<Job> jobs;
+  private ReportingUtils.PageOptions pageOptions;
+  
+  /**
+   * Create a runner with no jobs
+   * @param outputFolder Folder to write each job's results under
+   * @param threads Number of jobs to run at once
+   * @param jobMemoryMB Memory limit for each job; jobs estimated to use more
+   * are not run
+   */
+  public BatchRunner(File outputFolder, int threads, long jobMemoryMB) {
+    this.outputFolder = outputFolder;
+    this.threads = Math.max(1, threads);
+    this.jobMemoryMB = jobMemoryMB;
+    jobs = new ArrayList<Job>();
+    pageOptions = new ReportingUtils.PageOptions( 
+        ReportingUtils.PageEncoding.LOSSLESS,
+        ReportingUtils.DEFAULT_JPEG_QUALITY );
+  }
+  
+  /**
+   * Add a job to the list of jobs to be run
+   * @param job Job to add
+   */
+  public void addJob(Job job) {
+    jobs.add(job);
+  }
+  
+  /**
+   * Get the jobs this runner will run, in the order they were added
+   * @return List of jobs
+   */
+  public List<Job> getJobs() {
+    return Collections.unmodifiableList(jobs);
+  }
+  
+  /**
+   * Get the folder results are written under
+   * @return Output folder
+   */
+  public File getOutputFolder() {
+    return outputFolder;
+  }
+  
+  /**
+   * Get how chart images are stored in the PDF reports of this runner's jobs
+   * @return Page image options for reports
+   */
+  public ReportingUtils.PageOptions getPageOptions() {
+    return pageOptions;
+  }
+  
+  /**
+   * Run a single job, writing its results to a subfolder of the output folder
+   * named after the job. Any error in the job is caught and reported in the
+   * result so that it does not stop the rest of the batch.
+   * @param job Job to run
+   * @param memory Heap budget (in MB) shared by concurrently running jobs
+   * @return Outcome of the job
+   */
+  private JobResult runJob(final Job job, Semaphore memory) {
+    
+    long startTime = System.currentTimeMillis();
+    long estimate = job.getMemoryEstimateMB();
+    if (estimate > jobMemoryMB) {
+      String msg = "Estimated memory use of " + estimate +
+          "MB exceeds per-job limit of " + jobMemoryMB + "MB";
+      return new JobResult(job, false, msg, 0L);
+    }
+    
+    // a job can never wait on more than the whole budget
+    int permits = (int) Math.min( estimate, getHeapBudgetMB() );
+    try {
+      memory.acquire(permits);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new JobResult(job, false, "Interrupted", 0L);
+    }
+    
+    try {
+      final DataStore ds = job.loadData();
+      
+      // the panel sets up the backend with the same settings as the GUI's
+      // defaults; the backend is then run here rather than through the panel
+      final ExperimentPanel[] panel = new ExperimentPanel[1];
+      Experiment exp = onEventThread( new Callable<Experiment>() {
+        @Override
+        public Experiment call() {
+          ExperimentPanel ep = 
+              ExperimentPanelFactory.createPanel( job.getExperiment() );
+          if (ep instanceof RandomizedPanel) {
+            ( (RandomizedPanel) ep ).setLowFreq(job.lowFreq);
+          }
+          panel[0] = ep;
+          return ep.getConfiguredExperiment();
+        }
+      });
+      // each job runs once, so storing its results would only keep its
+      // data in memory after the job is done
+      exp.setCache(null);
+      
+      if ( !exp.hasEnoughData(ds) ) {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return new JobResult(job, false, "Not enough data for experiment",
+            elapsed);
+      }
+      exp.runExperimentOnData(ds);
+      
+      Report report = onEventThread( new Callable<Report>() {
+        @Override
+        public Report call() {
+          panel[0].setResults(ds);
+          return new Report(panel[0]);
+        }
+      });
+      
+      File folder = new File( outputFolder, job.getName() );
+      folder.mkdirs();
+      writeReport( new File(folder, report.pdfFilename), report, ds,
+          pageOptions );
+      SensorSuite.saveExperimentData( folder.getPath(),
+          report.allText, report.charts );
+      writeDataCSV( new File(folder, "data.csv"), exp.getData() );
+      
+      long elapsed = System.currentTimeMillis() - startTime;
+      return new JobResult(job, true, "", elapsed);
+    } catch (Exception e) {
+      e.printStackTrace();
+      long elapsed = System.currentTimeMillis() - startTime;
+      String msg = e.getClass().getSimpleName() + ": " + e.getMessage();
+      return new JobResult(job, false, msg, elapsed);
+    } catch (OutOfMemoryError e) {
+      // estimate was too low; the job's data can be collected at this point
+      long elapsed = System.currentTimeMillis() - startTime;
+      return new JobResult(job, false, "Ran out of memory", elapsed);
+    } finally {
+      memory.release(permits);
+    }
+  }
+  
+  /**
+   * Run all jobs on a thread pool and write a summary of their results to
+   * batchSummary.csv in the output folder
+   * @return Outcome of each job, in the same order as the jobs were added
+   */
+  public List<JobResult> runAll() {
+    
+    outputFolder.mkdirs();
+    final Semaphore memory = new Semaphore( (int) getHeapBudgetMB() );
+    
+    List<Callable<JobResult>> tasks = new ArrayList<Callable<JobResult>>();
+    for (final Job job : jobs) {
+      tasks.add( new Callable<JobResult>() {
+        @Override
+        public JobResult call() {
+          JobResult result = runJob(job, memory);
+          String status = result.isSuccessful() ? "done" : "FAILED";
+          System.out.println( job.getName() + ": " + status + " (" +
+              result.getElapsedMillis() + " ms) " + result.getMessage() );
+          return result;
+        }
+      });
+    }
+    
+    List<JobResult> results = new ArrayList<JobResult>();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<JobResult>> futures = pool.invokeAll(tasks);
+      for (Future<JobResult> future : futures) {
+        results.add( future.get() );
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException( e.getCause() );
+    } finally {
+      pool.shutdownNow();
+    }
+    
+    try {
+      writeSummary( new File(outputFolder, "batchSummary.csv"), results );
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return results;
+  }
+  
+  /**
+   * Set how chart images are stored in the PDF reports of this runner's jobs.
+   * This only applies to this runner, not to reports saved elsewhere in the
+   * program (see ReportingUtils.setPageEncoding).
+   * @param options Page image options for reports
+   */
+  public void setPageOptions(ReportingUtils.PageOptions options) {
+    pageOptions = options;
+  }
+  
+  /**
+   * Write a CSV file with one row per job giving its experiment, outcome,
+   * run time, and any error message
+   * @param file File to write to
+   * @param results Outcomes of each job
+   * @throws IOException If the file cannot be written
+   */
+  private void writeSummary(File file, List<JobResult> results)
+      throws IOException {
+    PrintWriter out = new PrintWriter(file);
+    try {
+      out.println("job,experiment,status,elapsedMillis,message");
+      for (JobResult result : results) {
+        Job job = result.getJob();
+        out.print( job.getName() );
+        out.print(',');
+        out.print( job.getExperiment().name() );
+        out.print(',');
+        out.print( result.isSuccessful() ? "OK" : "FAILED" );
+        out.print(',');
+        out.print( result.getElapsedMillis() );
+        out.print(',');
+        out.println( "\"" + result.getMessage().replace("\"", "\"\"") + "\"" );
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -1,24 +1,55 @@
 package asl.sensor;
 
+import asl.sensor.experiment.Curve;
+import asl.sensor.experiment.CurveSet;
 import asl.sensor.experiment.RandomizedExperiment;
+import asl.sensor.experiment.XYSeriesAdapter;
 import asl.sensor.gui.ExperimentPanel;
 import asl.sensor.gui.RandomizedPanel;
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.BinaryRecord;
+import asl.sensor.utils.MetricsRegistry;
+import asl.sensor.utils.PlotDownsampler;
 import asl.sensor.utils.ReportingUtils;
+import asl.sensor.utils.ResourceCatalog;
 import asl.sensor.utils.TimeSeriesUtils;
 import java.awt.BasicStroke;
 import java.awt.Font;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.imageio.ImageIO;
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.Pair;
@@ -36,11 +67,523 @@ import py4j.GatewayServer;
 import py4j.Py4JNetworkException;
 
 /**
+ * Server for running random calibrations on request from python (via py4j).
+ * Requests are run on a fixed-size pool of worker threads, each loading its
+ * own data into its own DataStore and experiment, so concurrent clients do
+ * not wait on one another beyond the pool size. Calibrations can be
+ * submitted asynchronously (returning an ID that can be polled for the
+ * result) or run in a blocking call. The server also keeps track of its
+ * queue depth, in-flight jobs, and the time spent in each stage of a job
+ * (loading data, solving, and rendering plots) for monitoring. A detailed
+ * breakdown of the stages of each job is also returned with its result.
+ * Finished jobs whose results are never collected are dropped after a
+ * while (see setJobExpiry), as are results stored on disk (see
+ * setResultMaxAge).
  * @author akearns
  */
 public class CalProcessingServer {
-
+  
+  public static final int DEFAULT_IMAGE_WIDTH = 1280;
+  public static final int DEFAULT_IMAGE_HEIGHT = 960;
+  
+  /**
+   * Default time a finished job's result is kept for its client to collect
+   */
+  public static final long DEFAULT_JOB_EXPIRY = TimeUnit.HOURS.toMillis(1);
+  
+  /**
+   * Default age after which results stored on disk are recalculated
+   */
+  public static final long DEFAULT_RESULT_MAX_AGE = 
+      TimeUnit.DAYS.toMillis(30);
+  
+  /**
+   * Version of the results stored on disk, part of their filenames and
+   * checked when each one is read. Increase this when a change to how
+   * calibrations are run or to what a result holds would make earlier
+   * stored results wrong.
+   */
+  public static final int STORED_RESULT_VERSION = 1;
+  
+  /**
+   * Running total of the time taken by one stage of calibration jobs,
+   * for reporting server latencies. Safe to update from multiple threads.
+   * @author akearns
+   *
+   */
+  public static class StageLatency {
+    
+    private final String name;
+    private final AtomicLong count;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+    
+    /**
+     * Create a new latency record with no entries
+     * @param name Name of the stage (used in the string representation)
+     */
+    public StageLatency(String name) {
+      this.name = name;
+      count = new AtomicLong();
+      totalNanos = new AtomicLong();
+      maxNanos = new AtomicLong();
+    }
+    
+    /**
+     * Get the number of times the stage has been completed
+     * @return Count of timed stage runs
+     */
+    public long getCount() {
+      return count.get();
+    }
+    
+    /**
+     * Get the longest time the stage has taken
+     * @return Maximum stage time in milliseconds
+     */
+    public double getMaxMillis() {
+      return maxNanos.get() / 1E6;
+    }
+    
+    /**
+     * Get the average time the stage has taken
+     * @return Mean stage time in milliseconds, 0 if it has never been run
+     */
+    public double getMeanMillis() {
+      long runs = count.get();
+      if (runs == 0) {
+        return 0.;
+      }
+      return totalNanos.get() / 1E6 / runs;
+    }
+    
+    /**
+     * Get the name of the stage being timed
+     * @return Stage name
+     */
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * Add the time taken by a run of this stage
+     * @param nanos Length of the stage in nanoseconds
+     */
+    public void record(long nanos) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      long max = maxNanos.get();
+      while ( nanos > max && !maxNanos.compareAndSet(max, nanos) ) {
+        max = maxNanos.get();
+      }
+    }
+    
+    @Override
+    public String toString() {
+      return String.format("%s: %d runs, mean %.1f ms, max %.1f ms",
+          name, getCount(), getMeanMillis(), getMaxMillis() );
+    }
+    
+  }
+  
+  /**
+   * Future of a submitted calibration, which also records when it finished
+   * so that results nobody collects can be dropped
+   * @author akearns
+   *
+   */
+  private static class Job extends FutureTask<RandData> {
+    
+    private volatile long finishedAt;
+    
+    /**
+     * Create a job to be run on the worker pool
+     * @param callable Calibration to run
+     */
+    public Job(Callable<RandData> callable) {
+      super(callable);
+      finishedAt = 0L;
+    }
+    
+    @Override
+    protected void done() {
+      finishedAt = System.currentTimeMillis();
+    }
+    
+    /**
+     * Check whether this job finished longer ago than the given time
+     * @param now Current time, in ms since epoch
+     * @param expiry Time a finished job is kept, in ms
+     * @return True if the job is done and its result has expired
+     */
+    public boolean hasExpired(long now, long expiry) {
+      return isDone() && now - finishedAt > expiry;
+    }
+    
+  }
+  
+  private volatile int solverStarts;
+  private volatile int traceDepth;
+  private volatile int imageWidth;
+  private volatile int imageHeight;
+  private volatile File resultFolder;
+  private volatile long jobExpiry;
+  private volatile long resultMaxAge;
+  
+  private final ThreadPoolExecutor workers;
+  private final Map<String, Job> jobs;
+  private final AtomicLong jobsSubmitted;
+  private final AtomicInteger inFlight;
+  private final AtomicLong completed;
+  private final AtomicLong failed;
+  private final AtomicLong storedResultsUsed;
+  private final StageLatency loadLatency;
+  private final StageLatency solveLatency;
+  private final StageLatency renderLatency;
+  
+  /**
+   * Create a server with one worker thread per available processor
+   */
   public CalProcessingServer() {
+    this( Runtime.getRuntime().availableProcessors() );
+  }
+  
+  /**
+   * Create a server that runs up to the given number of calibrations at once;
+   * further requests wait in a queue until a worker is free
+   * @param threads Number of worker threads
+   */
+  public CalProcessingServer(int threads) {
+    solverStarts = 1;
+    traceDepth = 0;
+    imageWidth = DEFAULT_IMAGE_WIDTH;
+    imageHeight = DEFAULT_IMAGE_HEIGHT;
+    resultFolder = null;
+    jobExpiry = DEFAULT_JOB_EXPIRY;
+    resultMaxAge = DEFAULT_RESULT_MAX_AGE;
+    
+    threads = Math.max(1, threads);
+    ThreadFactory daemonFactory = new ThreadFactory() {
+      private final AtomicInteger made = new AtomicInteger();
+      
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "cal-worker-" + made.incrementAndGet() );
+        // don't keep the JVM alive just for idle workers
+        t.setDaemon(true);
+        return t;
+      }
+    };
+    workers = new ThreadPoolExecutor(threads, threads, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        daemonFactory);
+    
+    jobs = new ConcurrentHashMap<String, Job>();
+    jobsSubmitted = new AtomicLong();
+    inFlight = new AtomicInteger();
+    completed = new AtomicLong();
+    failed = new AtomicLong();
+    storedResultsUsed = new AtomicLong();
+    loadLatency = new StageLatency("load");
+    solveLatency = new StageLatency("solve");
+    renderLatency = new StageLatency("render");
+  }
+  
+  /**
+   * Stop a job if it has not yet finished. A job that is already running is
+   * interrupted, which will stop it only once it next checks for that.
+   * Cancelled jobs are forgotten by the server.
+   * @param jobID ID of job, as returned by submit
+   * @return True if the job was cancelled, false if it had already finished
+   */
+  public boolean cancel(String jobID) {
+    boolean cancelled = getJob(jobID).cancel(true);
+    if (cancelled) {
+      jobs.remove(jobID);
+    }
+    return cancelled;
+  }
+  
+  /**
+   * Forget jobs that finished longer ago than the job expiry time without
+   * their results being collected, so their results can be freed
+   */
+  private void dropExpiredJobs() {
+    long now = System.currentTimeMillis();
+    long expiry = jobExpiry;
+    Iterator<Job> it = jobs.values().iterator();
+    while ( it.hasNext() ) {
+      if ( it.next().hasExpired(now, expiry) ) {
+        it.remove();
+      }
+    }
+  }
+  
+  /**
+   * Get the number of jobs that have finished successfully
+   * @return Count of completed jobs
+   */
+  public long getCompletedCount() {
+    return completed.get();
+  }
+  
+  /**
+   * Get the number of jobs that ended in an error
+   * @return Count of failed jobs
+   */
+  public long getFailedCount() {
+    return failed.get();
+  }
+  
+  /**
+   * Get the number of jobs currently being run by workers
+   * @return Count of in-flight jobs
+   */
+  public int getInFlightCount() {
+    return inFlight.get();
+  }
+  
+  /**
+   * Get the future of a submitted job
+   * @param jobID ID of job, as returned by submit
+   * @return Future holding the job's result
+   */
+  private Job getJob(String jobID) {
+    Job job = jobs.get(jobID);
+    if (job == null) {
+      throw new IllegalArgumentException("No pending job with ID " + jobID);
+    }
+    return job;
+  }
+  
+  /**
+   * Get the latency record for loading in data and responses
+   * @return Load stage latency
+   */
+  public StageLatency getLoadLatency() {
+    return loadLatency;
+  }
+  
+  /**
+   * Get the number of submitted jobs waiting for a free worker
+   * @return Count of queued jobs
+   */
+  public int getQueueDepth() {
+    workers.purge(); // don't count jobs cancelled before they started
+    return workers.getQueue().size();
+  }
+  
+  /**
+   * Get the latency record for rendering a result plot to an image
+   * @return Render stage latency
+   */
+  public StageLatency getRenderLatency() {
+    return renderLatency;
+  }
+  
+  /**
+   * Get the name of the file a result is stored in on disk
+   * @param cacheKey Fingerprint of the experiment and its inputs
+   * @return Filename made from a hash of the fingerprint and the version of
+   * stored results
+   */
+  private static String getResultFileName(String cacheKey) {
+    // stored results from other versions of the server are never read
+    String salted = "v" + STORED_RESULT_VERSION + "." + 
+        RandData.serialVersionUID + "|" + cacheKey;
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      byte[] hash = md.digest( salted.getBytes(StandardCharsets.UTF_8) );
+      StringBuilder sb = new StringBuilder();
+      for (byte b : hash) {
+        sb.append( String.format("%02x", b) );
+      }
+      sb.append(".ser");
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // every java platform is required to support SHA-256
+      throw new RuntimeException(e);
+    }
+  }
+  
+  /**
+   * Get the result of a job, waiting for it to finish if it hasn't yet.
+   * Once a job's result has been returned, the server forgets that job.
+   * Results not collected within the job expiry time are also forgotten.
+   * @param jobID ID of job, as returned by submit
+   * @return Data from running the experiment (plots and fit pole/zero values)
+   * @throws IOException If the job could not read its data or response
+   */
+  public RandData getResult(String jobID) throws IOException {
+    Job job = getJob(jobID);
+    try {
+      return job.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (CancellationException e) {
+      throw new RuntimeException("Job " + jobID + " was cancelled", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new RuntimeException(cause);
+    } finally {
+      if ( job.isDone() ) {
+        jobs.remove(jobID);
+      }
+    }
+  }
+  
+  /**
+   * Get the latency record for running the calibration solver
+   * @return Solve stage latency
+   */
+  public StageLatency getSolveLatency() {
+    return solveLatency;
+  }
+  
+  /**
+   * Get a summary of the server's current load and stage latencies
+   * @return Text with one line per statistic
+   */
+  public String getStatusReport() {
+    dropExpiredJobs();
+    StringBuilder sb = new StringBuilder();
+    sb.append("Workers: ");
+    sb.append( workers.getMaximumPoolSize() );
+    sb.append("\nQueued jobs: ");
+    sb.append( getQueueDepth() );
+    sb.append("\nIn-flight jobs: ");
+    sb.append( getInFlightCount() );
+    sb.append("\nUnclaimed jobs: ");
+    sb.append( jobs.size() );
+    sb.append("\nCompleted jobs: ");
+    sb.append( getCompletedCount() );
+    sb.append("\nFailed jobs: ");
+    sb.append( getFailedCount() );
+    sb.append("\nResults reused from disk: ");
+    sb.append( storedResultsUsed.get() );
+    for (StageLatency stage :
+      new StageLatency[]{loadLatency, solveLatency, renderLatency}) {
+      sb.append('\n');
+      sb.append(stage);
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Check whether a submitted job has finished (or failed)
+   * @param jobID ID of job, as returned by submit
+   * @return True if the job's result can be gotten without waiting
+   */
+  public boolean isDone(String jobID) {
+    return getJob(jobID).isDone();
+  }
+  
+  /**
+   * Load in the data and response for a calibration
+   * @param calFileName Filenames of calibration signal
+   * @param outFileName Filenames of sensor output
+   * @param respName Filename of response to load in
+   * @param respEmbd True if response is an embedded response in program
+   * @param startTime Long representing ms-since-epoch of data start time
+   * @param endTime Long representing ms-since-epoch of data end time
+   * @return New DataStore with calibration in first slot, output in second
+   * @throws IOException If a string does not refer to a valid accessible file
+   */
+  private static DataStore loadData(String[] calFileName,
+      String[] outFileName, String respName, boolean respEmbd,
+      long startTime, long endTime) throws IOException {
+    DataStore ds = new DataStore();
+    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
+    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
+    InstrumentResponse ir;
+    if (respEmbd) {
+      ir = InstrumentResponse.loadEmbeddedResponse(respName);
+    } else{
+      ir = new InstrumentResponse(respName);
+    }
+
+    ds.setBlock(0, calBlock);
+    ds.setBlock(1, outBlock);
+    ds.setResponse(1, ir);
+    ds.trim(startTime, endTime);
+    return ds;
+  }
+  
+  /**
+   * Get the result of a job if it has finished, without waiting otherwise.
+   * Once a job's result has been returned, the server forgets that job.
+   * @param jobID ID of job, as returned by submit
+   * @return Data from running the experiment, or null if the job is not done
+   * @throws IOException If the job could not read its data or response
+   */
+  public RandData pollResult(String jobID) throws IOException {
+    if ( !isDone(jobID) ) {
+      return null;
+    }
+    return getResult(jobID);
+  }
+  
+  /**
+   * Read a result stored on disk by a previous calibration. Results older
+   * than the given age are deleted rather than read, as are results that
+   * can't be read or that were stored for another request or version of
+   * stored results (see writeResult).
+   * @param file File the result would be stored in
+   * @param cacheKey Fingerprint of the experiment and its inputs
+   * @param maxAge Age in ms past which a stored result is not used
+   * @return The stored result, or null if there is no (usable) result
+   */
+  private static RandData readResult(File file, String cacheKey, 
+      long maxAge) {
+    if ( !file.exists() ) {
+      return null;
+    }
+    if ( System.currentTimeMillis() - file.lastModified() > maxAge ) {
+      file.delete();
+      return null;
+    }
+    ObjectInputStream ois = null;
+    boolean usable = false;
+    try {
+      ois = new ObjectInputStream(
+          new BufferedInputStream( new FileInputStream(file) ) );
+      int version = ois.readInt();
+      String storedKey = ois.readUTF();
+      if ( version != STORED_RESULT_VERSION || !cacheKey.equals(storedKey) ) {
+        throw new InvalidObjectException(
+            "Stored result " + file + " is for another request or version");
+      }
+      Object result = ois.readObject();
+      if ( !(result instanceof RandData) ) {
+        throw new InvalidObjectException(
+            "Stored result " + file + " is not a calibration result");
+      }
+      usable = true;
+      return (RandData) result;
+    } catch (IOException e) {
+      // unusable results (i.e., from an older version) are recalculated
+      e.printStackTrace();
+      return null;
+    } catch (ClassNotFoundException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      if (ois != null) {
+        try {
+          ois.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+      if (!usable) {
+        // replaced once the calibration is run again
+        file.delete();
+      }
+    }
   }
   
   /**
@@ -62,24 +605,8 @@ public class CalProcessingServer {
       String outFileNameD1, String outFileNameD2, String respName, boolean respEmbd, long startTime,
       long endTime, boolean lowFreq) throws IOException {
     
-      DataStore ds = new DataStore();
-      String[] calFileName = new String[]{calFileNameD1, calFileNameD2};
-      String[] outFileName = new String[]{outFileNameD1, outFileNameD2};
-      DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-      DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
-      InstrumentResponse ir;
-      if (respEmbd) {
-        ir = InstrumentResponse.loadEmbeddedResponse(respName);
-      } else{
-        ir = new InstrumentResponse(respName);
-      }
-
-      ds.setBlock(0, calBlock);
-      ds.setBlock(1, outBlock);
-      ds.setResponse(1, ir);
-      ds.trim(startTime, endTime);
-      
-      return runExpGetData(ds, lowFreq);
+      return getResult( submit(calFileNameD1, calFileNameD2, outFileNameD1,
+          outFileNameD2, respName, respEmbd, startTime, endTime, lowFreq) );
     
   }
 
@@ -100,31 +627,151 @@ public class CalProcessingServer {
       String respName, boolean respEmbd, long startTime, long endTime, boolean lowFreq) 
       throws IOException {
     
-      DataStore ds = new DataStore();
-      DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-      DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
-      InstrumentResponse ir;
-      if (respEmbd) {
-        ir = InstrumentResponse.loadEmbeddedResponse(respName);
-      } else{
-        ir = new InstrumentResponse(respName);
-      }
-
-      ds.setBlock(0, calBlock);
-      ds.setBlock(1, outBlock);
-      ds.setResponse(1, ir);
-      ds.trim(startTime, endTime);
-
-      return runExpGetData(ds, lowFreq);
+      return getResult( submit(calFileName, outFileName, respName, respEmbd,
+          startTime, endTime, lowFreq) );
 
   }
   
-  private RandData runExpGetData(DataStore ds, boolean lowFreq) throws IOException {
+  /**
+   * Stop accepting new jobs and interrupt any that are still running
+   */
+  public void shutdown() {
+    workers.shutdownNow();
+  }
+  
+  /**
+   * Queue up a calibration to be run on a worker thread, as in the
+   * corresponding populateDataAndRun call. The current solver start count,
+   * trace depth, and image size are used for the job even if they are
+   * changed before it runs.
+   * @param calFileNameD1 Filename of calibration signal (day 1)
+   * @param calFileNameD2 Filename of calibration signal (day 2)
+   * @param outFileNameD1 Filename of sensor output (day 1)
+   * @param outFileNameD2 Filename of sensor output (day 2)
+   * @param respName Filename of response to load in
+   * @param respEmbd True if response is an embedded response in program
+   * @param startTime Long representing ms-since-epoch of data start time
+   * @param endTime Long representing ms-since-epoch of data end time
+   * @param lowFreq True if a low-freq cal should be run
+   * @return ID of the job, used to poll for and get its result
+   */
+  public String submit(String calFileNameD1, String calFileNameD2,
+      String outFileNameD1, String outFileNameD2, String respName,
+      boolean respEmbd, long startTime, long endTime, boolean lowFreq) {
+    String[] calFileName = new String[]{calFileNameD1, calFileNameD2};
+    String[] outFileName = new String[]{outFileNameD1, outFileNameD2};
+    return submit(calFileName, outFileName, respName, respEmbd, startTime,
+        endTime, lowFreq);
+  }
+  
+  /**
+   * Queue up a calibration to be run on a worker thread, as in the
+   * corresponding populateDataAndRun call. The current solver start count,
+   * trace depth, and image size are used for the job even if they are
+   * changed before it runs.
+   * @param calFileName Filename of calibration signal
+   * @param outFileName Filename of sensor output 
+   * @param respName Filename of response to load in
+   * @param respEmbd True if response is an embedded response in program
+   * @param startTime Long representing ms-since-epoch of data start time
+   * @param endTime Long representing ms-since-epoch of data end time
+   * @param lowFreq True if a low-freq cal should be run
+   * @return ID of the job, used to poll for and get its result
+   */
+  public String submit(String calFileName, String outFileName,
+      String respName, boolean respEmbd, long startTime, long endTime,
+      boolean lowFreq) {
+    return submit(new String[]{calFileName}, new String[]{outFileName},
+        respName, respEmbd, startTime, endTime, lowFreq);
+  }
+  
+  /**
+   * Queue up a calibration on the worker pool. Everything the job uses is
+   * created inside the job, so jobs share no state besides the statistics.
+   * @param calFileName Filenames of calibration signal
+   * @param outFileName Filenames of sensor output
+   * @param respName Filename of response to load in
+   * @param respEmbd True if response is an embedded response in program
+   * @param startTime Long representing ms-since-epoch of data start time
+   * @param endTime Long representing ms-since-epoch of data end time
+   * @param lowFreq True if a low-freq cal should be run
+   * @return ID of the job, used to poll for and get its result
+   */
+  private String submit(final String[] calFileName,
+      final String[] outFileName, final String respName,
+      final boolean respEmbd, final long startTime, final long endTime,
+      final boolean lowFreq) {
+    
+    // settings are fixed at submission for consistent results per request
+    final int starts = solverStarts;
+    final int depth = traceDepth;
+    final int width = imageWidth;
+    final int height = imageHeight;
+    final File folder = resultFolder;
+    
+    Callable<RandData> job = new Callable<RandData>() {
+      @Override
+      public RandData call() throws Exception {
+        inFlight.incrementAndGet();
+        // stages of this job, from loading through solving
+        MetricsRegistry jobMetrics = 
+            new MetricsRegistry( MetricsRegistry.getGlobal() );
+        MetricsRegistry previous = MetricsRegistry.setCurrent(jobMetrics);
+        try {
+          MetricsRegistry.Stopwatch timer = 
+              MetricsRegistry.start("server.load");
+          DataStore ds = loadData(calFileName, outFileName, respName,
+              respEmbd, startTime, endTime);
+          loadLatency.record( timer.stop() );
+          RandData result = runExpGetData(ds, lowFreq, starts, depth,
+              width, height, folder);
+          result.setStageMetrics(jobMetrics);
+          completed.incrementAndGet();
+          return result;
+        } catch (Exception e) {
+          failed.incrementAndGet();
+          throw e;
+        } finally {
+          MetricsRegistry.setCurrent(previous);
+          inFlight.decrementAndGet();
+        }
+      }
+    };
+    
+    dropExpiredJobs();
+    String jobID = "cal-" + jobsSubmitted.incrementAndGet();
+    Job future = new Job(job);
+    jobs.put(jobID, future);
+    workers.execute(future);
+    return jobID;
+  }
+  
+  private RandData runExpGetData(DataStore ds, boolean lowFreq, int numStarts,
+      int traceLength, int width, int height, File folder) {
     
     RandomizedExperiment re = new RandomizedExperiment();
     
     re.setLowFreq(lowFreq);
+    re.setMultiStart(numStarts);
+    re.setTraceDepth(traceLength);
+    
+    File resultFile = null;
+    String cacheKey = null;
+    if (folder != null) {
+      cacheKey = re.getCacheKey(ds);
+      resultFile = new File( folder, getResultFileName(cacheKey) );
+      RandData stored = readResult(resultFile, cacheKey, resultMaxAge);
+      if (stored != null) {
+        storedResultsUsed.incrementAndGet();
+        stored.setRenderLatency(renderLatency);
+        stored.setImageSize(width, height);
+        return stored;
+      }
+    }
+    
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("server.solve");
     re.runExperimentOnData(ds);
+    solveLatency.record( timer.stop() );
     
     Complex[] fitZerosCpx = re.getFitResponse().getZeros().toArray(new Complex[]{});
     Complex[] fitPolesCpx = re.getFitResponse().getPoles().toArray(new Complex[]{});
@@ -150,108 +797,9 @@ public class CalProcessingServer {
       initPoles[imIdx] = initPolesCpx[i].getImaginary();
     }
     
-    List<XYSeriesCollection> xyscList = re.getData();
-    JFreeChart[] chartArr = new JFreeChart[xyscList.size()];
-    
-    String xAxisTitle = "Frequency (Hz)";
-    String ampAxisTitle = "10 * log10( RESP(f) )";
-    String phaseAxisTitle = "phi(RESP(f))";
-    
-    ValueAxis xAxis = new LogarithmicAxis(xAxisTitle);
-    ValueAxis residXAxis = new LogarithmicAxis(xAxisTitle);
-    ValueAxis ampAxis = new NumberAxis(ampAxisTitle);
-    ampAxis.setAutoRange(true);
-    ( (NumberAxis) ampAxis).setAutoRangeIncludesZero(false);
-    ValueAxis phaseAxis = new NumberAxis(phaseAxisTitle);
-    phaseAxis.setAutoRange(true);
-    ValueAxis residPhaseAxis = new NumberAxis("Phase error (degrees)");
-    ValueAxis residAmpAxis = new NumberAxis("Amplitude error (percentage)");
-    Font bold = xAxis.getLabelFont().deriveFont(Font.BOLD);
-    xAxis.setLabelFont(bold);
-    ampAxis.setLabelFont(bold);
-    phaseAxis.setLabelFont(bold);
-    residXAxis.setLabelFont(bold);
-    residPhaseAxis.setLabelFont(bold);
-    residAmpAxis.setLabelFont(bold);
-    XYPlot xyp;
-    
-    StringBuilder title = new StringBuilder();
-    if (lowFreq) {
-      title.append("Low-freq random cal");
-    } else {
-      title.append("High-freq random cal");
-    }
-    
-    chartArr[0] = ChartFactory.createXYLineChart(
-        title.toString(),
-        xAxis.getLabel(),
-        ampAxis.getLabel(),
-        xyscList.get(0),
-        PlotOrientation.VERTICAL,
-        true, // include legend
-        false, 
-        false);
-    xyp = chartArr[0].getXYPlot();
-    xyp.setDomainAxis(xAxis);
-    xyp.setRangeAxis(ampAxis);
-    ExperimentPanel.invertSeriesRenderingOrder(chartArr[0]);
-    
-    chartArr[1] = ChartFactory.createXYLineChart(
-        title.toString(),
-        xAxis.getLabel(),
-        phaseAxis.getLabel(),
-        xyscList.get(1),
-        PlotOrientation.VERTICAL,
-        true, // include legend
-        false, 
-        false);
-    xyp = chartArr[1].getXYPlot();
-    xyp.setDomainAxis(xAxis);
-    xyp.setRangeAxis(phaseAxis);
-    ExperimentPanel.invertSeriesRenderingOrder(chartArr[1]);
-    
-    chartArr[2] = ChartFactory.createXYLineChart(
-        title.toString(),
-        residXAxis.getLabel(),
-        residAmpAxis.getLabel(),
-        xyscList.get(2),
-        PlotOrientation.VERTICAL,
-        true, // include legend
-        false, 
-        false);
-    xyp = chartArr[2].getXYPlot();
-    xyp.setDomainAxis(residXAxis);
-    xyp.setRangeAxis(residAmpAxis);
-    ExperimentPanel.invertSeriesRenderingOrder(chartArr[2]);
-    
-    chartArr[3] = ChartFactory.createXYLineChart(
-        title.toString(),
-        residXAxis.getLabel(),
-        residPhaseAxis.getLabel(),
-        xyscList.get(3),
-        PlotOrientation.VERTICAL,
-        true, // include legend
-        false, 
-        false);
-    xyp = chartArr[3].getXYPlot();
-    xyp.setDomainAxis(residXAxis);
-    xyp.setRangeAxis(residPhaseAxis);
-    ExperimentPanel.invertSeriesRenderingOrder(chartArr[3]);
-    
-    if (!lowFreq) {
-      Marker maxFitMarker = new ValueMarker( re.getMaxFitFrequency() );
-      maxFitMarker.setStroke( new BasicStroke( (float) 1.5 ) );
-      chartArr[0].getXYPlot().addDomainMarker(maxFitMarker);
-      chartArr[1].getXYPlot().addDomainMarker(maxFitMarker);
-    }
-    
-    BufferedImage[] bi = ReportingUtils.chartsToImageList(1, 1280, 960, chartArr);
-    byte[][] pngByteArrays = new byte[bi.length][];
-    for (int i = 0; i < bi.length; ++i) {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      ImageIO.write(bi[i], "png", out);
-      pngByteArrays[i] = out.toByteArray();
-    }
+    // plots are only rendered from these once their images are requested
+    List<CurveSet> curveList = re.getCurves();
+    double maxFitFreq = re.getMaxFitFrequency();
     
     Map<String, List<Pair<Date, Date>>> gaps = re.getGapRegions();
     String[] names = gaps.keySet().toArray(new String[]{});
@@ -270,11 +818,145 @@ public class CalProcessingServer {
       gapEnds[j] = ends;
     }
     
-    return new RandData(poles, zeros, initPoles, initZeros, pngByteArrays, 
-        names, gapStarts, gapEnds);
+    String traceCSV = "";
+    if ( re.getSolverTrace() != null ) {
+      traceCSV = re.getSolverTrace().toCSV();
+    }
+    
+    RandData result = new RandData(poles, zeros, initPoles, initZeros,
+        re.getInitResidual(), re.getFitResidual(), names, gapStarts, gapEnds,
+        traceCSV, curveList, lowFreq, maxFitFreq);
+    if (resultFile != null) {
+      writeResult(resultFile, cacheKey, result);
+    }
+    result.setRenderLatency(renderLatency);
+    result.setImageSize(width, height);
+    return result;
     
   }
   
+  /**
+   * Set whether the stage breakdown returned with each result also includes
+   * the bytes allocated in each stage (see MetricsRegistry); this is off by
+   * default as it adds a little time to each stage
+   * @param sample True if allocated bytes should be sampled
+   */
+  public void setAllocationSampling(boolean sample) {
+    MetricsRegistry.setAllocationSampling(sample);
+  }
+  
+  /**
+   * Set the size of plot images for results of subsequent calls. Images are
+   * not rendered until first requested from a result, and the size can also
+   * be changed on each result individually.
+   * @param width Width of each plot image in pixels
+   * @param height Height of each plot image in pixels
+   */
+  public void setImageSize(int width, int height) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Image size must be positive");
+    }
+    imageWidth = width;
+    imageHeight = height;
+  }
+  
+  /**
+   * Set how long a finished job's result is kept for a client to collect
+   * before the server forgets the job
+   * @param millis Time to keep finished jobs, in ms
+   */
+  public void setJobExpiry(long millis) {
+    jobExpiry = Math.max(0L, millis);
+  }
+  
+  /**
+   * Set a folder in which calibration results are stored, so that a later
+   * request with the same parameters, data, and response (including after
+   * the server is restarted) reads the result instead of calculating it.
+   * @param path Path of folder to store results in (created if it doesn't
+   * exist), or null to stop storing and reusing results
+   */
+  public void setResultCacheFolder(String path) {
+    if (path == null || path.isEmpty()) {
+      resultFolder = null;
+      return;
+    }
+    File folder = new File(path);
+    if ( !folder.isDirectory() && !folder.mkdirs() ) {
+      throw new IllegalArgumentException("Cannot make folder " + path);
+    }
+    resultFolder = folder;
+  }
+  
+  /**
+   * Set how long results stored on disk are used before being calculated
+   * again (such as to pick up changes to the data source)
+   * @param millis Age in ms past which stored results are recalculated
+   */
+  public void setResultMaxAge(long millis) {
+    resultMaxAge = Math.max(0L, millis);
+  }
+  
+  /**
+   * Set the number of initial guesses the calibration solver is run from on
+   * subsequent calls. Values above 1 also run randomly perturbed versions of
+   * the nominal response concurrently and keep the lowest-residual fit
+   * @param starts Number of solver starts (1 runs only the nominal response)
+   */
+  public void setSolverStarts(int starts) {
+    solverStarts = Math.max(1, starts);
+  }
+  
+  /**
+   * Set how many of the most recent calibration solver evaluations are kept
+   * on subsequent calls, to be returned as CSV text with the results
+   * @param depth Number of evaluations to keep, or 0 (default) for no trace
+   */
+  public void setTraceDepth(int depth) {
+    traceDepth = Math.max(0, depth);
+  }
+  
+  /**
+   * Store a result on disk to be reused by later requests. The result is
+   * written after the version of stored results and the fingerprint of the
+   * request, which are checked when it's read back. It goes to a temporary
+   * file that is then renamed, so that concurrent requests never read a
+   * partly-written result.
+   * @param file File to store the result in
+   * @param cacheKey Fingerprint of the experiment and its inputs
+   * @param result Result of a calibration
+   */
+  private static void writeResult(File file, String cacheKey, 
+      RandData result) {
+    File temp = new File( file.getParentFile(), file.getName() + ".tmp" +
+        Thread.currentThread().getId() );
+    ObjectOutputStream oos = null;
+    try {
+      oos = new ObjectOutputStream(
+          new BufferedOutputStream( new FileOutputStream(temp) ) );
+      oos.writeInt(STORED_RESULT_VERSION);
+      oos.writeUTF(cacheKey);
+      oos.writeObject(result);
+      oos.close();
+      oos = null;
+      if ( !temp.renameTo(file) ) {
+        temp.delete();
+      }
+    } catch (IOException e) {
+      // failing to store a result shouldn't fail the request itself
+      e.printStackTrace();
+    } finally {
+      if (oos != null) {
+        try {
+          oos.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+        temp.delete();
+      }
+    }
+  }
+  
   /**
    * get all metadata from the function in a single file
    * @param exp
@@ -290,8 +972,19 @@ public class CalProcessingServer {
     return sb.toString();
   }
   
+  /**
+   * Start the py4j gateway for this server
+   * @param args Optionally, the number of worker threads to run jobs on
+   * (defaults to the number of available processors)
+   */
   public static void main(String[] args) {
-    GatewayServer gatewayServer = new GatewayServer(new CalProcessingServer());
+    CalProcessingServer server;
+    if (args.length > 0) {
+      server = new CalProcessingServer( Integer.parseInt(args[0]) );
+    } else {
+      server = new CalProcessingServer();
+    }
+    GatewayServer gatewayServer = new GatewayServer(server);
     try {
       gatewayServer.start();
     } catch (Py4JNetworkException e){
@@ -299,29 +992,132 @@ public class CalProcessingServer {
       System.exit(0);
     }
     System.out.println("Gateway Server Started");
+    // have embedded responses parsed before the first job asks for one
+    ResourceCatalog.warmUpInBackground();
   }
 
-  public class RandData {
+  /**
+   * Results of a calibration run by the server. The fit values are computed
+   * when the result is made, but the plot images are rendered from the stored
+   * plot data only the first time each one is requested (and then kept), so
+   * callers that only need the numbers don't wait on chart rendering.
+   * Results can be serialized so that the server can keep them on disk.
+   * @author akearns
+   *
+   */
+  public static class RandData implements Serializable {
+    
+    private static final long serialVersionUID = 2L;
+    
+    private static final int AMP = 0;
+    private static final int PHASE = 1;
+    private static final int AMP_ERROR = 2;
+    private static final int PHASE_ERROR = 3;
     
     private double[] initPoles;
     private double[] initZeros;
     private double[] fitPoles;
     private double[] fitZeros;
-    private byte[][] pngs;
+    private double initResidual;
+    private double fitResidual;
     private String[] gapNameIdentifiers;
     private Date[][] gapStarts;
     private Date[][] gapEnds;
+    private String solverTrace;
+    private List<CurveSet> plotData;
+    private boolean lowFreq;
+    private double maxFitFrequency;
+    private byte[][] pngs;
+    private int imageWidth;
+    private int imageHeight;
+    private transient StageLatency renderLatency;
+    private transient MetricsRegistry stageMetrics;
     
-    public RandData(double[] fp, double[] fz, double[] ip, double[] iz, byte[][] im, 
-        String[] nm, Date[][] gpa, Date[][] gpb) {
+    public RandData(double[] fp, double[] fz, double[] ip, double[] iz,
+        double ir, double fr, String[] nm, Date[][] gpa, Date[][] gpb,
+        String trace, List<CurveSet> plots, boolean lf,
+        double maxFit) {
       fitPoles = fp;
       fitZeros = fz;
       initPoles = ip;
       initZeros = iz;
-      pngs = im;
+      initResidual = ir;
+      fitResidual = fr;
       gapNameIdentifiers = nm;
       gapStarts = gpa;
       gapEnds = gpb;
+      solverTrace = trace;
+      plotData = plots;
+      lowFreq = lf;
+      maxFitFrequency = maxFit;
+      pngs = new byte[plots.size()][];
+      imageWidth = DEFAULT_IMAGE_WIDTH;
+      imageHeight = DEFAULT_IMAGE_HEIGHT;
+    }
+    
+    /**
+     * Create one of the result plots from its data
+     * @param index Which plot to make (amplitude, phase, or their errors)
+     * @return Chart of the plot's data
+     */
+    private JFreeChart buildChart(int index) {
+      
+      ValueAxis xAxis = new LogarithmicAxis("Frequency (Hz)");
+      ValueAxis yAxis;
+      switch (index) {
+      case AMP:
+        yAxis = new NumberAxis("10 * log10( RESP(f) )");
+        yAxis.setAutoRange(true);
+        ( (NumberAxis) yAxis).setAutoRangeIncludesZero(false);
+        break;
+      case PHASE:
+        yAxis = new NumberAxis("phi(RESP(f))");
+        yAxis.setAutoRange(true);
+        break;
+      case AMP_ERROR:
+        yAxis = new NumberAxis("Amplitude error (percentage)");
+        break;
+      default:
+        yAxis = new NumberAxis("Phase error (degrees)");
+        break;
+      }
+      Font bold = xAxis.getLabelFont().deriveFont(Font.BOLD);
+      xAxis.setLabelFont(bold);
+      yAxis.setLabelFont(bold);
+      
+      String title;
+      if (lowFreq) {
+        title = "Low-freq random cal";
+      } else {
+        title = "High-freq random cal";
+      }
+      
+      // x-axis is always logarithmic (frequency)
+      XYSeriesCollection plotted = PlotDownsampler.downsample(
+          XYSeriesAdapter.toCollection( plotData.get(index) ),
+          PlotDownsampler.DEFAULT_BUCKETS, true);
+      
+      JFreeChart chart = ChartFactory.createXYLineChart(
+          title,
+          xAxis.getLabel(),
+          yAxis.getLabel(),
+          plotted,
+          PlotOrientation.VERTICAL,
+          true, // include legend
+          false, 
+          false);
+      XYPlot xyp = chart.getXYPlot();
+      xyp.setDomainAxis(xAxis);
+      xyp.setRangeAxis(yAxis);
+      ExperimentPanel.invertSeriesRenderingOrder(chart);
+      
+      if (!lowFreq && (index == AMP || index == PHASE) ) {
+        Marker maxFitMarker = new ValueMarker(maxFitFrequency);
+        maxFitMarker.setStroke( new BasicStroke( (float) 1.5 ) );
+        xyp.addDomainMarker(maxFitMarker);
+      }
+      
+      return chart;
     }
     
     public double[] getInitPoles() {
@@ -340,20 +1136,154 @@ public class CalProcessingServer {
       return fitZeros;
     }
     
+    /**
+     * Get the weighted residual of the fit response's curves
+     * @return Residual of the solver's fit
+     */
+    public double getFitResidual() {
+      return fitResidual;
+    }
+    
+    /**
+     * Get the weighted residual of the initial response's curves
+     * @return Residual of the solver's initial guess
+     */
+    public double getInitResidual() {
+      return initResidual;
+    }
+    
+    /**
+     * Get all numeric values of this result as one packed record of
+     * little-endian doubles, for python to read in a single transfer (see
+     * BinaryRecord for the layout). The record holds arrays named initPoles,
+     * initZeros, fitPoles and fitZeros (real and imaginary parts interleaved),
+     * residuals (initial then fit), and the x and y values of each plotted
+     * curve, named by plot (amp, phase, ampError, phaseError), then curve
+     * index, then axis: e.g., "amp.0.x". Amplitude and phase curves are in the
+     * order initial, calculated, fit; error curves are initial then fit.
+     * The time taken by each stage of the job is also included, as an array
+     * of {runs, total ms, max ms, allocated bytes} for each stage, named for
+     * the stage prefixed by "stage." (e.g., "stage.solver.fit"); see
+     * getStageBreakdown.
+     * @return Bytes of the packed result record
+     */
+    public byte[] getResultRecord() {
+      BinaryRecord record = new BinaryRecord();
+      record.add("initPoles", initPoles);
+      record.add("initZeros", initZeros);
+      record.add("fitPoles", fitPoles);
+      record.add("fitZeros", fitZeros);
+      record.add( "residuals", new double[]{initResidual, fitResidual} );
+      if (stageMetrics != null) {
+        for ( MetricsRegistry.StageTimer timer :
+          stageMetrics.getTimers().values() ) {
+          record.add( "stage." + timer.getName(), new double[]{
+              timer.getCount(), timer.getTotalMillis(), timer.getMaxMillis(),
+              timer.getAllocatedBytes()} );
+        }
+      }
+      String[] plotNames =
+          new String[]{"amp", "phase", "ampError", "phaseError"};
+      for (int i = 0; i < plotNames.length && i < plotData.size(); ++i) {
+        CurveSet curves = plotData.get(i);
+        for (int j = 0; j < curves.getCurveCount(); ++j) {
+          Curve curve = curves.getCurve(j);
+          String prefix = plotNames[i] + "." + j;
+          record.add( prefix + ".x", curve.getXValues() );
+          record.add( prefix + ".y", curve.getYValues() );
+        }
+      }
+      return record.toBytes();
+    }
+    
     public byte[] getAmpImage() {
-      return pngs[0];
+      return getImage(AMP);
     }
     
     public byte[] getPhaseImage() {
-      return pngs[1];
+      return getImage(PHASE);
     }
     
     public byte[] getAmpErrorImage() {
-      return pngs[2];
+      return getImage(AMP_ERROR);
     }
     
     public byte[] getPhaseErrorImage() {
-      return pngs[3];
+      return getImage(PHASE_ERROR);
+    }
+    
+    /**
+     * Get a plot as PNG data, rendering it if this hasn't been done yet
+     * @param index Which plot to get (amplitude, phase, or their errors)
+     * @return Bytes of PNG image of the plot
+     */
+    private synchronized byte[] getImage(int index) {
+      if (pngs[index] == null) {
+        long time = System.nanoTime();
+        BufferedImage bi = ReportingUtils.chartsToImage(imageWidth,
+            imageHeight, buildChart(index) );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+          ImageIO.write(bi, "png", out);
+        } catch (IOException e) {
+          // writing to memory does not do any IO, so this should never happen
+          throw new RuntimeException(e);
+        }
+        pngs[index] = out.toByteArray();
+        if (renderLatency != null) {
+          renderLatency.record(System.nanoTime() - time);
+        }
+      }
+      return pngs[index];
+    }
+    
+    /**
+     * Get the time spent in each stage of the job that produced this result
+     * (loading, solving, and the spectral, response and solver work within
+     * them), along with counts such as the number of solver evaluations.
+     * For a result reused from disk, this only covers loading the data and
+     * finding the stored result.
+     * @return Text with one line per stage, then one line per count, or
+     * empty if the result didn't come from a job on this server
+     */
+    public String getStageBreakdown() {
+      if (stageMetrics == null) {
+        return "";
+      }
+      return stageMetrics.toString();
+    }
+    
+    /**
+     * Set the stage timings of the job that produced this result
+     * @param metrics Registry the job's stages were recorded into
+     */
+    private void setStageMetrics(MetricsRegistry metrics) {
+      stageMetrics = metrics;
+    }
+    
+    /**
+     * Set the record that this result's image rendering times are added to
+     * @param latency Latency record of the server that made this result
+     */
+    private void setRenderLatency(StageLatency latency) {
+      renderLatency = latency;
+    }
+    
+    /**
+     * Set the size of this result's plot images. If the size is changed, any
+     * images already rendered will be rendered again when next requested.
+     * @param width Width of each plot image in pixels
+     * @param height Height of each plot image in pixels
+     */
+    public synchronized void setImageSize(int width, int height) {
+      if (width < 1 || height < 1) {
+        throw new IllegalArgumentException("Image size must be positive");
+      }
+      if (width != imageWidth || height != imageHeight) {
+        imageWidth = width;
+        imageHeight = height;
+        pngs = new byte[plotData.size()][];
+      }
     }
     
     public String[] getGapIdentifiers() {
@@ -368,6 +1298,15 @@ public class CalProcessingServer {
       return gapEnds;
     }
     
+    /**
+     * Get the solver trace from the calibration as CSV text, with one row per
+     * solver evaluation (see SolverTrace.writeCSV)
+     * @return CSV text of trace, empty if tracing was not enabled
+     */
+    public String getSolverTraceCSV() {
+      return solverTrace;
+    }
+    
     public String getGapInfoAsString() {
       SimpleDateFormat sdf = new SimpleDateFormat("DD.HH:m:s");
       sdf.setTimeZone( TimeZone.getTimeZone("UTC") );
@@ -17,6 +17,7 @@ import java.io.PrintWriter;
 import javax.imageio.ImageIO;
 import javax.swing.Box;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -39,6 +40,7 @@ import asl.sensor.gui.InputPanel;
 import asl.sensor.gui.SwingWorkerSingleton;
 import asl.sensor.input.DataStore;
 import asl.sensor.utils.ReportingUtils;
+import asl.sensor.utils.ResourceCatalog;
 
 /**
  * Main window of the sensor test program and the program's launcher
@@ -94,6 +96,9 @@ implements ActionListener, ChangeListener, PropertyChangeListener {
    * @param args (Any parameters fed in on command line are currently ignored)
    */
   public static void main(String[] args) {
+    // read in noise models and embedded responses while the GUI starts up
+    ResourceCatalog.warmUpInBackground();
+    
     //Schedule a job for the event dispatch thread:
     //creating and showing this application's GUI.
     
@@ -109,66 +114,92 @@ implements ActionListener, ChangeListener, PropertyChangeListener {
   }
 
   /**
-   * Plots the data from an output panel and its associated input
+   * Plots the data from an output panel and its associated input.
+   * This is called on the event thread; the charts are copied there and the
+   * copies drawn into the report on a background thread, so that the GUI
+   * isn't held up while the report is written. If the charts can't be
+   * copied, the report is written on the calling thread instead.
    * @param file Filename to write to
    * @param ep Experiment panel with data to be plotted
    * @param ip Input panel holding data associated with the experiment
    */
-  public static void plotsToPDF(File file, ExperimentPanel ep, InputPanel ip) {
-
-    // note that PDFBox is not thread safe, so don't try to thread these
-    // calls to either the experiment or input panels
+  public static void plotsToPDF(final File file, ExperimentPanel ep, 
+      InputPanel ip) {
     
     int inPlotCount = ep.plotsToShow();
-    String[] responses = ip.getResponseStrings( ep.getResponseIndices() );
-    // BufferedImage toFile = getCompiledImage();
-
-    // START OF UNIQUE CODE FOR PDF CREATION HERE
-    PDDocument pdf = new PDDocument();
-    ep.savePDFResults( pdf );
-    
-    if (inPlotCount > 0) {
-      int inHeight = ip.getImageHeight(inPlotCount) * 2;
-      int width = 1280; // TODO: set as global static variable somewhere?
-
-      BufferedImage[] toFile = 
-          ip.getAsMultipleImages(width, inHeight, inPlotCount);
-      
-      ReportingUtils.imageListToPDFPages(pdf, toFile);
+    final JFreeChart[] charts = ReportingUtils.cloneCharts( ep.getCharts() );
+    final JFreeChart[] page2 = 
+        ReportingUtils.cloneCharts( ep.getSecondPageCharts() );
+    final JFreeChart[] inCharts = 
+        ReportingUtils.cloneCharts( ip.getCharts(inPlotCount) );
+    if (charts == null || page2 == null || inCharts == null) {
+      writePDF(file, ep, ip);
+      return;
     }
     
-    if (responses.length > 0) {
-      ReportingUtils.textListToPDFPages(pdf, responses);
-    }
+    final String insetText = ep.getInsetDataText();
+    final String[] extraPages = ep.getAdditionalReportPages();
+    final String text = ep.getAllTextData();
+    final String[] responses = 
+        ip.getResponseStrings( ep.getResponseIndices() );
+    final ReportingUtils.PageOptions options = 
+        ReportingUtils.getPageOptions();
+    final int width = 1280; 
+    final int height = 960;
+    // same size as the input plots are drawn in writePDF
+    final int inHeight = ip.getImageHeight(1) * 2;
     
-    try{
-      pdf.save(file);
-      pdf.close();
-    } catch (IOException e) {
-      // if there's an error with formatting to PDF, try saving
-      // the raw data instead
-      e.printStackTrace();
-      
-      String text = ep.getAllTextData();
-      JFreeChart[] charts = ep.getCharts();
-      String saveDirectory = file.getParent();
-      StringBuilder folderName = new StringBuilder(saveDirectory);
-      folderName.append("/test_results/");
-      folderName.append( file.getName().replace(".pdf","") );
-      
-      saveExperimentData( folderName.toString(), text, charts );
-      
-    } finally {
-      if (pdf != null) {
+    SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+      @Override
+      protected Void doInBackground() {
+        // PDFBox is not thread safe, so the document is only used here
+        PDDocument pdf = new PDDocument();
         try {
-          pdf.close();
+          ReportingUtils.chartPagesToPDF( width, height, pdf, options,
+              charts, page2 );
+          ReportingUtils.textToPDFPage(insetText, pdf);
+          ReportingUtils.textListToPDFPages(pdf, extraPages);
+          if (inCharts.length > 0) {
+            BufferedImage[] toFile = ReportingUtils.chartsToImageList( 
+                InputPanel.PLOTS_PER_PAGE, width, inHeight, inCharts );
+            ReportingUtils.imageListToPDFPages(pdf, options, toFile);
+          }
+          if (responses.length > 0) {
+            ReportingUtils.textListToPDFPages(pdf, responses);
+          }
+          pdf.save(file);
         } catch (IOException e) {
-          // this shouldn't be reached and seems to violate program's examples
           e.printStackTrace();
+          saveRawData(file, text, charts);
+        } finally {
+          try {
+            pdf.close();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
         }
+        return null;
       }
-    }
-
+    };
+    worker.execute();
+    
+  }
+  
+  /**
+   * If a PDF report can't be written, write the experiment's text and charts
+   * into a folder next to where the report would have been instead
+   * @param file PDF file that couldn't be written
+   * @param text Text output from the experiment
+   * @param charts Charts produced from the experiment
+   */
+  private static void 
+  saveRawData(File file, String text, JFreeChart[] charts) {
+    String saveDirectory = file.getParent();
+    StringBuilder folderName = new StringBuilder(saveDirectory);
+    folderName.append("/test_results/");
+    folderName.append( file.getName().replace(".pdf","") );
+    
+    saveExperimentData( folderName.toString(), text, charts );
   }
   
   /**
@@ -216,10 +247,63 @@ implements ActionListener, ChangeListener, PropertyChangeListener {
       }
     }
   }
+  /**
+   * Write a report of the data from an output panel and its associated input
+   * on the calling thread, drawing the panels' charts directly. This is the
+   * fallback for when the charts can't be copied to be drawn in the
+   * background (see plotsToPDF).
+   * @param file Filename to write to
+   * @param ep Experiment panel with data to be plotted
+   * @param ip Input panel holding data associated with the experiment
+   */
+  private static void writePDF(File file, ExperimentPanel ep, InputPanel ip) {
+
+    // note that PDFBox is not thread safe, so don't try to thread these
+    // calls to either the experiment or input panels
+    
+    int inPlotCount = ep.plotsToShow();
+    String[] responses = ip.getResponseStrings( ep.getResponseIndices() );
+
+    PDDocument pdf = new PDDocument();
+    ep.savePDFResults( pdf );
+    
+    if (inPlotCount > 0) {
+      int inHeight = ip.getImageHeight(inPlotCount) * 2;
+      int width = 1280;
+
+      BufferedImage[] toFile = 
+          ip.getAsMultipleImages(width, inHeight, inPlotCount);
+      
+      ReportingUtils.imageListToPDFPages(pdf, toFile);
+    }
+    
+    if (responses.length > 0) {
+      ReportingUtils.textListToPDFPages(pdf, responses);
+    }
+    
+    try{
+      pdf.save(file);
+    } catch (IOException e) {
+      // if there's an error with formatting to PDF, try saving
+      // the raw data instead
+      e.printStackTrace();
+      saveRawData( file, ep.getAllTextData(), ep.getCharts() );
+    } finally {
+      try {
+        pdf.close();
+      } catch (IOException e) {
+        // this shouldn't be reached and seems to violate program's examples
+        e.printStackTrace();
+      }
+    }
+
+  }
+  
   private JFileChooser fc; // loads in files based on parameter
   private InputPanel inputPlots;
   private JTabbedPane tabbedPane; // holds set of experiment panels
   private JButton generate, savePDF; // run all calculations
+  private JCheckBox jpegPages; // store report charts as JPEG (smaller files)
 
   // used to store current directory locations
   private String saveDirectory = System.getProperty("user.home");
@@ -279,8 +363,15 @@ implements ActionListener, ChangeListener, PropertyChangeListener {
     savePDF = new JButton("Generate PDF report from current test");
     savePDF.setEnabled(false);
     savePDF.addActionListener(this);
+    jpegPages = new JCheckBox("Compress report charts (JPEG)");
+    jpegPages.setSelected( 
+        ReportingUtils.getPageEncoding() == ReportingUtils.PageEncoding.JPEG );
+    jpegPages.addActionListener(this);
+    JPanel savePanel = new JPanel();
+    savePanel.add(jpegPages);
+    savePanel.add(savePDF);
     c.anchor = GridBagConstraints.EAST;
-    this.add(savePDF, c);
+    this.add(savePanel, c);
     c.gridx += 1;
 
     generate = new JButton("Generate test result");
@@ -303,7 +394,8 @@ implements ActionListener, ChangeListener, PropertyChangeListener {
   /**
    * Handles actions when the buttons are clicked -- either the 'save PDF'
    * button, which compiles the input and output plots into a single PDF, or
-   * the 'generate result' button.
+   * the 'generate result' button -- or when the choice of how to store
+   * report charts is changed.
    * Because generating results of an experiment can be slow, the operation
    * is set to run in a separate thread.
    */
@@ -328,6 +420,15 @@ implements ActionListener, ChangeListener, PropertyChangeListener {
       
       return;
       
+    } else if ( e.getSource() == jpegPages ) {
+      
+      if ( jpegPages.isSelected() ) {
+        ReportingUtils.setPageEncoding(ReportingUtils.PageEncoding.JPEG);
+      } else {
+        ReportingUtils.setPageEncoding(ReportingUtils.PageEncoding.LOSSLESS);
+      }
+      return;
+      
     } else if ( e.getSource() == savePDF ) {
 
       String ext = ".pdf";
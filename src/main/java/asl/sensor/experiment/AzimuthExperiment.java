@@ -20,12 +20,11 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 import org.apache.commons.math3.util.Pair;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
 import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.MetricsRegistry;
 import asl.sensor.utils.NumericUtils;
 import asl.sensor.utils.TimeSeriesUtils;
 
@@ -112,6 +111,23 @@ public class AzimuthExperiment extends Experiment {
     */
     
   }
+  
+  /**
+   * Copy of the results of a run, for caching (see snapshotResults)
+   */
+  private static class Results {
+    
+    private final double angle, uncert;
+    private final boolean enoughPts;
+    
+    private Results(double angle, double uncert, boolean enoughPts) {
+      this.angle = angle;
+      this.uncert = uncert;
+      this.enoughPts = enoughPts;
+    }
+    
+  }
+  
   private double offset = 0.;
   
   private double angle, uncert;
@@ -192,13 +208,10 @@ public class AzimuthExperiment extends Experiment {
 
     enoughPts = false;
     
-    double[] initTestNorth = TimeSeriesUtils.demean(testNorth);
-    double[] initTestEast = TimeSeriesUtils.demean(testEast);
-    double[] initRefNorth =TimeSeriesUtils.demean(refNorth);
-
-    initTestNorth = TimeSeriesUtils.detrend(initTestNorth);
-    initTestEast = TimeSeriesUtils.detrend(initTestEast);
-    initRefNorth = TimeSeriesUtils.detrend(initRefNorth);
+    // removing the linear trend also removes the mean
+    double[] initTestNorth = TimeSeriesUtils.detrend(testNorth);
+    double[] initTestEast = TimeSeriesUtils.detrend(testEast);
+    double[] initRefNorth = TimeSeriesUtils.detrend(refNorth);
     
     // originally had normalization step here, but that harmed the estimates
     
@@ -206,9 +219,10 @@ public class AzimuthExperiment extends Experiment {
     double low = 1./8;
     double high = 1./4;
     
-    initTestNorth = FFTResult.bandFilter(initTestNorth, sps, low, high);
-    initTestEast = FFTResult.bandFilter(initTestEast, sps, low, high);
-    initRefNorth = FFTResult.bandFilter(initRefNorth, sps, low, high);
+    // these are already copies of the inputs, so they can be filtered as-is
+    FFTResult.bandFilterAllInPlace(
+        new double[][]{initTestNorth, initTestEast, initRefNorth},
+        sps, low, high);
     
     MultivariateJacobianFunction jacobian = 
         getJacobianFunction(initTestNorth, initTestEast, initRefNorth, interval);
@@ -230,12 +244,15 @@ public class AzimuthExperiment extends Experiment {
         withCostRelativeTolerance(1E-7).
         withParameterRelativeTolerance(1E-7);
     
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("solver.fit");
     LeastSquaresOptimizer.Optimum optimumY = optimizer.optimize(findAngleY);
+    timer.stop();
     RealVector angleVector = optimumY.getPoint();
     double tempAngle = angleVector.getEntry(0);
     
     String newStatus = "Found initial guess for angle";
     fireStateChange(newStatus);
+    fireProgress(0.1);
     
     // how much data we need (i.e., iteration length) to check 10 seconds
     // used when checking if alignment is off by 180 degrees
@@ -293,6 +310,8 @@ public class AzimuthExperiment extends Experiment {
       newStatus = sb.toString();
       
       fireStateChange(newStatus);
+      // the fit over the full range takes about as long as a few windows
+      fireProgress(i, numWindows, 0.1, 0.95);
       
       /*
       if (timeRange < 2 * twoThouSecs) {
@@ -311,13 +330,13 @@ public class AzimuthExperiment extends Experiment {
       double[] testEastWin = Arrays.copyOfRange(testEast, startIdx, endIdx);
       double[] refNorthWin = Arrays.copyOfRange(refNorth, startIdx, endIdx);
       
-      testNorthWin = TimeSeriesUtils.detrend(testNorthWin);
-      testEastWin = TimeSeriesUtils.detrend(testEastWin);
-      refNorthWin = TimeSeriesUtils.detrend(refNorthWin);
+      TimeSeriesUtils.detrendInPlace(testNorthWin);
+      TimeSeriesUtils.detrendInPlace(testEastWin);
+      TimeSeriesUtils.detrendInPlace(refNorthWin);
       
-      testNorthWin = FFTResult.bandFilter(testNorthWin, sps, low, high);
-      testEastWin = FFTResult.bandFilter(testEastWin, sps, low, high);
-      refNorthWin = FFTResult.bandFilter(refNorthWin, sps, low, high);
+      FFTResult.bandFilterAllInPlace(
+          new double[][]{testNorthWin, testEastWin, refNorthWin},
+          sps, low, high);
       
       jacobian = 
           getJacobianFunction(testNorthWin, testEastWin, refNorthWin, interval);
@@ -332,7 +351,9 @@ public class AzimuthExperiment extends Experiment {
           // checker(cv).
           build();
             
+      timer = MetricsRegistry.start("solver.fit");
       optimumY = optimizer.optimize(findAngleWindow);
+      timer.stop();
       
       RealVector angleVectorWindow = optimumY.getPoint();
       double angleTemp = angleVectorWindow.getEntry(0);
@@ -425,35 +446,27 @@ public class AzimuthExperiment extends Experiment {
     String eastName = dataNames.get(1);
     String refName = dataNames.get(2);
     
-    XYSeries ref = new XYSeries(northName + " rel. to reference");
+    Curve ref = new Curve(northName + " rel. to reference");
     ref.add(offset + angleDeg, 0);
     ref.add(offset + angleDeg, 1);
-    XYSeries set = new XYSeries(eastName + " rel. to reference");
+    Curve set = new Curve(eastName + " rel. to reference");
     set.add(offset + angleDeg + 90, 1);
     set.add(offset + angleDeg + 90, 0);
-    XYSeries fromNorth = new XYSeries (refName + " location");
+    Curve fromNorth = new Curve(refName + " location");
     fromNorth.add(offset, 1);
     fromNorth.add(offset, 0);
 
-    // xySeriesData = new XYSeriesCollection();
-    XYSeriesCollection xysc = new XYSeriesCollection();
-    xysc.addSeries(ref);
-    xysc.addSeries(set);
-    xysc.addSeries(fromNorth);
-    xySeriesData.add(xysc);
+    curveData.add( new CurveSet(ref, set, fromNorth) );
     
     /*
-    XYSeries coherenceSeries = new XYSeries("Per-freq. coherence of best-fit");
+    Curve coherenceSeries = new Curve("Per-freq. coherence of best-fit");
     for (int i = 0; i < freqs.length; ++i) {
       coherenceSeries.add(freqs[i], coherence[i]);
     }
     */
     
-    xysc = new XYSeriesCollection();
-    XYSeries timeMapAngle = new XYSeries("Best-fit angle per window");
-    XYSeries timeMapCoherence = new XYSeries("Coherence estimate per window");
-    xysc.addSeries(timeMapAngle);
-    xysc.addSeries(timeMapCoherence);
+    Curve timeMapAngle = new Curve("Best-fit angle per window");
+    Curve timeMapCoherence = new Curve("Coherence estimate per window");
     
     for ( long time : angleCoherenceMap.keySet() ) {
         long xVal = time / 1000;
@@ -464,9 +477,9 @@ public class AzimuthExperiment extends Experiment {
     }
 
     
-    xySeriesData.add( new XYSeriesCollection(timeMapAngle) );
-    xySeriesData.add( new XYSeriesCollection(timeMapCoherence) );
-    // xySeriesData.add( new XYSeriesCollection(coherenceSeries) );
+    curveData.add( new CurveSet(timeMapAngle) );
+    curveData.add( new CurveSet(timeMapCoherence) );
+    // curveData.add( new CurveSet(coherenceSeries) );
   }
   
   @Override
@@ -513,6 +526,9 @@ public class AzimuthExperiment extends Experiment {
       final long finalInterval = interval;
 
       public Pair<RealVector, RealMatrix> value(final RealVector point) {
+        // each evaluation takes several crosspowers, so check between them
+        checkCancelled();
+        MetricsRegistry.count("solver.evaluations", 1);
         return jacobian(point, 
             finalRefNorth, 
             finalTestNorth, 
@@ -699,6 +715,24 @@ public class AzimuthExperiment extends Experiment {
     */
   }
 
+  @Override
+  protected void restoreResults(Object results) {
+    Results stored = (Results) results;
+    angle = stored.angle;
+    uncert = stored.uncert;
+    enoughPts = stored.enoughPts;
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return new Results(angle, uncert, enoughPts);
+  }
+  
+  @Override
+  protected String getParameterFingerprint() {
+    return "offset=" + offset + ",simple=" + simpleCalc;
+  }
+  
   /**
    * Set the angle offset for the reference sensor (degrees from north)
    * @param newOffset Degrees from north that the reference sensor points
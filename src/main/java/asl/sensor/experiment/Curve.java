@@ -0,0 +1,208 @@
+package asl.sensor.experiment;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A named series of (x, y) points stored in primitive arrays, produced by
+ * experiment backends as their plottable results. Unlike a JFreeChart
+ * XYSeries, adding a point is a plain array append with no sorted insertion
+ * or change events, so curves are cheap to build even for long results and
+ * even when they will never be plotted. Points are returned in order of
+ * increasing x (as an XYSeries would keep them); if points were added out of
+ * order, they are sorted (stably) the first time the curve is read.
+ * Curves are converted to XYSeries for plotting by XYSeriesAdapter.
+ * @author akearns
+ *
+ */
+public class Curve implements Serializable {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private static final int INITIAL_CAPACITY = 16;
+  
+  private final String name;
+  private double[] xValues;
+  private double[] yValues;
+  private int size;
+  private boolean sorted;
+  
+  /**
+   * Create a new curve with no points
+   * @param name Name of the curve (used as the plot series key)
+   */
+  public Curve(String name) {
+    this.name = name;
+    xValues = new double[INITIAL_CAPACITY];
+    yValues = new double[INITIAL_CAPACITY];
+    size = 0;
+    sorted = true;
+  }
+  
+  /**
+   * Create a curve from existing arrays of points. The arrays are used
+   * directly rather than copied, and so should not be changed afterwards.
+   * @param name Name of the curve (used as the plot series key)
+   * @param x X-values of the points
+   * @param y Y-values of the points, same length as the x-values
+   */
+  public Curve(String name, double[] x, double[] y) {
+    if (x.length != y.length) {
+      throw new IllegalArgumentException("Curve x and y lengths differ");
+    }
+    this.name = name;
+    xValues = x;
+    yValues = y;
+    size = x.length;
+    sorted = true;
+    for (int i = 1; i < size && sorted; ++i) {
+      sorted = x[i] >= x[i - 1];
+    }
+  }
+  
+  /**
+   * Add a point to the end of the curve
+   * @param x X-value of the point
+   * @param y Y-value of the point
+   */
+  public synchronized void add(double x, double y) {
+    if (size == xValues.length) {
+      int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+      xValues = Arrays.copyOf(xValues, capacity);
+      yValues = Arrays.copyOf(yValues, capacity);
+    }
+    if (size > 0 && x < xValues[size - 1]) {
+      sorted = false;
+    }
+    xValues[size] = x;
+    yValues[size] = y;
+    ++size;
+  }
+  
+  /**
+   * Get the largest y-value in the curve, ignoring NaN values
+   * @return Maximum y-value, or NaN if the curve has no (non-NaN) points
+   */
+  public synchronized double getMaxY() {
+    double max = Double.NaN;
+    for (int i = 0; i < size; ++i) {
+      if ( Double.isNaN(max) || yValues[i] > max ) {
+        max = yValues[i];
+      }
+    }
+    return max;
+  }
+  
+  /**
+   * Get the smallest y-value in the curve, ignoring NaN values
+   * @return Minimum y-value, or NaN if the curve has no (non-NaN) points
+   */
+  public synchronized double getMinY() {
+    double min = Double.NaN;
+    for (int i = 0; i < size; ++i) {
+      if ( Double.isNaN(min) || yValues[i] < min ) {
+        min = yValues[i];
+      }
+    }
+    return min;
+  }
+  
+  /**
+   * Get the name of the curve
+   * @return Name, used as the key of this curve's plot series
+   */
+  public String getName() {
+    return name;
+  }
+  
+  /**
+   * Get the x-value of a point
+   * @param index Index of point, in order of increasing x
+   * @return X-value of that point
+   */
+  public synchronized double getX(int index) {
+    checkIndex(index);
+    sortPoints();
+    return xValues[index];
+  }
+  
+  /**
+   * Get a copy of the curve's x-values
+   * @return X-values in increasing order
+   */
+  public synchronized double[] getXValues() {
+    sortPoints();
+    return Arrays.copyOf(xValues, size);
+  }
+  
+  /**
+   * Get the y-value of a point
+   * @param index Index of point, in order of increasing x
+   * @return Y-value of that point
+   */
+  public synchronized double getY(int index) {
+    checkIndex(index);
+    sortPoints();
+    return yValues[index];
+  }
+  
+  /**
+   * Get a copy of the curve's y-values
+   * @return Y-values, ordered by their points' x-values
+   */
+  public synchronized double[] getYValues() {
+    sortPoints();
+    return Arrays.copyOf(yValues, size);
+  }
+  
+  /**
+   * Get the number of points in the curve
+   * @return Point count
+   */
+  public synchronized int size() {
+    return size;
+  }
+  
+  /**
+   * Make sure an index refers to a point in the curve
+   * @param index Index of point
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("No curve point at " + index);
+    }
+  }
+  
+  /**
+   * Put points in order of increasing x if they were added out of order,
+   * keeping points with equal x-values in the order they were added
+   */
+  private void sortPoints() {
+    if (sorted) {
+      return;
+    }
+    final double[] x = xValues;
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; ++i) {
+      order[i] = i;
+    }
+    // object array sort is a stable merge sort
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return Double.compare(x[i1], x[i2]);
+      }
+    });
+    double[] sortedX = new double[size];
+    double[] sortedY = new double[size];
+    for (int i = 0; i < size; ++i) {
+      sortedX[i] = xValues[order[i]];
+      sortedY[i] = yValues[order[i]];
+    }
+    xValues = sortedX;
+    yValues = sortedY;
+    sorted = true;
+  }
+
+}
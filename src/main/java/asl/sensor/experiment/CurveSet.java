@@ -0,0 +1,85 @@
+package asl.sensor.experiment;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The curves of an experiment result that are meant to be plotted together
+ * on a single chart, kept in the order they were added (which is also their
+ * order in the chart's legend).
+ * @author akearns
+ *
+ */
+public class CurveSet implements Serializable {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private final List<Curve> curves;
+  
+  /**
+   * Create a new set with no curves in it
+   */
+  public CurveSet() {
+    curves = new ArrayList<Curve>();
+  }
+  
+  /**
+   * Create a new set of the given curves
+   * @param curvesIn Curves to include, in order
+   */
+  public CurveSet(Curve... curvesIn) {
+    this();
+    for (Curve curve : curvesIn) {
+      addCurve(curve);
+    }
+  }
+  
+  /**
+   * Add a curve to the end of the set
+   * @param curve Curve to add
+   */
+  public void addCurve(Curve curve) {
+    curves.add(curve);
+  }
+  
+  /**
+   * Get a curve by its position in the set
+   * @param index Index of curve, in order of addition
+   * @return Curve at that index
+   */
+  public Curve getCurve(int index) {
+    return curves.get(index);
+  }
+  
+  /**
+   * Get a curve by its name
+   * @param name Name of curve to find
+   * @return First curve with that name, or null if there is no such curve
+   */
+  public Curve getCurve(String name) {
+    for (Curve curve : curves) {
+      if ( curve.getName().equals(name) ) {
+        return curve;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Get the number of curves in the set
+   * @return Curve count
+   */
+  public int getCurveCount() {
+    return curves.size();
+  }
+  
+  /**
+   * Get all curves in the set
+   * @return List of curves, in order of addition
+   */
+  public List<Curve> getCurves() {
+    return curves;
+  }
+
+}
@@ -1,21 +1,30 @@
 package asl.sensor.experiment;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.EventListenerList;
 
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.Pair;
-import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
+import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.CancellationToken;
+import asl.sensor.utils.MetricsRegistry;
+import asl.sensor.utils.ResourceCatalog;
 
 /**
  * This function defines template patterns for each type of sensor experiment
@@ -44,6 +53,19 @@ import asl.sensor.input.DataStore;
  * panels should read in data during their updateData routine, which is where
  * the experiment should be run.
  * 
+ * A run can be stopped part-way through by calling cancel (i.e., when the
+ * user starts a different calculation), in which case runExperimentOnData
+ * throws a CancellationException rather than finishing. Backends check for
+ * this each time they report their status or progress, and should also call
+ * checkCancelled inside any loop that may run for a long time between those
+ * reports. Progress through a run is reported as a fraction from 0 to 1
+ * (see getProgress) along with the status messages.
+ * 
+ * Each run also records how long it spends in each stage (loading, interval
+ * matching, the backend, and the spectral, response and solver utilities
+ * the backend calls) into a registry of its own, which can be read with
+ * getMetrics once the run is done.
+ * 
  * @author akearns
  *
  */
@@ -54,37 +76,45 @@ public abstract class Experiment {
   
   public static final String STATUS = "status";
   
+  /**
+   * Version of the calculations behind experiment results, included in each
+   * cache key. Increase this when a change to any backend (or the utilities
+   * it uses) changes its results, so that results stored before the change
+   * aren't used.
+   */
+  public static final int RESULTS_VERSION = 3;
+  
   /**
    * Helper function to add data from a datastore object (the PSD calculation)
-   * into an XYSeriesCollection to eventually be plotted
+   * into a set of curves to eventually be plotted
    * Used in both self-noise and relative gain calculations
    * @param ds DataStore to collect data from
    * @param freqSpace True if using units of Hz, False if units of s
    * (sample rate vs. interval between points)
    * @param indices Specifies which of the data can be loaded in
-   * @param xysc
+   * @param curves Set of curves to add the PSD's curve to
    */
   public static void addToPlot(
       final DataStore ds,
       final boolean freqSpace,
       final int idx,
-      XYSeriesCollection xysc) {
+      CurveSet curves) {
 
-    XYSeries powerSeries = 
-        new XYSeries( "PSD " + ds.getBlock(idx).getName() + " [" + idx +"]" );
+    Curve powerSeries = 
+        new Curve( "PSD " + ds.getBlock(idx).getName() + " [" + idx +"]" );
     
     Complex[] resultPSD = ds.getPSD(idx).getFFT();
     double[] freqs = ds.getPSD(idx).getFreqs();
 
-    addToPlot(powerSeries, resultPSD, freqs, freqSpace, xysc);
+    addToPlot(powerSeries, resultPSD, freqs, freqSpace, curves);
   }
   
   public static void addToPlot(
-      final XYSeries powerSeries,
+      final Curve powerSeries,
       final Complex[] resultPSD,
       final double[] freqs,
       final boolean freqSpace,
-      XYSeriesCollection xysc) {
+      CurveSet curves) {
     
     for (int j = 0; j < freqs.length; ++j) {
       if (1/freqs[j] > 1.0E3) {
@@ -99,14 +129,32 @@ public abstract class Experiment {
       }
     }
 
-    xysc.addSeries(powerSeries);
+    curves.addCurve(powerSeries);
     
   }
   
+  /**
+   * Helper function to add one of the Peterson noise models to a set of
+   * curves to be plotted along with PSD data
+   * @param model Noise model to plot (see {@link ResourceCatalog})
+   * @param freqSpace True if using units of Hz, False if units of s
+   * @param curves Set of curves to add the model's curve to
+   */
+  public static void addToPlot(
+      final ResourceCatalog.NoiseModel model,
+      final boolean freqSpace,
+      CurveSet curves) {
+    Curve modelSeries = new Curve( model.getName(),
+        model.getXValues(freqSpace), model.getYValues(freqSpace) );
+    curves.addCurve(modelSeries);
+  }
+  
   long start;
   long end;
-  protected List<XYSeriesCollection> xySeriesData;
-  private String status;
+  protected List<CurveSet> curveData; // numeric results, set by backend
+  // chart data built from the curves, only made when first requested
+  private transient List<XYSeriesCollection> xySeriesData;
+  private transient volatile String status;
   protected List<String> dataNames; // list of filenames of seed, resp files
   // NOTE: if implementing new experiment, best to use consistent ordering with
   // current set of experiments for this list: 
@@ -114,13 +162,22 @@ public abstract class Experiment {
   // That is, place response files after their associated timeseries
   protected Map<String, List<Pair<Date, Date>>> gapRegions;
   
-  private EventListenerList eventHelper;
+  private transient EventListenerList eventHelper;
+  private transient ExperimentCache cache;
+  private transient volatile CancellationToken token;
+  private transient volatile Thread runner; // thread doing current run
+  private transient volatile double progress;
+  private transient MetricsRegistry metrics; // stage timings of last run
   
   public Experiment() {
     start = 0L; end = 0L;
     dataNames = new ArrayList<String>();
     status = "";
     eventHelper = new EventListenerList();
+    cache = null;
+    token = new CancellationToken();
+    progress = 0.;
+    metrics = new MetricsRegistry(null);
   }
   
   /**
@@ -146,13 +203,81 @@ public abstract class Experiment {
    */
   public abstract int blocksNeeded();
   
+  /**
+   * Stop the current run of this experiment, if there is one. The run ends
+   * the next time its backend checks for cancellation, with the thread
+   * running it also interrupted so that any spectral calculations or thread
+   * pool waits in progress stop as well. No results from a cancelled run are
+   * kept, either in this experiment or in the cache.
+   */
+  public void cancel() {
+    token.cancel();
+    Thread running = runner;
+    if (running != null) {
+      running.interrupt();
+    }
+  }
+  
+  /**
+   * Stop the backend calculation if this run has been cancelled. Called by
+   * every status or progress update; backends should call it as well inside
+   * loops that take a while without reporting either (including in tasks run
+   * on other threads, which are not interrupted by cancel).
+   * @throws CancellationException if run was cancelled
+   */
+  protected void checkCancelled() {
+    token.check();
+  }
+  
+  /**
+   * Set the cache used to store and reuse this experiment's results. By
+   * default experiments don't use a cache, and those that can't copy their
+   * results (see snapshotResults) never have results stored in one.
+   * @param cache Cache to use, or null to always run the calculations
+   */
+  public void setCache(ExperimentCache cache) {
+    this.cache = cache;
+  }
+  
   /**
    * Update processing status and notify listeners of change
    * @param newStatus Status change message to notify listeners of
    */
   protected void fireStateChange(String newStatus) {
+    checkCancelled();
     // System.out.println(newStatus); uncomment to echo to terminal
     status = newStatus;
+    notifyListeners();
+  }
+  
+  /**
+   * Update how far along the current run is and notify listeners of change
+   * (as for a status change, listeners can read it back with getProgress)
+   * @param fraction Fraction of the run's calculations done, from 0 to 1
+   */
+  protected void fireProgress(double fraction) {
+    checkCancelled();
+    progress = Math.max( 0., Math.min(1., fraction) );
+    notifyListeners();
+  }
+  
+  /**
+   * Fire progress for a step of a loop, scaled to the part of the run that
+   * the loop takes up
+   * @param step Number of steps of the loop completed
+   * @param steps Total number of steps in the loop
+   * @param from Fraction of the run done when the loop starts
+   * @param to Fraction of the run done when the loop ends
+   */
+  protected void fireProgress(int step, int steps, double from, double to) {
+    double done = steps > 0 ? (double) step / steps : 1.;
+    fireProgress( from + (to - from) * done );
+  }
+  
+  /**
+   * Send a change event to each listener on this experiment
+   */
+  private void notifyListeners() {
     ChangeListener[] lsners = eventHelper.getListeners(ChangeListener.class);
     if (lsners != null && lsners.length > 0) {
       ChangeEvent evt = new ChangeEvent(this);
@@ -162,18 +287,168 @@ public abstract class Experiment {
     }
   }
   
+  /**
+   * Produce a fingerprint of this experiment and the data it would be run on,
+   * used to identify results that can be reused from the cache. This is a
+   * SHA-256 digest of the results version, the experiment type and
+   * parameters (see getParameterFingerprint), the name, time range, interval
+   * and contents of each data block, and the values of each loaded response.
+   * @param ds DataStore to be fed into experiment calculation
+   * @return Hex string identifying the inputs to the experiment
+   */
+  public String getCacheKey(final DataStore ds) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new RuntimeException(e);
+    }
+    
+    StringBuilder sb = new StringBuilder();
+    sb.append(RESULTS_VERSION);
+    sb.append('|');
+    sb.append( getClass().getName() );
+    sb.append('|');
+    sb.append( getParameterFingerprint() );
+    updateDigest(digest, sb);
+    
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    for (int i = 0; i < blocksNeeded(); ++i) {
+      sb.append("|data");
+      sb.append(i);
+      if ( !ds.blockIsSet(i) ) {
+        updateDigest(digest, sb);
+        continue;
+      }
+      DataBlock db = ds.getBlock(i);
+      double[] data = db.getData();
+      sb.append(':');
+      sb.append( db.getName() );
+      sb.append(',');
+      sb.append( db.getStartTime() );
+      sb.append(',');
+      sb.append( db.getEndTime() );
+      sb.append(',');
+      sb.append( db.getInterval() );
+      sb.append(',');
+      sb.append(data.length);
+      updateDigest(digest, sb);
+      for (double value : data) {
+        if ( !buffer.hasRemaining() ) {
+          buffer.flip();
+          digest.update(buffer);
+          buffer.clear();
+        }
+        buffer.putDouble(value);
+      }
+      buffer.flip();
+      digest.update(buffer);
+      buffer.clear();
+    }
+    
+    for (int i = 0; i < DataStore.FILE_COUNT; ++i) {
+      if ( !ds.responseIsSet(i) ) {
+        continue;
+      }
+      InstrumentResponse ir = ds.getResponse(i);
+      sb.append("|resp");
+      sb.append(i);
+      sb.append(':');
+      sb.append( ir.getName() );
+      sb.append(',');
+      sb.append( Arrays.toString( ir.getGain() ) );
+      sb.append(',');
+      sb.append( ir.getNormalization() );
+      sb.append(',');
+      sb.append( ir.getNormalizationFrequency() );
+      sb.append(',');
+      sb.append( ir.getTransferFunction() );
+      sb.append(',');
+      sb.append( ir.getUnits() );
+      sb.append(',');
+      sb.append( ir.getZeros() );
+      sb.append(',');
+      sb.append( ir.getPoles() );
+    }
+    updateDigest(digest, sb);
+    
+    StringBuilder hex = new StringBuilder();
+    for ( byte b : digest.digest() ) {
+      hex.append( String.format("%02x", b) );
+    }
+    return hex.toString();
+  }
+  
+  /**
+   * Set this experiment's results to ones copied by snapshotResults, such as
+   * when they're restored from a cache. Any arrays or collections in the
+   * snapshot must be copied again, so that the snapshot is never shared.
+   * Experiments that override snapshotResults must override this as well.
+   * @param results Object returned by snapshotResults on an experiment of
+   * the same type
+   */
+  protected void restoreResults(Object results) {
+    return;
+  }
+  
+  /**
+   * Get a copy of the results particular to this experiment (i.e., the
+   * values its getters report), taken after the backend has run, so that
+   * they can be stored in a cache and put back with restoreResults. The
+   * start and end times, curves, input names and gaps are stored by the
+   * cache itself and don't need to be included. The copy must not share any
+   * array or collection with this experiment, and must not change once made.
+   * Experiments that don't override this are never cached.
+   * @return Copy of this experiment's results, or null if they can't be
+   * cached
+   */
+  protected Object snapshotResults() {
+    return null;
+  }
+  
+  /**
+   * Return the numeric curves produced by this experiment, populated in the
+   * backend function of an implementing class. These are the same data as
+   * getData, but without building any chart objects, and so are preferable
+   * for non-GUI use. Each set in the list holds the curves for one chart.
+   * @return Curves of the experiment's results
+   */
+  public List<CurveSet> getCurves() {
+    return curveData;
+  }
+  
   /**
    * Return the plottable data for this experiment, populated in the backend
    * function of an implementing class; calling this class before running the
    * setData function / backend will produce initialization errors (NPE).
    * The results are returned as a list, where each list is the data to be
-   * placed into a separate chart.
+   * placed into a separate chart. The chart data is built from the curves
+   * (see getCurves) the first time this is called after a run.
    * @return Plottable data 
    */
   public List<XYSeriesCollection> getData() {
+    if (xySeriesData == null && curveData != null) {
+      xySeriesData = XYSeriesAdapter.toCollections(curveData);
+      if ( useAutoWidth() ) {
+        for (XYSeriesCollection xysc : xySeriesData) {
+          xysc.setAutoWidth(true);
+        }
+      }
+    }
     return xySeriesData;
   }
   
+  /**
+   * Whether the chart data of this experiment should have its interval width
+   * calculated from the spacing of the points (i.e., frequency plots that
+   * are drawn over a range of bands) rather than left at the default of 1.
+   * @return True if the data's collections should use auto width
+   */
+  protected boolean useAutoWidth() {
+    return false;
+  }
+  
   /**
    * Get the end time of the data sent into this experiment
    * @return End time, in microseconds
@@ -182,6 +457,27 @@ public abstract class Experiment {
     return end;
   }
   
+  /**
+   * Get the time spent in each stage of the most recent run, along with
+   * counts such as solver evaluations. Stage names are prefixed by where
+   * they're recorded: "experiment." for this class (e.g.,
+   * "experiment.backend" for the whole backend calculation), "spectral."
+   * for FFTResult, "solver." for fits, and so on. Stages include the time of
+   * any stages run within them.
+   * @return Registry of stage timers and counters for the run
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * Get how far along the current (or most recent) run is
+   * @return Fraction of calculations done, from 0 to 1
+   */
+  public double getProgress() {
+    return progress;
+  }
+  
   /**
    * Returns a map from datablock name identifiers to pairs of dates
    * representing regions within the given window where data does not exist
@@ -210,6 +506,17 @@ public abstract class Experiment {
     return start;
   }
   
+  /**
+   * Get the values of any settings that change the results of this
+   * experiment, for identifying cached results. Experiments with setters
+   * that affect the backend's calculations must override this to include
+   * their values.
+   * @return String representation of experiment parameters
+   */
+  protected String getParameterFingerprint() {
+    return "";
+  }
+  
   /**
    * Return newest status message produced by this program
    * @return String representing status of program
@@ -225,6 +532,14 @@ public abstract class Experiment {
    */
   public abstract boolean hasEnoughData(final DataStore ds);
   
+  /**
+   * Find out whether the current (or most recent) run was cancelled
+   * @return True if cancel was called since that run started
+   */
+  public boolean isCancelled() {
+    return token.isCancelled();
+  }
+  
   /**
    * Return an array of indices of responses used by an index, to include
    * data in report generation
@@ -249,19 +564,71 @@ public abstract class Experiment {
    * This function specifically (rather than the backend implementation) is
    * where interval consistency is checked before doing calculations.
    * @param ds Timeseries data to be processed
+   * @throws CancellationException if the run is cancelled before it
+   * completes
    */
   public void runExperimentOnData(final DataStore ds) {
     
+    // each run gets its own token so an old cancel doesn't stop a new run
+    CancellationToken runToken = new CancellationToken();
+    token = runToken;
+    runner = Thread.currentThread();
+    // record this run's stages on their own, as well as into the totals of
+    // whatever was already recording (i.e., an experiment running this one)
+    MetricsRegistry runMetrics = 
+        new MetricsRegistry( MetricsRegistry.getCurrent() );
+    metrics = runMetrics;
+    MetricsRegistry previous = MetricsRegistry.setCurrent(runMetrics);
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("experiment.run");
+    try {
+      runAndCache(ds);
+    } catch (CancellationException e) {
+      // drop partial results, unless a newer run has already replaced them
+      if (token == runToken) {
+        curveData = null;
+        xySeriesData = null;
+      }
+      throw e;
+    } finally {
+      timer.stop();
+      MetricsRegistry.setCurrent(previous);
+      if (token == runToken) {
+        runner = null;
+      }
+    }
+  }
+  
+  /**
+   * Add the text built up so far to a digest and clear it
+   * @param digest Digest to update
+   * @param sb Text to add to the digest, emptied afterwards
+   */
+  private static void updateDigest(MessageDigest digest, StringBuilder sb) {
+    digest.update( sb.toString().getBytes(StandardCharsets.UTF_8) );
+    sb.setLength(0);
+  }
+  
+  /**
+   * Run the backend on the given data, or restore its results from the cache
+   * @param ds Timeseries data to be processed
+   */
+  private void runAndCache(final DataStore ds) {
+    
     status = "";
+    progress = 0.;
     
     fireStateChange("Beginning loading data...");
     
+    // any chart data from a previous run is out of date
+    xySeriesData = null;
+    
     if ( hasEnoughData(ds) && ( blocksNeeded() == 0 ) ) {
       // prevent null issue 
-      xySeriesData = new ArrayList<XYSeriesCollection>();
+      curveData = new ArrayList<CurveSet>();
       start = 0L;
       end = 0L;
-      backend(ds);
+      runBackend(ds);
+      fireProgress(1.);
       return;
     }
     
@@ -272,9 +639,12 @@ public abstract class Experiment {
 
     dataNames = new ArrayList<String>();
     
-    xySeriesData = new ArrayList<XYSeriesCollection>();
+    curveData = new ArrayList<CurveSet>();
     
+    MetricsRegistry.Stopwatch timer = 
+        MetricsRegistry.start("experiment.matchIntervals");
     ds.matchIntervals( blocksNeeded() );
+    timer.stop();
     
     gapRegions = new HashMap<String, List<Pair<Date, Date>>>();
     for (int i = 0; i < blocksNeeded(); ++i) {
@@ -291,11 +661,47 @@ public abstract class Experiment {
       gapRegions.put(name, gapsAsDates);
     }
     
+    // results are only stored for experiments that can copy them, so
+    // other experiments never find any to restore
+    ExperimentCache cache = this.cache;
+    String cacheKey = null;
+    if (cache != null) {
+      timer = MetricsRegistry.start("experiment.cacheKey");
+      cacheKey = getCacheKey(ds);
+      timer.stop();
+      if ( cache.restore(cacheKey, this) ) {
+        MetricsRegistry.count("experiment.cacheHits", 1);
+        fireStateChange("Using stored results for same inputs...");
+        fireProgress(1.);
+        fireStateChange("Calculations done!");
+        return;
+      }
+    }
+    
     fireStateChange("Beginning calculations...");
     
-    backend(ds);
+    runBackend(ds);
+    
+    // last chance to drop results of a cancelled run before they're stored
+    checkCancelled();
+    
+    if (cache != null) {
+      cache.store(cacheKey, this);
+    }
     
+    fireProgress(1.);
     fireStateChange("Calculations done!");
   }
+  
+  /**
+   * Run the backend, timing it as a stage of the run
+   * @param ds Timeseries data to be processed
+   */
+  private void runBackend(final DataStore ds) {
+    MetricsRegistry.Stopwatch timer = 
+        MetricsRegistry.start("experiment.backend");
+    backend(ds);
+    timer.stop();
+  }
    
 }
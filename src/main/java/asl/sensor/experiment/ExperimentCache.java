@@ -0,0 +1,212 @@
+package asl.sensor.experiment;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Size-bounded store of experiment results, so that running an experiment
+ * again with the same parameters on the same data (such as when switching
+ * between panels or re-exporting a report) doesn't repeat its calculations.
+ * Results are keyed by a fingerprint of the experiment type, its parameters,
+ * and its input data and responses (see Experiment.getCacheKey), and once
+ * the cache is full the least-recently-used result is dropped.
+ * Only experiments that can copy their results (see
+ * Experiment.snapshotResults) are cached, and only once they're given a
+ * cache with Experiment.setCache; experiments don't use one by default.
+ * A stored result is that copy, along with copies of the start and end
+ * times, curves, input names and gaps every experiment has, taken after the
+ * backend ran. The lists and maps of the latter are copied both when stored
+ * and when restored, so no two experiments share them; the objects they
+ * hold, such as curves, are shared and must not be changed once a run is
+ * done. All operations are synchronized so a cache can be shared between
+ * threads.
+ * @author akearns
+ *
+ */
+public class ExperimentCache {
+  
+  /**
+   * Results of one run of an experiment
+   */
+  private static class Entry {
+    
+    private final long start, end;
+    private final List<CurveSet> curveData;
+    private final List<String> dataNames;
+    private final Map<String, List<Pair<Date, Date>>> gapRegions;
+    private final Object results; // from snapshotResults
+    
+    /**
+     * Copy the results of an experiment whose backend has just been run
+     * @param exp Experiment to copy results of
+     * @param results Experiment's copy of its own results
+     */
+    private Entry(Experiment exp, Object results) {
+      start = exp.start;
+      end = exp.end;
+      curveData = new ArrayList<CurveSet>(exp.curveData);
+      dataNames = new ArrayList<String>(exp.dataNames);
+      gapRegions = copyGaps(exp.gapRegions);
+      this.results = results;
+    }
+    
+    /**
+     * Set an experiment's results to copies of these
+     * @param exp Experiment to restore the results into
+     */
+    private void restoreTo(Experiment exp) {
+      exp.start = start;
+      exp.end = end;
+      exp.curveData = new ArrayList<CurveSet>(curveData);
+      exp.dataNames = new ArrayList<String>(dataNames);
+      exp.gapRegions = copyGaps(gapRegions);
+      exp.restoreResults(results);
+    }
+    
+  }
+  
+  public static final int DEFAULT_CAPACITY = 16;
+  
+  private static final ExperimentCache sharedCache =
+      new ExperimentCache(DEFAULT_CAPACITY);
+  
+  /**
+   * Get a cache for experiments in the same application to share, such as
+   * the panels of the GUI
+   * @return Cache shared between experiments that opt in to it
+   */
+  public static ExperimentCache getSharedCache() {
+    return sharedCache;
+  }
+  
+  /**
+   * Copy a map of gaps in each input, down to the lists of gaps
+   * @param gaps Map from input names to the start and end of each gap
+   * @return Copy of the map
+   */
+  private static Map<String, List<Pair<Date, Date>>>
+  copyGaps(Map<String, List<Pair<Date, Date>>> gaps) {
+    Map<String, List<Pair<Date, Date>>> copy =
+        new HashMap<String, List<Pair<Date, Date>>>();
+    for ( Map.Entry<String, List<Pair<Date, Date>>> entry : gaps.entrySet() ) {
+      copy.put( entry.getKey(),
+          new ArrayList<Pair<Date, Date>>( entry.getValue() ) );
+    }
+    return copy;
+  }
+  
+  private final LinkedHashMap<String, Entry> entries;
+  private int capacity;
+  private long hits, misses;
+  
+  /**
+   * Create a new, empty cache
+   * @param capacity Maximum number of results to hold
+   */
+  public ExperimentCache(int capacity) {
+    // access-order map, so iteration starts at least-recently-used entry
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    setCapacity(capacity);
+  }
+  
+  /**
+   * Remove all results from the cache
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+  
+  /**
+   * Get the maximum number of results the cache holds
+   * @return Capacity of the cache
+   */
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+  
+  /**
+   * Get the number of times a requested result was found in the cache
+   * @return Count of cache hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+  
+  /**
+   * Get the number of times a requested result was not in the cache
+   * @return Count of cache misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+  
+  /**
+   * Set an experiment's results to copies of a stored result, if there is one
+   * for the given key
+   * @param key Fingerprint of the experiment and its inputs
+   * @param exp Experiment to restore the result into
+   * @return True if a result was found and restored
+   */
+  synchronized boolean restore(String key, Experiment exp) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      ++misses;
+      return false;
+    }
+    ++hits;
+    entry.restoreTo(exp);
+    return true;
+  }
+  
+  /**
+   * Change the maximum number of results the cache holds, dropping the
+   * least-recently-used results if there are now too many
+   * @param capacity New capacity of the cache (0 to disable caching)
+   */
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = Math.max(0, capacity);
+    trim();
+  }
+  
+  /**
+   * Get the number of results currently in the cache
+   * @return Count of results
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+  
+  /**
+   * Store a copy of an experiment's results, if it can copy them
+   * @param key Fingerprint of the experiment and its inputs
+   * @param exp Experiment whose backend has just been run
+   */
+  synchronized void store(String key, Experiment exp) {
+    if (capacity == 0) {
+      return;
+    }
+    Object results = exp.snapshotResults();
+    if (results == null) {
+      return;
+    }
+    entries.put( key, new Entry(exp, results) );
+    trim();
+  }
+  
+  /**
+   * Drop least-recently-used results until the cache is within capacity
+   */
+  private void trim() {
+    while (entries.size() > capacity) {
+      String eldest = entries.keySet().iterator().next();
+      entries.remove(eldest);
+    }
+  }
+
+}
@@ -21,6 +21,7 @@ public enum ExperimentEnum {
   AZMTH ("Azimuth"),
   ORTHO ("Orthogonality"),
   SPECT ("Power-spectrum"),
+  SPECG ("PSD spectrogram"),
   RESPN ("Response");
 
   private String name;
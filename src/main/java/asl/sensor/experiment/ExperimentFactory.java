@@ -38,6 +38,8 @@ public class ExperimentFactory {
       return new RandDebugExperiment();
     case SPECT:
       return new SpectrumExperiment();
+    case SPECG:
+      return new SpectrogramExperiment();
     default:
       // this shouldn't happen unless someone added to the enum
       // and forgot to follow-through on implementation
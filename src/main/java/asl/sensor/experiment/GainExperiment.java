@@ -2,16 +2,19 @@ package asl.sensor.experiment;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 
 import org.apache.commons.math3.complex.Complex;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
 import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.MetricsRegistry;
 import asl.sensor.utils.NumericUtils;
+import asl.sensor.utils.ResourceCatalog;
+import asl.sensor.utils.WorkerPool;
 
 /**
  * Gain experiment does tests to determine a relative gain value of a sensor's
@@ -44,31 +47,113 @@ public class GainExperiment extends Experiment {
     
     int[] indices = new int[2];
     
-    for (int i = 1; i < freqs.length; ++i) {
-      if (freqs[i] == lowFrq || 
-          (freqs[i-1] < lowFrq && freqs[i] > lowFrq) ) {
-        indices[0] = i;
-      }
+    // frequencies are sorted, so bounds can be found by binary search;
+    // lower index is the first frequency at or above the lower bound
+    int lowIdx = firstIndexAbove(freqs, lowFrq, true);
+    if ( lowIdx < freqs.length ) {
+      indices[0] = lowIdx;
     }
     
     indices[1] = freqs.length-1;
     
-    for (int i = indices[0]; i < freqs.length-1; ++i) {
-      if (freqs[i] == highFrq || 
-          (freqs[i] < highFrq && freqs[i+1] > highFrq) ) {
-        indices[1] = i+1;
-      }
+    // upper index is one past the last frequency at or below the upper bound
+    int highIdx = firstIndexAbove(freqs, highFrq, false) - 1;
+    if ( highIdx >= indices[0] && highIdx < freqs.length - 1 ) {
+      indices[1] = highIdx + 1;
     }
     
     return indices;
   }
   
+  /**
+   * Binary search for the first index of a sorted array whose value is above
+   * (or, if inclusive, equal to) the given value
+   * @param sorted Array of values in ascending order
+   * @param value Value to find the bound of
+   * @param inclusive True if values equal to the given value are included
+   * @return Index of first matching entry, or array length if none match
+   */
+  private static int firstIndexAbove(double[] sorted, double value, 
+      boolean inclusive) {
+    int lower = 0;
+    int upper = sorted.length;
+    while (lower < upper) {
+      int mid = (lower + upper) >>> 1;
+      if ( sorted[mid] < value || (!inclusive && sorted[mid] == value) ) {
+        lower = mid + 1;
+      } else {
+        upper = mid;
+      }
+    }
+    return lower;
+  }
+  
+  /**
+   * Calculate the PSDs of the data at the given indices of a DataStore, with
+   * each PSD calculated as its own task on the shared worker pool. Because each PSD only reads from
+   * its own DataBlock, the calculations do not interfere with each other.
+   * @param ds DataStore containing the (already-trimmed) data to get PSDs of
+   * @param indices Indices of the data in the DataStore to get PSDs of
+   * @return Array of PSDs, matched in order to the given indices
+   * @throws CancellationException if the run is cancelled while waiting on
+   * the PSD tasks
+   */
+  static FFTResult[] getPSDsConcurrently(final DataStore ds, int[] indices) {
+    
+    List<Callable<FFTResult>> tasks = new ArrayList<Callable<FFTResult>>();
+    for (final int idx : indices) {
+      Callable<FFTResult> task = new Callable<FFTResult>() {
+        @Override
+        public FFTResult call() {
+          return ds.getPSD(idx);
+        }
+      };
+      tasks.add( MetricsRegistry.recordingInCurrent(task) );
+    }
+    
+    List<FFTResult> psds = WorkerPool.invokeAll(tasks, "PSD calculation");
+    return psds.toArray( new FFTResult[indices.length] );
+  }
+  
+  /**
+   * Copy of the results of a run, for caching (see snapshotResults). The
+   * PSDs and sums held in the arrays aren't changed once they're made, so
+   * only the arrays themselves are copied.
+   */
+  private static class Results {
+    
+    private final double[] gainStage1, otherGainStages;
+    private final FFTResult[] fftResults;
+    private final int[] indices;
+    private final NumericUtils.PrefixSum[] magnitudeSums;
+    private final NumericUtils.PrefixSum[] ratioSums, ratioSquareSums;
+    private final NumericUtils.PrefixSum ratioCounts;
+    
+    private Results(GainExperiment exp) {
+      gainStage1 = exp.gainStage1.clone();
+      otherGainStages = exp.otherGainStages.clone();
+      fftResults = exp.fftResults.clone();
+      indices = exp.indices.clone();
+      magnitudeSums = exp.magnitudeSums.clone();
+      ratioSums = exp.ratioSums.clone();
+      ratioSquareSums = exp.ratioSquareSums.clone();
+      ratioCounts = exp.ratioCounts;
+    }
+    
+  }
+  
   private double[] gainStage1;
   private double[] otherGainStages; // product of gain stages 2 and up
   private FFTResult[] fftResults;
   private int[] indices; // indices of valid data sources (i.e., 0 and 1)
   private double ratio, sigma;
   
+  // cumulative sums over the PSDs, so band stats can be found in O(1) time
+  private NumericUtils.PrefixSum[] magnitudeSums; // indexed by input
+  // ratio terms are indexed by reference (i.e., [0] is PSD0/PSD1)
+  private NumericUtils.PrefixSum[] ratioSums, ratioSquareSums;
+  private NumericUtils.PrefixSum ratioCounts;
+  
   /**
    * Constructor for the gain experiment; effectively the same as that of the
    * superclass, as all components unique to this class are populated at time
@@ -79,7 +164,7 @@ public class GainExperiment extends Experiment {
   }
 
   /**
-   * Populate XYSeriesCollection with all input data (will be trimmed on plot)
+   * Populate curve data with all input data (will be trimmed on plot)
    * This gets the (possibly cached) PSDs from available data in the
    * passed-in DataStore object, builds plottable series from them, and
    * generates statistics about gain calculation, defaulting to the
@@ -121,28 +206,82 @@ public class GainExperiment extends Experiment {
       otherGainStages[i] = accumulator;
     }
     
-    fftResults = new FFTResult[NUMBER_TO_LOAD];
     List<DataBlock> blocksPlotting = new ArrayList<DataBlock>();
-    XYSeriesCollection xysc = new XYSeriesCollection();
-    xysc.setAutoWidth(true);
+    CurveSet curves = new CurveSet();
+    
+    fireStateChange("Getting PSDs...");
+    fftResults = getPSDsConcurrently(ds, indices);
     
     for (int i = 0; i < indices.length; ++i) {
-      fireStateChange("Getting PSD " + i + "...");
       int idx = indices[i];
       String name = "PSD " + ds.getBlock(idx).getName() + " [" + idx +"]";
-      XYSeries xys = new XYSeries(name);
-      fftResults[i] = ds.getPSD(idx);
+      Curve curve = new Curve(name);
       Complex[] fft = fftResults[i].getFFT();
       double[] freqs = fftResults[i].getFreqs();
       // false, because we don't want to plot in frequency space
-      addToPlot(xys, fft, freqs, false, xysc);
+      addToPlot(curve, fft, freqs, false, curves);
       blocksPlotting.add( ds.getBlock(idx) );
     }
 
     fireStateChange("Getting NLNM data...");
-    xysc.addSeries( FFTResult.getLowNoiseModel(false) );
+    addToPlot(ResourceCatalog.getLowNoiseModel(), false, curves);
+    
+    curveData.add(curves);
+    
+    fireStateChange("Accumulating PSD sums for gain statistics...");
+    buildPrefixSums();
     
-    xySeriesData.add(xysc);
+  }
+  
+  /**
+   * Build the cumulative sums of PSD magnitudes and of their ratios (and
+   * the squares of those ratios) for each choice of reference, so that the
+   * mean and standard deviation over any frequency band can be found
+   * without iterating over the PSDs every time the band changes.
+   * Values excluded from the stats (infinite magnitudes) are summed as 0.
+   */
+  private void buildPrefixSums() {
+    
+    int len = fftResults[0].size();
+    double[][] magnitudes = new double[NUMBER_TO_LOAD][len];
+    for (int i = 0; i < NUMBER_TO_LOAD; ++i) {
+      Complex[] psd = fftResults[i].getFFT();
+      for (int j = 0; j < len; ++j) {
+        double value = psd[j].abs();
+        if ( value >= Double.POSITIVE_INFINITY ) {
+          value = 0.;
+        }
+        magnitudes[i][j] = value;
+      }
+    }
+    
+    magnitudeSums = new NumericUtils.PrefixSum[NUMBER_TO_LOAD];
+    ratioSums = new NumericUtils.PrefixSum[NUMBER_TO_LOAD];
+    ratioSquareSums = new NumericUtils.PrefixSum[NUMBER_TO_LOAD];
+    
+    double[] counts = new double[len];
+    for (int ref = 0; ref < NUMBER_TO_LOAD; ++ref) {
+      magnitudeSums[ref] = new NumericUtils.PrefixSum(magnitudes[ref]);
+      
+      Complex[] psdRef = fftResults[ref].getFFT();
+      Complex[] psdOther = fftResults[(ref + 1) % NUMBER_TO_LOAD].getFFT();
+      double[] ratios = new double[len];
+      double[] squares = new double[len];
+      for (int j = 0; j < len; ++j) {
+        double value1 = psdRef[j].abs();
+        double value2 = psdOther[j].abs();
+        if (value1 >= Double.POSITIVE_INFINITY || 
+            value2 >= Double.POSITIVE_INFINITY) {
+          continue;
+        }
+        counts[j] = 1.;
+        ratios[j] = value1 / value2;
+        squares[j] = ratios[j] * ratios[j];
+      }
+      ratioSums[ref] = new NumericUtils.PrefixSum(ratios);
+      ratioSquareSums[ref] = new NumericUtils.PrefixSum(squares);
+    }
+    ratioCounts = new NumericUtils.PrefixSum(counts);
     
   }
   
@@ -151,6 +290,29 @@ public class GainExperiment extends Experiment {
     return 2;
   }
   
+  @Override
+  protected boolean useAutoWidth() {
+    return true;
+  }
+  
+  @Override
+  protected void restoreResults(Object results) {
+    Results stored = (Results) results;
+    gainStage1 = stored.gainStage1.clone();
+    otherGainStages = stored.otherGainStages.clone();
+    fftResults = stored.fftResults.clone();
+    indices = stored.indices.clone();
+    magnitudeSums = stored.magnitudeSums.clone();
+    ratioSums = stored.ratioSums.clone();
+    ratioSquareSums = stored.ratioSquareSums.clone();
+    ratioCounts = stored.ratioCounts;
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return new Results(this);
+  }
+  
   /**
    * Gets the octave centered around the frequency at the plotted PSD peak
    * @param idx Index of inputted data to get the peak of
@@ -240,16 +402,39 @@ public class GainExperiment extends Experiment {
     FFTResult plot0 = fftResults[idx0];
     FFTResult plot1 = fftResults[idx1];
     
-    double mean0 = NumericUtils.getFFTMean(plot0, lowBnd, higBnd);
-    // since both datasets must have matching interval, PSDs have same freqs
-    double mean1 = NumericUtils.getFFTMean(plot1, lowBnd, higBnd);
+    // sums can't be used if the range has NaN or infinite values in it
+    boolean summable = 
+        magnitudeSums[idx0].isSummable(lowBnd, higBnd) &&
+        magnitudeSums[idx1].isSummable(lowBnd, higBnd) &&
+        ratioSums[idx0].isSummable(lowBnd, higBnd) &&
+        ratioSquareSums[idx0].isSummable(lowBnd, higBnd);
+    
+    double mean0, mean1;
+    int range = higBnd - lowBnd;
+    if (summable) {
+      mean0 = magnitudeSums[idx0].sum(lowBnd, higBnd) / range;
+      mean1 = magnitudeSums[idx1].sum(lowBnd, higBnd) / range;
+    } else {
+      mean0 = NumericUtils.getFFTMean(plot0, lowBnd, higBnd);
+      // since both datasets must have matching interval, PSDs have same freqs
+      mean1 = NumericUtils.getFFTMean(plot1, lowBnd, higBnd);
+    }
     
     // double MIN_VALUE field is effectively java's machine epsilon
     // calculate ratio and sigma over the range
     ratio = (mean0+Double.MIN_VALUE) / (mean1+Double.MIN_VALUE); 
       // added terms exist to prevent division by 0
     
-    sigma = NumericUtils.getFFTSDev(plot0, plot1, ratio, lowBnd, higBnd);
+    if (summable) {
+      // sum of (r - ratio)^2 expanded into sum(r^2) - 2*ratio*sum(r) + n*ratio^2
+      double sumSq = ratioSquareSums[idx0].sum(lowBnd, higBnd);
+      double sum = ratioSums[idx0].sum(lowBnd, higBnd);
+      double count = ratioCounts.sum(lowBnd, higBnd);
+      double variance = sumSq - (2 * ratio * sum) + (count * ratio * ratio);
+      sigma = Math.sqrt( Math.max(variance, 0.) );
+    } else {
+      sigma = NumericUtils.getFFTSDev(plot0, plot1, ratio, lowBnd, higBnd);
+    }
     
     double refGain = gainStage1[idx0];
     double calcGain = gainStage1[idx1]/Math.sqrt(ratio);
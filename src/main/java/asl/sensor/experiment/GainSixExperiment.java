@@ -1,12 +1,15 @@
 package asl.sensor.experiment;
  
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-import org.jfree.data.xy.XYSeries;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
+import asl.sensor.utils.MetricsRegistry;
 import asl.sensor.utils.TimeSeriesUtils;
+import asl.sensor.utils.WorkerPool;
 
 /**
  * Augmented version of relative gain experiment that includes
@@ -94,24 +97,33 @@ public class GainSixExperiment extends Experiment {
         TimeSeriesUtils.rotateX(ds.getBlock(3), ds.getBlock(4), east2Angle);
     stores[1].setBlock(1, east2Rotated);
     
-    // now get the datasets to plug into the datastore
-    String[] direction = new String[]{"north", "east", "vertical"};
+    // each component's data is independent of the others, so the three
+    // gain calculations (and the PSDs they need) can all be run at once;
+    // the resulting PSDs stay cached in each backend for later stat requests
+    fireStateChange("Running calculations on north, east, vertical data...");
     
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
     for (int i = 0; i < DIMS; ++i) {
-      
-      StringBuilder state = new StringBuilder("Running calculations on ");
-      state.append(direction[i]);
-      state.append(" components...");
-      fireStateChange( state.toString() );
-      
-      componentBackends[i].runExperimentOnData(stores[i]);
-      
+      final GainExperiment component = componentBackends[i];
+      final DataStore store = stores[i];
+      Callable<Void> task = new Callable<Void>() {
+        @Override
+        public Void call() {
+          component.runExperimentOnData(store);
+          return null;
+        }
+      };
+      // component runs' stages are counted as part of this one
+      tasks.add( MetricsRegistry.recordingInCurrent(task) );
     }
     
+    // the component runs' PSD tasks go to the same pool as these tasks
+    WorkerPool.invokeAll(tasks, "Gain calculations");
+    
     for (Experiment exp : componentBackends) {
       // each backend only has one plot's worth of data
       // but is formatted as a list of per-plot data, so we use addAll
-      xySeriesData.addAll( exp.getData() );
+      curveData.addAll( exp.getCurves() );
       // also get the names of the data going in for use w/ PDF, metadata
     }    
 
@@ -171,11 +183,11 @@ public class GainSixExperiment extends Experiment {
    * @return Array of form {low freq bound, high freq bound}
    */
   public double[] getMinMaxFrequencies() {
-    XYSeries xys = xySeriesData.get(0).getSeries(0);
-    if ( xySeriesData.get(0).getSeriesKey(0).equals("NLNM") ) {
-      xys = xySeriesData.get(0).getSeries(0);
+    Curve curve = curveData.get(0).getCurve(0);
+    if ( curve.getName().equals("NLNM") ) {
+      curve = curveData.get(0).getCurve(0);
     }
-    return new double[]{xys.getMinX(), xys.getMaxX()};
+    return new double[]{curve.getX(0), curve.getX(curve.size() - 1)};
   }
   
   /**
@@ -200,6 +212,22 @@ public class GainSixExperiment extends Experiment {
     return componentBackends[2].getOctaveCenteredAtPeak(idx);
   }
 
+  /**
+   * Get the gain mean and deviation values of a single component from a
+   * specified frequency range. This uses the PSDs calculated when the
+   * experiment was run, so nothing is recalculated when the reference
+   * index or frequency range changes.
+   * @param component Component to get stats for (0: north, 1: east, 2: vert.)
+   * @param idx Index of component's data to use as reference
+   * @param low Low frequency bound of range to get stats over
+   * @param high High frequency bound of range to get stats over
+   * @return Array of form {mean, standard deviation, ref. gain, calc. gain}
+   */
+  public double[] 
+  getComponentStatsFromFreqs(int component, int idx, double low, double high) {
+    return componentBackends[component].getStatsFromFreqs(idx, low, high);
+  }
+  
   /**
    * Get the gain mean and deviation values from a specified peak
    * frequency range.
@@ -213,7 +241,7 @@ public class GainSixExperiment extends Experiment {
     // vertical component requires no rotation
     
     for (int i = 0; i < DIMS; ++i) {
-      result[i] = componentBackends[i].getStatsFromFreqs(idx, low, high);
+      result[i] = getComponentStatsFromFreqs(i, idx, low, high);
     }
     
     /*
@@ -1,13 +1,12 @@
 package asl.sensor.experiment;
 
 import org.apache.commons.math3.complex.Complex;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
 import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.ResourceCatalog;
 
 /**
  * Produces the data for a self-noise test. Calculates PSD to get cross-power.
@@ -50,8 +49,7 @@ public class NoiseExperiment extends Experiment {
   @Override
   protected void backend(final DataStore ds) {
     
-    XYSeriesCollection xysc = new XYSeriesCollection();
-    xysc.setAutoWidth(true);
+    CurveSet curves = new CurveSet();
     
     respIndices = new int[3]; // first 3 fully-loaded data sets
     
@@ -84,12 +82,14 @@ public class NoiseExperiment extends Experiment {
       int idx = respIndices[i];
       fireStateChange("Getting PSDs of data " + (idx + 1) + "...");
       String name = "PSD " + ds.getBlock(idx).getName() + " [" + idx +"]";
-      XYSeries powerSeries = new XYSeries(name);
+      Curve powerSeries = new Curve(name);
       FFTResult psdCalc = ds.getPSD(idx);
       Complex[] fft = psdCalc.getFFT();
       spectra[i] = fft;
       freqs = psdCalc.getFreqs();
-      addToPlot(powerSeries, fft, freqs, freqSpace, xysc);
+      addToPlot(powerSeries, fft, freqs, freqSpace, curves);
+      // PSDs and the three crosspowers take up most of the run
+      fireProgress(i + 1, respIndices.length + 3, 0., 0.95);
     }
 
     
@@ -100,23 +100,26 @@ public class NoiseExperiment extends Experiment {
     FFTResult fft = 
         FFTResult.crossPower(dataIn[0], dataIn[2], responses[0], responses[2]);
     Complex[] c13 = fft.getFFT();
+    fireProgress(respIndices.length + 1, respIndices.length + 3, 0., 0.95);
     
     fireStateChange(getting + "2 & 1");
     fft = 
         FFTResult.crossPower(dataIn[1], dataIn[0], responses[1], responses[0]);
     Complex[] c21 = fft.getFFT();
+    fireProgress(respIndices.length + 2, respIndices.length + 3, 0., 0.95);
     
     fireStateChange(getting + "2 & 3");
     fft = 
         FFTResult.crossPower(dataIn[1], dataIn[2], responses[1], responses[2]);
     Complex[] c23 = fft.getFFT();
+    fireProgress(0.95);
     
     // WIP: use PSD results to get noise at each point see spectra
-    XYSeries[] noiseSeriesArr = new XYSeries[dataIn.length];
+    Curve[] noiseSeriesArr = new Curve[dataIn.length];
     for(int j = 0; j < dataIn.length; ++j) {
-      // initialize each xySeries with proper name for the data
+      // initialize each curve with proper name for the data
       noiseSeriesArr[j] = 
-          new XYSeries( "Noise " + dataIn[j].getName() + " ["  + j + "]" );
+          new Curve( "Noise " + dataIn[j].getName() + " ["  + j + "]" );
     }
     
     fireStateChange("Doing noise esimation calculations...");
@@ -177,14 +180,14 @@ public class NoiseExperiment extends Experiment {
         }
     }
     
-    for (XYSeries noiseSeries : noiseSeriesArr) {
-      xysc.addSeries(noiseSeries);
+    for (Curve noiseSeries : noiseSeriesArr) {
+      curves.addCurve(noiseSeries);
     }
     
-    xysc.addSeries( FFTResult.getLowNoiseModel(freqSpace) );
-    xysc.addSeries( FFTResult.getHighNoiseModel(freqSpace) );
+    addToPlot(ResourceCatalog.getLowNoiseModel(), freqSpace, curves);
+    addToPlot(ResourceCatalog.getHighNoiseModel(), freqSpace, curves);
     
-    xySeriesData.add(xysc);
+    curveData.add(curves);
 
   }
 
@@ -210,6 +213,26 @@ public class NoiseExperiment extends Experiment {
     return respIndices;
   }
 
+  @Override
+  protected boolean useAutoWidth() {
+    return true;
+  }
+
+  @Override
+  protected void restoreResults(Object results) {
+    respIndices = ( (int[]) results ).clone();
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return respIndices.clone();
+  }
+  
+  @Override
+  protected String getParameterFingerprint() {
+    return "freqSpace=" + freqSpace;
+  }
+  
   /**
    * Used to set the x-axis over which the PSDs / cross-powers are plotted,
    * either frequency (Hz) units or sample-interval (s) units
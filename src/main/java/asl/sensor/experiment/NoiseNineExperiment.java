@@ -1,6 +1,5 @@
 package asl.sensor.experiment;
 
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
@@ -24,6 +23,22 @@ import asl.sensor.utils.TimeSeriesUtils;
  */
 public class NoiseNineExperiment extends NoiseExperiment {
 
+  /**
+   * Copy of the results of a run, for caching (see snapshotResults)
+   */
+  private static class Results {
+    
+    private final Object noiseResults; // from NoiseExperiment
+    private final double[] northAngles, eastAngles;
+    
+    private Results(Object noiseResults, double[] north, double[] east) {
+      this.noiseResults = noiseResults;
+      northAngles = north.clone();
+      eastAngles = east.clone();
+    }
+    
+  }
+  
   private static final int DIMS = 3;
   private double[] northAngles, eastAngles;
   
@@ -134,8 +149,8 @@ public class NoiseNineExperiment extends NoiseExperiment {
       sb.append(directions[i]);
       sb.append(" noise components...");
       noiseExp.runExperimentOnData(stores[i]);
-      XYSeriesCollection xys = noiseExp.getData().get(0);
-      xySeriesData.add(xys);
+      CurveSet curves = noiseExp.getCurves().get(0);
+      curveData.add(curves);
     }
     
   }
@@ -145,6 +160,19 @@ public class NoiseNineExperiment extends NoiseExperiment {
     return 9;
   }
   
+  @Override
+  protected void restoreResults(Object results) {
+    Results stored = (Results) results;
+    super.restoreResults(stored.noiseResults);
+    northAngles = stored.northAngles.clone();
+    eastAngles = stored.eastAngles.clone();
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return new Results( super.snapshotResults(), northAngles, eastAngles );
+  }
+  
   /**
    * Private function used to get the orientation of inputted data
    * (Specifically, aligns the second and third horiz. inputs with the first)
@@ -4,8 +4,6 @@ import java.util.Arrays;
 
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealVector;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
@@ -48,6 +46,21 @@ public class OrthogonalExperiment extends Experiment {
     return curValue;
   }
   
+  /**
+   * Copy of the results of a run, for caching (see snapshotResults)
+   */
+  private static class Results {
+    
+    private final double[] diffs;
+    private final double angle;
+    
+    private Results(double[] diffs, double angle) {
+      this.diffs = diffs.clone();
+      this.angle = angle;
+    }
+    
+  }
+  
   private double[] diffs;
   
   private double angle;
@@ -77,15 +90,12 @@ public class OrthogonalExperiment extends Experiment {
     DataBlock testLH2Block = ds.getXthLoadedBlock(4);
     dataNames.add( testLH2Block.getName() );
     
-    double[] refLH1 = refLH1Block.getData();
-    double[] refLH2 = refLH2Block.getData();
-    double[] testLH1 = testLH1Block.getData();
-    double[] testLH2 = testLH2Block.getData();
-    
-    TimeSeriesUtils.detrend(refLH1);
-    TimeSeriesUtils.detrend(refLH2);
-    TimeSeriesUtils.detrend(testLH1);
-    TimeSeriesUtils.detrend(testLH2);
+    // detrend makes copies, so the normalization and filtering below
+    // (which are done in-place) don't modify the data held by the blocks
+    double[] refLH1 = TimeSeriesUtils.detrend( refLH1Block.getData() );
+    double[] refLH2 = TimeSeriesUtils.detrend( refLH2Block.getData() );
+    double[] testLH1 = TimeSeriesUtils.detrend( testLH1Block.getData() );
+    double[] testLH2 = TimeSeriesUtils.detrend( testLH2Block.getData() );
     
     refLH1 = TimeSeriesUtils.normalize(refLH1);
     refLH2 = TimeSeriesUtils.normalize(refLH2);
@@ -96,10 +106,8 @@ public class OrthogonalExperiment extends Experiment {
     double low = 1./8;
     double high = 1./4;
     
-    refLH1 = FFTResult.bandFilter(refLH1, sps, low, high);
-    refLH2 = FFTResult.bandFilter(refLH2, sps, low, high);
-    testLH1 = FFTResult.bandFilter(testLH1, sps, low, high);
-    testLH2 = FFTResult.bandFilter(testLH2, sps, low, high);
+    FFTResult.bandFilterAllInPlace(
+        new double[][]{refLH1, refLH2, testLH1, testLH2}, sps, low, high);
     
     int len = refLH1.length;
     
@@ -158,8 +166,8 @@ public class OrthogonalExperiment extends Experiment {
     double timeAtPoint = 0.;
     double tick = interval / TimeSeriesUtils.ONE_HZ_INTERVAL;
     
-    XYSeries diffSrs = new XYSeries("Diff(" + testName + ", " + refName + ")");
-    XYSeries diffRotSrs = new XYSeries("Diff(" + testName + ", Rotated Ref.)");
+    Curve diffSrs = new Curve("Diff(" + testName + ", " + refName + ")");
+    Curve diffRotSrs = new Curve("Diff(" + testName + ", Rotated Ref.)");
     
     RealVector diffLH1 = testY.subtract(refY);
     RealVector diffComponents = value(refX, refY, angleY);
@@ -171,10 +179,10 @@ public class OrthogonalExperiment extends Experiment {
       timeAtPoint += tick;
     }
     
-    XYSeriesCollection xysc = new XYSeriesCollection();
-    xysc.addSeries(diffSrs);
-    xysc.addSeries(diffRotSrs);
-    xySeriesData.add(xysc);
+    CurveSet curves = new CurveSet();
+    curves.addCurve(diffSrs);
+    curves.addCurve(diffRotSrs);
+    curveData.add(curves);
     
   }
   
@@ -183,6 +191,18 @@ public class OrthogonalExperiment extends Experiment {
     return 4;
   }
   
+  @Override
+  protected void restoreResults(Object results) {
+    Results stored = (Results) results;
+    diffs = stored.diffs.clone();
+    angle = stored.angle;
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return new Results(diffs, angle);
+  }
+  
   /**
    * Returns the difference of the best-fit angles for the unknown sensors
    * @return Angle, in degrees
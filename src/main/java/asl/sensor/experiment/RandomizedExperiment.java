@@ -4,7 +4,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
@@ -18,15 +23,17 @@ import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.util.Pair;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.BinaryRecord;
 import asl.sensor.utils.FFTResult;
 import asl.sensor.utils.LiterallyJustTheCommonsLMClass;
+import asl.sensor.utils.MetricsRegistry;
 import asl.sensor.utils.NumericUtils;
+import asl.sensor.utils.SolverTrace;
+import asl.sensor.utils.WorkerPool;
 
 /**
  * This experiment takes in a randomized calibration signal and the
@@ -56,9 +63,16 @@ extends Experiment implements ParameterValidator {
       //NumericUtils.PEAK_MULTIPLIER; // max pole-fit frequency
       // NumericUtils.PEAK_MULTIPLIER 
   
-  public static final boolean PRINT_EVERYTHING = true;
-  // bool logic used so that if PRINT_EVERYTHING is false, this won't work
-  public static final boolean OUTPUT_TO_TERMINAL = PRINT_EVERYTHING && true;
+  // multi-start solver parameters: the default number of starts used when
+  // multi-start fitting is enabled from the GUI, the standard deviation of
+  // the (log-scale) relative perturbation applied to each parameter, and
+  // a fixed seed so that repeated runs on the same data give the same fits
+  public static final int DEFAULT_STARTS = 8;
+  public static final double START_SPREAD = 0.2;
+  private static final long START_SEED = 8675309L;
+  
+  // number of solver evaluations kept when tracing is enabled from the GUI
+  public static final int DEFAULT_TRACE_DEPTH = 1000;
   
   // To whomever has to maintain this code after I'm gone:
   // I'm sorry, I'm so so sorry
@@ -66,14 +80,52 @@ extends Experiment implements ParameterValidator {
   // response class? It's still inherently nasty due to issues relating to
   // converting complex lists into arrays of doubles in order to use the solver
   
+  /**
+   * Copy of the results of a run, for caching (see snapshotResults). The
+   * fit response and solver trace aren't changed once a run is done, so
+   * they aren't copied.
+   */
+  private static class Results {
+    
+    private final double initialResidual, fitResidual;
+    private final List<Complex> initialPoles, fitPoles;
+    private final List<Complex> initialZeros, fitZeros;
+    private final SolverTrace trace;
+    private final InstrumentResponse fitResponse;
+    private final double[] freqs;
+    private final double maxMagWeight, maxArgWeight;
+    private final int numIterations, bestStart;
+    private final double[] startResiduals;
+    private final int[] startIterations;
+    
+    private Results(RandomizedExperiment exp) {
+      initialResidual = exp.initialResidual;
+      fitResidual = exp.fitResidual;
+      initialPoles = new ArrayList<Complex>(exp.initialPoles);
+      fitPoles = new ArrayList<Complex>(exp.fitPoles);
+      initialZeros = new ArrayList<Complex>(exp.initialZeros);
+      fitZeros = new ArrayList<Complex>(exp.fitZeros);
+      trace = exp.trace;
+      fitResponse = exp.fitResponse;
+      freqs = exp.freqs.clone();
+      maxMagWeight = exp.maxMagWeight;
+      maxArgWeight = exp.maxArgWeight;
+      numIterations = exp.numIterations;
+      bestStart = exp.bestStart;
+      startResiduals = exp.startResiduals.clone();
+      startIterations = exp.startIterations.clone();
+    }
+    
+  }
+  
   private double initialResidual, fitResidual;
   private List<Complex> initialPoles;
   private List<Complex> fitPoles;
   private List<Complex> initialZeros;
   private List<Complex> fitZeros;
   
-  private List<String> inputsPerCalculation;
-  private List<String> outputsPerCalculation;
+  private int traceDepth; // how many solver evaluations to keep, 0 for none
+  private SolverTrace trace;
   
   // when true, doesn't run solver, in event parameters have an issue
   // (does the solver seem to have frozen? try rebuilding with this as true,
@@ -95,12 +147,23 @@ extends Experiment implements ParameterValidator {
   private int numZeros; // how many entries in parameter vector define zeros
   private int numIterations; // how much the solver ran
   
+  private int numStarts; // how many initial guesses to run the solver from
+  private int bestStart; // index of start that produced the best fit
+  private double[] startResiduals; // fit residual from each start
+  private int[] startIterations; // solver iterations used by each start
+  
   public RandomizedExperiment() {
     super();
     lowFreq = false;
     normalIdx = 0;
     numIterations = 0;
     freqSpace = true;
+    numStarts = 1;
+    traceDepth = 0;
+    trace = null;
+    bestStart = 0;
+    startResiduals = new double[]{};
+    startIterations = new int[]{};
   }
   
   /*
@@ -113,11 +176,17 @@ extends Experiment implements ParameterValidator {
     
     boolean dontSolve = getSolverState(); // true if we should NOT run solver
     
-    inputsPerCalculation = new ArrayList<String>();
-    outputsPerCalculation = new ArrayList<String>();
+    if (traceDepth > 0) {
+      trace = new SolverTrace(traceDepth);
+    } else {
+      trace = null;
+    }
     
     normalIdx = 1;
     numIterations = 0;
+    bestStart = 0;
+    startResiduals = new double[]{};
+    startIterations = new int[]{};
     
     // construct response plot
     DataBlock calib = ds.getBlock(0);
@@ -129,7 +198,7 @@ extends Experiment implements ParameterValidator {
     */
 
     DataBlock sensorOut = ds.getBlock(1);
-    fitResponse = new InstrumentResponse( ds.getResponse(1) );
+    fitResponse = ds.getResponse(1);
     
     // System.out.println(calib.size() + ", " + sensorOut.size());
     
@@ -137,7 +206,7 @@ extends Experiment implements ParameterValidator {
     dataNames.add( sensorOut.getName() );
     dataNames.add( fitResponse.getName() );
     
-    InstrumentResponse initResponse = new InstrumentResponse(fitResponse);
+    InstrumentResponse initResponse = fitResponse;
     initialPoles = new ArrayList<Complex>( fitResponse.getPoles() );
     initialZeros = new ArrayList<Complex>( fitResponse.getZeros() );
     
@@ -237,8 +306,8 @@ extends Experiment implements ParameterValidator {
     
     // next, normalize estimated response
     String name = sensorOut.getName();
-    XYSeries calcMag = new XYSeries("Calc. resp. (" + name + ") magnitude");
-    XYSeries calcArg = new XYSeries("Calc. resp. (" + name + ") phase");
+    Curve calcMag = new Curve("Calc. resp. (" + name + ") magnitude");
+    Curve calcArg = new Curve("Calc. resp. (" + name + ") phase");
     
     // scaling values, used to set curve values to 0 at 1Hz
     Complex scaleValue = estResponse[normalIdx];
@@ -416,25 +485,11 @@ extends Experiment implements ParameterValidator {
     numZeros = initialZeroGuess.getDimension();
     initialGuess = initialZeroGuess.append(initialPoleGuess);
     
-    if (OUTPUT_TO_TERMINAL) {
-      System.out.println( "observed Result: "+Arrays.toString(observedResult) );
-    }
-    
     // now, solve for the response that gets us the best-fit response curve
     // RealVector initialGuess = MatrixUtils.createRealVector(responseVariables);
     RealVector obsResVector = MatrixUtils.createRealVector(observedResult);
     
-    MultivariateJacobianFunction jacobian = new MultivariateJacobianFunction() {
-      
-      public Pair<RealVector, RealMatrix> value(final RealVector point) {
-        ++numIterations;
-        fireStateChange("Fitting, iteration count " + numIterations);
-        Pair<RealVector, RealMatrix> pair = 
-            jacobian(point);
-        return pair;
-      }
-      
-    };
+    MultivariateJacobianFunction jacobian = getModel(0);
     
     double costTolerance = 1.0E-15; 
     double paramTolerance = 1.0E-10;
@@ -452,22 +507,14 @@ extends Experiment implements ParameterValidator {
     
     // set up structures that will hold the initial and final response plots
     name = fitResponse.getName();
-    XYSeries initMag = new XYSeries("Initial param (" + name + ") magnitude");
-    XYSeries initArg = new XYSeries("Initial param (" + name + ") phase");
+    Curve initMag = new Curve("Initial param (" + name + ") magnitude");
+    Curve initArg = new Curve("Initial param (" + name + ") phase");
     
-    XYSeries fitMag = new XYSeries("Fit resp. magnitude");
-    XYSeries fitArg = new XYSeries("Fit resp. phase");
+    Curve fitMag = new Curve("Fit resp. magnitude");
+    Curve fitArg = new Curve("Fit resp. phase");
     
-    LeastSquaresProblem lsp = new LeastSquaresBuilder().
-        start(initialGuess).
-        target(obsResVector).
-        model(jacobian).
-        weight(weightMat).
-        parameterValidator(this).
-        lazyEvaluation(false).
-        maxEvaluations(Integer.MAX_VALUE).
-        maxIterations(Integer.MAX_VALUE).
-        build();
+    LeastSquaresProblem lsp = 
+        buildProblem(initialGuess, obsResVector, weightMat, jacobian);
     
     fireStateChange("Built least-squares problem; evaluating intial guess...");
 
@@ -477,19 +524,29 @@ extends Experiment implements ParameterValidator {
     initialResidual = initEval.getCost();
     
     fireStateChange("Got initial evaluation; running solver...");
+    // the number of solver iterations isn't known ahead of time, so progress
+    // only moves between stages (solver cancels through the model function)
+    fireProgress(0.1);
     
     double[] initialValues =
         jacobian.value(initialGuess).getFirst().toArray();
     
     RealVector finalResultVector;
     
-    if (!dontSolve) {
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("solver.fit");
+    if (!dontSolve && numStarts > 1) {
+      finalResultVector = 
+          multiStartSolve(optimizer, lsp, obsResVector, weightMat);
+    } else if (!dontSolve) {
       LeastSquaresOptimizer.Optimum optimum = optimizer.optimize(lsp);
       finalResultVector = optimum.getPoint();
       numIterations = optimum.getIterations();
+      startResiduals = new double[]{optimum.getCost()};
+      startIterations = new int[]{numIterations};
     } else {
       finalResultVector = initialGuess;
     }
+    timer.stop();
     
     LeastSquaresProblem.Evaluation optimum = lsp.evaluate(finalResultVector);
     fitResidual = optimum.getCost();
@@ -498,10 +555,10 @@ extends Experiment implements ParameterValidator {
     double[] fitValues = 
         jacobian.value( optimum.getPoint() ).getFirst().toArray();
     
-    XYSeries initResidMag = new XYSeries("Percent error of init. amplitude");
-    XYSeries initResidPhase = new XYSeries("Diff. with init phase");
-    XYSeries fitResidMag = new XYSeries("Percent error of fit amplitude");
-    XYSeries fitResidPhase = new XYSeries("Diff with fit phase");
+    Curve initResidMag = new Curve("Percent error of init. amplitude");
+    Curve initResidPhase = new Curve("Diff. with init phase");
+    Curve fitResidMag = new Curve("Percent error of fit amplitude");
+    Curve fitResidPhase = new Curve("Diff with fit phase");
     
     // InstrumentResponse init = ds.getResponse(sensorOutIdx);
     
@@ -510,6 +567,7 @@ extends Experiment implements ParameterValidator {
     fitPoles = fitResponse.getPoles();
     fitZeros = fitResponse.getZeros();
     
+    fireProgress(0.9);
     fireStateChange("Getting extended resp curves for high-freq plots...");
     //freqs = freqsFull;
     Complex[] init = initResponse.applyResponseToInput(freqsFull);
@@ -564,36 +622,36 @@ extends Experiment implements ParameterValidator {
       }
     }
     
-    XYSeriesCollection xysc = new XYSeriesCollection();
-    xysc.addSeries(initMag);
-    xysc.addSeries(calcMag);
+    CurveSet curves = new CurveSet();
+    curves.addCurve(initMag);
+    curves.addCurve(calcMag);
     if (!dontSolve) {
-      xysc.addSeries(fitMag);
+      curves.addCurve(fitMag);
     }
 
-    xySeriesData.add(xysc);
+    curveData.add(curves);
     
-    xysc = new XYSeriesCollection();
-    xysc.addSeries(initArg);
-    xysc.addSeries(calcArg);    
+    curves = new CurveSet();
+    curves.addCurve(initArg);
+    curves.addCurve(calcArg);    
     if (!dontSolve) {
-      xysc.addSeries(fitArg);
+      curves.addCurve(fitArg);
     }
-    xySeriesData.add(xysc);
+    curveData.add(curves);
     
-    xysc = new XYSeriesCollection();
-    xysc.addSeries(initResidMag);
+    curves = new CurveSet();
+    curves.addCurve(initResidMag);
     if (!dontSolve) {
-      xysc.addSeries(fitResidMag);
+      curves.addCurve(fitResidMag);
     }
-    xySeriesData.add(xysc);
+    curveData.add(curves);
     
-    xysc = new XYSeriesCollection();    
-    xysc.addSeries(initResidPhase);
+    curves = new CurveSet();    
+    curves.addCurve(initResidPhase);
     if (!dontSolve) {
-      xysc.addSeries(fitResidPhase);
+      curves.addCurve(fitResidPhase);
     }
-    xySeriesData.add(xysc);
+    curveData.add(curves);
 
   }
   
@@ -602,6 +660,30 @@ extends Experiment implements ParameterValidator {
     return 2;
   }
   
+  /**
+   * Construct the least-squares problem for fitting the response parameters
+   * starting from a given initial guess
+   * @param start Initial guess of parameters to start the solver from
+   * @param target Observed response curve values (magnitude, then phase)
+   * @param weightMat Weighting of each point of the response curve
+   * @param model Function evaluating the response curve and its Jacobian
+   * @return Problem to be passed into the least-squares optimizer
+   */
+  private LeastSquaresProblem buildProblem(RealVector start, 
+      RealVector target, RealMatrix weightMat, 
+      MultivariateJacobianFunction model) {
+    return new LeastSquaresBuilder().
+        start(start).
+        target(target).
+        model(model).
+        weight(weightMat).
+        parameterValidator(this).
+        lazyEvaluation(false).
+        maxEvaluations(Integer.MAX_VALUE).
+        maxIterations(Integer.MAX_VALUE).
+        build();
+  }
+  
   public double getMaxFitFrequency() {
     return freqs[freqs.length - 1];
   }
@@ -629,15 +711,16 @@ extends Experiment implements ParameterValidator {
   /**
    * Backend function to set instrument response according to current
    * test variables (for best-fit calculation / backward difference) and
-   * produce a response from that result. The passed response is copied on
-   * start and is not modified directly. Which values (poles) are modified
-   * depends on high or low frequency calibration setting.
+   * produce a response from that result. Responses can't be changed, so this
+   * builds a new one with the test values, sharing whatever isn't being fit
+   * with the current response. Which values (poles) are replaced depends on
+   * high or low frequency calibration setting.
    * @param variables values to set the instrument response to 
    * @return Doubles representing new response curve evaluation
    */
   private double[] evaluateResponse(double[] variables) {
     
-    InstrumentResponse testResp = new InstrumentResponse(fitResponse);
+    InstrumentResponse testResp = fitResponse;
     
     // prevent terrible case where, say, only high-freq poles above nyquist rate
     if ( variables.length > 0) {
@@ -662,6 +745,15 @@ extends Experiment implements ParameterValidator {
     return curValue;
   }
   
+  /**
+   * Get the index of the solver start that produced the best-fit response.
+   * Start 0 is always the nominal response; others are perturbations of it
+   * @return Index into the per-start residual and iteration arrays
+   */
+  public int getBestStart() {
+    return bestStart;
+  }
+  
   /**
    * Get the poles that the solver has found to best-fit the est. response
    * @return new poles that should improve fit over inputted response, as a list
@@ -712,14 +804,6 @@ extends Experiment implements ParameterValidator {
     return zerosOut;
   }
   
-  public List<String> getInputsToPrint() {
-    return inputsPerCalculation;
-  }
-  
-  public List<String> getOutputsToPrint() {
-    return outputsPerCalculation;
-  }
-  
   /**
    * Get poles used in input response, for reference against best-fit poles 
    * @return poles taken from initial response file
@@ -771,6 +855,33 @@ extends Experiment implements ParameterValidator {
     return numIterations;
   }
   
+  /**
+   * Get the number of iterations the solver took from each starting point.
+   * If the solver failed to converge from a start, its count is 0
+   * @return Array of iteration counts, one per solver start
+   */
+  public int[] getStartIterations() {
+    return startIterations;
+  }
+  
+  /**
+   * Get the residual of the solver's result from each starting point.
+   * If the solver failed to converge from a start, its residual is NaN
+   * @return Array of fit residuals, one per solver start
+   */
+  public double[] getStartResiduals() {
+    return startResiduals;
+  }
+  
+  /**
+   * Get the trace of the most recent solver evaluations from the last run,
+   * if tracing was enabled with setTraceDepth
+   * @return Trace of solver parameters and residuals, or null if not traced
+   */
+  public SolverTrace getSolverTrace() {
+    return trace;
+  }
+  
   /**
    * Used to determine whether to run the solver or not; disabling the solver
    * is useful for determining the quality of a given calibration function
@@ -804,11 +915,10 @@ extends Experiment implements ParameterValidator {
    * @return 2D array with each of the amplitude response curves
    */
   public double[][] getAmplitudesAsArrays() {
-    XYSeriesCollection mags = xySeriesData.get(0);
-    double[][] out = new double[mags.getSeriesCount()][];
+    CurveSet mags = curveData.get(0);
+    double[][] out = new double[mags.getCurveCount()][];
     for (int i = 0; i < out.length; ++i) {
-      XYSeries xys = mags.getSeries(i);
-      out[i] = xys.toArray()[1];
+      out[i] = mags.getCurve(i).getYValues();
     }
     return out;
   }
@@ -820,15 +930,86 @@ extends Experiment implements ParameterValidator {
    * @return 2D array with each of the phase response curves
    */
   public double[][] getPhasesAsArrays() {
-    XYSeriesCollection phases = xySeriesData.get(0);
-    double[][] out = new double[phases.getSeriesCount()][];
+    CurveSet phases = curveData.get(1);
+    double[][] out = new double[phases.getCurveCount()][];
     for (int i = 0; i < out.length; ++i) {
-      XYSeries xys = phases.getSeries(i);
-      out[i] = xys.toArray()[1];
+      out[i] = phases.getCurve(i).getYValues();
     }
     return out;
   }
   
+  /**
+   * Get the amplitude curves as packed little-endian doubles, for fast
+   * transfer to python (see BinaryRecord.packDoubles). Curves are in the
+   * same order as getAmplitudesAsArrays and are concatenated in that order;
+   * each is as long as the list from getPlottedFreqList.
+   * @return Bytes of the amplitude response curves
+   */
+  public byte[] getAmplitudesAsBytes() {
+    return BinaryRecord.packDoubles( getAmplitudesAsArrays() );
+  }
+  
+  /**
+   * Get the fit frequencies as packed little-endian doubles, for fast
+   * transfer to python (see BinaryRecord.packDoubles)
+   * @return Bytes of the list from getFreqList
+   */
+  public byte[] getFreqListAsBytes() {
+    return BinaryRecord.packDoubles(freqs);
+  }
+  
+  /**
+   * Get the phase curves as packed little-endian doubles, for fast transfer
+   * to python (see BinaryRecord.packDoubles). Curves are in the same order
+   * as getPhasesAsArrays and are concatenated in that order; each is as
+   * long as the list from getPlottedFreqList.
+   * @return Bytes of the phase response curves
+   */
+  public byte[] getPhasesAsBytes() {
+    return BinaryRecord.packDoubles( getPhasesAsArrays() );
+  }
+  
+  @Override
+  protected void restoreResults(Object results) {
+    Results stored = (Results) results;
+    initialResidual = stored.initialResidual;
+    fitResidual = stored.fitResidual;
+    initialPoles = new ArrayList<Complex>(stored.initialPoles);
+    fitPoles = new ArrayList<Complex>(stored.fitPoles);
+    initialZeros = new ArrayList<Complex>(stored.initialZeros);
+    fitZeros = new ArrayList<Complex>(stored.fitZeros);
+    trace = stored.trace;
+    fitResponse = stored.fitResponse;
+    freqs = stored.freqs.clone();
+    maxMagWeight = stored.maxMagWeight;
+    maxArgWeight = stored.maxArgWeight;
+    numIterations = stored.numIterations;
+    bestStart = stored.bestStart;
+    startResiduals = stored.startResiduals.clone();
+    startIterations = stored.startIterations.clone();
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return new Results(this);
+  }
+  
+  @Override
+  protected String getParameterFingerprint() {
+    return "lowFreq=" + lowFreq + ",freqSpace=" + freqSpace +
+        ",starts=" + numStarts + ",traceDepth=" + traceDepth;
+  }
+  
+  /**
+   * Get the x-axis values of the response curves, which for high-frequency
+   * cals extend past the range used for the fit (see getFreqList). These are
+   * periods rather than frequencies if frequency units are not being used.
+   * @return X-axis values of the amplitude and phase plots, in sorted order
+   */
+  public double[] getPlottedFreqList() {
+    return curveData.get(0).getCurve(0).getXValues();
+  }
+  
   @Override
   public boolean hasEnoughData(DataStore ds) {
     return ( ds.blockIsSet(0) && ds.bothComponentsSet(1) );
@@ -839,11 +1020,12 @@ extends Experiment implements ParameterValidator {
    * approximation given a set of points to set as response. 
    * Mainly a wrapper for the evaluateResponse function.
    * @param variables Values to set the response's poles to
+   * @param start Index of the solver start being evaluated, for tracing
    * @return RealVector with evaluation at current response value and 
    * RealMatrix with backward difference of that response (Jacobian)
    */
   private Pair<RealVector, RealMatrix> 
-  jacobian(RealVector variables) {
+  jacobian(RealVector variables, int start) {
     
     // variables = validate(variables);
     
@@ -857,15 +1039,14 @@ extends Experiment implements ParameterValidator {
     
     double[] mag = evaluateResponse(currentVars);
     
-    if (PRINT_EVERYTHING) {
-      String in = Arrays.toString(currentVars);
-      String out = Arrays.toString(mag);
-      inputsPerCalculation.add(in);
-      outputsPerCalculation.add(out);
-      if (OUTPUT_TO_TERMINAL) {
-        System.out.println("this is in "+in);
-        System.out.println(out);
+    if (trace != null) {
+      // same weighted cost as the solver's evaluation uses
+      double resid = 0.;
+      for (int i = 0; i < mag.length; ++i) {
+        double diff = mag[i] - observedResult[i];
+        resid += weights[i] * diff * diff;
       }
+      trace.record( start, currentVars, Math.sqrt(resid) );
     }
     
     double[][] jacobian = new double[mag.length][numVars];
@@ -905,53 +1086,42 @@ extends Experiment implements ParameterValidator {
     
     RealVector result = MatrixUtils.createRealVector(mag);
     RealMatrix jMat = MatrixUtils.createRealMatrix(jacobian);
-    if (OUTPUT_TO_TERMINAL) {
-      // currently only looking at data about the sign of the jacobian
-      int colDim = jMat.getColumnDimension();
-      double[] rmsJbn = new double[colDim];
-      for (int i = 0; i < colDim; ++i) {
-        RealVector v = jMat.getColumnVector(i);
-        double rms = 0.;
-        int numPositive = 0;
-        int numNegative = 0;
-        for (int j = 0; j < v.getDimension(); ++j)  {
-          double entry = v.getEntry(j);
-          rms += Math.pow(entry, 2);
-          if (entry < 0.) {
-            ++numPositive;
-          } else if (entry > 0.) {
-            ++numNegative;
-          }
-        }
-        rms /= v.getDimension();
-        rms = Math.sqrt(rms);
-        //String init = "Jacobian value for variable " + i;
-        //if (numPositive > numNegative) {
-         // System.out.println(init + " is mostly positive.");
-          //System.out.println("Values: " + numPositive + ", " + numNegative);
-        //} else if (numPositive < numNegative) {
-         // System.out.println(init + " is mostly negative.");
-          //System.out.println("Values: " + numPositive + ", " + numNegative);
-        //} else {
-         // System.out.println(init + " has equal +/-.");
-          //System.out.println("Values: " + numPositive + ", " + numNegative);
-        //}
-        System.out.println("The RMS value is " + rms);
-      }
-      
-      // get the residual values and print that out
-      double resid = 0.;
-      for (int i = 0; i < mag.length; ++i) {
-        double sumSqd = Math.pow(mag[i] - observedResult[i], 2);
-        resid += weights[i] * sumSqd;
-      }
-      System.out.println("Current residual: " + resid);
-    }
     
     return new Pair<RealVector, RealMatrix>(result, jMat);
     
   }
   
+  /**
+   * Get a function evaluating the response curve and its Jacobian at a 
+   * point for the solver. With a single start, the function reports its
+   * evaluation count as the experiment's status; with multiple starts it
+   * runs on pool threads, so it only checks for cancellation and progress
+   * is reported per finished start by multiStartSolve instead.
+   * @param start Index of the solver start the function is used by
+   * @return Model function to be used in a least-squares problem
+   */
+  private MultivariateJacobianFunction getModel(final int start) {
+    
+    return new MultivariateJacobianFunction() {
+      
+      private int count = 0;
+      
+      public Pair<RealVector, RealMatrix> value(final RealVector point) {
+        ++count;
+        MetricsRegistry.count("solver.evaluations", 1);
+        if (numStarts > 1) {
+          checkCancelled();
+        } else {
+          fireStateChange("Fitting, iteration count " + count);
+        }
+        Pair<RealVector, RealMatrix> pair = 
+            jacobian(point, start);
+        return pair;
+      }
+      
+    };
+  }
+  
   @Override
   public int[] listActiveResponseIndices() {
     // NOTE: not used by corresponding panel, overrides with active indices
@@ -959,6 +1129,140 @@ extends Experiment implements ParameterValidator {
     return new int[]{1};
   }
   
+  /**
+   * Run the solver from the nominal response parameters and from a number of
+   * random perturbations of them, each as its own problem on the shared
+   * worker pool, and keep the result with the lowest residual. This helps
+   * avoid fits that get stuck in a poor local minimum near the nominal
+   * response.
+   * Per-start residuals and iteration counts are kept for reporting.
+   * @param optimizer Least-squares optimizer to solve each problem with
+   * @param nominal Problem starting from the nominal response parameters
+   * @param target Observed response curve values (magnitude, then phase)
+   * @param weightMat Weighting of each point of the response curve
+   * @return Best-fit parameter vector over all starts
+   */
+  private RealVector multiStartSolve(final LeastSquaresOptimizer optimizer,
+      LeastSquaresProblem nominal, RealVector target, RealMatrix weightMat) {
+    
+    // perturbations are all generated here so that results don't depend on
+    // the order the threads happen to run in
+    Random random = new Random(START_SEED);
+    RealVector initialGuess = nominal.getStart();
+    List<Callable<LeastSquaresOptimizer.Optimum>> tasks = 
+        new ArrayList<Callable<LeastSquaresOptimizer.Optimum>>();
+    for (int i = 0; i < numStarts; ++i) {
+      final LeastSquaresProblem lsp;
+      if (i == 0) {
+        lsp = nominal;
+      } else {
+        RealVector start = perturbGuess(initialGuess, random);
+        lsp = buildProblem(start, target, weightMat, getModel(i));
+      }
+      Callable<LeastSquaresOptimizer.Optimum> task = 
+          new Callable<LeastSquaresOptimizer.Optimum>() {
+        @Override
+        public LeastSquaresOptimizer.Optimum call() {
+          return optimizer.optimize(lsp);
+        }
+      };
+      // so each start's evaluations are counted as part of this run
+      tasks.add( MetricsRegistry.recordingInCurrent(task) );
+    }
+    
+    startResiduals = new double[numStarts];
+    startIterations = new int[numStarts];
+    RealVector bestPoint = null;
+    Throwable firstFailure = null;
+    
+    List<Future<LeastSquaresOptimizer.Optimum>> results = 
+        WorkerPool.submitAll(tasks);
+    try {
+      for (int i = 0; i < numStarts; ++i) {
+        LeastSquaresOptimizer.Optimum optimum;
+        try {
+          optimum = WorkerPool.await( results.get(i) );
+        } catch (ExecutionException e) {
+          // a cancelled run stops every start, so it isn't a failed start
+          if ( e.getCause() instanceof CancellationException ) {
+            throw (CancellationException) e.getCause();
+          }
+          // a perturbed start may fail where the others don't
+          if (firstFailure == null) {
+            firstFailure = e.getCause();
+          }
+          startResiduals[i] = Double.NaN;
+          startIterations[i] = 0;
+          fireStartDone(i);
+          continue;
+        }
+        startResiduals[i] = optimum.getCost();
+        startIterations[i] = optimum.getIterations();
+        // ties go to the earlier start (i.e., to the nominal response)
+        if ( bestPoint == null || 
+            startResiduals[i] < startResiduals[bestStart] ) {
+          bestStart = i;
+          bestPoint = optimum.getPoint();
+        }
+        fireStartDone(i);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Solver starts interrupted");
+    } finally {
+      // the pool is shared, so stop only this run's starts if it's abandoned
+      WorkerPool.cancelAll(results);
+    }
+    
+    if (bestPoint == null) {
+      throw new RuntimeException(firstFailure);
+    }
+    
+    numIterations = startIterations[bestStart];
+    return bestPoint;
+  }
+  
+  /**
+   * Report a finished solver start as the experiment's status and progress,
+   * which fills the part of the run between the initial evaluation and the
+   * final result curves
+   * @param start Index of the solver start that finished
+   */
+  private void fireStartDone(int start) {
+    fireStateChange("Finished solver start " + (start + 1) + " of " + 
+        numStarts);
+    fireProgress(start + 1, numStarts, 0.1, 0.9);
+  }
+  
+  /**
+   * Get a randomly perturbed copy of an initial guess for the solver. 
+   * Each parameter is scaled by a log-normally distributed factor, so its
+   * sign is kept and (zero-valued) imaginary parts of real poles stay zero.
+   * @param guess Initial guess of response parameters to perturb
+   * @param random Random number source to get perturbations from
+   * @return New vector of perturbed parameters
+   */
+  private RealVector perturbGuess(RealVector guess, Random random) {
+    RealVector perturbed = guess.copy();
+    for (int i = 0; i < perturbed.getDimension(); ++i) {
+      double scale = Math.exp( START_SPREAD * random.nextGaussian() );
+      perturbed.setEntry( i, perturbed.getEntry(i) * scale );
+    }
+    return perturbed;
+  }
+  
+  /**
+   * Set the number of initial guesses the solver is run from. The first is
+   * always the nominal response's parameters; the rest are random
+   * perturbations of it, solved concurrently, with the lowest-residual
+   * result being used as the best fit.
+   * @param starts Number of solver starts; 1 (default) uses only the nominal
+   * response and runs the solver on the calling thread
+   */
+  public void setMultiStart(int starts) {
+    numStarts = Math.max(1, starts);
+  }
+  
   /**
    * Determines which poles to fit when doing the response curve fitting;
    * low frequency calibrations set the first two poles; high frequency
@@ -969,6 +1273,16 @@ extends Experiment implements ParameterValidator {
     this.lowFreq = lowFreq;
   }
   
+  /**
+   * Set how many of the most recent solver evaluations to keep a trace of
+   * (the parameters evaluated and their residual) on subsequent runs. 
+   * Tracing is off by default and has no cost to the solver when disabled.
+   * @param depth Number of evaluations to keep, or 0 to disable tracing
+   */
+  public void setTraceDepth(int depth) {
+    traceDepth = Math.max(0, depth);
+  }
+  
   /**
    * Set whether or not to plot in units of frequency (Hz) or period (s)
    * @param setFreq true if plots should be in frequency units (Hz)
@@ -5,8 +5,6 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.commons.math3.complex.Complex;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
@@ -58,11 +56,11 @@ public class ResponseExperiment extends Experiment {
       currentFreq = a * Math.pow(10, b * (i * linearChange) );
     }
     
-    // used to prevent issues with duplicate response plotting / XYSeries names
+    // used to prevent issues with duplicate response plotting / curve names
     Set<String> respNames = new HashSet<String>();
     
-    XYSeriesCollection args = new XYSeriesCollection();
-    XYSeriesCollection mags = new XYSeriesCollection();
+    CurveSet args = new CurveSet();
+    CurveSet mags = new CurveSet();
     
     for (int r = 0; r < 3; ++r) {
       if ( !ds.responseIsSet(r) ) {
@@ -83,8 +81,8 @@ public class ResponseExperiment extends Experiment {
       String name = ir.getName();
       
       double phiPrev = 0; // use with unwrapping
-      XYSeries magnitude = new XYSeries(name + " " + MAGNITUDE);
-      XYSeries argument = new XYSeries (name + " " + ARGUMENT);
+      Curve magnitude = new Curve(name + " " + MAGNITUDE);
+      Curve argument = new Curve(name + " " + ARGUMENT);
       for (int i = 0; i < freqArray.length; ++i) {
         Complex tmp = result[i];
         double phi = NumericUtils.atanc(tmp);
@@ -100,13 +98,13 @@ public class ResponseExperiment extends Experiment {
         argument.add(xVal, phi);
       }
       
-      mags.addSeries(magnitude);
-      args.addSeries(argument);
+      mags.addCurve(magnitude);
+      args.addCurve(argument);
       
     }
     
-    xySeriesData.add(mags);
-    xySeriesData.add(args);
+    curveData.add(mags);
+    curveData.add(args);
 
     dataNames = new ArrayList<String>(respNames); 
     
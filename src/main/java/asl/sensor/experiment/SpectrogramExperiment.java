@@ -0,0 +1,607 @@
+package asl.sensor.experiment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.math3.complex.Complex;
+
+import asl.sensor.input.DataBlock;
+import asl.sensor.input.DataStore;
+import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.FFTPlan;
+import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.MetricsRegistry;
+import asl.sensor.utils.NumericUtils;
+import asl.sensor.utils.ResourceCatalog;
+import asl.sensor.utils.TimeSeriesUtils;
+import asl.sensor.utils.WindowPreprocessor;
+import asl.sensor.utils.WorkerPool;
+
+/**
+ * Calculates PSDs of a single input over a series of sliding windows, so
+ * that changes in the noise over the length of the data (i.e., daily thermal
+ * cycling) can be seen. Each window's PSD is found the same way as the
+ * power-spectrum experiment finds the PSD of the whole range of data: the
+ * window is split into segments 1/4 its length, sliding by 1/16 of it, and
+ * the spectra of the segments are averaged, smoothed, and corrected for the
+ * instrument response.
+ *
+ * Windows slide by a whole number of segment steps, so overlapping windows
+ * share segments. Each segment is detrended, tapered, and transformed only
+ * once, and its power spectrum is kept for as long as a window still needs
+ * it. The windows are split into contiguous runs that are calculated in
+ * parallel on the shared worker pool, each run with its own buffers.
+ *
+ * To keep the result compact, each window's PSD is averaged into bands an
+ * octave wide, with centers spaced 1/8 of an octave apart (following
+ * McNamara and Buland's PDF of PSDs), and stored (in dB) as a float matrix
+ * indexed by window and then band. From that matrix, the probability
+ * density of the PSD values in each band (binned by 1 dB) is found, and its
+ * mode and median are plotted along with the NLNM and NHNM.
+ * @author akearns
+ *
+ */
+public class SpectrogramExperiment extends Experiment {
+  
+  /**
+   * Lowest power value (dB) counted in the probability density; values
+   * below it are counted in the lowest bin
+   */
+  public static final int PDF_MIN_DB = -200;
+  
+  /**
+   * Highest power value (dB) counted in the probability density; values
+   * above it are counted in the highest bin
+   */
+  public static final int PDF_MAX_DB = -50;
+  
+  /**
+   * Number of band centers per octave; each band that a window's PSD is
+   * averaged into is a full octave wide, so neighboring bands overlap
+   */
+  public static final int BANDS_PER_OCTAVE = 8;
+  
+  /**
+   * Longest period (s) included in the output, the same cutoff used when
+   * plotting PSDs (see Experiment.addToPlot)
+   */
+  private static final double MAX_PERIOD = 1.0E3;
+  
+  /**
+   * Number of runs of windows for each thread, so that the threads still
+   * have work to take on if some runs go faster than others
+   */
+  private static final int RUNS_PER_THREAD = 4;
+  
+  private boolean freqSpace;
+  private double windowLength; // seconds
+  private double windowOverlap; // fraction of window
+  
+  /**
+   * Copy of the results of a run, for caching (see snapshotResults)
+   */
+  private static class Results {
+    
+    private final int respIndex;
+    private final float[][] powers, densities;
+    private final double[] bandFreqs, windowOffsets;
+    private final double windowSpacing;
+    
+    private Results(SpectrogramExperiment exp) {
+      respIndex = exp.respIndex;
+      powers = copyRows(exp.powers);
+      densities = copyRows(exp.densities);
+      bandFreqs = exp.bandFreqs.clone();
+      windowOffsets = exp.windowOffsets.clone();
+      windowSpacing = exp.windowSpacing;
+    }
+    
+  }
+  
+  private int respIndex;
+  private float[][] powers; // [window][band], in dB
+  private float[][] densities; // [band][dB bin], fraction of windows
+  private double[] bandFreqs; // center frequency of each band
+  private double[] windowOffsets; // start of each window from data start (s)
+  private double windowSpacing; // time between window starts (s)
+  
+  /**
+   * Instantiates a spectrogram experiment, with windows an hour long that
+   * overlap by half
+   */
+  public SpectrogramExperiment() {
+    super();
+    freqSpace = false;
+    windowLength = 3600.;
+    windowOverlap = 0.5;
+    respIndex = 0;
+  }
+  
+  /**
+   * Calculates the PSD of each window of the first fully-loaded input,
+   * and the probability density of those PSDs in each frequency band.
+   */
+  @Override
+  protected void backend(final DataStore ds) {
+    
+    respIndex = ds.getXthFullyLoadedIndex(1);
+    DataBlock block = ds.getBlock(respIndex);
+    InstrumentResponse ir = ds.getResponse(respIndex);
+    dataNames.add( block.getName() );
+    dataNames.add( ir.getName() );
+    
+    final double[] data = block.getData();
+    long interval = block.getInterval();
+    double period = (double) interval / TimeSeriesUtils.ONE_HZ_INTERVAL;
+    
+    // windows longer than the data are cut down to a single window over all
+    // of the data, which gives the same PSD as the power-spectrum experiment
+    int windowPoints = (int) Math.round(windowLength / period);
+    windowPoints = Math.min(windowPoints, data.length);
+    // segment sizes match those of FFTResult.spectralCalc for one window
+    final int range = windowPoints / 4;
+    final int slider = range / 4;
+    if (slider < 1) {
+      throw new IllegalArgumentException(
+          "Window is too short to be split into segments");
+    }
+    final int segsPerWindow = (windowPoints - range) / slider + 1;
+    int totalSegs = (data.length - range) / slider + 1;
+    
+    // windows start on segment boundaries, so segments are shared
+    int stepSegs =
+        (int) Math.round( (1. - windowOverlap) * windowPoints / slider );
+    final int windowStep = Math.max(1, stepSegs);
+    int windowCount = (totalSegs - segsPerWindow) / windowStep + 1;
+    
+    int padding = 2;
+    while (padding < range) {
+      padding *= 2;
+    }
+    int singleSide = padding / 2 + 1;
+    double deltaFreq = 1. / (padding * period);
+    
+    windowSpacing = windowStep * slider * period;
+    windowOffsets = new double[windowCount];
+    for (int i = 0; i < windowCount; ++i) {
+      windowOffsets[i] = i * windowSpacing;
+    }
+    
+    fireStateChange("Getting response over PSD frequencies...");
+    double[] freqs = new double[singleSide];
+    for (int i = 0; i < singleSide; ++i) {
+      freqs[i] = i * deltaFreq;
+    }
+    final double[] respPower = getResponsePower(ir, freqs);
+    final int[][] bandEdges = getBandEdges(freqs, 1. / (2. * period));
+    
+    // same normalization as FFTResult.spectralCalc for a single window
+    WindowPreprocessor prep =
+        new WindowPreprocessor(range, FFTResult.TAPER_WIDTH);
+    double windowCorrection = prep.getTaperPower() / range;
+    final double normalization =
+        period / padding / windowCorrection / segsPerWindow;
+    
+    fireStateChange("Getting PSDs of " + windowCount + " windows...");
+    fireProgress(0.05);
+    MetricsRegistry.Stopwatch timer =
+        MetricsRegistry.start("spectral.spectrogram");
+    powers = new float[windowCount][];
+    
+    int threads =
+        Math.min( windowCount, Runtime.getRuntime().availableProcessors() );
+    int runs = Math.min(windowCount, threads * RUNS_PER_THREAD);
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < runs; ++i) {
+      final int first = (int) ( (long) windowCount * i / runs );
+      final int last = (int) ( (long) windowCount * (i + 1) / runs );
+      Callable<Void> task = new Callable<Void>() {
+        @Override
+        public Void call() {
+          calculateWindows(data, first, last, windowStep, segsPerWindow,
+              range, slider, normalization, respPower, bandEdges);
+          return null;
+        }
+      };
+      tasks.add( MetricsRegistry.recordingInCurrent(task) );
+    }
+    
+    WorkerPool.invokeAll(tasks, "Spectrogram");
+    timer.stop();
+    MetricsRegistry.count("spectral.spectrogramWindows", windowCount);
+    
+    fireProgress(0.9);
+    fireStateChange("Getting probability density of PSDs...");
+    buildDensities();
+    
+    CurveSet curves = new CurveSet();
+    String name = block.getName();
+    curves.addCurve( getStatisticCurve("Mode " + name, true) );
+    curves.addCurve( getStatisticCurve("Median " + name, false) );
+    addToPlot(ResourceCatalog.getLowNoiseModel(), freqSpace, curves);
+    addToPlot(ResourceCatalog.getHighNoiseModel(), freqSpace, curves);
+    curveData.add(curves);
+  
+  }
+  
+  @Override
+  public int blocksNeeded() {
+    return 1;
+  }
+  
+  /**
+   * Find the probability density of the PSD values in each band over all
+   * windows, in bins of 1 dB
+   */
+  private void buildDensities() {
+    int bins = PDF_MAX_DB - PDF_MIN_DB + 1;
+    densities = new float[bandFreqs.length][bins];
+    float weight = 1.f / powers.length;
+    for (float[] window : powers) {
+      for (int j = 0; j < window.length; ++j) {
+        densities[j][ getDensityBin(window[j]) ] += weight;
+      }
+    }
+  }
+  
+  /**
+   * Calculate the banded PSDs of a run of consecutive windows. Segment power
+   * spectra are kept in a ring as long as a window may still use them, so
+   * each segment in the run is only transformed once. Each call has its own
+   * buffers, so runs can be calculated at the same time.
+   * @param data Timeseries data to get PSDs of
+   * @param first Index of the first window of the run
+   * @param last Index after the last window of the run
+   * @param windowStep Number of segments between the starts of windows
+   * @param segsPerWindow Number of segments in each window
+   * @param range Length of each segment
+   * @param slider Number of points between the starts of segments
+   * @param normalization Scale of the summed segment powers to get a PSD
+   * @param respPower Power of the response (in acceleration) at each
+   * frequency of the segments' spectra
+   * @param bandEdges Index of the first frequency in each band and the index
+   * after the last frequency in each band (see getBandEdges)
+   */
+  private void calculateWindows(double[] data, int first, int last,
+      int windowStep, int segsPerWindow, int range, int slider,
+      double normalization, double[] respPower, int[][] bandEdges) {
+    
+    int singleSide = respPower.length;
+    int padding = (singleSide - 1) * 2;
+    WindowPreprocessor prep =
+        new WindowPreprocessor(range, FFTResult.TAPER_WIDTH);
+    FFTPlan plan = FFTPlan.getPlan(padding);
+    double[] toFFT = new double[padding]; // stays zero past the segment
+    double[] fftRe = new double[singleSide];
+    double[] fftIm = new double[singleSide];
+    
+    // ring of segment power spectra, each at the index (segment % size)
+    double[][] ring = new double[segsPerWindow][singleSide];
+    int[] ringSegs = new int[segsPerWindow];
+    Arrays.fill(ringSegs, -1);
+    
+    double[] psd = new double[singleSide];
+    double[] smoothed = new double[singleSide];
+    
+    for (int w = first; w < last; ++w) {
+      
+      checkCancelled();
+      
+      int firstSeg = w * windowStep;
+      Arrays.fill(psd, 0.);
+      for (int seg = firstSeg; seg < firstSeg + segsPerWindow; ++seg) {
+        int slot = seg % segsPerWindow;
+        double[] segPower = ring[slot];
+        if (ringSegs[slot] != seg) {
+          prep.apply(data, seg * slider, toFFT, 0);
+          plan.forwardReal(toFFT, fftRe, fftIm);
+          for (int i = 0; i < singleSide; ++i) {
+            // (2 * val) * conj(2 * val), as in FFTResult.spectralCalc
+            double re = fftRe[i], im = fftIm[i];
+            segPower[i] = 4 * (re * re + im * im);
+          }
+          ringSegs[slot] = seg;
+        }
+        for (int i = 0; i < singleSide; ++i) {
+          psd[i] += segPower[i];
+        }
+      }
+      
+      for (int i = 0; i < singleSide; ++i) {
+        psd[i] *= normalization;
+      }
+      smooth(psd, smoothed);
+      for (int i = 0; i < singleSide; ++i) {
+        smoothed[i] /= respPower[i];
+      }
+      
+      int[] starts = bandEdges[0];
+      int[] ends = bandEdges[1];
+      float[] bands = new float[starts.length];
+      for (int j = 0; j < bands.length; ++j) {
+        double sum = 0.;
+        for (int i = starts[j]; i < ends[j]; ++i) {
+          sum += smoothed[i];
+        }
+        double mean = sum / (ends[j] - starts[j]);
+        bands[j] = (float) ( 10 * Math.log10(mean) );
+      }
+      powers[w] = bands;
+    }
+  }
+  
+  /**
+   * Copy a 2D array of results down to its rows, so that a copy made for
+   * caching never shares a row with an experiment
+   * @param rows Array to copy
+   * @return Copy of the array
+   */
+  private static float[][] copyRows(float[][] rows) {
+    float[][] copy = new float[rows.length][];
+    for (int i = 0; i < rows.length; ++i) {
+      copy[i] = rows[i].clone();
+    }
+    return copy;
+  }
+  
+  /**
+   * Get the frequencies of the PSD that go in each band. Band centers are
+   * spaced 1/8 of an octave apart, from the longest plotted period up to the
+   * Nyquist rate, and each band holds the frequencies within half an octave
+   * of its center. A band holding no frequencies (at the low end, where the
+   * PSD's frequencies are furthest apart) uses the one nearest its center.
+   * @param freqs Frequencies of the PSD, starting at 0 and evenly spaced
+   * @param nyquist Nyquist rate of the data
+   * @return Two arrays: the index of the first frequency in each band, and
+   * the index after the last frequency in each band. Also sets the center
+   * frequencies of the bands.
+   */
+  private int[][] getBandEdges(double[] freqs, double nyquist) {
+    double deltaFreq = freqs[1];
+    double lowest = Math.max(deltaFreq, 1. / MAX_PERIOD);
+    double halfOctave = Math.sqrt(2.);
+    
+    int bands = 0;
+    while ( lowest * Math.pow(2., (double) bands / BANDS_PER_OCTAVE)
+        <= nyquist ) {
+      ++bands;
+    }
+    
+    bandFreqs = new double[bands];
+    int[] starts = new int[bands];
+    int[] ends = new int[bands];
+    for (int j = 0; j < bands; ++j) {
+      double center = lowest * Math.pow(2., (double) j / BANDS_PER_OCTAVE);
+      bandFreqs[j] = center;
+      // the zero frequency is left out of every band
+      int start = (int) Math.ceil(center / halfOctave / deltaFreq);
+      int end = (int) Math.ceil(center * halfOctave / deltaFreq);
+      start = Math.max(1, start);
+      end = Math.min(freqs.length, end);
+      if (end <= start) {
+        start = (int) Math.round(center / deltaFreq);
+        start = Math.max( 1, Math.min(freqs.length - 1, start) );
+        end = start + 1;
+      }
+      starts[j] = start;
+      ends[j] = end;
+    }
+    return new int[][]{starts, ends};
+  }
+  
+  /**
+   * Get the center frequency of each band of the PSDs
+   * @return Band centers in Hz, in increasing order
+   */
+  public double[] getBandFrequencies() {
+    return bandFreqs;
+  }
+  
+  /**
+   * Get the probability density of the PSD values in each band; the value
+   * for a band and bin is the fraction of windows with power in that bin.
+   * Bin i holds values from (PDF_MIN_DB + i - 0.5) to (PDF_MIN_DB + i + 0.5)
+   * @return Densities indexed by band and then by 1 dB bin
+   */
+  public float[][] getDensities() {
+    return densities;
+  }
+  
+  /**
+   * Get the bin of the probability density that a PSD value belongs to
+   * @param db PSD value in dB
+   * @return Index of the bin, with out-of-range values put in the end bins
+   */
+  private static int getDensityBin(float db) {
+    int bin = Math.round(db) - PDF_MIN_DB;
+    return Math.max( 0, Math.min(PDF_MAX_DB - PDF_MIN_DB, bin) );
+  }
+  
+  /**
+   * Get whether the plotted statistics use frequency (Hz) units
+   * @return True if frequency units are used, false if period units (s)
+   */
+  public boolean getFreqSpace() {
+    return freqSpace;
+  }
+  
+  @Override
+  protected void restoreResults(Object results) {
+    Results stored = (Results) results;
+    respIndex = stored.respIndex;
+    powers = copyRows(stored.powers);
+    densities = copyRows(stored.densities);
+    bandFreqs = stored.bandFreqs.clone();
+    windowOffsets = stored.windowOffsets.clone();
+    windowSpacing = stored.windowSpacing;
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return new Results(this);
+  }
+  
+  @Override
+  protected String getParameterFingerprint() {
+    return "freqSpace=" + freqSpace + ",windowLength=" + windowLength +
+        ",windowOverlap=" + windowOverlap;
+  }
+  
+  /**
+   * Get the PSD of each window, averaged into bands
+   * @return Power in dB (rel. 1 (m/s^2)^2/Hz), indexed by window and then by
+   * band (see getBandFrequencies)
+   */
+  public float[][] getPowers() {
+    return powers;
+  }
+  
+  /**
+   * Get the power of the response over the given frequencies, in units of
+   * acceleration (see FFTResult.crossPower)
+   * @param ir Response to apply
+   * @param freqs Frequencies to get the response at
+   * @return Squared magnitude of the acceleration response at each frequency
+   */
+  private static double[]
+  getResponsePower(InstrumentResponse ir, double[] freqs) {
+    Complex[] resp = ir.applyResponseToInput(freqs);
+    double[] respPower = new double[freqs.length];
+    for (int i = 0; i < freqs.length; ++i) {
+      double scale = 1. / (NumericUtils.TAU * freqs[i]);
+      double abs = resp[i].abs() * scale;
+      respPower[i] = Math.max(abs * abs, Double.MIN_VALUE);
+    }
+    return respPower;
+  }
+  
+  /**
+   * Build a curve of the mode or median PSD value of each band
+   * @param name Name of the curve
+   * @param mode True to get the mode of each band (the center of the
+   * density's largest bin), false to get the median
+   * @return Curve over the bands, in frequency or period units
+   */
+  private Curve getStatisticCurve(String name, boolean mode) {
+    Curve curve = new Curve(name);
+    float[] values = new float[powers.length];
+    for (int j = 0; j < bandFreqs.length; ++j) {
+      double value;
+      if (mode) {
+        int peak = 0;
+        for (int i = 1; i < densities[j].length; ++i) {
+          if (densities[j][i] > densities[j][peak]) {
+            peak = i;
+          }
+        }
+        value = PDF_MIN_DB + peak;
+      } else {
+        for (int i = 0; i < powers.length; ++i) {
+          values[i] = powers[i][j];
+        }
+        Arrays.sort(values);
+        int mid = values.length / 2;
+        value = values[mid];
+        if (values.length % 2 == 0) {
+          value = (values[mid - 1] + values[mid]) / 2.;
+        }
+      }
+      
+      if (freqSpace) {
+        curve.add(bandFreqs[j], value);
+      } else {
+        curve.add(1. / bandFreqs[j], value);
+      }
+    }
+    return curve;
+  }
+  
+  /**
+   * Get the time from the start of the data to the start of each window
+   * @return Window start offsets in seconds
+   */
+  public double[] getWindowOffsets() {
+    return windowOffsets;
+  }
+  
+  /**
+   * Get the time between the starts of consecutive windows, which may
+   * differ slightly from the requested overlap since windows start on
+   * segment boundaries
+   * @return Spacing of windows in seconds
+   */
+  public double getWindowSpacing() {
+    return windowSpacing;
+  }
+  
+  @Override
+  public boolean hasEnoughData(DataStore ds) {
+    return ds.bothComponentsSet(0);
+  }
+  
+  @Override
+  public int[] listActiveResponseIndices() {
+    return new int[]{respIndex};
+  }
+  
+  /**
+   * Used to set the x-axis over which the PDF statistics are plotted,
+   * either frequency (Hz) units or sample-interval (s) units
+   * @param freqSpace True if the plot should use units of Hz
+   */
+  public void setFreqSpace(boolean freqSpace) {
+    this.freqSpace = freqSpace;
+  }
+  
+  /**
+   * Set the length of the windows PSDs are calculated over. Windows longer
+   * than the data are cut down to the length of the data.
+   * @param seconds Window length in seconds
+   */
+  public void setWindowLength(double seconds) {
+    if (seconds <= 0.) {
+      throw new IllegalArgumentException("Window length must be positive");
+    }
+    windowLength = seconds;
+  }
+  
+  /**
+   * Set how much consecutive windows overlap. The spacing of windows is
+   * rounded to a whole number of PSD segments (1/16 of the window length).
+   * @param fraction Fraction of each window shared with the next, in [0, 1)
+   */
+  public void setWindowOverlap(double fraction) {
+    if (fraction < 0. || fraction >= 1.) {
+      throw new IllegalArgumentException("Window overlap must be in [0, 1)");
+    }
+    windowOverlap = fraction;
+  }
+  
+  /**
+   * Smooth a PSD over neighboring frequencies, the same way as done by
+   * FFTResult.spectralCalc
+   * @param psd PSD values to smooth
+   * @param smoothed Array to write the smoothed values to
+   */
+  private static void smooth(double[] psd, double[] smoothed) {
+    int nSmooth = 11, nHalf = 5;
+    int len = psd.length;
+    int iw = 0;
+    for (; iw < nHalf && iw < len; ++iw) {
+      smoothed[iw] = psd[iw];
+    }
+    for (; iw < len - nHalf; ++iw) {
+      double sum = 0.;
+      for (int k = iw - nHalf; k < iw + nHalf; ++k) {
+        sum += psd[k];
+      }
+      smoothed[iw] = sum / nSmooth;
+    }
+    for (; iw < len; ++iw) {
+      smoothed[iw] = psd[iw];
+    }
+  }
+
+}
@@ -1,10 +1,8 @@
 package asl.sensor.experiment;
 
-import org.jfree.data.xy.XYSeriesCollection;
-
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
-import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.ResourceCatalog;
 
 /**
  * Calculates PSD to get cross-power.
@@ -45,8 +43,7 @@ public class SpectrumExperiment extends Experiment {
   @Override
   protected void backend(final DataStore ds) {
     
-    XYSeriesCollection xysc = new XYSeriesCollection();
-    xysc.setAutoWidth(true);
+    CurveSet curves = new CurveSet();
     
     int loadedDataCount = 0;
     for (int i = 0; i < 3; ++i) {
@@ -79,13 +76,14 @@ public class SpectrumExperiment extends Experiment {
     for (int i = 0; i < respIndices.length; ++i) {
       int idx = respIndices[i];
       fireStateChange("Getting PSDs of data " + idx + "...");
-      addToPlot(ds, freqSpace, idx, xysc);
+      addToPlot(ds, freqSpace, idx, curves);
+      fireProgress(i + 1, respIndices.length, 0., 0.95);
     }
     
-    xysc.addSeries( FFTResult.getLowNoiseModel(freqSpace) );
-    xysc.addSeries( FFTResult.getHighNoiseModel(freqSpace) );
+    addToPlot(ResourceCatalog.getLowNoiseModel(), freqSpace, curves);
+    addToPlot(ResourceCatalog.getHighNoiseModel(), freqSpace, curves);
     
-    xySeriesData.add(xysc);
+    curveData.add(curves);
 
   }
 
@@ -111,6 +109,26 @@ public class SpectrumExperiment extends Experiment {
     return respIndices;
   }
 
+  @Override
+  protected boolean useAutoWidth() {
+    return true;
+  }
+
+  @Override
+  protected void restoreResults(Object results) {
+    respIndices = ( (int[]) results ).clone();
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return respIndices.clone();
+  }
+  
+  @Override
+  protected String getParameterFingerprint() {
+    return "freqSpace=" + freqSpace;
+  }
+  
   /**
    * Used to set the x-axis over which the PSDs / cross-powers are plotted,
    * either frequency (Hz) units or sample-interval (s) units
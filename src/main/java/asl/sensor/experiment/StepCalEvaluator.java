@@ -0,0 +1,366 @@
+package asl.sensor.experiment;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.complex.Complex;
+
+import asl.sensor.utils.FFTPlan;
+import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.NumericUtils;
+
+/**
+ * Evaluates the step calibration model (the sensor output deconvolved by a
+ * response defined by corner frequency and damping) for the step experiment's
+ * least-squares solver. The solver calls this many times over data of a
+ * single fixed length, so the sensor FFT is unpacked into primitive arrays
+ * once, the inverse FFT plan for that length is cached, and all working
+ * buffers are allocated once at construction and reused by every evaluation.
+ *
+ * Derivatives with respect to corner frequency (f) and damping (h) are taken
+ * analytically. The response used in the deconvolution is
+ * R(s) = s / (s^2 + 2*h*w*s + w^2) with w = 2*pi*f, whose partial derivatives
+ * have closed forms; every step after the deconvolution (inverse FFT, demean,
+ * band-pass filter, trim) is linear and so is applied to the derivative
+ * spectra directly, and the final normalization is differentiated with the
+ * quotient rule. Because the time series are all real, the derivative with
+ * respect to f is packed into the imaginary part of the model's inverse FFT,
+ * so evaluating the model and both derivatives takes only two inverse FFTs
+ * rather than the three full model evaluations of a forward difference.
+ * @author akearns
+ *
+ */
+class StepCalEvaluator {
+  
+  // used to keep the deconvolution denominator away from 0
+  private static final double WATER_LEVEL = 0.008;
+  
+  private final double[] sensorRe, sensorIm; // FFT of sensor output
+  private final double[] angularFreqs; // 2 * pi * frequency
+  private final int inverseTrim, cutAmount, trimmedLength;
+  private final double sps;
+  private final int normRange, stepEnd;
+  private final FFTPlan plan;
+  
+  // per-evaluation working buffers
+  private final double[] respRe, respIm;
+  private final double[] dRespFRe, dRespFIm, dRespHRe, dRespHIm;
+  private final double[] bufferRe, bufferIm, derivRe, derivIm;
+  private final double[] partial; // holds one complex derivative term
+  
+  /**
+   * Set up the evaluator for a given sensor output
+   * @param sensorFFT Single-sided FFT of the step cal sensor output
+   * @param freqs Frequencies of the single-sided FFT
+   * @param inverseTrim Length of the timeseries the FFT was taken from
+   * @param cutAmount Number of points trimmed from each end of result
+   * @param sps Sample rate of the data
+   * @param normRange Range of data to get average over for normalization
+   * @param stepEnd Index of data where far end of normalization curve is
+   */
+  StepCalEvaluator(Complex[] sensorFFT, double[] freqs, int inverseTrim,
+      int cutAmount, double sps, int normRange, int stepEnd) {
+    
+    int len = sensorFFT.length;
+    sensorRe = new double[len];
+    sensorIm = new double[len];
+    angularFreqs = new double[len];
+    for (int i = 0; i < len; ++i) {
+      sensorRe[i] = sensorFFT[i].getReal();
+      sensorIm[i] = sensorFFT[i].getImaginary();
+      angularFreqs[i] = NumericUtils.TAU * freqs[i];
+    }
+    
+    this.inverseTrim = inverseTrim;
+    this.cutAmount = cutAmount;
+    trimmedLength = inverseTrim - 2 * cutAmount;
+    this.sps = sps;
+    this.normRange = normRange;
+    this.stepEnd = stepEnd;
+    
+    int padding = (len - 1) * 2;
+    plan = FFTPlan.getPlan(padding);
+    
+    respRe = new double[len];
+    respIm = new double[len];
+    dRespFRe = new double[len];
+    dRespFIm = new double[len];
+    dRespHRe = new double[len];
+    dRespHIm = new double[len];
+    bufferRe = new double[padding];
+    bufferIm = new double[padding];
+    derivRe = new double[padding];
+    derivIm = new double[padding];
+    partial = new double[2];
+  }
+  
+  /**
+   * Check if this evaluator normalizes its results with the given bounds
+   * @param normRange Range of data to get average over for normalization
+   * @param stepEnd Index of data where far end of normalization curve is
+   * @return True if this evaluator was built with those bounds
+   */
+  boolean hasNormalizationBounds(int normRange, int stepEnd) {
+    return this.normRange == normRange && this.stepEnd == stepEnd;
+  }
+  
+  /**
+   * Get the length of the timeseries produced by an evaluation
+   * @return Length of the evaluated (trimmed) step response
+   */
+  int getTrimmedLength() {
+    return trimmedLength;
+  }
+  
+  /**
+   * Deconvolve the response from the given parameters from the sensor output
+   * and get the normalized step response
+   * @param f Corner frequency of response
+   * @param h Damping of response
+   * @return Normalized step response of the sensor with that response removed
+   */
+  double[] evaluate(double f, double h) {
+    double[] value = new double[trimmedLength];
+    evaluate(f, h, value, null, null);
+    return value;
+  }
+  
+  /**
+   * Deconvolve the response from the given parameters from the sensor output
+   * and get the normalized step response and, optionally, its derivatives.
+   * Results are written into the given arrays, which must be newly allocated
+   * per call when used by the solver, as it may keep a previous evaluation.
+   * @param f Corner frequency of response
+   * @param h Damping of response
+   * @param value Array to write the normalized step response into
+   * @param dValueDF Array to write derivative w.r.t. corner into (or null)
+   * @param dValueDH Array to write derivative w.r.t. damping into (or null)
+   */
+  void evaluate(double f, double h,
+      double[] value, double[] dValueDF, double[] dValueDH) {
+    
+    boolean derivatives = (dValueDF != null && dValueDH != null);
+    int len = sensorRe.length;
+    int padding = plan.size();
+    
+    double omega = NumericUtils.TAU * f;
+    
+    // response R = s / Q with Q = (s - p1)(s - p2) = s^2 + 2hws + w^2
+    // at s = i*w_k, Q = (w^2 - w_k^2) + i(2 h w w_k) and R = i w_k / Q
+    // max |R| (excluding DC, which is fixed at 1) sets the water level
+    double max = 0.;
+    int maxIdx = 0;
+    respRe[0] = 1.;
+    respIm[0] = 0.;
+    for (int i = 1; i < len; ++i) {
+      double wk = angularFreqs[i];
+      double qRe = omega * omega - wk * wk;
+      double qIm = 2 * h * omega * wk;
+      double qMagSq = qRe * qRe + qIm * qIm;
+      respRe[i] = wk * qIm / qMagSq;
+      respIm[i] = wk * qRe / qMagSq;
+      double mag = wk / Math.sqrt(qMagSq);
+      if (mag > max) {
+        max = mag;
+        maxIdx = i;
+      }
+      if (derivatives) {
+        // dR = -R * dQ / Q; dQ/dw = 2hs + 2w, dQ/dh = 2ws; df = 2 pi dw
+        double dqwRe = 2 * omega;
+        double dqwIm = 2 * h * wk;
+        double dqhIm = 2 * omega * wk;
+        // R / Q
+        double rqRe = (respRe[i] * qRe + respIm[i] * qIm) / qMagSq;
+        double rqIm = (respIm[i] * qRe - respRe[i] * qIm) / qMagSq;
+        dRespFRe[i] = -NumericUtils.TAU * (rqRe * dqwRe - rqIm * dqwIm);
+        dRespFIm[i] = -NumericUtils.TAU * (rqRe * dqwIm + rqIm * dqwRe);
+        dRespHRe[i] = rqIm * dqhIm;
+        dRespHIm[i] = -rqRe * dqhIm;
+      }
+    }
+    
+    double aboveZero = WATER_LEVEL * max;
+    double dAboveZeroDF = 0., dAboveZeroDH = 0.;
+    if (derivatives && maxIdx > 0) {
+      // d|R| = Re( conj(R) dR ) / |R| at the point giving the max
+      double rRe = respRe[maxIdx];
+      double rIm = respIm[maxIdx];
+      dAboveZeroDF = WATER_LEVEL * 
+          (rRe * dRespFRe[maxIdx] + rIm * dRespFIm[maxIdx]) / max;
+      dAboveZeroDH = WATER_LEVEL * 
+          (rRe * dRespHRe[maxIdx] + rIm * dRespHIm[maxIdx]) / max;
+    }
+    
+    // deconvolve: D = X conj(R) / (|R|^2 + c), filled into buffers;
+    // derivative w.r.t. f goes in as imaginary part of the model spectrum
+    // dD = X [conj(dR) g - conj(R) (d|R|^2 + dc)] / g^2, g = |R|^2 + c
+    Arrays.fill(bufferRe, 0.);
+    Arrays.fill(bufferIm, 0.);
+    if (derivatives) {
+      Arrays.fill(derivRe, 0.);
+      Arrays.fill(derivIm, 0.);
+    }
+    for (int i = 0; i < len; ++i) {
+      double rRe = respRe[i];
+      double rIm = respIm[i];
+      double denom = rRe * rRe + rIm * rIm + aboveZero;
+      // X conj(R)
+      double xcRe = sensorRe[i] * rRe + sensorIm[i] * rIm;
+      double xcIm = sensorIm[i] * rRe - sensorRe[i] * rIm;
+      double dRe = xcRe / denom;
+      double dIm = xcIm / denom;
+      
+      double dfRe = 0., dfIm = 0., dhRe = 0., dhIm = 0.;
+      if (derivatives) {
+        if (i > 0) {
+          derivativeTerm(i, dRespFRe[i], dRespFIm[i], dAboveZeroDF, denom,
+              partial);
+        } else {
+          derivativeTerm(i, 0., 0., dAboveZeroDF, denom, partial);
+        }
+        dfRe = partial[0];
+        dfIm = partial[1];
+        if (i > 0) {
+          derivativeTerm(i, dRespHRe[i], dRespHIm[i], dAboveZeroDH, denom,
+              partial);
+        } else {
+          derivativeTerm(i, 0., 0., dAboveZeroDH, denom, partial);
+        }
+        dhRe = partial[0];
+        dhIm = partial[1];
+      }
+      
+      // only the real part of the inverse transform is kept, so the spectra
+      // must be hermitian; DC and nyquist terms can only contribute real data
+      boolean selfConjugate = (i == 0 || i == padding / 2);
+      if (selfConjugate) {
+        dIm = 0.;
+        dfIm = 0.;
+        dhIm = 0.;
+      }
+      
+      // model + i * (d/df model), hermitian extension of each
+      bufferRe[i] = dRe - dfIm;
+      bufferIm[i] = dIm + dfRe;
+      if (!selfConjugate) {
+        int mirror = padding - i;
+        bufferRe[mirror] = dRe + dfIm;
+        bufferIm[mirror] = -dIm + dfRe;
+      }
+      if (derivatives) {
+        derivRe[i] = dhRe;
+        derivIm[i] = dhIm;
+        if (!selfConjugate) {
+          int mirror = padding - i;
+          derivRe[mirror] = dhRe;
+          derivIm[mirror] = -dhIm;
+        }
+      }
+    }
+    
+    plan.inverse(bufferRe, bufferIm);
+    finishTimeSeries(bufferRe, value);
+    if (derivatives) {
+      plan.inverse(derivRe, derivIm);
+      finishTimeSeries(bufferIm, dValueDF);
+      finishTimeSeries(derivRe, dValueDH);
+      scaleDerivative(value, dValueDF);
+      scaleDerivative(value, dValueDH);
+    }
+    scaleData(value);
+  
+  }
+  
+  /**
+   * Get the derivative of one point of the deconvolved spectrum
+   * @param i Index of point in the spectrum
+   * @param drRe Real part of derivative of response at that point
+   * @param drIm Imaginary part of derivative of response at that point
+   * @param dc Derivative of the water-level term
+   * @param denom Value of deconvolution denominator, |R|^2 + c
+   * @param out Array to place real and imaginary parts of derivative into
+   */
+  private void derivativeTerm(int i, double drRe, double drIm, double dc,
+      double denom, double[] out) {
+    double rRe = respRe[i];
+    double rIm = respIm[i];
+    double dDenom = 2 * (rRe * drRe + rIm * drIm) + dc;
+    // conj(dR) * denom - conj(R) * dDenom
+    double numRe = drRe * denom - rRe * dDenom;
+    double numIm = -drIm * denom + rIm * dDenom;
+    double scale = denom * denom;
+    out[0] = (sensorRe[i] * numRe - sensorIm[i] * numIm) / scale;
+    out[1] = (sensorRe[i] * numIm + sensorIm[i] * numRe) / scale;
+  }
+  
+  /**
+   * Do the linear post-processing steps on a transformed series: demean,
+   * filter out additional noise, and trim out the ends (filter artifacts)
+   * @param series Inverse FFT result (modified in place)
+   * @param out Array of trimmed length to copy the result into
+   */
+  private void finishTimeSeries(double[] series, double[] out) {
+    double mean = 0.;
+    for (int i = 0; i < inverseTrim; ++i) {
+      mean += series[i];
+    }
+    mean /= inverseTrim;
+    for (int i = 0; i < inverseTrim; ++i) {
+      series[i] -= mean;
+    }
+    FFTResult.bandFilterInPlace(series, inverseTrim, sps, 0.0, 0.1);
+    System.arraycopy(series, cutAmount, out, 0, trimmedLength);
+  }
+  
+  /**
+   * Get the averages of the lower and upper portions of the step used
+   * to normalize the step response
+   * @param data Timeseries (or derivative) to get averages of
+   * @return Array of lower average and upper average
+   */
+  private double[] getStepAverages(double[] data) {
+    double lowerAvg = 0.; double upperAvg = 0.;
+    for (int i = 0; i <= normRange; ++i) {
+      int upperIndex = stepEnd - (i + 100);
+      lowerAvg += data[i];
+      upperAvg += data[upperIndex];
+    }
+    
+    lowerAvg /= (double) normRange;
+    upperAvg /= (double) normRange;
+    return new double[]{lowerAvg, upperAvg};
+  }
+  
+  /**
+   * Apply the quotient rule for the normalization done by scaleData to the
+   * derivative of the unscaled data. Must be called before scaleData is
+   * applied to the data itself.
+   * @param data Unscaled timeseries
+   * @param deriv Derivative of the unscaled timeseries (modified in place)
+   */
+  private void scaleDerivative(double[] data, double[] deriv) {
+    double[] avgs = getStepAverages(data);
+    double[] dAvgs = getStepAverages(deriv);
+    double range = avgs[1] - avgs[0];
+    double dRange = dAvgs[1] - dAvgs[0];
+    for (int i = 0; i < deriv.length; ++i) {
+      double centered = data[i] - avgs[0];
+      double dCentered = deriv[i] - dAvgs[0];
+      deriv[i] = 2. * (dCentered * range - centered * dRange) / (range * range);
+    }
+  }
+  
+  /**
+   * Scale data in place so range (lowerAverage, upperAverage) -> (-1, 1)
+   * @param data Timeseries to be scaled
+   */
+  private void scaleData(double[] data) {
+    double[] avgs = getStepAverages(data);
+    double lowerAvg = avgs[0];
+    double upperAvg = avgs[1];
+    for (int i = 0; i < data.length; ++i) {
+      // scale to range (0,2) then to (-1, 1)
+      data[i] = ( 2. * (data[i] - lowerAvg) / (upperAvg - lowerAvg) ) - 1.;
+    }
+  }
+
+}
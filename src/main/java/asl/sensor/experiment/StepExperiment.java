@@ -12,13 +12,13 @@ import
 org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
 import 
 org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.optim.ConvergenceChecker;
 import org.apache.commons.math3.util.Pair;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
@@ -52,6 +52,36 @@ import asl.sensor.utils.TimeSeriesUtils;
  */
 public class StepExperiment extends Experiment{
 
+  /**
+   * Copy of the results of a run, for caching (see snapshotResults), along
+   * with the sensor data that calculate needs
+   */
+  private static class Results {
+    
+    private final double f, h, fCorr, hCorr, initResid, fitResid;
+    private final double sps;
+    private final int trimmedLength, cutAmount;
+    private final double[] freqs;
+    private final Complex[] sensorFFTSeries;
+    private final int sensorOutIdx;
+    
+    private Results(StepExperiment exp) {
+      f = exp.f;
+      h = exp.h;
+      fCorr = exp.fCorr;
+      hCorr = exp.hCorr;
+      initResid = exp.initResid;
+      fitResid = exp.fitResid;
+      sps = exp.sps;
+      trimmedLength = exp.trimmedLength;
+      cutAmount = exp.cutAmount;
+      freqs = exp.freqs.clone();
+      sensorFFTSeries = exp.sensorFFTSeries.clone();
+      sensorOutIdx = exp.sensorOutIdx;
+    }
+    
+  }
+  
   private double f, h; //corner and damping of output (uncorrected)
   private double fCorr, hCorr; // fit parameters to turn output into cal input
   private double initResid, fitResid; // residual values
@@ -64,7 +94,9 @@ public class StepExperiment extends Experiment{
   
   private int sensorOutIdx;
   
-  final double STEP_FACTOR = 1E-10;
+  // evaluates the model and its derivatives using preallocated buffers
+  private StepCalEvaluator evaluator;
+  
   final double F_TOLER = 1E-10;
   final double X_TOLER = 1E-10;
   
@@ -88,12 +120,13 @@ public class StepExperiment extends Experiment{
     trimmedLength = stepCalRaw.size();
     long interval = stepCalRaw.getInterval();
     
-    double[] stepCalUnfiltered = stepCalRaw.getData().clone();
+    // filter a copy in place so the block's own data is left as it was
+    double[] stepCalFiltered = stepCalRaw.getData().clone();
     
     sps = TimeSeriesUtils.ONE_HZ_INTERVAL / interval;
     
-    double[] stepCalFiltered = 
-        FFTResult.bandFilter(stepCalUnfiltered, sps, 0., 0.1);
+    FFTResult.bandFilterInPlace(
+        stepCalFiltered, stepCalFiltered.length, sps, 0., 0.1);
     
     // delete the last 10 seconds from the end (has filtering artifacts)
     
@@ -170,12 +203,15 @@ public class StepExperiment extends Experiment{
     sensorFFTSeries = sensorsFFT.getFFT();
     freqs = sensorsFFT.getFreqs();
     
+    evaluator = new StepCalEvaluator(sensorFFTSeries, freqs, 
+        trimmedLength + 2 * cutAmount, cutAmount, sps, rangeBound, farCorner);
+    
     double[] toPlot = calculate(params, rangeBound, farCorner);
     
     long start = 0L; // was db.startTime();
     long now = start;
-    XYSeries xys = new XYSeries("STEP *^(-1) RESP");
-    XYSeries scs = new XYSeries( stepCalRaw.getName() ); 
+    Curve xys = new Curve("STEP *^(-1) RESP");
+    Curve scs = new Curve( stepCalRaw.getName() ); 
     for (double point : toPlot) {
       double seconds = (double) now / TimeSeriesUtils.ONE_HZ_INTERVAL;
       xys.add(seconds, point);
@@ -184,15 +220,15 @@ public class StepExperiment extends Experiment{
     now = start;
     for (Number point : stepCalSeries) {
       double seconds = (double) now / TimeSeriesUtils.ONE_HZ_INTERVAL;
-      scs.add(seconds, point);
+      scs.add( seconds, point.doubleValue() );
       now += interval;
     }
     
     // next we'll want to find the parameters to fit the plots
     // to the inputted data
-    XYSeriesCollection xysc = new XYSeriesCollection();
-    xysc.addSeries(scs);
-    xysc.addSeries(xys);
+    CurveSet curves = new CurveSet();
+    curves.addCurve(scs);
+    curves.addCurve(xys);
     
     // next step: curve fitting
     RealVector startVector = MatrixUtils.createRealVector(params);
@@ -204,11 +240,8 @@ public class StepExperiment extends Experiment{
     // used to fit parameters
     MultivariateJacobianFunction jbn = new MultivariateJacobianFunction() {
       
-      final int rangeLimit = rangeBound;
-      final int cornerEnd = farCorner;
-      
       public Pair<RealVector, RealMatrix> value(RealVector point) {
-          return jacobian(point, rangeLimit, cornerEnd);
+          return jacobian(point);
       }
       
     };
@@ -250,17 +283,17 @@ public class StepExperiment extends Experiment{
     // fitPlot = TimeSeriesUtils.normalize(fitPlot);
     start = 0L; // was db.startTime();
     now = start;
-    XYSeries bfs = new XYSeries("BEST FIT PLOT");
+    Curve bfs = new Curve("BEST FIT PLOT");
     for (double point : fitPlot) {
       double seconds = (double) now / TimeSeriesUtils.ONE_HZ_INTERVAL;
       bfs.add(seconds, point);
       now += interval;
     }
     
-    xysc.addSeries(bfs);
+    curves.addCurve(bfs);
 
     // add plot of step stuff
-    xySeriesData.add(xysc);
+    curveData.add(curves);
 
     fireStateChange("Fit gotten. Getting Bode plots...");
     
@@ -272,16 +305,16 @@ public class StepExperiment extends Experiment{
     Complex p2 = new Complex( h, -1 * Math.sqrt( 1 - Math.pow(h, 2) ) );
     p2 = p2.multiply( -1 * NumericUtils.TAU * f);
     
-    InstrumentResponse fitResp = new InstrumentResponse(ir);
-    fitResp.setName( fitResp.getName() + " [FIT]" );
+    InstrumentResponse fitResp = new InstrumentResponse.Builder(ir).
+        setName( ir.getName() + " [FIT]" ).build();
     
     Complex[] inputCurve = ir.applyResponseToInput(freqs);
     Complex[] fitCurve = fitResp.applyResponseToInput(freqs);
     
-    XYSeries inMag = new XYSeries( ir.getName() + " " + " magnitude" );
-    XYSeries inPhase = new XYSeries ( ir.getName() + " " + " phase" );
-    XYSeries fitMag = new XYSeries( fitResp.getName() + " " + " magnitude" );
-    XYSeries fitPhase = new XYSeries ( fitResp.getName() + " " + " phase" );
+    Curve inMag = new Curve( ir.getName() + " " + " magnitude" );
+    Curve inPhase = new Curve( ir.getName() + " " + " phase" );
+    Curve fitMag = new Curve( fitResp.getName() + " " + " magnitude" );
+    Curve fitPhase = new Curve( fitResp.getName() + " " + " phase" );
     
     double phiPrevIn = .0;
     double phiPrevFit = .0;
@@ -313,15 +346,15 @@ public class StepExperiment extends Experiment{
       fitPhase.add(freqs[i], phiFit);
     }
     
-    xysc = new XYSeriesCollection();
-    xysc.addSeries(inMag);
-    xysc.addSeries(fitMag);
-    xySeriesData.add(xysc);
+    curves = new CurveSet();
+    curves.addCurve(inMag);
+    curves.addCurve(fitMag);
+    curveData.add(curves);
     
-    XYSeriesCollection phaseCollection = new XYSeriesCollection();
-    phaseCollection.addSeries(inPhase);
-    phaseCollection.addSeries(fitPhase);
-    xySeriesData.add(phaseCollection);
+    CurveSet phaseCollection = new CurveSet();
+    phaseCollection.addCurve(inPhase);
+    phaseCollection.addCurve(fitPhase);
+    curveData.add(phaseCollection);
     
   }
   
@@ -334,96 +367,21 @@ public class StepExperiment extends Experiment{
    * Does the deconvolution of the response calculated from the corner freq. (f)
    * and damping (h) parameters passed in
    * @param beta Double array of form {f,h}
+   * @param normRange Range of data to get average over for normalization
+   * @param stepEnd Index of data where far end of normalization curve is
    * @return The timeseries resulting from deconvolution of the calculated
    * response from the sensor-input timeseries (done in frequency space)
    */
   public double[] calculate(double[] beta, int normRange, int stepEnd) {
     
-    // the original length of the timeseries data we've gotten the FFT of
-    int inverseTrim = trimmedLength + 2 * cutAmount;
-    // the upper bound on the returned data
-    int upperBound = inverseTrim - cutAmount;
-    
-    double f = beta[0];
-    double h = beta[1];
-    
-    // use these terms to calculate the poles
-    
-    // term inside the square root in the calculations of p1, p2
-    // (h^2-1)
-    Complex tempResult = new Complex( Math.pow(h, 2) - 1 );
-    
-    double omega = 2 * Math.PI * f; // omega_0
-    
-    // casting h as a complex number to enable these calculations
-    Complex hCast = new Complex(h);
-    
-    // - (h + sqrt(h^2-1))
-    Complex pole1 = hCast.add( tempResult.sqrt() ).multiply(-1);
-    pole1 = pole1.multiply(omega); 
-      // cannot modify complex numbers "in-place"; they MUST be (re)assigned
-    
-    // - (h - sqrt(h^2-1))
-    Complex pole2 = hCast.subtract( tempResult.sqrt() ).multiply(-1);
-    pole2 = pole2.multiply(omega);
-    
-    // calculate the FFT of the response
-    Complex[] respFFT = new Complex[sensorFFTSeries.length]; // array of resps
-    double max = 0.0;
-    // don't let denominator be zero
-    respFFT[0] = Complex.ONE;
-    for (int i = 1; i < respFFT.length; ++i) {
-
-      // replaced freqs[i] with 
-      // 2*pi*i*f
-      Complex factor = new Complex(0, 2*Math.PI*freqs[i]); 
-      
-      // (2*pi*i*f - p1) * (2*pi*f*i - p2)
-      Complex denom = factor.subtract(pole1).multiply( factor.subtract(pole2) );
-      
-      respFFT[i] = factor.divide(denom);
-      
-      
-      if (respFFT[i].abs() > max) {
-        max = respFFT[i].abs();
-      }
-      
-    }
-    
-    Complex[] toDeconvolve = new Complex[sensorFFTSeries.length];
-    
-    // deconvolving response is dividing fft(signal) by fft(response)
-    
-    for (int i = 0; i < sensorFFTSeries.length; ++i) {
-      // the conjugate of the response, used twice in deconvolution
-      Complex conjResp = respFFT[i].conjugate();
-      double aboveZero = 0.008*max;  // term to keep the denominator above 0
-      
-      // resp * conj(resp) + 0.008(max(|resp|))
-      Complex denom = respFFT[i].multiply(conjResp).add(aboveZero);
-      
-      // deconvolving the response from output
-      // fft * conj(resp) / (resp * conjResp)+0.008(max(|resp|))
-      toDeconvolve[i] = sensorFFTSeries[i].multiply(conjResp).divide(denom);
+    if ( evaluator == null || 
+        !evaluator.hasNormalizationBounds(normRange, stepEnd) ) {
+      int inverseTrim = trimmedLength + 2 * cutAmount;
+      evaluator = new StepCalEvaluator(sensorFFTSeries, freqs, 
+          inverseTrim, cutAmount, sps, normRange, stepEnd);
     }
     
-    double[] returnValue =  
-        FFTResult.singleSidedInverseFFT(toDeconvolve, inverseTrim);
-    
-    returnValue = TimeSeriesUtils.demean(returnValue);
-    
-    // attempt to filter out additional noise
-    returnValue = 
-        FFTResult.bandFilter(returnValue, sps, 0.0, 0.1);
-    
-    // trim out the ends
-    returnValue = Arrays.copyOfRange(returnValue, cutAmount, upperBound);
-    
-    // TODO: deal with correctness of this code
-    // normalize in order to fit the plot    
-    return scaleData(returnValue, normRange, stepEnd);
-    
-    // return returnValue;
+    return evaluator.evaluate(beta[0], beta[1]);
   }
   
   /**
@@ -458,38 +416,32 @@ public class StepExperiment extends Experiment{
   }
   
   /**
-   * Computes the forward change in value of the calculations for response
-   * formed from a given corner and damping value
+   * Computes the value of the calculations for response formed from a given
+   * corner and damping value, as well as the derivatives with respect to
+   * those parameters (see StepCalEvaluator for how these are found)
    * @param variables Vector with the corner and damping values from which the
    * derivatives are calculated
-   * @param normRange Range of data to get average over for normalization / 
-   * scaling
-   * @param stepEnd Index of data where far end of normalization curve is
-   * @return The result at the passed-in point plus the approximate derivative
+   * @return The result at the passed-in point plus the derivative
    * of these points, as a vector and matrix respectively
    */
-  private Pair<RealVector, RealMatrix> 
-  jacobian(RealVector variables, int normRange, int stepEnd) {
-    
-    // approximate through forward differences
-    double[][] jacobian = new double[trimmedLength][2];
+  private Pair<RealVector, RealMatrix> jacobian(RealVector variables) {
     
     double f1 = variables.getEntry(0);
     double h1 = variables.getEntry(1);
-    double f2 = f1 + STEP_FACTOR;
-    double h2 = h1 + STEP_FACTOR;
     
-    double[] fInit = calculate(new double[]{f1, h1}, normRange, stepEnd);
-    double[] diffOnF = calculate(new double[]{f2, h1}, normRange, stepEnd);
-    double[] diffOnH = calculate(new double[]{f1, h2}, normRange, stepEnd);
-
+    // solver may keep hold of previous evaluations, so use fresh arrays here
+    double[] fInit = new double[trimmedLength];
+    double[] diffOnF = new double[trimmedLength];
+    double[] diffOnH = new double[trimmedLength];
+    evaluator.evaluate(f1, h1, fInit, diffOnF, diffOnH);
+    
+    double[][] jacobian = new double[trimmedLength][];
     for (int i = 0; i < trimmedLength; ++i) {
-      jacobian[i][0] = (diffOnF[i] - fInit[i]) / STEP_FACTOR;
-      jacobian[i][1] = (diffOnH[i] - fInit[i]) / STEP_FACTOR;
+      jacobian[i] = new double[]{diffOnF[i], diffOnH[i]};
     }
     
-    RealMatrix jMat = MatrixUtils.createRealMatrix(jacobian);
-    RealVector fnc = MatrixUtils.createRealVector(fInit);
+    RealMatrix jMat = new Array2DRowRealMatrix(jacobian, false);
+    RealVector fnc = new ArrayRealVector(fInit, false);
     
     return new Pair<RealVector, RealMatrix>(fnc, jMat);
   }
@@ -501,31 +453,28 @@ public class StepExperiment extends Experiment{
     return new int[]{sensorOutIdx};
   }
   
-  private double[] scaleData(double[] data, int range, int farCornerIdx) {
-    //System.out.println(farCornerIdx);
-    double[] scaled = new double[data.length];
-    
-    //System.out.println(data[farCornerIdx]);
-    
-    double lowerAvg = 0.; double upperAvg = 0.;
-    for (int i = 0; i <= range; ++i) {
-      int upperIndex = farCornerIdx - (i + 100);
-      lowerAvg += data[i];
-      upperAvg += data[upperIndex];
-    }
-    
-    lowerAvg /= (double) range;
-    upperAvg /= (double) range;
-    
-    
-    // scale new data so range (lowerAverage, upperAverage) -> (-1, 1)
-    for (int i = 0; i < data.length; ++i) {
-      // scale to range (0,2) then to (-1, 1)
-      scaled[i] = 
-          ( 2. * (data[i] - lowerAvg) / (upperAvg - lowerAvg) ) - 1.;
-    }
-    
-    return scaled;
+  @Override
+  protected void restoreResults(Object results) {
+    Results stored = (Results) results;
+    f = stored.f;
+    h = stored.h;
+    fCorr = stored.fCorr;
+    hCorr = stored.hCorr;
+    initResid = stored.initResid;
+    fitResid = stored.fitResid;
+    sps = stored.sps;
+    trimmedLength = stored.trimmedLength;
+    cutAmount = stored.cutAmount;
+    freqs = stored.freqs.clone();
+    sensorFFTSeries = stored.sensorFFTSeries.clone();
+    sensorOutIdx = stored.sensorOutIdx;
+    // built again from the restored data when calculate is next called
+    evaluator = null;
+  }
+  
+  @Override
+  protected Object snapshotResults() {
+    return new Results(this);
   }
   
 }
@@ -0,0 +1,72 @@
+package asl.sensor.experiment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+
+/**
+ * Converts experiment curves into JFreeChart series for plotting, and back.
+ * Experiments only build their charting data through here when a panel or
+ * report asks for it (see Experiment.getData), keeping JFreeChart's
+ * per-point overhead out of the calculations themselves.
+ * @author akearns
+ *
+ */
+public class XYSeriesAdapter {
+  
+  /**
+   * Make a curve from the points of a plot series
+   * @param xys Series to get the points of
+   * @return Curve with the series' key as its name and the same points
+   */
+  public static Curve fromXYSeries(XYSeries xys) {
+    double[][] points = xys.toArray();
+    return new Curve( xys.getKey().toString(), points[0], points[1] );
+  }
+  
+  /**
+   * Make a plot series for a curve
+   * @param curve Curve to get the points of
+   * @return Series with the curve's name as its key and the same points
+   */
+  public static XYSeries toXYSeries(Curve curve) {
+    XYSeries xys = new XYSeries( curve.getName() );
+    double[] x = curve.getXValues();
+    double[] y = curve.getYValues();
+    // points are already in order, so each add just appends to the series
+    for (int i = 0; i < x.length; ++i) {
+      xys.add(x[i], y[i], false);
+    }
+    return xys;
+  }
+  
+  /**
+   * Make a collection of plot series for a set of curves
+   * @param curves Curves to be plotted on a single chart
+   * @return Collection with a series for each curve, in the same order
+   */
+  public static XYSeriesCollection toCollection(CurveSet curves) {
+    XYSeriesCollection xysc = new XYSeriesCollection();
+    for ( Curve curve : curves.getCurves() ) {
+      xysc.addSeries( toXYSeries(curve) );
+    }
+    return xysc;
+  }
+  
+  /**
+   * Make collections of plot series for a list of curve sets
+   * @param curveSets Curve sets, each to be plotted on its own chart
+   * @return List with a collection for each set, in the same order
+   */
+  public static List<XYSeriesCollection> toCollections(
+      List<CurveSet> curveSets) {
+    List<XYSeriesCollection> out = new ArrayList<XYSeriesCollection>();
+    for (CurveSet curves : curveSets) {
+      out.add( toCollection(curves) );
+    }
+    return out;
+  }
+
+}
@@ -219,9 +219,7 @@ public class AzimuthPanel extends ExperimentPanel {
   }
   
   @Override
-  protected void updateData(DataStore ds) {
-    
-    set = true;
+  protected void applySettings() {
     
     double value = (double) offsetSpinner.getValue();
     
@@ -231,10 +229,15 @@ public class AzimuthPanel extends ExperimentPanel {
     
     AzimuthExperiment az = (AzimuthExperiment) expResult;
     az.setOffset(value);
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
+    
+    AzimuthExperiment az = (AzimuthExperiment) expResult;
     
     XYPlot xyp;
     
-    expResult.runExperimentOnData(ds);
     List<XYSeriesCollection> allData = az.getData();
     XYSeriesCollection polars = allData.get(0);
     
@@ -20,6 +20,7 @@ import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -31,6 +32,8 @@ import org.jfree.chart.ChartPanel;
 import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.annotations.XYTitleAnnotation;
+import org.jfree.chart.axis.LogAxis;
+import org.jfree.chart.axis.LogarithmicAxis;
 import org.jfree.chart.axis.ValueAxis;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.SeriesRenderingOrder;
@@ -41,9 +44,11 @@ import org.jfree.data.xy.XYSeriesCollection;
 import org.jfree.ui.RectangleAnchor;
 
 import asl.sensor.experiment.Experiment;
+import asl.sensor.experiment.ExperimentCache;
 import asl.sensor.experiment.ExperimentEnum;
 import asl.sensor.experiment.ExperimentFactory;
 import asl.sensor.input.DataStore;
+import asl.sensor.utils.PlotDownsampler;
 import asl.sensor.utils.ReportingUtils;
 
 /**
@@ -192,6 +197,8 @@ implements ActionListener, ChangeListener {
     
     expType = exp;
     expResult = ExperimentFactory.createExperiment(exp);
+    // panels share stored results, so switching between them is quick
+    expResult.setCache( ExperimentCache.getSharedCache() );
     expResult.addChangeListener(this);
     
     chart = ChartFactory.createXYLineChart( expType.getName(), 
@@ -248,6 +255,15 @@ implements ActionListener, ChangeListener {
     xyp.setRangeAxis( getYAxis() );
   }
   
+  /**
+   * Function template for passing the settings chosen in the panel (such as
+   * whether to plot in frequency space) to the backend before it is run.
+   * Panels without any such settings don't need to override this.
+   */
+  protected void applySettings() {
+    return;
+  }
+  
   /**
    * Function to construct a chart from the XYSeriesCollection produced
    * from this panel's backend. Any data that requires a specific plot color,
@@ -270,6 +286,9 @@ implements ActionListener, ChangeListener {
    * using x-axis of seconds and y of counts, and has two other plots with
    * axes matching the charts of the response panel (x is frequency and 
    * y is magnitude and phase).
+   * Series with more points than can be seen at chart resolution are reduced
+   * to their min/max envelope before plotting (see PlotDownsampler), in log
+   * space if the x-axis is logarithmic; the passed-in data is not changed.
    * @param xyDataset Data to be plotted
    * @param x X-axis to be applied to the chart
    * @param y Y-axis to be applied to the chart
@@ -278,6 +297,12 @@ implements ActionListener, ChangeListener {
   public JFreeChart 
   buildChart(XYSeriesCollection xyDataset, ValueAxis x, ValueAxis y) {
     
+    if (xyDataset != null) {
+      boolean logX = x instanceof LogAxis || x instanceof LogarithmicAxis;
+      xyDataset = PlotDownsampler.downsample(
+          xyDataset, PlotDownsampler.DEFAULT_BUCKETS, logX);
+    }
+    
     JFreeChart chart = ChartFactory.createXYLineChart(
         expType.getName(),
         x.getLabel(),
@@ -488,6 +513,26 @@ implements ActionListener, ChangeListener {
     return 0;
   }
   
+  /**
+   * Produce the text of the PDF report page following the charts, i.e., any
+   * text that might be included in chart title insets, the metadata, and the
+   * input data start and end timestamps
+   * @return Text of the report's first page of string data
+   */
+  public String getInsetDataText() {
+    StringBuilder sb = new StringBuilder( getInsetStrings() );
+    if ( sb.length() > 0 ) {
+      sb.append("\n \n");
+    }
+    String metadata = getMetadataString();
+    if ( metadata.length() > 0 ) {
+      sb.append(metadata);
+      sb.append("\n \n");
+    }
+    sb.append( getTimeStampString(expResult) );
+    return sb.toString();
+  }
+  
   /**
    * Used to return any title insets as text format for saving in PDF,
    * to be overridden by any panel that uses an inset
@@ -516,6 +561,26 @@ implements ActionListener, ChangeListener {
     return sb.toString();
   }
   
+  /**
+   * Pass the settings chosen in this panel to its experiment backend and
+   * return it, so that it can be run apart from the panel (i.e., on a batch
+   * worker thread, with the panel only being used on the event thread).
+   * Once the backend has been run, pass its data to showResults.
+   * @return Experiment backend held by this panel, ready to be run
+   */
+  public Experiment getConfiguredExperiment() {
+    applySettings();
+    return expResult;
+  }
+  
+  /**
+   * Get the experiment backend this panel displays the results of
+   * @return Experiment backend held by this panel
+   */
+  public Experiment getExperiment() {
+    return expResult;
+  }
+  
   /**
    * Produce the filename of the report generated from this experiment.
    * Has the format TEST_STATION_YEAR.DAY unless overridden
@@ -656,18 +721,7 @@ implements ActionListener, ChangeListener {
    * @param pdf PDF document to append data to
    */
   public void saveInsetDataText(PDDocument pdf) {
-    
-    StringBuilder sb = new StringBuilder( getInsetStrings() );
-    if ( sb.length() > 0 ) {
-      sb.append("\n \n");
-    }
-    String metadata = getMetadataString();
-    if ( metadata.length() > 0 ) {
-      sb.append(metadata);
-      sb.append("\n \n");
-    }
-    sb.append( getTimeStampString(expResult) );
-    ReportingUtils.textToPDFPage( sb.toString(), pdf );
+    ReportingUtils.textToPDFPage( getInsetDataText(), pdf );
     ReportingUtils.textListToPDFPages( pdf, getAdditionalReportPages() );
     return;
   }
@@ -682,12 +736,10 @@ implements ActionListener, ChangeListener {
     int width = 1280;
     int height = 960;
     JFreeChart[] charts = getCharts();
-    
-    ReportingUtils.chartsToPDFPage(width, height, pdf, charts);
     JFreeChart[] page2 = getSecondPageCharts();
-    if (page2.length > 0) {
-      ReportingUtils.chartsToPDFPage(width, height, pdf, page2);
-    }
+    
+    // both pages are rendered together; an empty second page is skipped
+    ReportingUtils.chartPagesToPDF(width, height, pdf, charts, page2);
     saveInsetDataText(pdf);
     
   }
@@ -712,26 +764,62 @@ implements ActionListener, ChangeListener {
     firePropertyChange("Backend completed", false, set);
     drawCharts();
   }
+  
+  /**
+   * Build this panel's charts from its experiment backend, once the backend
+   * has been run on the given data (see getConfiguredExperiment)
+   * @param ds Data the backend was run on
+   */
+  public void setResults(final DataStore ds) {
+    set = true;
+    showResults(ds);
+    drawCharts();
+  }
 
   @Override
   /**
    * Used to print out status of the experiment backend onto the chart when
-   * the backend status changes
+   * the backend status changes, with how far along the calculation is.
+   * Changes are fired from the thread running the backend, so the message
+   * is shown from the event dispatch thread.
    */
   public void stateChanged(ChangeEvent e) {
     if ( e.getSource() == expResult ) {
-      String info = expResult.getStatus();
-      displayInfoMessage(info);
+      String status = expResult.getStatus();
+      double progress = expResult.getProgress();
+      if (progress > 0. && progress < 1.) {
+        status += " (" + Math.round(progress * 100) + "% done)";
+      }
+      final String info = status;
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          displayInfoMessage(info);
+        }
+      });
     }
   }
   
   /**
-   * Function template for sending input to a backend fucntion and collecting
-   * the corresponding data
+   * Function template for collecting the data to plot from the backend once
+   * it has been run, such as the colors of each series or any charts that
+   * aren't built in drawCharts
+   * @param ds DataStore object the backend was run on
+   */
+  protected void showResults(final DataStore ds) {
+    return;
+  }
+  
+  /**
+   * Send input to the backend function and collect the corresponding data;
+   * this sets the boolean "set" to true to enable PDF saving
    * @param ds DataStore object containing seed and resp files
    */
-  protected abstract void updateData(final DataStore ds);
-  // details of how to run updateData are left up to the implementing panel
-  // however, the boolean "set" should be set to true to enable PDF saving
+  protected void updateData(final DataStore ds) {
+    set = true;
+    applySettings();
+    expResult.runExperimentOnData(ds);
+    showResults(ds);
+  }
   
 }
@@ -41,6 +41,8 @@ public class ExperimentPanelFactory {
       return new RandDebugPanel(exp);
     case SPECT:
       return new SpectrumPanel(exp);
+    case SPECG:
+      return new SpectrogramPanel(exp);
     default:
       // this shouldn't happen unless someone added to the enum
       // and forgot to follow-through on implementation
@@ -454,21 +454,31 @@ implements ChangeListener {
       
       // remove old bars and draw the new ones
       chartPanel.setChart( setDomainMarkers(lowPrd, highPrd, chart) );
+      
+      // stats come from cached PSD sums, so they can be shown while dragging
+      if ( leftSlider.isEnabled() && rightSlider.isEnabled() ) {
+        updateStatistics();
+        recalcButton.setEnabled(false);
+      }
     }
   }
   
+  /**
+   * Recalculate the gain statistics over the range selected by the sliders
+   * and display them on the chart. The experiment keeps cumulative sums of
+   * its PSDs, so this is cheap enough to be done on every slider movement.
+   */
+  protected void updateStatistics() {
+    setTitle();
+  }
+  
   @Override
-  protected void updateData(final DataStore ds) {
-    
-    set = true;
+  protected void showResults(final DataStore ds) {
     
     setDataNames(ds);
     
-    expResult.runExperimentOnData(ds);
-
     // need to have 2 series for relative gain
     refSeries.setEnabled(true);
-
   }
   
 }
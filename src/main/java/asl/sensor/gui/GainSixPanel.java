@@ -49,10 +49,8 @@ public class GainSixPanel extends GainPanel {
   getInsetString(GainSixExperiment gn, int plotIdx, 
       int refIdx, double lowPrd, double highPrd) {
 
-    double[][] meanAndStdDevAll = 
-        gn.getStatsFromFreqs(refIdx, 1/lowPrd, 1/highPrd);
-    
-    double[] meanAndStdDev = meanAndStdDevAll[plotIdx];
+    double[] meanAndStdDev = 
+        gn.getComponentStatsFromFreqs(plotIdx, refIdx, 1/lowPrd, 1/highPrd);
 
     double mean = meanAndStdDev[0];
     double sDev = meanAndStdDev[1];
@@ -420,17 +418,17 @@ public class GainSixPanel extends GainPanel {
   }
   
   @Override
-  protected void updateData(final DataStore ds) {
-    
-    set = true;
+  protected void updateStatistics() {
+    setTitle();
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
     
     setDataNames(ds);
     
-    expResult.runExperimentOnData(ds);
-
     // need to have 2 series for relative gain
     refSeries.setEnabled(true);
-
   }
   
 }
@@ -647,16 +647,25 @@ implements ActionListener, ChangeListener {
     height = (height*loaded)/loaded;
     int chartHeight = height/loaded;
     
-    JFreeChart[] chartsToPrint = new JFreeChart[plotsToShow];
-    for (int i = 0; i < plotsToShow; ++i) {
-      chartsToPrint[i] = chartPanels[i].getChart();
-    }
-    
     return ReportingUtils.chartsToImageList(
-        PLOTS_PER_PAGE, width, chartHeight, chartsToPrint);
+        PLOTS_PER_PAGE, width, chartHeight, getCharts(plotsToShow) );
     
   }
   
+  /**
+   * Get the charts of the visible input data, such as to be copied for a
+   * report (see ReportingUtils.cloneCharts)
+   * @param plotsToShow Number of plots that are to be added to the report
+   * @return The charts of the first plotsToShow inputs
+   */
+  public JFreeChart[] getCharts(int plotsToShow) {
+    JFreeChart[] charts = new JFreeChart[plotsToShow];
+    for (int i = 0; i < plotsToShow; ++i) {
+      charts[i] = chartPanels[i].getChart();
+    }
+    return charts;
+  }
+  
   /**
    * Returns the selected region of underlying DataStore, to be fed 
    * into experiments for processing (the results of which will be plotted)
@@ -1065,7 +1074,8 @@ implements ActionListener, ChangeListener {
     if ( ir.getEpochsCounted() > 1 ) {
       String name = ir.getName();
       String warning = "NOTE: Response " + name + " has multiple epochs.\n";
-      warning += "Only the last epoch will be parsed in.";
+      warning += "Only the last epoch will be parsed in.\n";
+      warning += "(Load data first to use the epoch matching its start.)";
       JDialog jd = new JDialog();
       JOptionPane.showMessageDialog(jd, warning);
     }
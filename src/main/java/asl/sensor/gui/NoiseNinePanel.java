@@ -221,9 +221,7 @@ public class NoiseNinePanel extends NoisePanel {
   }
   
   @Override
-  public void updateData(final DataStore ds) {
-    
-    set = true;
+  protected void applySettings() {
     
     boolean freqSpace = freqSpaceBox.isSelected();
     
@@ -231,8 +229,10 @@ public class NoiseNinePanel extends NoisePanel {
 
     NoiseNineExperiment noisExp = (NoiseNineExperiment) expResult;
     noisExp.setFreqSpace(freqSpaceImmutable);
-    
-    expResult.runExperimentOnData(ds);
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
     
     for (int j = 0; j < 3; ++j) {
       XYSeriesCollection xysc = expResult.getData().get(j);
@@ -284,7 +284,6 @@ public class NoiseNinePanel extends NoisePanel {
     vertChart = buildChart( expResult.getData().get(2) );
     vertChart.setTitle("Self-noise (VERTICAL)");
     System.out.println("Vert chart set!");
-  
   }
   
 }
@@ -152,13 +152,8 @@ public class NoisePanel extends ExperimentPanel {
     return 3;
   }
   
-  /**
-   * Initially called function to calculate self-noise when data is passed in
-   */
   @Override
-  protected void updateData(final DataStore ds) {
-    
-    set = true;
+  protected void applySettings() {
     
     boolean freqSpace = freqSpaceBox.isSelected();
     
@@ -166,8 +161,11 @@ public class NoisePanel extends ExperimentPanel {
     
     NoiseExperiment noisExp = (NoiseExperiment) expResult;
     noisExp.setFreqSpace(freqSpaceImmutable);
-    expResult.runExperimentOnData(ds);
-
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
+    
     XYSeriesCollection xysc = expResult.getData().get(0);
 
     for (int i = 0; i < NOISE_PLOT_COUNT; ++i) {
@@ -15,7 +15,6 @@ import org.jfree.ui.RectangleAnchor;
 
 import asl.sensor.experiment.ExperimentEnum;
 import asl.sensor.experiment.OrthogonalExperiment;
-import asl.sensor.input.DataStore;
 
 /**
  * Panel to display results of Orthogonal Experiment.
@@ -113,13 +112,5 @@ public class OrthogonalPanel extends ExperimentPanel {
   public int panelsNeeded() {
     return 4;
   }
-  
-  @Override
-  protected void updateData(final DataStore ds) {
-    
-    set = true;
-    
-    expResult.runExperimentOnData(ds);
-  }
 
 }
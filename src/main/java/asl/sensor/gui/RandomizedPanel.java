@@ -6,14 +6,20 @@ import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.List;
 
 import javax.swing.BoxLayout;
+import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JPanel;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.complex.ComplexFormat;
@@ -38,6 +44,7 @@ import asl.sensor.experiment.RandomizedExperiment;
 import asl.sensor.experiment.ResponseExperiment;
 import asl.sensor.input.DataStore;
 import asl.sensor.utils.NumericUtils;
+import asl.sensor.utils.SolverTrace;
 
 /**
  * Panel to display results from a randomized calibration experiment.
@@ -236,6 +243,28 @@ public class RandomizedPanel extends ExperimentPanel {
 
     sb.append(csvPoles);
     sb.append(csvZeros);
+    
+    // list the results of each start when the solver was run from several
+    double[] startResids = rnd.getStartResiduals();
+    int[] startIters = rnd.getStartIterations();
+    if (startResids.length > 1) {
+      sb.append("\nSOLVER STARTS (RESIDUAL, ITERATIONS):\n");
+      for (int i = 0; i < startResids.length; ++i) {
+        sb.append("Start ");
+        sb.append(i + 1);
+        if (i == 0) {
+          sb.append(" (nominal)");
+        }
+        sb.append(": ");
+        sb.append(startResids[i]);
+        sb.append(", ");
+        sb.append(startIters[i]);
+        if ( i == rnd.getBestStart() ) {
+          sb.append(" [best fit]");
+        }
+        sb.append("\n");
+      }
+    }
 
     String[] out = new String[]{sb.toString()}; // just a single new page
     return out;
@@ -340,6 +369,17 @@ public class RandomizedPanel extends ExperimentPanel {
     if (!solverNotRun) {
       sbR.append("Best fit: ");
       sbR.append(fitResid);
+      int starts = rnd.getStartResiduals().length;
+      if (starts > 1) {
+        sbR.append('\n');
+        sbR.append("(from start ");
+        sbR.append(rnd.getBestStart() + 1);
+        sbR.append(" of ");
+        sbR.append(starts);
+        sbR.append(", ");
+        sbR.append( rnd.getIterations() );
+        sbR.append(" iterations)");
+      }
     }
     
     return new String[]{sbInit.toString(), sbInitZ.toString(), sbR.toString()};
@@ -348,7 +388,8 @@ public class RandomizedPanel extends ExperimentPanel {
   private ValueAxis degreeAxis, residPhaseAxis, residAmpAxis, prdAxis,
                     residXAxis, residPrdAxis;
   private JComboBox<String> plotSelection;
-  private JCheckBox lowFreqBox, showParams, freqSpace;
+  private JCheckBox lowFreqBox, showParams, freqSpace, multiStart, keepTrace;
+  private JButton saveTrace;
   private JFreeChart magChart, argChart, residAmpChart, residPhaseChart;
   
   public RandomizedPanel(ExperimentEnum exp) {
@@ -388,6 +429,8 @@ public class RandomizedPanel extends ExperimentPanel {
     checkBoxPanel.add(lowFreqBox);
     checkBoxPanel.add(showParams);
     checkBoxPanel.add(freqSpace);
+    checkBoxPanel.add(multiStart);
+    checkBoxPanel.add(keepTrace);
     this.add(checkBoxPanel, gbc);
     
     gbc.gridx += 1;
@@ -395,7 +438,11 @@ public class RandomizedPanel extends ExperimentPanel {
     gbc.fill = GridBagConstraints.NONE;
     gbc.anchor = GridBagConstraints.CENTER;
     // gbc.gridwidth = GridBagConstraints.REMAINDER;
-    this.add(save, gbc);
+    JPanel buttonPanel = new JPanel();
+    buttonPanel.setLayout( new BoxLayout(buttonPanel, BoxLayout.Y_AXIS) );
+    buttonPanel.add(save);
+    buttonPanel.add(saveTrace);
+    this.add(buttonPanel, gbc);
     
     // plot selection combo box
     gbc.fill = GridBagConstraints.HORIZONTAL;
@@ -448,6 +495,16 @@ public class RandomizedPanel extends ExperimentPanel {
     
     freqSpace = new JCheckBox("Use Hz units (req. regen)");
     freqSpace.setSelected(true);
+    
+    multiStart = new JCheckBox("Multi-start fit (req. regen)");
+    multiStart.setSelected(false);
+    
+    keepTrace = new JCheckBox("Keep solver trace (req. regen)");
+    keepTrace.setSelected(false);
+    
+    saveTrace = new JButton("Save solver trace (CSV)");
+    saveTrace.setEnabled(false);
+    saveTrace.addActionListener(this);
   }
   
   @Override
@@ -476,6 +533,37 @@ public class RandomizedPanel extends ExperimentPanel {
       
     }
     
+    if ( e.getSource() == saveTrace ) {
+      SolverTrace trace = 
+          ( (RandomizedExperiment) expResult ).getSolverTrace();
+      if (trace == null) {
+        return;
+      }
+      String ext = ".csv";
+      JFileChooser traceChooser = new JFileChooser();
+      traceChooser.setCurrentDirectory( fc.getCurrentDirectory() );
+      traceChooser.setFileFilter( 
+          new FileNameExtensionFilter("CSV text (.csv)", "csv") );
+      int returnVal = traceChooser.showSaveDialog(saveTrace);
+      if (returnVal == JFileChooser.APPROVE_OPTION) {
+        File selFile = traceChooser.getSelectedFile();
+        if( !selFile.getName().endsWith(ext) ) {
+          selFile = new File( selFile.toString() + ext);
+        }
+        try {
+          FileWriter out = new FileWriter(selFile);
+          try {
+            trace.writeCSV(out);
+          } finally {
+            out.close();
+          }
+        } catch (IOException e1) {
+          e1.printStackTrace();
+        }
+      }
+      return;
+    }
+    
     if ( e.getSource() == showParams ) {
       
       if( !showParams.isSelected() ) {
@@ -537,6 +625,8 @@ public class RandomizedPanel extends ExperimentPanel {
     // just force the active plot at the start to be the amplitude plot
     showParams.setSelected(true);
     showParams.setEnabled(true);
+    RandomizedExperiment rndExp = (RandomizedExperiment) expResult;
+    saveTrace.setEnabled( rndExp.getSolverTrace() != null );
     chart = magChart;
     chartPanel.setChart(chart);
     plotSelection.setSelectedIndex(0);
@@ -668,26 +758,51 @@ public class RandomizedPanel extends ExperimentPanel {
     return out[idx];
   }
 
+  /**
+   * Set whether the next calibration run is a low-frequency calibration,
+   * as the low-frequency checkbox does, for running the panel without a GUI
+   * @param lowFreq True if a low-frequency calibration should be run
+   */
+  public void setLowFreq(boolean lowFreq) {
+    lowFreqBox.setSelected(lowFreq);
+  }
+  
   @Override
   public int panelsNeeded() {
     return 2;
   }
 
   @Override
-  protected void updateData(DataStore ds) {
+  protected void applySettings() {
     
     //initAxes();
     
-    set = true;
+    final boolean isLowFreq = lowFreqBox.isSelected();
+    
+    RandomizedExperiment rndExp = (RandomizedExperiment) expResult;
+    rndExp.setLowFreq(isLowFreq);
+    rndExp.useFreqUnits( freqSpace.isSelected() );
+    if ( multiStart.isSelected() ) {
+      rndExp.setMultiStart(RandomizedExperiment.DEFAULT_STARTS);
+    } else {
+      rndExp.setMultiStart(1);
+    }
+    if ( keepTrace.isSelected() ) {
+      rndExp.setTraceDepth(RandomizedExperiment.DEFAULT_TRACE_DEPTH);
+    } else {
+      rndExp.setTraceDepth(0);
+    }
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
+    
     showParams.setSelected(false);
     
     final boolean isLowFreq = lowFreqBox.isSelected();
     seriesColorMap = new HashMap<String, Color>();
     
     RandomizedExperiment rndExp = (RandomizedExperiment) expResult;
-    rndExp.setLowFreq(isLowFreq);
-    rndExp.useFreqUnits( freqSpace.isSelected() );
-    expResult.runExperimentOnData(ds);
     
     String appendFreqTitle;
     
@@ -324,16 +324,17 @@ public class ResponsePanel extends ExperimentPanel {
   }
   
   @Override
-  protected void updateData(DataStore ds) {
-
-    set = true;
-    
-    seriesColorMap = new HashMap<String, Color>();
+  protected void applySettings() {
     
     boolean freqSpace = freqSpaceBox.isSelected();
     ResponseExperiment respExp = (ResponseExperiment) expResult;
     respExp.setFreqSpace(freqSpace);
-    expResult.runExperimentOnData(ds);
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
+    
+    seriesColorMap = new HashMap<String, Color>();
     
     List<XYSeriesCollection> xysc = expResult.getData();
     XYSeriesCollection magSeries = xysc.get(0);
@@ -0,0 +1,541 @@
+package asl.sensor.gui;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Paint;
+import java.awt.event.ActionEvent;
+import java.text.DecimalFormat;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.TimeZone;
+
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.DateAxis;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.axis.NumberTickUnit;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.PaintScale;
+import org.jfree.chart.renderer.xy.XYBlockRenderer;
+import org.jfree.chart.title.PaintScaleLegend;
+import org.jfree.data.xy.AbstractXYZDataset;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.ui.RectangleAnchor;
+import org.jfree.ui.RectangleEdge;
+
+import asl.sensor.experiment.ExperimentEnum;
+import asl.sensor.experiment.SpectrogramExperiment;
+import asl.sensor.input.DataStore;
+
+/**
+ * Panel for displaying the results of the spectrogram experiment. One chart
+ * is a heat map of the PSD of each window over time, and the other is a heat
+ * map of the probability density of the PSD values in each band, with the
+ * mode and median of the PSDs plotted over it along with the noise models.
+ * As block renderers draw blocks of a fixed size in data units, the
+ * frequency (or period) axes of both charts are plotted as their base-10
+ * logarithms, with ticks labeled by their actual values.
+ * @author akearns
+ *
+ */
+public class SpectrogramPanel extends ExperimentPanel {
+  
+  /**
+   * Labels ticks on an axis of base-10 logarithms with the values they are
+   * the logarithms of
+   * @author akearns
+   *
+   */
+  private static class PowerOfTenFormat extends NumberFormat {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final DecimalFormat df = new DecimalFormat("#.######");
+    
+    @Override
+    public StringBuffer
+    format(double number, StringBuffer toAppendTo, FieldPosition pos) {
+      return df.format( Math.pow(10., number), toAppendTo, pos );
+    }
+    
+    @Override
+    public StringBuffer
+    format(long number, StringBuffer toAppendTo, FieldPosition pos) {
+      return format( (double) number, toAppendTo, pos );
+    }
+    
+    @Override
+    public Number parse(String source, ParsePosition parsePosition) {
+      Number value = df.parse(source, parsePosition);
+      if (value == null) {
+        return null;
+      }
+      return Math.log10( value.doubleValue() );
+    }
+  
+  }
+  
+  /**
+   * Paint scale running from blue at its lower bound to red at its upper
+   * bound, for heat maps
+   * @author akearns
+   *
+   */
+  private static class RainbowPaintScale implements PaintScale {
+    
+    private final double lower, upper;
+    private final boolean blankLowest;
+    
+    /**
+     * Create a scale over the given range of values
+     * @param lower Value painted blue (values below it are painted the same)
+     * @param upper Value painted red (values above it are painted the same)
+     * @param blankLowest True if values at or below the lower bound should
+     * be painted white instead (i.e., for densities of 0)
+     */
+    public RainbowPaintScale(double lower, double upper, boolean blankLowest) {
+      this.lower = lower;
+      this.upper = upper;
+      this.blankLowest = blankLowest;
+    }
+    
+    @Override
+    public double getLowerBound() {
+      return lower;
+    }
+    
+    @Override
+    public Paint getPaint(double value) {
+      if ( blankLowest && !(value > lower) ) {
+        return Color.WHITE;
+      }
+      double fraction = 0.;
+      if (upper > lower) {
+        fraction = (value - lower) / (upper - lower);
+      }
+      if ( Double.isNaN(fraction) ) {
+        fraction = 0.;
+      }
+      fraction = Math.max( 0., Math.min(1., fraction) );
+      return Color.getHSBColor( (float) (0.7 * (1. - fraction) ), 1.f, 1.f );
+    }
+    
+    @Override
+    public double getUpperBound() {
+      return upper;
+    }
+  
+  }
+  
+  /**
+   * Dataset over a matrix of values, where the row and column of each value
+   * give its x and y coordinates
+   * @author akearns
+   *
+   */
+  private static class MatrixDataset extends AbstractXYZDataset {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final String key;
+    private final double[] xValues, yValues;
+    private final float[][] zValues;
+    
+    /**
+     * Create a dataset over a matrix (which is used directly, not copied)
+     * @param key Name of the dataset's single series
+     * @param x X-coordinate of each row of the matrix
+     * @param y Y-coordinate of each column of the matrix
+     * @param z Values of the matrix, indexed by row and then column
+     */
+    public MatrixDataset(String key, double[] x, double[] y, float[][] z) {
+      this.key = key;
+      xValues = x;
+      yValues = y;
+      zValues = z;
+    }
+    
+    @Override
+    public int getItemCount(int series) {
+      return xValues.length * yValues.length;
+    }
+    
+    @Override
+    public int getSeriesCount() {
+      return 1;
+    }
+    
+    @Override
+    public Comparable<?> getSeriesKey(int series) {
+      return key;
+    }
+    
+    @Override
+    public Number getX(int series, int item) {
+      return xValues[item / yValues.length];
+    }
+    
+    @Override
+    public Number getY(int series, int item) {
+      return yValues[item % yValues.length];
+    }
+    
+    @Override
+    public Number getZ(int series, int item) {
+      return zValues[item / yValues.length][item % yValues.length];
+    }
+  
+  }
+  
+  private static final long serialVersionUID = -2936102815536217716L;
+  
+  /**
+   * Spacing of the centers of the PSDs' bands, as a difference of base-10
+   * logarithms (each band is drawn as a block this high or wide)
+   */
+  private static final double LOG_BAND_WIDTH =
+      Math.log10(2.) / SpectrogramExperiment.BANDS_PER_OCTAVE;
+  
+  private JCheckBox freqSpaceBox;
+  private JSpinner lengthSpinner, overlapSpinner;
+  private JComboBox<String> chartSelector;
+  private JFreeChart spectroChart, pdfChart;
+  
+  /**
+   * Constructs a new panel and lays out all the components in it
+   * @param exp Experiment enum with corresponding backend for factory
+   * instantiation
+   */
+  public SpectrogramPanel(ExperimentEnum exp) {
+    
+    super(exp);
+    
+    channelType[0] = "Input data (RESP required)";
+    
+    plotTheseInBold = new String[]{"NLNM","NHNM"};
+    
+    yAxis = new NumberAxis("Power (rel. 1 (m/s^2)^2/Hz)");
+    yAxis.setRange(SpectrogramExperiment.PDF_MIN_DB,
+        SpectrogramExperiment.PDF_MAX_DB);
+    Font bold = yAxis.getLabelFont().deriveFont(Font.BOLD);
+    yAxis.setLabelFont(bold);
+    xAxis = getLogAxis(false);
+    
+    freqSpaceBox = new JCheckBox("Use Hz units (requires regen)");
+    freqSpaceBox.setSelected(false);
+    
+    lengthSpinner = new JSpinner( new SpinnerNumberModel(60., 1., 10080., 5.) );
+    JLabel lengthLabel = new JLabel("Window length (min.):");
+    lengthLabel.setLabelFor(lengthSpinner);
+    
+    overlapSpinner = new JSpinner( new SpinnerNumberModel(50., 0., 95., 5.) );
+    JLabel overlapLabel = new JLabel("Window overlap (%):");
+    overlapLabel.setLabelFor(overlapSpinner);
+    
+    chartSelector = new JComboBox<String>();
+    chartSelector.addItem("Spectrogram");
+    chartSelector.addItem("PDF of PSDs");
+    chartSelector.setSelectedIndex(0);
+    chartSelector.addActionListener(this);
+    
+    spectroChart = ChartFactory.createXYLineChart( expType.getName(),
+        "Window start (UTC)", getLogAxis(false).getLabel(), null);
+    pdfChart = ChartFactory.createXYLineChart( expType.getName() + " PDF",
+        xAxis.getLabel(), yAxis.getLabel(), null);
+    chart = spectroChart;
+    chartPanel.setChart(chart);
+    
+    this.setLayout( new GridBagLayout() );
+    GridBagConstraints gbc = new GridBagConstraints();
+    
+    gbc.fill = GridBagConstraints.BOTH;
+    gbc.gridx = 0; gbc.gridy = 0;
+    gbc.weightx = 1.0; gbc.weighty = 1.0;
+    gbc.gridwidth = 6;
+    gbc.anchor = GridBagConstraints.CENTER;
+    this.add(chartPanel, gbc);
+    
+    // place the settings in a single row below the chart
+    gbc.gridwidth = 1;
+    gbc.weighty = 0.0; gbc.weightx = 0.0;
+    gbc.fill = GridBagConstraints.NONE;
+    gbc.anchor = GridBagConstraints.EAST;
+    gbc.gridy += 1;
+    this.add(lengthLabel, gbc);
+    
+    gbc.gridx += 1;
+    gbc.anchor = GridBagConstraints.WEST;
+    this.add(lengthSpinner, gbc);
+    
+    gbc.gridx += 1;
+    gbc.anchor = GridBagConstraints.EAST;
+    this.add(overlapLabel, gbc);
+    
+    gbc.gridx += 1;
+    gbc.anchor = GridBagConstraints.WEST;
+    this.add(overlapSpinner, gbc);
+    
+    gbc.gridx += 1;
+    gbc.weightx = 1.0;
+    gbc.anchor = GridBagConstraints.CENTER;
+    this.add(freqSpaceBox, gbc);
+    
+    gbc.gridx += 1;
+    gbc.weightx = 0.0;
+    gbc.fill = GridBagConstraints.HORIZONTAL;
+    this.add(chartSelector, gbc);
+    
+    gbc.gridx = 0; gbc.gridy += 1;
+    gbc.gridwidth = 6;
+    gbc.fill = GridBagConstraints.NONE;
+    gbc.anchor = GridBagConstraints.CENTER;
+    this.add(save, gbc);
+  }
+  
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    
+    if (e.getSource() == chartSelector) {
+      JFreeChart[] charts = getCharts();
+      chart = charts[chartSelector.getSelectedIndex()];
+      chartPanel.setChart(chart);
+      return;
+    }
+    
+    super.actionPerformed(e);
+  }
+  
+  /**
+   * Build the chart of the probability density of the PSDs, with the
+   * experiment's curves (mode, median and noise models) drawn over it
+   * @param exp Experiment that has been run
+   * @param logFreqs Base-10 logarithms of the x-values of each band
+   * @return Chart of the probability densities
+   */
+  private JFreeChart
+  buildDensityChart(SpectrogramExperiment exp, double[] logFreqs) {
+    
+    // curves are plotted over the log of their x-values, like the densities
+    XYSeriesCollection curves = exp.getData().get(0);
+    XYSeriesCollection logCurves = new XYSeriesCollection();
+    for (int i = 0; i < curves.getSeriesCount(); ++i) {
+      XYSeries series = curves.getSeries(i);
+      XYSeries logSeries = new XYSeries( series.getKey() );
+      for (int j = 0; j < series.getItemCount(); ++j) {
+        double x = series.getX(j).doubleValue();
+        logSeries.add( Math.log10(x), series.getY(j) );
+      }
+      logCurves.addSeries(logSeries);
+    }
+    
+    xAxis = getLogAxis( exp.getFreqSpace() );
+    JFreeChart densityChart = buildChart(logCurves, xAxis, yAxis);
+    densityChart.setTitle( expType.getName() + " PDF" );
+    
+    int bins =
+        SpectrogramExperiment.PDF_MAX_DB - SpectrogramExperiment.PDF_MIN_DB + 1;
+    double[] powers = new double[bins];
+    for (int i = 0; i < bins; ++i) {
+      powers[i] = SpectrogramExperiment.PDF_MIN_DB + i;
+    }
+    float[][] densities = exp.getDensities();
+    float maxDensity = 0.f;
+    for (float[] band : densities) {
+      for (float density : band) {
+        maxDensity = Math.max(maxDensity, density);
+      }
+    }
+    
+    PaintScale scale = new RainbowPaintScale(0., maxDensity, true);
+    XYBlockRenderer renderer = new XYBlockRenderer();
+    renderer.setBlockWidth(LOG_BAND_WIDTH);
+    renderer.setBlockHeight(1.);
+    renderer.setPaintScale(scale);
+    renderer.setSeriesVisibleInLegend(0, false); // shown by the scale legend
+    XYPlot xyp = densityChart.getXYPlot();
+    // the curves (dataset 0) are drawn over the densities
+    xyp.setDataset( 1,
+        new MatrixDataset("PDF", logFreqs, powers, densities) );
+    xyp.setRenderer(1, renderer);
+    xyp.setBackgroundPaint(Color.WHITE);
+    xyp.setDomainAxis(xAxis);
+    xyp.setRangeAxis(yAxis);
+    
+    densityChart.addSubtitle( getScaleLegend(scale, "Probability") );
+    return densityChart;
+  }
+  
+  /**
+   * Build the chart of the PSD of each window over time
+   * @param exp Experiment that has been run
+   * @param logFreqs Base-10 logarithms of the y-values of each band
+   * @return Chart of the windows' PSDs
+   */
+  private JFreeChart
+  buildSpectrogramChart(SpectrogramExperiment exp, double[] logFreqs) {
+    
+    // times are given to the chart in milliseconds
+    double[] offsets = exp.getWindowOffsets();
+    double[] times = new double[offsets.length];
+    for (int i = 0; i < times.length; ++i) {
+      times[i] = exp.getStart() + offsets[i] * 1000.;
+    }
+    
+    float[][] powers = exp.getPowers();
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (float[] window : powers) {
+      for (float power : window) {
+        if ( !Float.isInfinite(power) && !Float.isNaN(power) ) {
+          min = Math.min(min, power);
+          max = Math.max(max, power);
+        }
+      }
+    }
+    
+    PaintScale scale = new RainbowPaintScale(min, max, false);
+    XYBlockRenderer renderer = new XYBlockRenderer();
+    renderer.setBlockWidth( exp.getWindowSpacing() * 1000. );
+    renderer.setBlockHeight(LOG_BAND_WIDTH);
+    renderer.setBlockAnchor(RectangleAnchor.LEFT);
+    renderer.setPaintScale(scale);
+    
+    DateAxis timeAxis = new DateAxis("Window start (UTC)");
+    timeAxis.setTimeZone( TimeZone.getTimeZone("UTC") );
+    timeAxis.setLabelFont( yAxis.getLabelFont() );
+    NumberAxis bandAxis = getLogAxis( exp.getFreqSpace() );
+    
+    MatrixDataset dataset = new MatrixDataset(
+        exp.getInputNames().get(0), times, logFreqs, powers);
+    XYPlot xyp = new XYPlot(dataset, timeAxis, bandAxis, renderer);
+    JFreeChart spectrogram = new JFreeChart( expType.getName(), xyp );
+    spectrogram.removeLegend();
+    spectrogram.addSubtitle( getScaleLegend(scale, yAxis.getLabel()) );
+    return spectrogram;
+  }
+  
+  @Override
+  protected void clearChartAndSetProgressData() {
+    chartSelector.setSelectedIndex(0);
+    spectroChart = ChartFactory.createXYLineChart( expType.getName(),
+        "Window start (UTC)", getLogAxis(false).getLabel(), null);
+    chart = spectroChart;
+    chartPanel.setChart(chart);
+    displayInfoMessage("Running calculation...");
+  }
+  
+  @Override
+  protected void drawCharts() {
+    chartSelector.setSelectedIndex(0);
+    chart = spectroChart;
+    chartPanel.setChart(chart);
+    chartPanel.setMouseZoomable(true);
+  }
+  
+  @Override
+  public JFreeChart[] getCharts() {
+    return new JFreeChart[]{spectroChart, pdfChart};
+  }
+  
+  @Override
+  public String getInsetStrings() {
+    if (!set) {
+      return "";
+    }
+    SpectrogramExperiment exp = (SpectrogramExperiment) expResult;
+    StringBuilder sb = new StringBuilder();
+    sb.append("Windows: ");
+    sb.append(exp.getPowers().length);
+    sb.append(", starting every ");
+    sb.append( new DecimalFormat("#.##").format( exp.getWindowSpacing() ) );
+    sb.append(" s");
+    return sb.toString();
+  }
+  
+  /**
+   * Get an axis for the base-10 logarithm of period or frequency values,
+   * with ticks at each power of 10
+   * @param freqSpace True if the axis is of frequencies (Hz)
+   * @return Axis with ticks labeled by the values of the logarithms
+   */
+  private static NumberAxis getLogAxis(boolean freqSpace) {
+    String title = "Period (s)";
+    if (freqSpace) {
+      title = "Frequency (Hz)";
+    }
+    NumberAxis axis = new NumberAxis(title);
+    axis.setTickUnit( new NumberTickUnit( 1., new PowerOfTenFormat() ) );
+    axis.setAutoRangeIncludesZero(false);
+    axis.setLabelFont( axis.getLabelFont().deriveFont(Font.BOLD) );
+    return axis;
+  }
+  
+  /**
+   * Get a legend showing the colors of a heat map's paint scale
+   * @param scale Paint scale of the heat map
+   * @param title Name of the values the colors represent
+   * @return Legend to add to the chart as a subtitle
+   */
+  private static PaintScaleLegend getScaleLegend(PaintScale scale,
+      String title) {
+    NumberAxis scaleAxis = new NumberAxis(title);
+    scaleAxis.setRange( scale.getLowerBound(), scale.getUpperBound() );
+    PaintScaleLegend legend = new PaintScaleLegend(scale, scaleAxis);
+    legend.setPosition(RectangleEdge.RIGHT);
+    legend.setMargin(4., 4., 40., 4.);
+    return legend;
+  }
+  
+  @Override
+  public int panelsNeeded() {
+    return 1;
+  }
+  
+  @Override
+  protected void applySettings() {
+    
+    SpectrogramExperiment exp = (SpectrogramExperiment) expResult;
+    exp.setFreqSpace( freqSpaceBox.isSelected() );
+    double minutes = (double) lengthSpinner.getValue();
+    exp.setWindowLength(minutes * 60.);
+    double percent = (double) overlapSpinner.getValue();
+    exp.setWindowOverlap(percent / 100.);
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
+    
+    SpectrogramExperiment exp = (SpectrogramExperiment) expResult;
+    
+    double[] bandFreqs = exp.getBandFrequencies();
+    double[] logFreqs = new double[bandFreqs.length];
+    for (int i = 0; i < logFreqs.length; ++i) {
+      logFreqs[i] = Math.log10(bandFreqs[i]);
+      if ( !exp.getFreqSpace() ) {
+        // log of period is the negative log of frequency
+        logFreqs[i] = -logFreqs[i];
+      }
+    }
+    
+    seriesColorMap.clear();
+    seriesDashedSet.clear();
+    String name = exp.getInputNames().get(0);
+    seriesColorMap.put("Mode " + name, Color.MAGENTA);
+    seriesColorMap.put("Median " + name, Color.DARK_GRAY);
+    seriesDashedSet.add("Median " + name);
+    
+    spectroChart = buildSpectrogramChart(exp, logFreqs);
+    pdfChart = buildDensityChart(exp, logFreqs);
+  }
+
+}
@@ -157,13 +157,19 @@ public class SpectrumPanel extends ExperimentPanel {
     return plotCount;
   }
   
-  /**
-   * Initially called function to calculate self-noise when data is passed in
-   */
   @Override
-  protected void updateData(final DataStore ds) {
+  protected void applySettings() {
     
-    set = true;
+    boolean freqSpace = freqSpaceBox.isSelected();
+    
+    final boolean freqSpaceImmutable = freqSpace;
+    
+    SpectrumExperiment psdExp = (SpectrumExperiment) expResult;
+    psdExp.setFreqSpace(freqSpaceImmutable);
+  }
+  
+  @Override
+  protected void showResults(final DataStore ds) {
     
     plotCount = 0;
     for (int i = 0; i < panelsNeeded(); ++i) {
@@ -172,14 +178,6 @@ public class SpectrumPanel extends ExperimentPanel {
       }
     }
     
-    boolean freqSpace = freqSpaceBox.isSelected();
-    
-    final boolean freqSpaceImmutable = freqSpace;
-    
-    SpectrumExperiment psdExp = (SpectrumExperiment) expResult;
-    psdExp.setFreqSpace(freqSpaceImmutable);
-    expResult.runExperimentOnData(ds);
-
     XYSeriesCollection xysc = expResult.getData().get(0);
 
     for (int i = 0; i < plotCount; ++i) {
@@ -310,11 +310,7 @@ public class StepPanel extends ExperimentPanel {
    * the parameters used in the plot calculations
    */
   @Override
-  protected void updateData(final DataStore ds) {
-    
-    set = true;
-    
-    expResult.runExperimentOnData(ds);
+  protected void showResults(final DataStore ds) {
     
     XYSeriesCollection stepData = expResult.getData().get(0);
     stepChart = buildChart(stepData, xAxis, yAxis);
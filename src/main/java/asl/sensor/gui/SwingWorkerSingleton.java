@@ -19,6 +19,7 @@ public class SwingWorkerSingleton {
   
   public static void cancel() {
     worker.cancel(true);
+    epHandle.expResult.cancel();
   }
   
   /**
@@ -59,6 +60,8 @@ public class SwingWorkerSingleton {
       // other panel was cancelled, and thus clear the chart / unset data
       if ( !worker.isDone() ) {
         worker.cancel(true); // cancel worker, set it to the new task
+        // stop the old calculation too, rather than letting it run out
+        epHandle.expResult.cancel();
       }
     }
      
@@ -12,6 +12,7 @@ import java.util.TimeZone;
 import org.apache.commons.math3.util.Pair;
 import org.jfree.data.xy.XYSeries;
 
+import asl.sensor.utils.PlotDownsampler;
 import asl.sensor.utils.TimeSeriesUtils;
 
 /**
@@ -55,6 +56,7 @@ public class DataBlock {
   private Map<Long, double[]> dataMap;
   private long trimmedStart, trimmedEnd;
   private double[] cachedTimeSeries;
+  private MinMaxPyramid pyramid; // built for plotting when first needed
   boolean rebuildList;
   
   /**
@@ -73,6 +75,7 @@ public class DataBlock {
     trimmedEnd = in.getEndTime();
     
     cachedTimeSeries = in.getData();
+    pyramid = in.pyramid;
     rebuildList = false;
     
   }
@@ -97,6 +100,7 @@ public class DataBlock {
     name = in.getName();
     
     cachedTimeSeries = in.getData();
+    pyramid = in.pyramid;
     rebuildList = false;
   }
   
@@ -176,18 +180,38 @@ public class DataBlock {
       return cachedTimeSeries;
     }
     
+    cachedTimeSeries = getDataInRange(trimmedStart, trimmedEnd);
+    
+    if (interval != targetInterval) {
+      cachedTimeSeries = 
+          TimeSeriesUtils.decimate(cachedTimeSeries, interval, targetInterval);
+    }
+    
+    rebuildList = false;
+    return cachedTimeSeries;
+    
+  }
+  
+  /**
+   * Construct an array of the data (at the original sample rate) between two
+   * times, with any gaps populated by zeros
+   * @param from Start time of the range to get data from
+   * @param to End time of the range to get data from
+   * @return Array representing the data found within the given time range
+   */
+  private double[] getDataInRange(long from, long to) {
+    
     List<Long> times = new ArrayList<Long>( dataMap.keySet() );
     Collections.sort(times);
     
-    long timeCursor = trimmedStart;
+    long timeCursor = from;
     
     // make sure the correct number of points are loaded in to prevent
     // off-by-one errors later on
-    int numPoints = 
-        (int) ( (trimmedEnd - trimmedStart) / (interval) );
+    int numPoints = (int) ( (to - from) / (interval) );
     // System.out.println("num. points: " + numPoints);
     
-    cachedTimeSeries = new double[numPoints];
+    double[] series = new double[numPoints];
     int lastFilledIndex = 0;
     
     for (int i = 0; i < times.size(); ++i) {
@@ -240,16 +264,16 @@ public class DataBlock {
         Number[] sublist = data.subList(startIndex, end).toArray(new Number[0]);
         */
         for (int j = 0; j < sublist.length; ++j, ++lastFilledIndex) {
-          cachedTimeSeries[lastFilledIndex] = sublist[j];
+          series[lastFilledIndex] = sublist[j];
         }
         
       }
       
-      timeCursor = trimmedStart + ( interval * lastFilledIndex );
+      timeCursor = from + ( interval * lastFilledIndex );
       if ( next - timeCursor > (interval * 2) ) {
         // deal with any gaps between two parts of the list
         while (timeCursor < next && lastFilledIndex < numPoints) {
-          cachedTimeSeries[lastFilledIndex] = 0.;
+          series[lastFilledIndex] = 0.;
           ++lastFilledIndex;
           timeCursor += interval;
         }
@@ -257,17 +281,11 @@ public class DataBlock {
     }
     
     while (lastFilledIndex < numPoints) {
-      cachedTimeSeries[lastFilledIndex] = 0.;
+      series[lastFilledIndex] = 0.;
       ++lastFilledIndex;
     }
     
-    if (interval != targetInterval) {
-      cachedTimeSeries = 
-          TimeSeriesUtils.decimate(cachedTimeSeries, interval, targetInterval);
-    }
-    
-    rebuildList = false;
-    return cachedTimeSeries;
+    return series;
     
   }
   
@@ -602,6 +620,7 @@ public class DataBlock {
     endTime = startTime + (interval * data.length);
     trimmedEnd = endTime;
     cachedTimeSeries = data;
+    pyramid = null;
     rebuildList = false;
   }
   
@@ -613,6 +632,7 @@ public class DataBlock {
   public void setDataMap(Map<Long, double[]> dataMap) {
     this.dataMap = dataMap;
     mergeContiguousTimes();
+    pyramid = null;
     rebuildList = true;
   }
 
@@ -629,27 +649,46 @@ public class DataBlock {
   /**
    * Converts this object's time series data into a form plottable by a chart.
    * The format is a pair of data: the time of a sample and that sample's value.
-   * The data is truncated (without smoothing) to prevent the plot from slowing
-   * down the performance of the program as much as possible.
+   * The data is reduced to the min and max sample over each of a fixed number
+   * of time windows (see PlotDownsampler) to prevent the plot from slowing
+   * down the performance of the program, while keeping peaks visible.
+   * Long windows are read from a min/max pyramid over the whole series, built
+   * the first time it is needed (see MinMaxPyramid), so that re-plotting
+   * after a zoom doesn't need to go through every sample in the window.
    * @return JFreeChart XYSeries representation of the data
    */
   public XYSeries toXYSeries() {
     // doing a quick decimation here on the displays for datapanel
     // so that we can do the sliding/zooming operations relatively expediently
     // trying to draw the charts with too much data slows it down terribly
-    // System.out.println(rebuildList);
-    double[] data = getData();
-    // System.out.println(data.length);
+    XYSeries out = new XYSeries(name);
     
-    int skipFactor = data.length / MAX_POINTS + 1; // must be >= 1
+    // each bucket contributes up to two points (its min and max)
+    int buckets = MAX_POINTS / 2;
     
-    XYSeries out = new XYSeries(name);
-    long thisTime = trimmedStart;
-    for (int i = 0; i < data.length; i+=skipFactor) {
-      double point = data[i];
+    // pyramid holds data at original rate; resampled data is plotted directly
+    if ( size() > MAX_POINTS && interval == targetInterval ) {
+      if (pyramid == null) {
+        pyramid = new MinMaxPyramid( getDataInRange(startTime, endTime) );
+      }
+      int from = (int) ( (trimmedStart - startTime) / interval );
+      double[][] envelope = pyramid.getEnvelope(from, from + size(), buckets);
+      double[] indices = envelope[0];
+      double[] values = envelope[1];
+      for (int i = 0; i < indices.length; ++i) {
+        long thisTime = startTime + (long) indices[i] * interval;
+        double xTime = (double) (thisTime / TIME_FACTOR);
+        out.add(xTime, values[i], false);
+      }
+      return out;
+    }
+    
+    double[] data = getData();
+    int[] keep = PlotDownsampler.getEnvelopeIndices(data, buckets);
+    for (int idx : keep) {
+      long thisTime = trimmedStart + idx * targetInterval;
       double xTime = (double) (thisTime / TIME_FACTOR);
-      out.add(xTime, point);
-      thisTime += skipFactor*targetInterval;
+      out.add(xTime, data[idx], false);
     }
     
     return out;
@@ -554,13 +554,23 @@ public class DataStore {
   }
   
   /**
-   * Sets the response of a sensor's dataseries matched by index
+   * Sets the response of a sensor's dataseries matched by index.
+   * If data is already loaded at that index and the file has an epoch for
+   * that data's channel at its start time, that epoch's response is used.
+   * Otherwise the last epoch in the file is used.
    * @param idx Index of plot for which response file matches
    * @param filepath Full address of file to be loaded in
    */
   public void setResponse(int idx, String filepath) {
     try {
-      responses[idx] = new InstrumentResponse(filepath);
+      InstrumentResponse ir = null;
+      if ( blockIsSet(idx) ) {
+        ir = new RespFile(filepath).getResponseFor( getBlock(idx) );
+      }
+      if (ir == null) {
+        ir = new InstrumentResponse(filepath);
+      }
+      responses[idx] = ir;
       thisResponseIsSet[idx] = true;
     } catch (IOException e) {
       e.printStackTrace();
@@ -5,14 +5,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.math3.complex.Complex;
@@ -20,8 +16,9 @@ import org.apache.commons.math3.complex.ComplexFormat;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealVector;
 
-import asl.sensor.gui.InputPanel;
+import asl.sensor.utils.MetricsRegistry;
 import asl.sensor.utils.NumericUtils;
+import asl.sensor.utils.ResourceCatalog;
 
 /**
  * This class is used to read in and store data from instrument response files
@@ -29,15 +26,264 @@ import asl.sensor.utils.NumericUtils;
  * to parse in relevant data from those files to get values such as poles and
  * zeros and the gain stages of the detector/sensor setup.
  * See also: http://ds.iris.edu/ds/nodes/dmc/data/formats/resp/
+ * Responses cannot be changed once created, so they can be shared freely
+ * (including between threads). To get a response with different values,
+ * such as a new name or best-fit poles, use a {@link Builder} made from an
+ * existing response; any parts of the response that the builder doesn't
+ * replace are shared with the original rather than copied.
  * @author akearns
  *
  */
 public class InstrumentResponse {
+  
+  /**
+   * Used to create a response from an existing one with some values
+   * replaced. Values that are not set on the builder are kept from the
+   * response it was made from.
+   * @author akearns
+   *
+   */
+  public static class Builder {
+    
+    private TransferFunction transferType;
+    private int epochsCounted;
+    private double[] gain;
+    private int numStages;
+    private PoleZeroSet zeros;
+    private PoleZeroSet poles;
+    private String name;
+    private Unit unitType;
+    private double normalization;
+    private double normalFreq;
+    
+    /**
+     * Create a builder with an empty response, filled in by the RESP parser
+     */
+    private Builder() {
+      gain = new double[]{};
+      zeros = PoleZeroSet.EMPTY;
+      poles = PoleZeroSet.EMPTY;
+    }
+    
+    /**
+     * Create a builder starting from the values of an existing response
+     * @param base Response to take the initial values from
+     */
+    public Builder(InstrumentResponse base) {
+      transferType = base.transferType;
+      epochsCounted = base.epochsCounted;
+      gain = base.gain;
+      numStages = base.numStages;
+      zeros = base.zeros;
+      poles = base.poles;
+      name = base.name;
+      unitType = base.unitType;
+      normalization = base.normalization;
+      normalFreq = base.normalFreq;
+    }
+    
+    /**
+     * Create a response with the builder's current values
+     * @return New response
+     */
+    public InstrumentResponse build() {
+      return new InstrumentResponse(this);
+    }
+    
+    /**
+     * Set the name of the response, used in some plot and report generation
+     * @param newName New name to give the response
+     * @return This builder
+     */
+    public Builder setName(String newName) {
+      name = newName;
+      return this;
+    }
+    
+    /**
+     * Replace the poles of the response with new ones
+     * @param poleList New poles to replace the current response poles with
+     * @return This builder
+     */
+    public Builder setPoles(Complex[] poleList) {
+      poles = PoleZeroSet.fromList(poleList);
+      return this;
+    }
+    
+    /**
+     * Replace the poles of the response with new ones
+     * @param poleList New poles to replace the current response poles with
+     * @return This builder
+     */
+    public Builder setPoles(List<Complex> poleList) {
+      return setPoles( poleList.toArray(new Complex[poleList.size()]) );
+    }
+    
+    /**
+     * Replace the zeros of the response with new ones, such as after fitting
+     * from random cal
+     * @param zeroList New zeros to replace the current response zeros with
+     * @return This builder
+     */
+    public Builder setZeros(Complex[] zeroList) {
+      zeros = PoleZeroSet.fromList(zeroList);
+      return this;
+    }
+    
+    /**
+     * Replace the zeros of the response with new ones, such as after fitting
+     * from random cal
+     * @param zeroList New zeros to replace the current response zeros with
+     * @return This builder
+     */
+    public Builder setZeros(List<Complex> zeroList) {
+      return setZeros( zeroList.toArray(new Complex[zeroList.size()]) );
+    }
+    
+  }
+  
+  /**
+   * The distinct poles (or zeros) of a response, sorted by magnitude, with
+   * the number of times each one is repeated. Values are also kept as arrays
+   * of their real and imaginary parts for evaluating the response. These are
+   * never changed after creation, so responses can share them.
+   * @author akearns
+   *
+   */
+  private static class PoleZeroSet {
+    
+    static final PoleZeroSet EMPTY = 
+        new PoleZeroSet( new Complex[]{}, new int[]{} );
+    
+    /**
+     * Create a set from a list of values, where repeated values are counted
+     * @param list Poles or zeros, in any order (null is treated as empty)
+     * @return Set of the distinct values and their counts
+     */
+    static PoleZeroSet fromList(Complex[] list) {
+      if (list == null) {
+        return EMPTY;
+      }
+      Complex[] values = new Complex[list.length];
+      int[] counts = new int[list.length];
+      int size = 0;
+      for (Complex c : list) {
+        int idx = indexOf(values, size, c);
+        if (idx < 0) {
+          values[size] = c;
+          counts[size] = 1;
+          ++size;
+        } else {
+          ++counts[idx];
+        }
+      }
+      return sorted(values, counts, size);
+    }
+    
+    /**
+     * Find a value among the first entries of an array
+     * @param values Array to search
+     * @param size Number of entries in use
+     * @param c Value to find
+     * @return Index of the value, or -1 if it isn't in the array
+     */
+    private static int indexOf(Complex[] values, int size, Complex c) {
+      for (int i = 0; i < size; ++i) {
+        if ( values[i].equals(c) ) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    
+    /**
+     * Create a set from parallel arrays of values and their counts, which
+     * are sorted by magnitude in place. If a value appears more than once,
+     * the count of its last appearance is used.
+     * @param values Pole or zero values
+     * @param counts Number of times each value is repeated
+     * @param size Number of entries of the arrays in use
+     * @return Set of the distinct values and their counts
+     */
+    static PoleZeroSet sorted(Complex[] values, int[] counts, int size) {
+      // these lists are short, so an insertion sort is fine
+      for (int i = 1; i < size; ++i) {
+        Complex value = values[i];
+        int count = counts[i];
+        int j = i - 1;
+        while ( j >= 0 &&
+            NumericUtils.CpxMagComparator.instance.compare(
+                values[j], value) > 0 ) {
+          values[j + 1] = values[j];
+          counts[j + 1] = counts[j];
+          --j;
+        }
+        values[j + 1] = value;
+        counts[j + 1] = count;
+      }
+      
+      int distinct = 0;
+      for (int i = 0; i < size; ++i) {
+        int idx = indexOf(values, distinct, values[i]);
+        if (idx < 0) {
+          values[distinct] = values[i];
+          counts[distinct] = counts[i];
+          ++distinct;
+        } else {
+          counts[idx] = counts[i];
+        }
+      }
+      
+      return new PoleZeroSet( Arrays.copyOf(values, distinct),
+          Arrays.copyOf(counts, distinct) );
+    }
+    
+    final Complex[] values;
+    final int[] counts;
+    final double[] real;
+    final double[] imag;
+    
+    private PoleZeroSet(Complex[] values, int[] counts) {
+      this.values = values;
+      this.counts = counts;
+      real = new double[values.length];
+      imag = new double[values.length];
+      for (int i = 0; i < values.length; ++i) {
+        real[i] = values[i].getReal();
+        imag[i] = values[i].getImaginary();
+      }
+    }
+    
+    /**
+     * Get the number of distinct values
+     * @return Size of the value and count arrays
+     */
+    int size() {
+      return values.length;
+    }
+    
+    /**
+     * Get the values as a list, with repeated values listed as many times as
+     * they are repeated
+     * @return New list of values, sorted by magnitude
+     */
+    List<Complex> toList() {
+      List<Complex> listOut = new ArrayList<Complex>();
+      for (int i = 0; i < values.length; ++i) {
+        for (int j = 0; j < counts[i]; ++j) {
+          listOut.add(values[i]);
+        }
+      }
+      return listOut;
+    }
+    
+  }
 
   public static final double PEAK_MULTIPLIER = 0.8;
   
   /**
-   * Get one of the response files embedded in the program
+   * Get one of the response files embedded in the program. The file is only
+   * parsed once, and each call returns that same (unchangeable) response.
    * @return response file embedded into the program
    * @throws IOException If no file with the given name exists (this may happen
    * if a file listed in the responses.txt file does not exist in that location
@@ -45,47 +291,16 @@ public class InstrumentResponse {
    */
   public static InstrumentResponse loadEmbeddedResponse(String fname) 
       throws IOException {
-    
-    ClassLoader cl = InputPanel.class.getClassLoader();
-    InputStream is = cl.getResourceAsStream(fname);
-    BufferedReader fr = new BufferedReader( new InputStreamReader(is) );
-    return new InstrumentResponse(fr, fname);
+    return ResourceCatalog.getEmbeddedResponse(fname);
   }
   
   /**
    * Get list of all responses embedded into the program, derived from the
    * responses.txt file in the resources folder
-   * @return Set of strings representing response filenames
+   * @return Unmodifiable set of strings representing response filenames
    */
   public static Set<String> parseInstrumentList() {
-    
-    Set<String> respFilenames = new HashSet<String>();
-    ClassLoader cl = InstrumentResponse.class.getClassLoader();
-    
-    // there's no elegant way to extract responses other than to
-    // load in their names from a list and then grab them as available
-    // correspondingly, this means adding response files to this program
-    // requires us to add their names to this file
-    // There may be other possibilities but they are more complex and
-    // tend not to work the same way between IDE and launching a jar
-    
-    InputStream respRead = cl.getResourceAsStream("responses.txt");
-    BufferedReader respBuff = 
-        new BufferedReader( new InputStreamReader(respRead) );
-
-    try {
-      String name;
-      name = respBuff.readLine();
-      while (name != null) {
-        respFilenames.add(name);
-        name = respBuff.readLine();
-      }
-      respBuff.close();
-    } catch (IOException e2) {
-      e2.printStackTrace();
-    }
-    
-    return respFilenames;
+    return ResourceCatalog.getEmbeddedResponseNames();
   }
   
   /**
@@ -96,38 +311,37 @@ public class InstrumentResponse {
   private static void parseTermAsComplex(String line, Complex[] array) {
     // reparse the line. why are we doing this? well,
     // if a number is negative, only one space between it and prev. number
-    // and the previous split operation assumed > 2 spaces between numbers
-    String[] words = line.split("\\s+");
+    // and the field tokenizing assumed > 2 spaces between numbers
 
 
     // index 0 is the identifier for the field types (used in switch-stmt)
     // index 1 is where in the list this zero or pole is
     // index 2 is the real part, and index 3 the imaginary
     // indices 4 and 5 are error terms (ignored)    
-    int index = Integer.parseInt(words[1]);
-    double realPart = Double.parseDouble(words[2]);
-    double imagPart = Double.parseDouble(words[3]);
+    int index = Integer.parseInt( RespTokenizer.word(line, 1) );
+    double realPart = Double.parseDouble( RespTokenizer.word(line, 2) );
+    double imagPart = Double.parseDouble( RespTokenizer.word(line, 3) );
     array[index] = new Complex(realPart, imagPart);
   }
   
-  private TransferFunction transferType;
-  private int epochsCounted;
+  private final TransferFunction transferType;
+  private final int epochsCounted;
   
   // gain values, indexed by stage
-  private double[] gain;
-  private int numStages;
+  private final double[] gain;
+  private final int numStages;
   
   // poles and zeros
-  private Map<Complex, Integer> zeros;
+  private final PoleZeroSet zeros;
   
-  private Map<Complex, Integer> poles;
+  private final PoleZeroSet poles;
   
-  private String name;
-  private Unit unitType;
+  private final String name;
+  private final Unit unitType;
   
-  private double normalization; // A0 normalization factor
+  private final double normalization; // A0 normalization factor
   
-  private double normalFreq; // cuz she's a normalFreq, normalFreq 
+  private final double normalFreq; // cuz she's a normalFreq, normalFreq 
   // (the A0 norm. factor's frequency) 
   
   /**
@@ -139,60 +353,29 @@ public class InstrumentResponse {
    * @throws IOException
    */
   public InstrumentResponse(BufferedReader br, String name) throws IOException {
-    
-    this.name = name;
-    
-    parserDriver(br);
+    this( parserDriver(br).setName(name) );
   }
+  
   /**
-   * Create a copy of an existing response object
-   * @param responseIn The response object to be copied
+   * Create a response from the values set in a builder
+   * @param builder Builder holding the values of the response
    */
-  public InstrumentResponse(InstrumentResponse responseIn) {
-    epochsCounted = 1;
-    transferType = responseIn.getTransferFunction();
-    
-    gain = responseIn.getGain();
-    numStages = responseIn.getNumStages();
-
-    zeros = new HashMap<Complex, Integer>( responseIn.getZerosMap() );
-    poles = new HashMap<Complex, Integer>( responseIn.getPolesMap() );
-    
-    unitType = responseIn.getUnits();
-    
-    normalization = Double.valueOf( responseIn.getNormalization() );
-    normalFreq = Double.valueOf( responseIn.getNormalizationFrequency() );
-    
-    name = responseIn.getName();
+  private InstrumentResponse(Builder builder) {
+    transferType = builder.transferType;
+    epochsCounted = builder.epochsCounted;
+    gain = builder.gain;
+    numStages = builder.numStages;
+    zeros = builder.zeros;
+    poles = builder.poles;
+    name = builder.name;
+    unitType = builder.unitType;
+    normalization = builder.normalization;
+    normalFreq = builder.normalFreq;
   }
   
   public int getNumStages() {
     return numStages;
   }
-
-  private Map<Complex, Integer> getZerosMap() {
-    return zeros;
-  }
-  
-  private Map<Complex, Integer> getPolesMap() {
-    return poles;
-  }
-
-  private List<Complex> getSortedPoleKeys() {
-    ArrayList<Complex> list = new ArrayList<Complex>( poles.keySet() );
-    if (list.size() > 1) {
-      NumericUtils.complexMagnitudeSorter(list);
-    }
-    return list;
-  }
-  
-  private List<Complex> getSortedZeroKeys() {
-    ArrayList<Complex> list = new ArrayList<Complex>( zeros.keySet() );
-    if ( list.size() > 1 ) {
-      NumericUtils.complexMagnitudeSorter(list);
-    }
-    return list;
-  }
   
   /**
    * Reads in an instrument response from a RESP file
@@ -201,8 +384,8 @@ public class InstrumentResponse {
    * @throws IOException
    */
   public InstrumentResponse(String filename) throws IOException {
-    name = new File(filename).getName();
-    parseResponseFile(filename);
+    this( parseResponseFile(filename).setName(
+        new File(filename).getName() ) );
   }
   
   /**
@@ -216,6 +399,8 @@ public class InstrumentResponse {
    */
   public Complex[] applyResponseToInput(double[] frequencies) {
    
+    MetricsRegistry.Stopwatch timer = 
+        MetricsRegistry.start("response.evaluate");
     Complex[] resps = new Complex[frequencies.length];
     
     // precalculate gain for scaling the response
@@ -236,27 +421,17 @@ public class InstrumentResponse {
     for (int i = 0; i < frequencies.length; ++i) {
       double deltaFrq = frequencies[i];
       
-      // pole-zero expansion
-      Complex s = new Complex( 0, deltaFrq*transferType.getFunction() );
-      
-      Complex numerator = Complex.ONE;
-      Complex denominator = Complex.ONE;
+      // pole-zero expansion, where s is purely imaginary
+      // products are done on the real and imaginary parts directly rather
+      // than as Complex objects, since this is run for every fit iteration
+      double sImag = deltaFrq*transferType.getFunction();
       
-      for ( Complex zero : zeros.keySet() ) {
-        int count = zeros.get(zero); // number of times to apply zero
-        for (int j = 0; j < count; ++j) {
-          numerator = numerator.multiply( s.subtract(zero) );  
-        }
-      }
+      double[] numerator = expandTerms(zeros, sImag);
+      double[] denominator = expandTerms(poles, sImag);
       
-      for ( Complex pole : poles.keySet() ) {
-        int count = poles.get(pole);
-        for (int j = 0; j < count; ++j) {
-          denominator = denominator.multiply( s.subtract(pole) );
-        }
-      }
-      
-      resps[i] = numerator.multiply(normalization).divide(denominator);
+      resps[i] = new Complex(numerator[0], numerator[1]).
+          multiply(normalization).
+          divide( new Complex(denominator[0], denominator[1]) );
       
       if (diffs < 0) {
         // a negative number of differentiations 
@@ -282,9 +457,32 @@ public class InstrumentResponse {
       resps[i] = resps[i].multiply(scale);
     }
     
+    timer.stop();
     return resps;
   }
   
+  /**
+   * Get the product of (s - x) over each pole or zero x, repeated as many
+   * times as x is, where s is a purely imaginary value
+   * @param terms Poles or zeros of the response
+   * @param sImag Imaginary part of s
+   * @return Real and imaginary parts of the product
+   */
+  private static double[] expandTerms(PoleZeroSet terms, double sImag) {
+    double prodReal = 1.;
+    double prodImag = 0.;
+    for (int k = 0; k < terms.size(); ++k) {
+      double diffReal = -terms.real[k];
+      double diffImag = sImag - terms.imag[k];
+      for (int j = 0; j < terms.counts[k]; ++j) {
+        double nextReal = prodReal * diffReal - prodImag * diffImag;
+        prodImag = prodReal * diffImag + prodImag * diffReal;
+        prodReal = nextReal;
+      }
+    }
+    return new double[]{prodReal, prodImag};
+  }
+  
   /**
    * Given a best-fit vector, build the poles and zeros to use the ones
    * defined by that vector. Imaginary values that are non-zero are constrained 
@@ -302,49 +500,66 @@ public class InstrumentResponse {
   buildResponseFromFitVector(double[] params, boolean lowFreq, 
       int numZeros) {
     
-    // get all distinct pole values as lists
-    List<Complex> zList = getSortedZeroKeys();
-    List<Complex> pList = getSortedPoleKeys();
+    Builder out = new Builder(this);
     
-    // first covert poles and zeros back to complex values to make this easier
-    List<Complex> zerosAsComplex = new ArrayList<Complex>();
-    for (int i = 0; i < numZeros; i += 2) {
-      Complex c = new Complex( params[i], params[i+1] );
-      zerosAsComplex.add(c);
+    // only build new sets of zeros or poles if any of them are being fit;
+    // otherwise this response's sets are shared with the new one
+    if (numZeros > 0) {
+      out.zeros = buildZerosFromFitVector(params, lowFreq, numZeros);
     }
-    
-    List<Complex> polesAsComplex = new ArrayList<Complex>();
-    for (int i = numZeros; i < params.length; i += 2) {
-      Complex c = new Complex( params[i], params[i+1] );
-      polesAsComplex.add(c);
+    if (params.length > numZeros) {
+      out.poles = buildPolesFromFitVector(params, lowFreq, numZeros);
     }
     
-    // fit the zeros
-    Map<Complex, Integer> builtZeros = new HashMap<Complex, Integer>();
+    return out.build();
+    
+  }
+  
+  /**
+   * Build the zeros of a response from a best-fit vector
+   * @see #buildResponseFromFitVector
+   * @param params Array of real and imaginary component values of poles
+   * and zeros
+   * @param lowFreq True if the fit values are for low-frequency components
+   * @param numZeros How much of the input parameter array is zero components
+   * @return Zeros with the fit values in place of the original ones
+   */
+  private PoleZeroSet 
+  buildZerosFromFitVector(double[] params, boolean lowFreq, int numZeros) {
+    
+    // all distinct zero values, sorted
+    Complex[] zList = zeros.values;
+    int[] zCounts = zeros.counts;
+    
+    Complex[] builtZeros = new Complex[zList.length];
+    int[] builtCounts = new int[zList.length];
+    int size = 0;
     
     // first, add the literally zero values; these aren't fit
     // (NOTE: we expect count to never be more than 2)
     int start;
     start = 0;
-    Complex firstZero = zList.get(0);
+    Complex firstZero = zList[0];
     if (firstZero.abs() == 0.) {
       start = 1;
-      int count = zeros.get(firstZero);
-      builtZeros.put(firstZero, count);
+      builtZeros[size] = firstZero;
+      builtCounts[size] = zCounts[0];
+      ++size;
     }
     
     // add the low-frequency zeros from source if they're not being fit
     if (!lowFreq) {
       // add zeros until they reach the high-freq cutoff point
       // start from current index of data
-      for (int i = start; i < zList.size(); ++i) {
-        Complex zero = zList.get(i);
-        int count = zeros.get(zero);
+      for (int i = start; i < zList.length; ++i) {
+        Complex zero = zList[i];
         if ( zero.abs() / NumericUtils.TAU > 1. ) {
           // zeros after this point are high-frequency
           break;
         }
-        builtZeros.put(zero, count);
+        builtZeros[size] = zero;
+        builtCounts[size] = zCounts[i];
+        ++size;
       }
     }
     
@@ -352,86 +567,99 @@ public class InstrumentResponse {
     // these are the high-frequency zeros if we're doing high-frequency cal
     // or the low-frequency zeros otherwise
     int offset;
-    offset = builtZeros.size();
-    for (int i = 0; i < zerosAsComplex.size(); ++i) {
-      Complex origZero = zList.get(i + offset);
-      int count = zeros.get(origZero);
-      Complex zero = zerosAsComplex.get(i);
-      builtZeros.put(zero, count);
+    offset = size;
+    for (int i = 0; i < numZeros; i += 2) {
+      int count = zCounts[i / 2 + offset];
+      Complex zero = new Complex( params[i], params[i+1] );
+      builtZeros[size] = zero;
+      builtCounts[size] = count;
+      ++size;
       
       // add conjugate if it has one
       if ( zero.getImaginary() != 0. ) {
-        builtZeros.put( zero.conjugate(), count );
+        builtZeros[size] = zero.conjugate();
+        builtCounts[size] = count;
+        ++size;
         ++offset; // skipping over the original conjugate pair
       }
     }
     
     // now add in all remaining zeros
-    for (int i = builtZeros.size(); i < zList.size(); ++i) {
-      Complex zero = zList.get(i);
-      int count = zeros.get(zero);
-      builtZeros.put(zero, count);
+    for (int i = size; i < zList.length; ++i) {
+      builtZeros[size] = zList[i];
+      builtCounts[size] = zCounts[i];
+      ++size;
     }
-    //System.out.println("builtZeros: "+builtZeros);
     
-    // now do the same thing as the zeros but for the poles
-    Map<Complex, Integer> builtPoles = new HashMap<Complex, Integer>();
+    return PoleZeroSet.sorted(builtZeros, builtCounts, size);
+  }
+  
+  /**
+   * Build the poles of a response from a best-fit vector
+   * @see #buildResponseFromFitVector
+   * @param params Array of real and imaginary component values of poles
+   * and zeros
+   * @param lowFreq True if the fit values are for low-frequency components
+   * @param numZeros How much of the input parameter array is zero components
+   * @return Poles with the fit values in place of the original ones
+   */
+  private PoleZeroSet 
+  buildPolesFromFitVector(double[] params, boolean lowFreq, int numZeros) {
+    
+    // do the same thing as the zeros but for the poles
+    Complex[] pList = poles.values;
+    int[] pCounts = poles.counts;
+    
+    Complex[] builtPoles = new Complex[pList.length];
+    int[] builtCounts = new int[pList.length];
+    int size = 0;
     
     // low frequency poles not being fit added first (keeps list sorted)
     if (!lowFreq) {
       // first add low-frequency poles not getting fit by high-freq cal
-      for (int i = 0; i < pList.size(); ++i) {
-        Complex pole = pList.get(i);
+      for (int i = 0; i < pList.length; ++i) {
+        Complex pole = pList[i];
         if ( pole.abs() / NumericUtils.TAU > 1. ) {
           break;
         }
-        int count = poles.get(pole);
-        builtPoles.put(pole, count);
+        builtPoles[size] = pole;
+        builtCounts[size] = pCounts[i];
+        ++size;
       }
     } else if ( hasTooLowFreqPole() ) {
       // used in the odd KS54000 case, we don't fit the low-freq damping pole
-      Complex pole = pList.get(0);
-      int count = poles.get(pole);
-      builtPoles.put(pole, count);
+      builtPoles[size] = pList[0];
+      builtCounts[size] = pCounts[0];
+      ++size;
     }
     
-    offset = builtPoles.size();
+    int offset;
+    offset = size;
     // now add the poles under consideration for fit as with zeros
-    for (int i = 0; i < polesAsComplex.size(); ++i) {
-      Complex origPole = pList.get(i + offset);
-      int count = poles.get(origPole);
-      Complex pole = polesAsComplex.get(i);
-      builtPoles.put(pole, count);
+    for (int i = numZeros; i < params.length; i += 2) {
+      int count = pCounts[(i - numZeros) / 2 + offset];
+      Complex pole = new Complex( params[i], params[i+1] );
+      builtPoles[size] = pole;
+      builtCounts[size] = count;
+      ++size;
       
       // add conjugate if it has one
       if ( pole.getImaginary() != 0. ) {
-        builtPoles.put( pole.conjugate(), count );
+        builtPoles[size] = pole.conjugate();
+        builtCounts[size] = count;
+        ++size;
         ++offset;
       }
     }
     
     // now add the poles that remain
-    for (int i = builtPoles.size(); i < pList.size(); ++i) {
-      Complex pole = pList.get(i);
-      int count = poles.get(pole);
-      builtPoles.put(pole, count);
+    for (int i = size; i < pList.length; ++i) {
+      builtPoles[size] = pList[i];
+      builtCounts[size] = pCounts[i];
+      ++size;
     }
-    //System.out.println("builtPoles: "+builtPoles);
     
-    // create a copy of this instrument response and set the new values
-    InstrumentResponse out = new InstrumentResponse(this);
-    out.setZerosMap(builtZeros);
-    out.setPolesMap(builtPoles);
-    return out;
-    
-  }
-  
-  private void setZerosMap(Map<Complex, Integer> newZeros) {
-    zeros = newZeros;
-  }
-
-  private void setPolesMap(Map<Complex, Integer> newPoles) {
-    poles = newPoles;
+    return PoleZeroSet.sorted(builtPoles, builtCounts, size);
   }
   
   /**
@@ -441,7 +669,7 @@ public class InstrumentResponse {
    * @return Array of all gain stages found in resp file, including stage 0
    */
   public double[] getGain() {
-    return gain;
+    return gain.clone();
   }
   
   /**
@@ -474,15 +702,7 @@ public class InstrumentResponse {
    * @return List of complex numbers; index y is the yth pole in response list
    */
   public List<Complex> getPoles() {
-    List<Complex> pList = getSortedPoleKeys();
-    List<Complex> listOut = new ArrayList<Complex>();
-    for ( Complex p : pList ) {
-      int count = poles.get(p);
-      for (int i = 0; i < count; ++i) {
-        listOut.add(p);
-      }
-    }
-    return listOut;
+    return poles.toList();
   }
   
   /**
@@ -508,15 +728,7 @@ public class InstrumentResponse {
    * @return List of complex numbers; index y is the yth zero in response list
    */
   public List<Complex> getZeros() {
-    List<Complex> zList = getSortedZeroKeys();
-    List<Complex> listOut = new ArrayList<Complex>();
-    for (Complex z : zList) {
-      int count = zeros.get(z);
-      for (int i = 0; i < count; ++i) {
-        listOut.add(z);
-      }
-    }
-    return listOut;
+    return zeros.toList();
   }
   
   /**
@@ -527,8 +739,7 @@ public class InstrumentResponse {
    */
   private boolean hasTooLowFreqPole() {
     final double CUTOFF = 1. / 1000.;
-    List<Complex> pList = getPoles();
-    if ( ( pList.get(0).abs() / NumericUtils.TAU ) < CUTOFF ) {
+    if ( ( poles.values[0].abs() / NumericUtils.TAU ) < CUTOFF ) {
       // first two poles are low-frequency
       return true;
     }
@@ -549,19 +760,21 @@ public class InstrumentResponse {
    * Read in each line of a response and parse and store relevant lines
    * according to the hex value at the start of the line
    * @param br reader of a given file to be parse
+   * @return Builder holding the values read from the last epoch in the file
    * @throws IOException if the reader cannot read the given file
    */
-  private void parserDriver(BufferedReader br) throws IOException {
+  private static Builder parserDriver(BufferedReader br) throws IOException {
     
-    epochsCounted = 0;
+    Builder out = new Builder();
+    out.epochsCounted = 0;
     
-    numStages = 0;
+    out.numStages = 0;
     double[] gains = new double[10];
     for (int i = 0; i < gains.length; ++i) {
       gains[i] = 1;
     }
-    normalization = 0;
-    normalFreq = 0;
+    out.normalization = 0;
+    out.normalFreq = 0;
     int gainStage = -1;
     Complex[] polesArr = null;
     Complex[] zerosArr = null;
@@ -581,51 +794,52 @@ public class InstrumentResponse {
         line = br.readLine();
         continue;
       } else {
-        // the components of each line, assuming split by 2 or more spaces
-        String[] words = line.split("\\s\\s+");
-        String hexIdentifier = words[0];
+        // the components of each line are separated by 2 or more spaces
+        // only the identifier is pulled out of every line; values are
+        // pulled out of the lines that need them
+        String hexIdentifier = RespTokenizer.identifier(line);
         
         switch (hexIdentifier) {
         case "B052F22":
-          ++epochsCounted;
+          ++out.epochsCounted;
           // NEW EPOCH REACHED. Clear out old data.
-          numStages = 0;
+          out.numStages = 0;
           gains = new double[10];
           for (int i = 0; i < gains.length; ++i) {
             gains[i] = 1;
           }
-          normalization = 0;
-          normalFreq = 0;
+          out.normalization = 0;
+          out.normalFreq = 0;
           gainStage = -1;
           polesArr = null;
           zerosArr = null;
         case "B053F03":
           // transfer function type specified
-          // first character of third component of words
-          switch ( words[2].charAt(0) ) {
+          // first character of third component of the line
+          switch ( RespTokenizer.field(line, 2).charAt(0) ) {
           case 'A':
-            transferType = TransferFunction.LAPLACIAN;
+            out.transferType = TransferFunction.LAPLACIAN;
             break;
           case 'B':
-            transferType = TransferFunction.LINEAR;
+            out.transferType = TransferFunction.LINEAR;
             break;
           default:
             // defaulting to LAPLACIAN if type is different from a or b
             // which is likely to be more correct
-            transferType = TransferFunction.LAPLACIAN;
+            out.transferType = TransferFunction.LAPLACIAN;
           }
           break;
         case "B053F05":
           // parse the units of the transfer function (usually velocity)
-          // first *word* of the third component of words
-          String[] unitString = words[2].split("\\s");
-          String unit = unitString[0];
+          // first *word* of the third component of the line
+          String unit = 
+              RespTokenizer.firstWord( RespTokenizer.field(line, 2) );
           switch (unit.toLowerCase()) {
           case "m/s":
-            unitType = Unit.VELOCITY;
+            out.unitType = Unit.VELOCITY;
             break;
           case "m/s**2":
-            unitType = Unit.ACCELERATION;
+            out.unitType = Unit.ACCELERATION;
             break;
           default:
             String e = "Unit type was given as " + unit + ".\n";
@@ -636,22 +850,26 @@ public class InstrumentResponse {
         case "B053F07":
           // this is the normalization factor A0
           // this is the entire third word of the line, as a double
-          normalization = Double.parseDouble(words[2]);
+          out.normalization = 
+              Double.parseDouble( RespTokenizer.field(line, 2) );
           break;
         case "B053F08":
           // this is the normalization frequency
           // once again the entire third word of the line as double
-          normalFreq = Double.parseDouble(words[2]);
+          out.normalFreq = 
+              Double.parseDouble( RespTokenizer.field(line, 2) );
           break;
         case "B053F09":
           // the number of zeros listed in reponse pole/zero lines
           // again, this is the entire third word, as an int
-          int numZero = Integer.parseInt(words[2]);
+          int numZero = 
+              Integer.parseInt( RespTokenizer.field(line, 2) );
           zerosArr = new Complex[numZero];
           break;
         case "B053F14":
           // same as above line but for the number of poles
-          int numPole = Integer.parseInt(words[2]);
+          int numPole = 
+              Integer.parseInt( RespTokenizer.field(line, 2) );
           polesArr = new Complex[numPole];
           break;
         case "B053F10-13":
@@ -666,8 +884,9 @@ public class InstrumentResponse {
         case "B058F03":
           // gain stage sequence number; again, full third word as int
           // this is used to map the gain value to an index
-          gainStage = Integer.parseInt(words[2]);
-          numStages = Math.max(numStages, gainStage);
+          gainStage = 
+              Integer.parseInt( RespTokenizer.field(line, 2) );
+          out.numStages = Math.max(out.numStages, gainStage);
           break;
         case "B058F04":
           // should come immediately and only after the gain sequence number
@@ -675,7 +894,8 @@ public class InstrumentResponse {
           // map allows us to read in the stages in whatever order
           // in the event they're not sorted in the response file
           // and allows us to have basically arbitrarily many stages
-          gains[gainStage] = Double.parseDouble(words[2]);
+          gains[gainStage] = 
+              Double.parseDouble( RespTokenizer.field(line, 2) );
           
           // reset the stage to prevent data being overwritten
           gainStage = -1;
@@ -688,12 +908,13 @@ public class InstrumentResponse {
     } // end of file-read loop (EOF reached, line is null)
     
     // turn map of gain stages into list
-    gain = gains;
-    ++numStages; // offset by 1 to represent size of stored gain stages
+    out.gain = gains;
+    ++out.numStages; // offset by 1 to represent size of stored gain stages
     
     // turn pole/zero arrays into maps from pole values to # times repeated
-    setZeros(zerosArr);
-    setPoles(polesArr);
+    out.setZeros(zerosArr);
+    out.setPoles(polesArr);
+    return out;
   }
   
   /**
@@ -702,8 +923,10 @@ public class InstrumentResponse {
    * This function currently does not parse a full response file, but instead
    * only examines fields relevant to self-noise calculations.
    * @param filename Full path to the response file
+   * @return Builder holding the values read from the file
    */
-  private void parseResponseFile(String filename) throws IOException {
+  private static Builder parseResponseFile(String filename)
+      throws IOException {
     
     // response files have a very nice format that is not so nice as something
     // like JSON but still quite easy to parse
@@ -721,10 +944,12 @@ public class InstrumentResponse {
     BufferedReader br;
     try {
       br = new BufferedReader( new FileReader(filename) );
-      parserDriver(br);
+      Builder out = parserDriver(br);
       br.close();
+      return out;
     } catch (FileNotFoundException e) {
       e.printStackTrace();
+      return new Builder();
     }
     
   }
@@ -743,8 +968,8 @@ public class InstrumentResponse {
    * @return RealVector with fittable pole values
    */
   public RealVector polesToVector(boolean lowFreq, double nyquist) {
-    // first, sort poles by magnitude
-    List<Complex> pList = getSortedPoleKeys();
+    // poles are already sorted by magnitude
+    Complex[] pList = poles.values;
     
     double peak = PEAK_MULTIPLIER * nyquist;
     
@@ -759,9 +984,9 @@ public class InstrumentResponse {
       start = 1;
     }
     
-    for (int i = start; i < pList.size(); ++i) {
+    for (int i = start; i < pList.length; ++i) {
       
-      double frq = pList.get(i).abs() / NumericUtils.TAU;
+      double frq = pList[i].abs() / NumericUtils.TAU;
       if ( !lowFreq && (frq < 1.) ) {
         // don't include poles below 1Hz in high-frequency calibration
         continue;
@@ -776,8 +1001,8 @@ public class InstrumentResponse {
       }
       
       // a complex is just two doubles representing real and imaginary lengths
-      double realPart = pList.get(i).getReal();
-      double imagPart = pList.get(i).getImaginary();
+      double realPart = pList[i].getReal();
+      double imagPart = pList[i].getImaginary();
       
       componentList.add(realPart);
       componentList.add(imagPart);
@@ -798,70 +1023,6 @@ public class InstrumentResponse {
     return MatrixUtils.createRealVector(responseVariables);
   }
   
-  /**
-   * Set name of response file, used in some plot and report generation
-   * @param newName New name to give this response
-   */
-  public void setName(String newName) {
-    name = newName;
-  }
-  
-  /**
-   * Replace the current poles of this response with new ones
-   * @param poleList New poles to replace the current response poles with
-   */
-  public void setPoles(List<Complex> poleList) {
-    poles = new HashMap<Complex, Integer>();
-    for (Complex p : poleList) {
-      if ( poles.keySet().contains(p) ) {
-        int count = zeros.get(p) + 1;
-        poles.put(p, count);
-      } else {
-        poles.put(p, 1);
-      }
-    }
-  }
-  
-  public void setPoles(Complex[] poleList) {
-    poles = new HashMap<Complex, Integer>();
-    for (Complex p : poleList) {
-      if ( poles.keySet().contains(p) ) {
-        int count = poles.get(p) + 1;
-        poles.put(p, count);
-      } else {
-        poles.put(p, 1);
-      }
-    }
-  }
-
-  /**
-   * Set the list of zeros to a new list, such as after fitting from random cal
-   * @param newZeros New list of zeros to assign this calibration
-   */
-  public void setZeros(List<Complex> zeroList) {
-    zeros = new HashMap<Complex, Integer>();
-    for (Complex z : zeroList) {
-      if ( zeros.keySet().contains(z) ) {
-        int count = zeros.get(z) + 1;
-        zeros.put(z, count);
-      } else {
-        zeros.put(z, 1);
-      }
-    }
-  }
-  
-  public void setZeros(Complex[] zeroList) {
-    zeros = new HashMap<Complex, Integer>();
-    for (Complex z : zeroList) {
-      if ( zeros.keySet().contains(z) ) {
-        int count = zeros.get(z) + 1;
-        zeros.put(z, count);
-      } else {
-        zeros.put(z, 1);
-      }
-    }
-  }
-  
   /**
    * Output text report of this response file. Not same format as IRIS RESP.
    */
@@ -947,7 +1108,7 @@ public class InstrumentResponse {
    * @return RealVector with fittable zero values
    */
   public RealVector zerosToVector(boolean lowFreq, double nyquist) {
-    List<Complex> zList = getSortedZeroKeys();
+    Complex[] zList = zeros.values;
     
     double peak = PEAK_MULTIPLIER * nyquist;
     
@@ -955,14 +1116,14 @@ public class InstrumentResponse {
     // of poles, to convert to array and then vector format
     List<Double> componentList = new ArrayList<Double>();
     
-    for (int i = 0; i < zeros.size(); ++i) {
+    for (int i = 0; i < zList.length; ++i) {
       
-      if ( zList.get(i).abs() == 0. ) {
+      if ( zList[i].abs() == 0. ) {
         // ignore zeros that are literally zero-valued
         continue;
       }
       
-      double cutoffChecker = zList.get(i).abs() / NumericUtils.TAU;
+      double cutoffChecker = zList[i].abs() / NumericUtils.TAU;
       
       if ( lowFreq && (cutoffChecker > 1.) ) {
         // only do low frequency calibrations on zeros up to 1Hz
@@ -977,8 +1138,8 @@ public class InstrumentResponse {
         break;
       }
       
-      double realPart = zList.get(i).getReal();
-      double imagPart = zList.get(i).getImaginary();
+      double realPart = zList[i].getReal();
+      double imagPart = zList[i].getImaginary();
       componentList.add(realPart);
       componentList.add(imagPart);
       
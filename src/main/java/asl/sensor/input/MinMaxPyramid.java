@@ -0,0 +1,184 @@
+package asl.sensor.input;
+
+import java.util.BitSet;
+
+/**
+ * Multi-resolution summary of a time series for fast plotting. Each level of
+ * the pyramid divides the series into buckets of a power-of-two number of
+ * samples and holds the min and max value of each bucket, with each level
+ * built from the one below it (so the whole pyramid takes a single pass over
+ * the data, and about a quarter as much memory as the data itself).
+ * A window of the series can then be plotted as a min/max envelope by reading
+ * only the level whose buckets are about the size of a pixel, so the cost of
+ * redrawing after a zoom depends on the plot resolution rather than the
+ * number of samples in the window.
+ * The pyramid is not changed once built, so can be shared between copies of
+ * a data block with the same underlying data.
+ * @author akearns
+ *
+ */
+public class MinMaxPyramid {
+  
+  /**
+   * Log2 of the number of samples per bucket at the finest level; windows
+   * short enough to need finer detail than this are plotted from the data
+   */
+  public static final int BASE_LEVEL = 4;
+  
+  private final int length;
+  private final double[][] mins;
+  private final double[][] maxes;
+  private final BitSet[] minFirst; // whether a bucket's min comes before max
+  
+  /**
+   * Build a pyramid over a time series
+   * @param data Evenly-sampled data to summarize
+   */
+  public MinMaxPyramid(double[] data) {
+    length = data.length;
+    
+    // number of levels needed to reduce the series to a single bucket
+    int levels = 1;
+    while ( ( (long) length >> (BASE_LEVEL + levels - 1) ) > 1 ) {
+      ++levels;
+    }
+    mins = new double[levels][];
+    maxes = new double[levels][];
+    minFirst = new BitSet[levels];
+    
+    // finest level comes directly from the data
+    int bucketSize = 1 << BASE_LEVEL;
+    int buckets = (length + bucketSize - 1) / bucketSize;
+    mins[0] = new double[buckets];
+    maxes[0] = new double[buckets];
+    minFirst[0] = new BitSet(buckets);
+    for (int b = 0; b < buckets; ++b) {
+      int start = b * bucketSize;
+      int end = Math.min(length, start + bucketSize);
+      int minIdx = start;
+      int maxIdx = start;
+      for (int i = start + 1; i < end; ++i) {
+        if (data[i] < data[minIdx]) {
+          minIdx = i;
+        }
+        if (data[i] > data[maxIdx]) {
+          maxIdx = i;
+        }
+      }
+      mins[0][b] = data[minIdx];
+      maxes[0][b] = data[maxIdx];
+      minFirst[0].set(b, minIdx <= maxIdx);
+    }
+    
+    // each coarser level merges pairs of buckets from the level below
+    for (int lv = 1; lv < levels; ++lv) {
+      double[] lowerMins = mins[lv - 1];
+      double[] lowerMaxes = maxes[lv - 1];
+      BitSet lowerFirst = minFirst[lv - 1];
+      buckets = (lowerMins.length + 1) / 2;
+      mins[lv] = new double[buckets];
+      maxes[lv] = new double[buckets];
+      minFirst[lv] = new BitSet(buckets);
+      for (int b = 0; b < buckets; ++b) {
+        int left = 2 * b;
+        int right = left + 1;
+        if ( right >= lowerMins.length ) {
+          // odd bucket out at the end of the level
+          mins[lv][b] = lowerMins[left];
+          maxes[lv][b] = lowerMaxes[left];
+          minFirst[lv].set( b, lowerFirst.get(left) );
+          continue;
+        }
+        // ties go to the left (earlier) bucket
+        boolean minLeft = lowerMins[left] <= lowerMins[right];
+        boolean maxLeft = lowerMaxes[left] >= lowerMaxes[right];
+        mins[lv][b] = minLeft ? lowerMins[left] : lowerMins[right];
+        maxes[lv][b] = maxLeft ? lowerMaxes[left] : lowerMaxes[right];
+        boolean first;
+        if (minLeft && maxLeft) {
+          first = lowerFirst.get(left);
+        } else if (!minLeft && !maxLeft) {
+          first = lowerFirst.get(right);
+        } else {
+          first = minLeft;
+        }
+        minFirst[lv].set(b, first);
+      }
+    }
+  }
+  
+  /**
+   * Get the min/max envelope of a window of the series, using the finest
+   * level whose buckets over the window fit within the given limit. Each
+   * bucket gives two points, its min and max in the order they occur in the
+   * data, placed at the first and last sample of the bucket (clipped to the
+   * window) since the exact sample is not kept. The buckets at either end of
+   * the window may also cover a few samples just outside it (less than one
+   * bucket, i.e., less than a pixel's width when plotted).
+   * @param from Index of the first sample in the window
+   * @param to Index past the last sample in the window
+   * @param maxBuckets Maximum number of buckets to read (the number of
+   * points returned is at most twice this)
+   * @return Array of form {sample indices, values}; the sample indices are
+   * non-decreasing and within [from, to)
+   */
+  public double[][] getEnvelope(int from, int to, int maxBuckets) {
+    from = Math.max(0, from);
+    to = Math.min(length, to);
+    if (to <= from) {
+      return new double[][]{new double[]{}, new double[]{}};
+    }
+    
+    int level = getLevelFor(to - from, maxBuckets);
+    int shift = BASE_LEVEL + level;
+    int firstBucket = from >> shift;
+    int lastBucket = (to - 1) >> shift;
+    int count = 2 * (lastBucket - firstBucket + 1);
+    double[] indices = new double[count];
+    double[] values = new double[count];
+    int pt = 0;
+    for (int b = firstBucket; b <= lastBucket; ++b) {
+      int start = Math.max(from, b << shift);
+      int end = Math.min(to, (b + 1) << shift) - 1;
+      double min = mins[level][b];
+      double max = maxes[level][b];
+      indices[pt] = start;
+      indices[pt + 1] = end;
+      if ( minFirst[level].get(b) ) {
+        values[pt] = min;
+        values[pt + 1] = max;
+      } else {
+        values[pt] = max;
+        values[pt + 1] = min;
+      }
+      pt += 2;
+    }
+    return new double[][]{indices, values};
+  }
+  
+  /**
+   * Get the length of the series this pyramid was built over
+   * @return Number of samples in the data
+   */
+  public int getLength() {
+    return length;
+  }
+  
+  /**
+   * Get the finest level at which a window spans no more than the given
+   * number of buckets (or the coarsest level, if none do)
+   * @param samples Length of the window in samples
+   * @param maxBuckets Maximum number of buckets
+   * @return Index of level (0 is the finest)
+   */
+  private int getLevelFor(int samples, int maxBuckets) {
+    int level = 0;
+    // +1 since a window may straddle bucket boundaries at either end
+    while ( level < mins.length - 1 &&
+        ( samples >> (BASE_LEVEL + level) ) + 1 > maxBuckets ) {
+      ++level;
+    }
+    return level;
+  }
+
+}
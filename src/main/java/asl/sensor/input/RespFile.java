@@ -0,0 +1,466 @@
+package asl.sensor.input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import asl.sensor.utils.MetricsRegistry;
+
+/**
+ * Index of the channel epochs in a RESP file, such as one produced from the
+ * dataless SEED of a whole network, which may have hundreds of channels and
+ * epochs. The file is read through once when the index is created, noting
+ * where each epoch's response starts and ends in the file along with the
+ * channel and time range it applies to. A response is only parsed from the
+ * file when its epoch is requested, and is kept for later requests.
+ * (Creating an InstrumentResponse directly from a file instead uses only
+ * the last epoch in it.)
+ * @author akearns
+ *
+ */
+public class RespFile {
+  
+  /**
+   * One channel epoch in a RESP file: the channel's name, the range of time
+   * its response is valid for, and where that response is in the file
+   * @author akearns
+   *
+   */
+  public static class Epoch {
+    
+    private final String network;
+    private final String station;
+    private final String location;
+    private final String channel;
+    private final long start;
+    private long end;
+    private final long offset;
+    private long length;
+    
+    private Epoch(String network, String station, String location,
+        String channel, long start, long offset) {
+      this.network = network;
+      this.station = station;
+      this.location = location;
+      this.channel = channel;
+      this.start = start;
+      this.offset = offset;
+      end = Long.MAX_VALUE;
+      length = 0;
+    }
+    
+    /**
+     * Check if the epoch's response applies at a given time
+     * @param time Time in ms from the epoch (as in DataBlock start times)
+     * @return True if the time is from the start of the epoch up to (but not
+     * including) its end
+     */
+    public boolean contains(long time) {
+      return start <= time && time < end;
+    }
+    
+    public String getChannel() {
+      return channel;
+    }
+    
+    /**
+     * Get the end of the range the response applies to
+     * @return End time in ms, or Long.MAX_VALUE if the epoch has no end
+     */
+    public long getEndTime() {
+      return end;
+    }
+    
+    public String getLocation() {
+      return location;
+    }
+    
+    /**
+     * Get the name of the channel in the same form as the names of data
+     * read in from SEED files (network_station_location_channel)
+     * @return Name of the channel
+     */
+    public String getName() {
+      return network + "_" + station + "_" + location + "_" + channel;
+    }
+    
+    public String getNetwork() {
+      return network;
+    }
+    
+    /**
+     * Get the start of the range the response applies to
+     * @return Start time in ms
+     */
+    public long getStartTime() {
+      return start;
+    }
+    
+    public String getStation() {
+      return station;
+    }
+  
+  }
+  
+  /**
+   * Keeps track of the current channel header fields while a file is being
+   * read through, creating an epoch at each epoch start line
+   * @author akearns
+   *
+   */
+  private static class EpochIndexer {
+    
+    private final List<Epoch> found;
+    private String network;
+    private String station;
+    private String location;
+    private String channel;
+    // epoch whose response is being read through
+    private Epoch current;
+    
+    EpochIndexer(List<Epoch> found) {
+      this.found = found;
+      network = "";
+      station = "";
+      location = "";
+      channel = "";
+      current = null;
+    }
+    
+    /**
+     * Mark the end of the file, which ends the last epoch's response
+     * @param position Length of the file in bytes
+     */
+    void finish(long position) {
+      if (current != null) {
+        current.length = position - current.offset;
+        current = null;
+      }
+    }
+    
+    /**
+     * Read in a line of the file
+     * @param line Bytes of the line, not including the line break
+     * @param len Length of the line
+     * @param lineStart Position of the start of the line in the file
+     */
+    void readLine(byte[] line, int len, long lineStart) {
+      if ( !isHeader(line, len) ) {
+        return;
+      }
+      
+      String text = new String(line, 0, len, StandardCharsets.US_ASCII);
+      String value = RespTokenizer.field(text, 2);
+      value = (value == null) ? "" : value.trim();
+      // identifiers are of the form B05xFyy
+      char blockette = text.charAt(3);
+      String field = text.substring(5, 7);
+      
+      if ( blockette == '2' && field.equals("23") ) {
+        // end time of the epoch, which comes right after its start
+        if ( !found.isEmpty() ) {
+          found.get( found.size() - 1 ).end = 
+              parseTime(value, Long.MAX_VALUE);
+        }
+        return;
+      }
+      
+      // any other header ends the response of the current epoch
+      if (current != null) {
+        current.length = lineStart - current.offset;
+        current = null;
+      }
+      
+      if (blockette == '0') {
+        if ( field.equals("03") ) {
+          station = value;
+        } else {
+          network = value;
+        }
+      } else if ( field.equals("03") ) {
+        location = value;
+      } else if ( field.equals("04") ) {
+        channel = value;
+      } else {
+        long start = parseTime(value, Long.MIN_VALUE);
+        current = new Epoch(
+            network, station, location, channel, start, lineStart);
+        found.add(current);
+      }
+    }
+  
+  }
+  
+  /**
+   * Parse a time from a RESP file epoch line, of the form
+   * year,day-of-year,hh:mm:ss.ffff where the time of day may be left off
+   * or only partly given
+   * @param time Time as given in the RESP file
+   * @param noTime Value to use if the field doesn't have a time in it
+   * (i.e., "No Ending Time")
+   * @return Time in ms from the epoch, in UTC
+   */
+  private static long parseTime(String time, long noTime) {
+    time = time.trim();
+    if ( time.isEmpty() || !Character.isDigit( time.charAt(0) ) ) {
+      return noTime;
+    }
+    // year, day, hour, minute; seconds are handled separately as they
+    // may have a fractional part
+    int[] parts = new int[4];
+    int part = 0;
+    int idx = 0;
+    int len = time.length();
+    while (part < parts.length && idx < len) {
+      int value = 0;
+      while ( idx < len && Character.isDigit( time.charAt(idx) ) ) {
+        value = value * 10 + ( time.charAt(idx) - '0' );
+        ++idx;
+      }
+      parts[part] = value;
+      ++part;
+      ++idx; // skip the ',' or ':' after the number
+    }
+    double seconds = 0.;
+    if (idx < len) {
+      seconds = Double.parseDouble( time.substring(idx) );
+    }
+    
+    Calendar cCal = Calendar.getInstance( TimeZone.getTimeZone("UTC") );
+    cCal.clear();
+    cCal.set(Calendar.YEAR, parts[0]);
+    cCal.set(Calendar.DAY_OF_YEAR, Math.max(parts[1], 1) );
+    cCal.set(Calendar.HOUR_OF_DAY, parts[2]);
+    cCal.set(Calendar.MINUTE, parts[3]);
+    return cCal.getTimeInMillis() + Math.round(seconds * 1000.);
+  }
+  
+  /**
+   * Check if a line starts one of the channel header fields (station,
+   * network, location, channel, epoch start), which mark the end of the
+   * previous epoch's response
+   * @param line Line of the RESP file, as bytes
+   * @param len Length of the line
+   * @return True if the line starts with B050F03, B050F16, B052F03, B052F04
+   * or B052F22
+   */
+  private static boolean isHeader(byte[] line, int len) {
+    if ( len < 7 || line[0] != 'B' || line[1] != '0' || line[2] != '5' ||
+        line[4] != 'F' ) {
+      return false;
+    }
+    if (line[3] == '0') {
+      return ( line[5] == '0' && line[6] == '3' ) ||
+          ( line[5] == '1' && line[6] == '6' );
+    } else if (line[3] == '2') {
+      return ( line[5] == '0' && ( line[6] == '3' || line[6] == '4' ) ) ||
+          ( line[5] == '2' && ( line[6] == '2' || line[6] == '3' ) );
+    }
+    return false;
+  }
+  
+  private final String filename;
+  private final List<Epoch> epochs;
+  private final Map<Epoch, InstrumentResponse> responses;
+  
+  /**
+   * Read through a RESP file to find each channel epoch in it
+   * @param filename Full path of the RESP file
+   * @throws IOException If the file can't be read
+   */
+  public RespFile(String filename) throws IOException {
+    this.filename = filename;
+    responses = new ConcurrentHashMap<Epoch, InstrumentResponse>();
+    
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("resp.index");
+    List<Epoch> found = new ArrayList<Epoch>();
+    InputStream is = new BufferedInputStream( new FileInputStream(filename) );
+    try {
+      indexEpochs(is, found);
+    } finally {
+      is.close();
+    }
+    epochs = Collections.unmodifiableList(found);
+    timer.stop();
+  }
+  
+  /**
+   * Get the epoch in this file whose response applies to the data in a
+   * block at its start time. If the file only has one channel in it, the
+   * channel's name isn't checked against the block's, as some responses
+   * (such as the nominal ones) don't name a real channel.
+   * @param block Data to find a response for
+   * @return The matching epoch, or null if there isn't one
+   */
+  public Epoch getEpochFor(DataBlock block) {
+    long time = block.getStartTime();
+    Epoch match = getEpoch( block.getName(), time );
+    if ( match == null && getChannelNames().size() == 1 ) {
+      match = getEpoch(null, time);
+    }
+    return match;
+  }
+  
+  /**
+   * Get the epoch of a channel in this file that applies at a given time
+   * @param name Name of the channel (network_station_location_channel, as
+   * produced by {@link Epoch#getName()}), or null to match any channel
+   * @param time Time in ms from the epoch
+   * @return The matching epoch, or null if there isn't one
+   */
+  public Epoch getEpoch(String name, long time) {
+    for (Epoch epoch : epochs) {
+      if ( epoch.contains(time) &&
+          ( name == null || sameChannel( name, epoch.getName() ) ) ) {
+        return epoch;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Get the names of each channel that has an epoch in this file
+   * @return Set of channel names (network_station_location_channel)
+   */
+  public Set<String> getChannelNames() {
+    Set<String> names = new HashSet<String>();
+    for (Epoch epoch : epochs) {
+      names.add( epoch.getName() );
+    }
+    return names;
+  }
+  
+  /**
+   * Get all the epochs found in this file, in the order they appear in it
+   * @return Unmodifiable list of epochs
+   */
+  public List<Epoch> getEpochs() {
+    return epochs;
+  }
+  
+  /**
+   * Get the response of one of this file's epochs, parsing it from the file
+   * if it hasn't been already
+   * @param epoch Epoch from this file
+   * @return The response given for that epoch
+   * @throws IOException If the file can't be read or the epoch's response
+   * can't be parsed
+   */
+  public InstrumentResponse getResponse(Epoch epoch) throws IOException {
+    InstrumentResponse ir = responses.get(epoch);
+    if (ir != null) {
+      return ir;
+    }
+    
+    byte[] block = new byte[(int) epoch.length];
+    RandomAccessFile raf = new RandomAccessFile(filename, "r");
+    try {
+      raf.seek(epoch.offset);
+      raf.readFully(block);
+    } finally {
+      raf.close();
+    }
+    
+    BufferedReader br = new BufferedReader( new InputStreamReader(
+        new ByteArrayInputStream(block), StandardCharsets.US_ASCII) );
+    ir = new InstrumentResponse( br, new File(filename).getName() );
+    InstrumentResponse prev = responses.putIfAbsent(epoch, ir);
+    if (prev != null) {
+      ir = prev;
+    }
+    return ir;
+  }
+  
+  /**
+   * Get the response in this file that applies to the data in a block at
+   * its start time
+   * @see #getEpochFor(DataBlock)
+   * @param block Data to find a response for
+   * @return The matching response, or null if no epoch matches
+   * @throws IOException If the epoch's response can't be parsed
+   */
+  public InstrumentResponse getResponseFor(DataBlock block)
+      throws IOException {
+    Epoch epoch = getEpochFor(block);
+    if (epoch == null) {
+      return null;
+    }
+    return getResponse(epoch);
+  }
+  
+  /**
+   * Read through the file a line at a time, recording the channel names and
+   * time ranges of each epoch and the range of bytes holding its response.
+   * Lines are kept as bytes and only turned into strings when they are part
+   * of a channel header.
+   * @param is Stream of the file's contents
+   * @param found List to add each epoch found to
+   * @throws IOException If the file can't be read
+   */
+  private static void indexEpochs(InputStream is, List<Epoch> found)
+      throws IOException {
+    EpochIndexer indexer = new EpochIndexer(found);
+    byte[] line = new byte[256];
+    int len = 0;
+    long position = 0;
+    long lineStart = 0;
+    int b = is.read();
+    while (b >= 0) {
+      ++position;
+      if (b == '\n') {
+        indexer.readLine(line, len, lineStart);
+        lineStart = position;
+        len = 0;
+      } else {
+        if (len == line.length) {
+          line = Arrays.copyOf(line, len * 2);
+        }
+        line[len] = (byte) b;
+        ++len;
+      }
+      b = is.read();
+    }
+    // the last line may not end with a line break
+    indexer.readLine(line, len, lineStart);
+    indexer.finish(position);
+  }
+  
+  /**
+   * Check if two channel names are the same, ignoring any padding around
+   * each part of the names (location codes are often blank or spaces)
+   * @param name1 Name of the form network_station_location_channel
+   * @param name2 Another name of that form
+   * @return True if each part of the names match
+   */
+  private static boolean sameChannel(String name1, String name2) {
+    String[] parts1 = name1.split("_", -1);
+    String[] parts2 = name2.split("_", -1);
+    if (parts1.length != parts2.length) {
+      return false;
+    }
+    for (int i = 0; i < parts1.length; ++i) {
+      if ( !parts1[i].trim().equals( parts2[i].trim() ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,121 @@
+package asl.sensor.input;
+
+/**
+ * Pulls fields out of the lines of a RESP file without using regular
+ * expressions, since a file for a whole network can have hundreds of
+ * thousands of lines. Each line of a RESP file is either a comment starting
+ * with '#' or a hex identifier, a description, and a value, with each of
+ * those separated by two or more spaces. Pole and zero lines are the
+ * exception, being a list of numbers that may only have a single space
+ * between them.
+ * @author akearns
+ *
+ */
+final class RespTokenizer {
+  
+  /**
+   * Get a field of a line, where fields are separated by runs of two or more
+   * whitespace characters (the same as taking an index of the array produced
+   * by line.split("\\s\\s+"))
+   * @param line Line of a RESP file
+   * @param index Which field to get; 0 is the hex identifier
+   * @return The field, or null if the line doesn't have that many fields
+   */
+  static String field(String line, int index) {
+    return token(line, index, 2);
+  }
+  
+  /**
+   * Get the first word of a string, ending at the first whitespace
+   * @param field Field of a RESP line, such as a unit description
+   * @return Text up to the first whitespace character
+   */
+  static String firstWord(String field) {
+    int len = field.length();
+    for (int i = 0; i < len; ++i) {
+      if ( isSpace( field.charAt(i) ) ) {
+        return field.substring(0, i);
+      }
+    }
+    return field;
+  }
+  
+  /**
+   * Get the hex identifier that starts a (non-comment) line of a RESP file
+   * @param line Line of a RESP file
+   * @return The identifier, which is the same as the first field of the line
+   */
+  static String identifier(String line) {
+    return field(line, 0);
+  }
+  
+  /**
+   * Determine if a character is whitespace as defined by the regex "\\s"
+   * @param c Character to check
+   * @return True if the character is a space, tab, or line break
+   */
+  static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' ||
+        c == '\u000B' || c == '\f';
+  }
+  
+  /**
+   * Get a word of a line, where words are separated by any whitespace (the
+   * same as taking an index of the array produced by line.split("\\s+"))
+   * @param line Line of a RESP file, such as a pole or zero entry
+   * @param index Which word to get
+   * @return The word, or null if the line doesn't have that many words
+   */
+  static String word(String line, int index) {
+    return token(line, index, 1);
+  }
+  
+  /**
+   * Get a token from a line split up by runs of whitespace of a minimum
+   * length. As with String.split, a separator at the start of the line
+   * produces an empty first token, and one at the end of the line is
+   * dropped.
+   * @param line Line to get a token from
+   * @param index Which token to get
+   * @param minRun Shortest run of whitespace that separates two tokens
+   * @return The token, or null if the line doesn't have that many tokens
+   */
+  private static String token(String line, int index, int minRun) {
+    int len = line.length();
+    int count = 0;
+    int start = 0;
+    int i = 0;
+    while (i < len) {
+      if ( !isSpace( line.charAt(i) ) ) {
+        ++i;
+        continue;
+      }
+      int runEnd = i + 1;
+      while ( runEnd < len && isSpace( line.charAt(runEnd) ) ) {
+        ++runEnd;
+      }
+      if (runEnd - i >= minRun) {
+        // token ends here, and if the line does too, it's the last one
+        if (count == index) {
+          return line.substring(start, i);
+        }
+        if (runEnd == len) {
+          return null;
+        }
+        ++count;
+        start = runEnd;
+      }
+      i = runEnd;
+    }
+    
+    if (count == index) {
+      return line.substring(start, len);
+    }
+    return null;
+  }
+  
+  private RespTokenizer() {
+    // only static methods
+  }
+
+}
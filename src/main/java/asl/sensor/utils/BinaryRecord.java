@@ -0,0 +1,102 @@
+package asl.sensor.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs named arrays of doubles into a single little-endian byte array, so
+ * that results can be sent to python (via py4j) in one transfer and read
+ * directly with numpy.frombuffer, rather than having the gateway convert a
+ * double array one element at a time.
+ * The record layout is, with all values little-endian:
+ * an int32 format version (currently 1), an int32 count of arrays, then for
+ * each array an int32 byte length of its UTF-8 name, the name itself, an
+ * int32 count of values, and that many float64 values.
+ * @author akearns
+ *
+ */
+public class BinaryRecord {
+  
+  public static final int VERSION = 1;
+  
+  /**
+   * Pack arrays into bytes as little-endian float64 values, with the
+   * arrays' values concatenated in order (i.e., row-major for a 2D array)
+   * @param arrays Arrays of values to pack
+   * @return Packed bytes, 8 per value
+   */
+  public static byte[] packDoubles(double[]... arrays) {
+    int length = 0;
+    for (double[] array : arrays) {
+      length += array.length;
+    }
+    ByteBuffer buffer =
+        ByteBuffer.allocate(length * 8).order(ByteOrder.LITTLE_ENDIAN);
+    for (double[] array : arrays) {
+      buffer.asDoubleBuffer().put(array);
+      buffer.position( buffer.position() + array.length * 8 );
+    }
+    return buffer.array();
+  }
+  
+  private final List<byte[]> names;
+  private final List<double[]> arrays;
+  
+  /**
+   * Create a new record with no arrays in it
+   */
+  public BinaryRecord() {
+    names = new ArrayList<byte[]>();
+    arrays = new ArrayList<double[]>();
+  }
+  
+  /**
+   * Add an array to the record. The array is not copied until the record
+   * is packed, so it should not be changed before then.
+   * @param name Name to identify the array by when reading the record
+   * @param data Values of the array
+   */
+  public void add(String name, double[] data) {
+    names.add( name.getBytes(StandardCharsets.UTF_8) );
+    arrays.add(data);
+  }
+  
+  /**
+   * Get the number of arrays in the record
+   * @return Count of arrays added
+   */
+  public int size() {
+    return arrays.size();
+  }
+  
+  /**
+   * Pack the record's arrays into bytes, as described in the class docs
+   * @return Packed bytes of the record
+   */
+  public byte[] toBytes() {
+    int length = 8; // version and count
+    for (int i = 0; i < arrays.size(); ++i) {
+      length += 8 + names.get(i).length + arrays.get(i).length * 8;
+    }
+    
+    ByteBuffer buffer =
+        ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(VERSION);
+    buffer.putInt( arrays.size() );
+    for (int i = 0; i < arrays.size(); ++i) {
+      byte[] name = names.get(i);
+      double[] array = arrays.get(i);
+      buffer.putInt(name.length);
+      buffer.put(name);
+      buffer.putInt(array.length);
+      // double view of the buffer starts at its current position
+      buffer.asDoubleBuffer().put(array);
+      buffer.position( buffer.position() + array.length * 8 );
+    }
+    return buffer.array();
+  }
+
+}
@@ -0,0 +1,325 @@
+package asl.sensor.utils;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.complex.Complex;
+
+/**
+ * Convolves long (or streamed) timeseries data with a finite kernel using
+ * the overlap-save method: the data is split into blocks, each block is
+ * transformed with an FFT of fixed size, multiplied by the transform of the
+ * kernel and transformed back, and the parts of each block that wrapped
+ * around are thrown away. Memory use depends only on the block size, not
+ * the length of the data, unlike transforming the whole (padded) record at
+ * once. Kernels can be given directly or designed from a frequency response
+ * by frequency sampling, which produces a linear-phase FIR filter whose
+ * delay is removed when filtering a full array.
+ * The convolver holds only the transformed kernel and cannot be modified,
+ * so it can be shared between threads; each stream of data being filtered
+ * gets its own Stream object holding that stream's buffers.
+ * @author akearns
+ *
+ */
+public class BlockConvolver {
+  
+  /**
+   * Frequency response to be approximated by an FIR kernel
+   * @author akearns
+   *
+   */
+  public interface Response {
+    
+    /**
+     * Get the value of the response at a frequency
+     * @param frequency Frequency in Hz, between 0 and the Nyquist rate
+     * @return Complex response at that frequency
+     */
+    Complex valueAt(double frequency);
+  
+  }
+  
+  /**
+   * Receives filtered data from a stream as it becomes available
+   * @author akearns
+   *
+   */
+  public interface Sink {
+    
+    /**
+     * Take in a section of filtered data
+     * @param data Array holding the data, which may be reused after this call
+     * returns (so its values must be copied out if they are to be kept)
+     * @param offset Index of the first value to take in
+     * @param length Number of values to take in
+     */
+    void accept(double[] data, int offset, int length);
+  
+  }
+  
+  /**
+   * Convolves data given to it in any number of pieces, passing each block
+   * of output to a sink once that block's input is complete. The output is
+   * the full linear convolution, including the kernel's delay; once all the
+   * data has been given, flush() produces the remaining output.
+   * @author akearns
+   *
+   */
+  public class Stream {
+    
+    private final Sink sink;
+    private final double[] block; // input block, then convolved output
+    private final double[] re, im; // non-negative frequencies of the block
+    private final double[] history; // last (taps - 1) inputs of prev. block
+    private int filled; // number of new inputs in the current block
+    
+    /**
+     * Create a new stream writing its output to the given sink
+     * @param sink Destination of filtered data
+     */
+    private Stream(Sink sink) {
+      this.sink = sink;
+      block = new double[fftSize];
+      re = new double[fftSize / 2 + 1];
+      im = new double[fftSize / 2 + 1];
+      history = new double[taps - 1];
+      filled = 0;
+    }
+    
+    /**
+     * Finish convolving the data, producing output for the kernel's tail as
+     * if the data were followed by zeros
+     */
+    public void flush() {
+      int remaining = taps - 1;
+      double[] zeros = new double[Math.min(remaining, stepSize)];
+      while (remaining > 0) {
+        int len = Math.min(remaining, zeros.length);
+        push(zeros, 0, len);
+        remaining -= len;
+      }
+      if (filled > 0) {
+        // partial block; the unfilled part of it is treated as zeros
+        processBlock(filled);
+      }
+    }
+    
+    /**
+     * Add data to be convolved
+     * @param data Array holding the data
+     * @param offset Index of the first value to add
+     * @param length Number of values to add
+     */
+    public void push(double[] data, int offset, int length) {
+      int end = offset + length;
+      while (offset < end) {
+        int count = Math.min(stepSize - filled, end - offset);
+        System.arraycopy(data, offset, block, history.length + filled, count);
+        filled += count;
+        offset += count;
+        if (filled == stepSize) {
+          processBlock(stepSize);
+        }
+      }
+    }
+    
+    /**
+     * Convolve the current block with the kernel and send the valid part of
+     * the result to the sink
+     * @param newPoints Number of new input points in the block
+     */
+    private void processBlock(int newPoints) {
+      int histLen = history.length;
+      System.arraycopy(history, 0, block, 0, histLen);
+      // keep the end of this block's input for the start of the next one
+      if (newPoints >= histLen) {
+        System.arraycopy(block, newPoints, history, 0, histLen);
+      } else {
+        System.arraycopy(history, newPoints, history, 0, histLen - newPoints);
+        System.arraycopy(block, histLen, 
+            history, histLen - newPoints, newPoints);
+      }
+      for (int i = histLen + newPoints; i < fftSize; ++i) {
+        block[i] = 0.;
+      }
+      
+      // data and kernel are both real, so only the non-negative frequencies
+      // need to be multiplied together
+      plan.forwardReal(block, re, im);
+      for (int i = 0; i < re.length; ++i) {
+        double r = re[i] * kernelRe[i] - im[i] * kernelIm[i];
+        double j = re[i] * kernelIm[i] + im[i] * kernelRe[i];
+        re[i] = r;
+        im[i] = j;
+      }
+      plan.inverseReal(re, im, block);
+      
+      // the first (taps - 1) points wrapped around and are discarded
+      sink.accept(block, histLen, newPoints);
+      filled = 0;
+    }
+  
+  }
+  
+  /**
+   * Block size used when none is specified
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 13;
+  
+  /**
+   * Design a linear-phase FIR kernel from a frequency response, by sampling
+   * the response at the kernel's DFT frequencies, taking the inverse FFT,
+   * shifting the result to be causal, and applying a Hann window to reduce
+   * ringing from the truncation. The kernel is symmetric about its center
+   * if the response is real, so filtering with it has no phase distortion
+   * besides its delay of taps / 2 points.
+   * @param response Frequency response to approximate
+   * @param sps Sample rate of the data to be filtered
+   * @param taps Length of the kernel; must be a power of 2. A longer kernel
+   * follows the response more closely at narrower transitions.
+   * @return Kernel coefficients
+   */
+  public static double[]
+  designKernel(Response response, double sps, int taps) {
+    double[] re = new double[taps];
+    double[] im = new double[taps];
+    int half = taps / 2;
+    double deltaFreq = sps / taps;
+    for (int i = 0; i <= half; ++i) {
+      Complex value = response.valueAt(i * deltaFreq);
+      re[i] = value.getReal();
+      im[i] = value.getImaginary();
+      if (i > 0 && i < half) {
+        // negative frequencies are conjugates, so the kernel is real
+        re[taps - i] = re[i];
+        im[taps - i] = -im[i];
+      }
+    }
+    // response at the Nyquist rate must be real for a real kernel
+    im[half] = 0.;
+    
+    FFTPlan.getPlan(taps).inverse(re, im);
+    
+    double[] kernel = new double[taps];
+    for (int i = 0; i < taps; ++i) {
+      double window = 0.5 * ( 1. - Math.cos(NumericUtils.TAU * i / taps) );
+      kernel[i] = re[(i + half) % taps] * window;
+    }
+    return kernel;
+  }
+  
+  private final int taps, fftSize, stepSize, delay;
+  private final FFTPlan plan;
+  // non-negative frequencies of the transform of the padded kernel
+  private final double[] kernelRe, kernelIm;
+  
+  /**
+   * Create a convolver for the given kernel
+   * @param kernel Kernel to convolve data with (copied)
+   * @param blockSize Size of the FFTs to be done on blocks of data; must be
+   * longer than the kernel, and an even length that FFTPlan can transform
+   * (such as a power of 2). Each block of this size produces
+   * (blockSize - kernel length + 1) points of output.
+   */
+  public BlockConvolver(double[] kernel, int blockSize) {
+    this(kernel, blockSize, 0);
+  }
+  
+  /**
+   * Create a convolver for the given kernel, which is treated as having
+   * a delay that is removed when convolving a full array
+   * @param kernel Kernel to convolve data with (copied)
+   * @param blockSize Size of the FFTs to be done on blocks of data; must be
+   * longer than the kernel, and an even length that FFTPlan can transform
+   * @param delay Number of points the kernel delays its output by
+   */
+  private BlockConvolver(double[] kernel, int blockSize, int delay) {
+    if (kernel.length < 1 || blockSize <= kernel.length) {
+      throw new IllegalArgumentException(
+          "Block size must be larger than the kernel length");
+    }
+    taps = kernel.length;
+    fftSize = blockSize;
+    stepSize = blockSize - taps + 1;
+    this.delay = delay;
+    plan = FFTPlan.getPlan(blockSize);
+    
+    kernelRe = new double[blockSize / 2 + 1];
+    kernelIm = new double[blockSize / 2 + 1];
+    plan.forwardReal(Arrays.copyOf(kernel, blockSize), kernelRe, kernelIm);
+  }
+  
+  /**
+   * Create a convolver that filters data with an FIR approximation of a
+   * frequency response (see designKernel). When a full array is convolved,
+   * the kernel's delay is removed so the result lines up with the input.
+   * @param response Frequency response to approximate
+   * @param sps Sample rate of the data to be filtered
+   * @param taps Length of the kernel; must be a power of 2
+   * @param blockSize Size of the FFTs on blocks of data; must be larger than
+   * the number of taps, and an even length that FFTPlan can transform
+   * @return Convolver for the designed kernel
+   */
+  public static BlockConvolver
+  fromResponse(Response response, double sps, int taps, int blockSize) {
+    double[] kernel = designKernel(response, sps, taps);
+    return new BlockConvolver(kernel, blockSize, taps / 2);
+  }
+  
+  /**
+   * Convolve an array of data with the kernel, producing output the same
+   * length as the input. Output starts after the kernel's delay (if it has
+   * one), so a linear-phase filter's output lines up with its input.
+   * @param data Data to convolve (not modified)
+   * @return Convolved data
+   */
+  public double[] convolve(double[] data) {
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("convolve.block");
+    final double[] out = new double[data.length];
+    Stream stream = openStream(new Sink() {
+      private long position = -delay; // index in output of the next point
+      
+      @Override
+      public void accept(double[] block, int offset, int length) {
+        // skip anything before the delay or after the end of the output
+        int start = (int) Math.max(0, -position);
+        int end = (int) Math.min(length, out.length - position);
+        if (start < end) {
+          System.arraycopy(block, offset + start,
+              out, (int) (position + start), end - start);
+        }
+        position += length;
+      }
+    });
+    stream.push(data, 0, data.length);
+    stream.flush();
+    timer.stop();
+    return out;
+  }
+  
+  /**
+   * Get the number of points the kernel delays its output by, which is
+   * removed from the output of convolve but not from streamed output
+   * @return Delay of the kernel in points
+   */
+  public int getDelay() {
+    return delay;
+  }
+  
+  /**
+   * Get the number of points in the kernel
+   * @return Kernel length
+   */
+  public int getKernelLength() {
+    return taps;
+  }
+  
+  /**
+   * Start convolving a new stream of data
+   * @param sink Destination for the output data
+   * @return Stream to give the data to
+   */
+  public Stream openStream(Sink sink) {
+    return new Stream(sink);
+  }
+
+}
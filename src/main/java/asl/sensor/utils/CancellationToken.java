@@ -0,0 +1,68 @@
+package asl.sensor.utils;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Flag used to stop a long-running calculation (such as an experiment
+ * backend) part-way through. The calculation checks the token at points
+ * where it can safely stop, such as each solver evaluation or each window of
+ * a sliding-window loop, and is ended by the CancellationException thrown
+ * from there. Since the flag is shared between threads, the token can be
+ * checked by tasks that a calculation hands off to a thread pool as well.
+ * Static utility code with no access to a token (i.e., the spectral
+ * calculations in FFTResult) can use checkInterrupted instead, which stops
+ * the calculation if the thread running it has been interrupted, as a
+ * cancelled SwingWorker's thread is.
+ * @author akearns
+ *
+ */
+public class CancellationToken {
+  
+  private volatile boolean cancelled;
+  
+  /**
+   * Create a new token that has not been cancelled
+   */
+  public CancellationToken() {
+    cancelled = false;
+  }
+  
+  /**
+   * Stop a calculation running on the current thread if that thread has
+   * been interrupted
+   * @throws CancellationException if the current thread is interrupted
+   */
+  public static void checkInterrupted() {
+    if ( Thread.currentThread().isInterrupted() ) {
+      throw new CancellationException("Calculation interrupted");
+    }
+  }
+  
+  /**
+   * Request that any calculation checking this token stop
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+  
+  /**
+   * Stop the calculation if this token was cancelled or if the thread
+   * running it has been interrupted
+   * @throws CancellationException if the calculation should stop
+   */
+  public void check() {
+    if (cancelled) {
+      throw new CancellationException("Calculation cancelled");
+    }
+    checkInterrupted();
+  }
+  
+  /**
+   * Find out whether this token has been cancelled
+   * @return True if cancel has been called on this token
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+}
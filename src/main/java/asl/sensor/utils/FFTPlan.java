@@ -0,0 +1,581 @@
+package asl.sensor.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed tables for doing FFTs of a single fixed length on primitive
+ * arrays of real and imaginary components. The most recently used plans
+ * are cached by length, so repeated transforms of the same size (such as
+ * those done inside a solver loop or over the segments of a PSD) share the
+ * same twiddle factors and permutation rather than recomputing them and
+ * allocating Complex objects on every call as the commons-math transformer
+ * does. Plans for very long transforms (such as of a whole record) are not
+ * cached, as their tables take a lot of memory and they're rarely reused.
+ * Lengths can be any product of powers of 2, 3 and 5, so data can be padded
+ * to the next such size (see nextFastSize) rather than the next power of 2.
+ * Powers of 2 are done in place with an iterative radix-2 transform; other
+ * lengths use a recursive mixed-radix transform with a scratch buffer.
+ * Plans of even length can also transform real data directly, producing
+ * only the non-negative frequencies, using a complex transform of half the
+ * length.
+ * The forward transform uses the same sign convention and (lack of)
+ * normalization as FastFourierTransformer with DftNormalization.STANDARD;
+ * the inverse transform is scaled by 1/N, matching that class's inverse.
+ * Plans are immutable and so can be shared between threads; the scratch
+ * space used by transforms that aren't a power of 2 is kept per thread.
+ * @author akearns
+ *
+ */
+public class FFTPlan {
+
+  /**
+   * Number of plans kept in the cache
+   */
+  public static final int CACHE_CAPACITY = 8;
+  
+  /**
+   * Longest transform whose plan is cached and whose scratch space is kept
+   * between calls (the tables for this length take about 3 MB)
+   */
+  public static final int MAX_CACHED_SIZE = 1 << 18;
+
+  // access-ordered, so the least-recently-used plan is dropped when full
+  private static final Map<Integer, FFTPlan> plans =
+      new LinkedHashMap<Integer, FFTPlan>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, FFTPlan> eldest) {
+      return size() > CACHE_CAPACITY;
+    }
+  };
+  
+  // each thread's scratch space for mixed-radix transforms
+  private static final ThreadLocal<double[][]> scratch =
+      new ThreadLocal<double[][]>();
+
+  /**
+   * Get the (possibly cached) plan for transforms of a given length
+   * @param size Length of data to be transformed; must have no prime factors
+   * other than 2, 3, and 5
+   * @return FFT plan for that length
+   */
+  public static FFTPlan getPlan(int size) {
+    if (size > MAX_CACHED_SIZE) {
+      return new FFTPlan(size);
+    }
+    FFTPlan plan;
+    synchronized (plans) {
+      plan = plans.get(size);
+    }
+    if (plan == null) {
+      // tables are built outside the lock, so other sizes aren't held up;
+      // if another thread built the same plan first, just use that one
+      plan = new FFTPlan(size);
+      synchronized (plans) {
+        FFTPlan existing = plans.get(size);
+        if (existing != null) {
+          return existing;
+        }
+        plans.put(size, plan);
+      }
+    }
+    return plan;
+  }
+  
+  /**
+   * Get scratch space for a mixed-radix transform of the given length,
+   * reusing the calling thread's space unless the transform is too long
+   * for that space to be kept
+   * @param size Length of transform
+   * @return Arrays for the real and imaginary parts of a copy of the input,
+   * and for the real and imaginary parts of the terms of each small DFT
+   */
+  private static double[][] getScratch(int size) {
+    int terms = RADICES[RADICES.length - 1];
+    if (size > MAX_CACHED_SIZE) {
+      return new double[][]{
+        new double[size], new double[size], new double[terms],
+        new double[terms]};
+    }
+    double[][] buffers = scratch.get();
+    if (buffers == null || buffers[0].length < size) {
+      buffers = new double[][]{
+        new double[size], new double[size], new double[terms],
+        new double[terms]};
+      scratch.set(buffers);
+    }
+    return buffers;
+  }
+
+  /**
+   * Check if data of a given length can be transformed by a plan
+   * @param size Length of data
+   * @return True if the length has no prime factors other than 2, 3, and 5
+   */
+  public static boolean isFastSize(int size) {
+    if (size < 1) {
+      return false;
+    }
+    for (int radix : RADICES) {
+      while (size % radix == 0) {
+        size /= radix;
+      }
+    }
+    return size == 1;
+  }
+
+  /**
+   * Get the smallest length at least as long as the given length that can be
+   * transformed by a plan. Padding data to this length rather than the next
+   * power of 2 adds at most about a quarter of the length in zeros, rather
+   * than up to double the length.
+   * @param size Length of data to be transformed
+   * @param even True if the length must be even (for real transforms)
+   * @return Smallest transformable length no shorter than size
+   */
+  public static int nextFastSize(int size, boolean even) {
+    int candidate = Math.max(size, 1);
+    while ( !isFastSize(candidate) || (even && candidate % 2 != 0) ) {
+      ++candidate;
+    }
+    return candidate;
+  }
+
+  private static final int[] RADICES = {2, 3, 5};
+
+  // constants for the radix-3 and radix-5 butterflies
+  private static final double SIN_THIRD = Math.sin(NumericUtils.TAU / 3);
+  private static final double COS_FIFTH = Math.cos(NumericUtils.TAU / 5);
+  private static final double SIN_FIFTH = Math.sin(NumericUtils.TAU / 5);
+  private static final double COS_TWO_FIFTHS =
+      Math.cos(2 * NumericUtils.TAU / 5);
+  private static final double SIN_TWO_FIFTHS =
+      Math.sin(2 * NumericUtils.TAU / 5);
+
+  private final int size;
+  private final boolean powerOfTwo;
+  private final int[] bitReversed; // permutation for radix-2 transform
+  private final int[] factors; // radices for mixed-radix transform, in order
+  // values for angle 2*pi*k/size; for even sizes only the first half of the
+  // circle is stored, as the rest are the negatives of those
+  private final double[] cosTable, sinTable;
+
+  /**
+   * Build the tables for a given transform length
+   * @param size Length of data to be transformed; must have no prime factors
+   * other than 2, 3, and 5
+   */
+  private FFTPlan(int size) {
+    if ( !isFastSize(size) ) {
+      throw new IllegalArgumentException(
+          "FFT length must only have factors of 2, 3, and 5");
+    }
+    this.size = size;
+    powerOfTwo = (size & (size - 1) ) == 0;
+
+    if (powerOfTwo) {
+      bitReversed = new int[size];
+      int bits = Integer.numberOfTrailingZeros(size);
+      for (int i = 0; i < size && bits > 0; ++i) {
+        bitReversed[i] = Integer.reverse(i) >>> (32 - bits);
+      }
+      factors = null;
+    } else {
+      bitReversed = null;
+      int count = 0;
+      int[] found = new int[32];
+      int remaining = size;
+      for (int radix : RADICES) {
+        while (remaining % radix == 0) {
+          found[count++] = radix;
+          remaining /= radix;
+        }
+      }
+      factors = new int[count];
+      System.arraycopy(found, 0, factors, 0, count);
+    }
+
+    int tableSize = (size % 2 == 0) ? size / 2 : size;
+    cosTable = new double[tableSize];
+    sinTable = new double[tableSize];
+    for (int k = 0; k < tableSize; ++k) {
+      double angle = NumericUtils.TAU * k / size;
+      cosTable[k] = Math.cos(angle);
+      sinTable[k] = Math.sin(angle);
+    }
+  }
+
+  /**
+   * Do a forward FFT in place on the given data
+   * @param re Real components of data, replaced with those of the transform
+   * @param im Imaginary components of data, replaced with those of transform
+   */
+  public void forward(double[] re, double[] im) {
+    transform(re, im, -1.);
+  }
+
+  /**
+   * Do a forward FFT of real-valued data, getting only the non-negative
+   * frequencies of the result (the rest are their complex conjugates).
+   * This takes about half the work and memory of a complex transform of the
+   * same length.
+   * @param data Real data to be transformed, of at least the plan's length
+   * (not modified)
+   * @param re Array to write real components of the first (size / 2 + 1)
+   * points of the transform into
+   * @param im Array to write imaginary components of those points into
+   */
+  public void forwardReal(double[] data, double[] re, double[] im) {
+    checkEven();
+    int half = size / 2;
+
+    // pack pairs of real points into complex points, and transform those
+    for (int i = 0; i < half; ++i) {
+      re[i] = data[2 * i];
+      im[i] = data[2 * i + 1];
+    }
+    getPlan(half).forward(re, im);
+
+    // then split the result into the transforms of the even and odd points
+    // and combine them, working inwards from each end at once
+    re[half] = re[0] - im[0];
+    im[half] = 0.;
+    re[0] = re[0] + im[0];
+    im[0] = 0.;
+    for (int k = 1, j = half - 1; k <= j; ++k, --j) {
+      double evenRe = (re[k] + re[j]) / 2;
+      double evenIm = (im[k] - im[j]) / 2;
+      double oddRe = (im[k] + im[j]) / 2;
+      double oddIm = (re[j] - re[k]) / 2;
+      // twiddles for k and for j = half - k are related by w_j = -conj(w_k)
+      double wRe = cosTable[k];
+      double wIm = -sinTable[k];
+      double tRe = oddRe * wRe - oddIm * wIm;
+      double tIm = oddRe * wIm + oddIm * wRe;
+      re[k] = evenRe + tRe;
+      im[k] = evenIm + tIm;
+      // at j, the even and odd parts are the conjugates of those at k
+      double tjRe = -oddRe * wRe + oddIm * wIm;
+      double tjIm = oddRe * wIm + oddIm * wRe;
+      re[j] = evenRe + tjRe;
+      im[j] = -evenIm + tjIm;
+    }
+  }
+
+  /**
+   * Do an inverse FFT in place on the given data, scaled by 1/N
+   * @param re Real components of data, replaced with those of the transform
+   * @param im Imaginary components of data, replaced with those of transform
+   */
+  public void inverse(double[] re, double[] im) {
+    transform(re, im, 1.);
+    double scale = 1. / size;
+    for (int i = 0; i < size; ++i) {
+      re[i] *= scale;
+      im[i] *= scale;
+    }
+  }
+
+  /**
+   * Do an inverse FFT, scaled by 1/N, of the non-negative frequencies of the
+   * transform of real data (i.e., the output of forwardReal), getting back
+   * that real data. The negative frequencies are taken to be the conjugates
+   * of the positive ones.
+   * @param re Real components of the first (size / 2 + 1) points of the
+   * transform (overwritten with intermediate values)
+   * @param im Imaginary components of those points (also overwritten)
+   * @param data Array to write the real result of the transform into
+   */
+  public void inverseReal(double[] re, double[] im, double[] data) {
+    checkEven();
+    int half = size / 2;
+
+    // undo the combination of the even and odd points' transforms, then
+    // pack those back into a single complex transform of half the length
+    double firstRe = re[0];
+    double lastRe = re[half];
+    re[0] = (firstRe + lastRe) / 2;
+    im[0] = (firstRe - lastRe) / 2;
+    for (int k = 1, j = half - 1; k <= j; ++k, --j) {
+      double kRe = re[k], kIm = im[k], jRe = re[j], jIm = im[j];
+      double evenRe = (kRe + jRe) / 2;
+      double evenIm = (kIm - jIm) / 2;
+      // odd part at k is (X[k] - conj(X[half - k])) * conj(w_k) / 2
+      double dRe = (kRe - jRe) / 2;
+      double dIm = (kIm + jIm) / 2;
+      double wRe = cosTable[k];
+      double wIm = sinTable[k];
+      double oddRe = dRe * wRe - dIm * wIm;
+      double oddIm = dRe * wIm + dIm * wRe;
+      re[k] = evenRe - oddIm;
+      im[k] = evenIm + oddRe;
+      // likewise at j, where the twiddle is -conj(w_k)
+      double ejRe = evenRe;
+      double ejIm = -evenIm;
+      double djRe = -dRe;
+      double djIm = dIm;
+      double ojRe = djRe * -wRe - djIm * wIm;
+      double ojIm = djRe * wIm - djIm * wRe;
+      re[j] = ejRe - ojIm;
+      im[j] = ejIm + ojRe;
+    }
+
+    getPlan(half).inverse(re, im);
+    for (int i = 0; i < half; ++i) {
+      data[2 * i] = re[i];
+      data[2 * i + 1] = im[i];
+    }
+  }
+
+  /**
+   * Get the length of data this plan transforms
+   * @return Transform length
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Make sure this plan can be used for real-valued transforms
+   */
+  private void checkEven() {
+    if (size % 2 != 0) {
+      throw new IllegalArgumentException("Real FFT length must be even");
+    }
+  }
+
+  /**
+   * Recursive mixed-radix (decimation in time) transform of a subsequence of
+   * the input into a contiguous part of the output
+   * @param inRe Real components of input
+   * @param inIm Imaginary components of input
+   * @param inStart Index of first point of the subsequence in the input
+   * @param stride Distance between points of the subsequence in the input
+   * @param outRe Real components of output
+   * @param outIm Imaginary components of output
+   * @param outStart Index to write first point of the result to
+   * @param len Length of the subsequence
+   * @param level Index of the radix to split the subsequence by
+   * @param sign -1 for forward transform, +1 for inverse (unscaled)
+   * @param termRe Scratch space for real components of the terms of each
+   * small DFT, at least as long as the largest radix
+   * @param termIm Scratch space for imaginary components of those terms
+   */
+  private void mixedRadix(double[] inRe, double[] inIm, int inStart,
+      int stride, double[] outRe, double[] outIm, int outStart, int len,
+      int level, double sign, double[] termRe, double[] termIm) {
+
+    int radix = factors[level];
+    int subLen = len / radix;
+    if (subLen == 1) {
+      // each sub-transform is a single point, which is its own transform
+      for (int q = 0; q < radix; ++q) {
+        outRe[outStart + q] = inRe[inStart + q * stride];
+        outIm[outStart + q] = inIm[inStart + q * stride];
+      }
+    } else {
+      for (int q = 0; q < radix; ++q) {
+        mixedRadix(inRe, inIm, inStart + q * stride, stride * radix, outRe,
+            outIm, outStart + q * subLen, subLen, level + 1, sign,
+            termRe, termIm);
+      }
+    }
+
+    // combine the radix sub-transforms with a small DFT for each frequency
+    int tableStep = size / len;
+    for (int k = 0; k < subLen; ++k) {
+      termRe[0] = outRe[outStart + k];
+      termIm[0] = outIm[outStart + k];
+      for (int q = 1; q < radix; ++q) {
+        int idx = outStart + q * subLen + k;
+        int angle = q * k * tableStep;
+        double wRe = cosAt(angle);
+        double wIm = sign * sinAt(angle);
+        termRe[q] = outRe[idx] * wRe - outIm[idx] * wIm;
+        termIm[q] = outRe[idx] * wIm + outIm[idx] * wRe;
+      }
+      int idx = outStart + k;
+      switch (radix) {
+      case 2:
+        outRe[idx] = termRe[0] + termRe[1];
+        outIm[idx] = termIm[0] + termIm[1];
+        outRe[idx + subLen] = termRe[0] - termRe[1];
+        outIm[idx + subLen] = termIm[0] - termIm[1];
+        break;
+      case 3:
+        butterflyThree(termRe, termIm, outRe, outIm, idx, subLen, sign);
+        break;
+      default:
+        butterflyFive(termRe, termIm, outRe, outIm, idx, subLen, sign);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Radix-3 DFT of three (already twiddled) terms
+   * @param tRe Real components of the terms
+   * @param tIm Imaginary components of the terms
+   * @param outRe Real components of output
+   * @param outIm Imaginary components of output
+   * @param idx Index to write the first point of the result to
+   * @param spacing Distance between points of the result in the output
+   * @param sign -1 for forward transform, +1 for inverse
+   */
+  private static void butterflyThree(double[] tRe, double[] tIm,
+      double[] outRe, double[] outIm, int idx, int spacing, double sign) {
+    double s = sign * SIN_THIRD;
+    double sumRe = tRe[1] + tRe[2];
+    double sumIm = tIm[1] + tIm[2];
+    double diffRe = tRe[1] - tRe[2];
+    double diffIm = tIm[1] - tIm[2];
+    double midRe = tRe[0] - 0.5 * sumRe;
+    double midIm = tIm[0] - 0.5 * sumIm;
+    outRe[idx] = tRe[0] + sumRe;
+    outIm[idx] = tIm[0] + sumIm;
+    // i * s * diff, added for the first frequency and taken for the second
+    outRe[idx + spacing] = midRe - s * diffIm;
+    outIm[idx + spacing] = midIm + s * diffRe;
+    outRe[idx + 2 * spacing] = midRe + s * diffIm;
+    outIm[idx + 2 * spacing] = midIm - s * diffRe;
+  }
+
+  /**
+   * Radix-5 DFT of five (already twiddled) terms
+   * @param tRe Real components of the terms
+   * @param tIm Imaginary components of the terms
+   * @param outRe Real components of output
+   * @param outIm Imaginary components of output
+   * @param idx Index to write the first point of the result to
+   * @param spacing Distance between points of the result in the output
+   * @param sign -1 for forward transform, +1 for inverse
+   */
+  private static void butterflyFive(double[] tRe, double[] tIm,
+      double[] outRe, double[] outIm, int idx, int spacing, double sign) {
+    double s1 = sign * SIN_FIFTH;
+    double s2 = sign * SIN_TWO_FIFTHS;
+    // pair up terms whose twiddles are conjugates of each other
+    double a1Re = tRe[1] + tRe[4], a1Im = tIm[1] + tIm[4];
+    double b1Re = tRe[1] - tRe[4], b1Im = tIm[1] - tIm[4];
+    double a2Re = tRe[2] + tRe[3], a2Im = tIm[2] + tIm[3];
+    double b2Re = tRe[2] - tRe[3], b2Im = tIm[2] - tIm[3];
+
+    outRe[idx] = tRe[0] + a1Re + a2Re;
+    outIm[idx] = tIm[0] + a1Im + a2Im;
+
+    double m1Re = tRe[0] + COS_FIFTH * a1Re + COS_TWO_FIFTHS * a2Re;
+    double m1Im = tIm[0] + COS_FIFTH * a1Im + COS_TWO_FIFTHS * a2Im;
+    double n1Re = s1 * b1Re + s2 * b2Re; // times i when added to output
+    double n1Im = s1 * b1Im + s2 * b2Im;
+    outRe[idx + spacing] = m1Re - n1Im;
+    outIm[idx + spacing] = m1Im + n1Re;
+    outRe[idx + 4 * spacing] = m1Re + n1Im;
+    outIm[idx + 4 * spacing] = m1Im - n1Re;
+
+    double m2Re = tRe[0] + COS_TWO_FIFTHS * a1Re + COS_FIFTH * a2Re;
+    double m2Im = tIm[0] + COS_TWO_FIFTHS * a1Im + COS_FIFTH * a2Im;
+    double n2Re = s2 * b1Re - s1 * b2Re;
+    double n2Im = s2 * b1Im - s1 * b2Im;
+    outRe[idx + 2 * spacing] = m2Re - n2Im;
+    outIm[idx + 2 * spacing] = m2Im + n2Re;
+    outRe[idx + 3 * spacing] = m2Re + n2Im;
+    outIm[idx + 3 * spacing] = m2Im - n2Re;
+  }
+
+  /**
+   * Get the cosine of 2*pi*k/size
+   * @param k Index of the angle, less than the plan's size
+   * @return Cosine of the angle
+   */
+  private double cosAt(int k) {
+    if ( k < cosTable.length ) {
+      return cosTable[k];
+    }
+    return -cosTable[k - cosTable.length];
+  }
+
+  /**
+   * Get the sine of 2*pi*k/size
+   * @param k Index of the angle, less than the plan's size
+   * @return Sine of the angle
+   */
+  private double sinAt(int k) {
+    if ( k < sinTable.length ) {
+      return sinTable[k];
+    }
+    return -sinTable[k - sinTable.length];
+  }
+
+  /**
+   * Do a transform in place, using whichever algorithm suits the length
+   * @param re Real components of data to transform in place
+   * @param im Imaginary components of data to transform in place
+   * @param sign -1 for forward transform, +1 for inverse (unscaled)
+   */
+  private void transform(double[] re, double[] im, double sign) {
+
+    if (re.length < size || im.length < size) {
+      throw new IllegalArgumentException("Data shorter than FFT length");
+    }
+
+    if (powerOfTwo) {
+      radixTwo(re, im, sign);
+      return;
+    }
+
+    double[][] buffers = getScratch(size);
+    double[] inRe = buffers[0];
+    double[] inIm = buffers[1];
+    System.arraycopy(re, 0, inRe, 0, size);
+    System.arraycopy(im, 0, inIm, 0, size);
+    // the sub-transforms are all done before their terms are combined, so
+    // every level of the recursion can share the same scratch space
+    double[] termRe = buffers[2];
+    double[] termIm = buffers[3];
+    mixedRadix(inRe, inIm, 0, 1, re, im, 0, size, 0, sign, termRe, termIm);
+  }
+
+  /**
+   * Iterative radix-2 Cooley-Tukey transform
+   * @param re Real components of data to transform in place
+   * @param im Imaginary components of data to transform in place
+   * @param sign -1 for forward transform, +1 for inverse (unscaled)
+   */
+  private void radixTwo(double[] re, double[] im, double sign) {
+
+    for (int i = 0; i < size; ++i) {
+      int j = bitReversed[i];
+      if (i < j) {
+        double temp = re[i];
+        re[i] = re[j];
+        re[j] = temp;
+        temp = im[i];
+        im[i] = im[j];
+        im[j] = temp;
+      }
+    }
+
+    for (int len = 2; len <= size; len <<= 1) {
+      int half = len >> 1;
+      int tableStep = size / len;
+      for (int start = 0; start < size; start += len) {
+        for (int k = 0; k < half; ++k) {
+          double wRe = cosTable[k * tableStep];
+          double wIm = sign * sinTable[k * tableStep];
+          int even = start + k;
+          int odd = even + half;
+          double oddRe = re[odd] * wRe - im[odd] * wIm;
+          double oddIm = re[odd] * wIm + im[odd] * wRe;
+          re[odd] = re[even] - oddRe;
+          im[odd] = im[even] - oddIm;
+          re[even] += oddRe;
+          im[even] += oddIm;
+        }
+      }
+    }
+
+  }
+
+}
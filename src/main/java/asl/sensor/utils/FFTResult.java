@@ -1,10 +1,5 @@
 package asl.sensor.utils;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -13,14 +8,10 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import org.jfree.data.xy.XYSeries;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.InstrumentResponse;
-import uk.me.berndporr.iirj.ChebyshevI;
 
 /**
  * Holds the data returned from a power spectral density calculation
@@ -36,7 +27,12 @@ public class FFTResult {
   /**
    * Specifies the width of the cosine taper function used in windowing
    */
-  private static final double TAPER_WIDTH = 0.10;
+  public static final double TAPER_WIDTH = 0.10;
+  
+  /**
+   * Bounds on the length of FIR kernels designed for frequency-domain filters
+   */
+  private static final int MIN_FIR_TAPS = 64, MAX_FIR_TAPS = 1 << 16;
   
   /**
    * Filter out data outside of the range between the low and high frequencies;
@@ -51,15 +47,8 @@ public class FFTResult {
   public static double[] 
   bandFilter(double[] toFilt, double sps, double low, double high) {
     
-    ChebyshevI casc = new ChebyshevI();
-    // order 1 filter
-    casc.bandPass(1, sps, (high-low)/2, high-low, 1.);
-    
-    double[] filtered = new double[toFilt.length];
-    for (int i = 0; i < toFilt.length; ++i) {
-      filtered[i] = casc.filter(toFilt[i]);
-    }
-    
+    double[] filtered = toFilt.clone();
+    bandFilterInPlace(filtered, filtered.length, sps, low, high);
     return filtered;
     
     //return bandFilterWithCuts(toFilt, sps, low, high, 0., sps);
@@ -89,6 +78,53 @@ public class FFTResult {
     
   }
   
+  /**
+   * Apply the same band-pass filter as bandFilter to the start of an array,
+   * replacing the data in it rather than allocating a new array. Useful for
+   * filtering inside of loops that reuse their working buffers.
+   * @param toFilt series of data to do a band-pass filter on (modified)
+   * @param length number of points from the start of the array to filter
+   * @param sps sample rate of the current data (samples / sec)
+   * @param low low corner frequency of band-pass filter
+   * @param high high corner frequency of band-pass filter
+   */
+  public static void bandFilterInPlace(double[] toFilt, int length, 
+      double sps, double low, double high) {
+    
+    // order 1 filter; the design is only done once for each set of corners
+    SOSFilter.bandPass(sps, low, high, 1).filterInPlace(toFilt, 0, length);
+  }
+  
+  /**
+   * Apply the same band-pass filter as bandFilter to several series at once,
+   * replacing the data in each of them. Long enough series are filtered in
+   * parallel.
+   * @param toFilt series of data to do a band-pass filter on (modified)
+   * @param sps sample rate of the current data (samples / sec)
+   * @param low low corner frequency of band-pass filter
+   * @param high high corner frequency of band-pass filter
+   */
+  public static void 
+  bandFilterAllInPlace(double[][] toFilt, double sps, double low, double high) {
+    SOSFilter.bandPass(sps, low, high, 1).filterAll(toFilt, false);
+  }
+  
+  /**
+   * Filter out data outside of the range between the low and high frequencies
+   * without shifting its phase, by running the same filter as bandFilter
+   * over the data forwards and then backwards. The magnitude response of the
+   * result is the square of bandFilter's.
+   * @param toFilt series of data to do a band-pass filter on
+   * @param sps sample rate of the current data (samples / sec)
+   * @param low low corner frequency of band-pass filter
+   * @param high high corner frequency of band-pass filter
+   * @return timeseries with zero-phase band-pass filter applied
+   */
+  public static double[] 
+  bandFilterZeroPhase(double[] toFilt, double sps, double low, double high) {
+    return SOSFilter.bandPass(sps, low, high, 1).filterZeroPhase(toFilt);
+  }
+  
   /**
    * Wrapper to do band filter on a list of data rather than an array.
    * For more details see other definition of bandFilter
@@ -122,7 +158,12 @@ public class FFTResult {
   /**
    * Band-pass filter that creates hard-stop for values outside of range but
    * produces linear dropoff for points between the corner frequencies and
-   * hard stop limits.
+   * hard stop limits. The filter is applied as a linear-phase FIR
+   * approximation of that response by block convolution, so memory use is
+   * bounded by the block size rather than the length of the data. Except
+   * within half a kernel length of either end, where the kernel runs past
+   * the data, the result is within about 1% (RMS) of applying the response
+   * to a single transform of the whole record.
    * @param toFilt series of data to do a band-pass filter on
    * @param sps sample rate of the current data (samples / sec)
    * @param low low corner frequency of band-pass filter
@@ -132,34 +173,44 @@ public class FFTResult {
    * @return timeseries with band-pass filter applied
    */
   public static double[] 
-  bandFilterWithCuts(double[] toFilt, double sps, double low, double high, 
-                     double lowStop, double highStop) {
+  bandFilterWithCuts(double[] toFilt, final double sps, final double low, 
+      final double high, final double lowStop, final double highStop) {
     
     // System.out.println("FILTERING OPERATION OCCURRING");
     
-    Complex[] fft = simpleFFT(toFilt);
-    
-    int trim = fft.length/2 + 1;
-    
-    Complex[] toInvert = new Complex[trim];
-    
-    double freqDelta = sps / trim;
-    
-    for (int i = 0; i < trim; ++i) {
-      double x = i * freqDelta;
-      double scale = 1;
-      if (x < lowStop || x > highStop) {
-        scale = 0;
-      } else if (x < low) {
-        scale = (x - lowStop) / (low - lowStop);
-      } else if (x > high) {
-        scale = (x - highStop) / (high - highStop);
+    BlockConvolver.Response cuts = new BlockConvolver.Response() {
+      @Override
+      public Complex valueAt(double x) {
+        double scale = 1;
+        if (x < lowStop || x > highStop) {
+          scale = 0;
+        } else if (x < low) {
+          scale = (x - lowStop) / (low - lowStop);
+        } else if (x > high) {
+          scale = (x - highStop) / (high - highStop);
+        }
+        return new Complex(scale);
       }
-      
-      toInvert[i] = fft[i].multiply(scale);
+    };
+    
+    // kernel needs to resolve the narrowest of the filter's transitions
+    double narrowest = sps / 2;
+    if (low > lowStop && lowStop > 0.) {
+      narrowest = Math.min(narrowest, low - lowStop);
+    } else if (low > 0.) {
+      narrowest = Math.min(narrowest, low);
+    }
+    if (highStop > high) {
+      narrowest = Math.min(narrowest, highStop - high);
     }
+    int taps = MIN_FIR_TAPS;
+    while ( taps < MAX_FIR_TAPS && taps < 4 * sps / narrowest ) {
+      taps *= 2;
+    }
+    int blockSize = Math.max(BlockConvolver.DEFAULT_BLOCK_SIZE, taps * 4);
     
-    return singleSidedInverseFFT(toInvert, toFilt.length);
+    return BlockConvolver.fromResponse(cuts, sps, taps, blockSize).
+        convolve(toFilt);
   }
   
   /**
@@ -205,13 +256,17 @@ public class FFTResult {
   public static FFTResult crossPower(DataBlock data1, DataBlock data2,
       InstrumentResponse ir1, InstrumentResponse ir2) {
     
+    MetricsRegistry.Stopwatch timer = 
+        MetricsRegistry.start("spectral.crossPower");
     FFTResult selfPSD = spectralCalc(data1, data2);
     Complex[] results = selfPSD.getFFT();
     double[] freqs = selfPSD.getFreqs();
     Complex[] freqRespd1 = ir1.applyResponseToInput(freqs);
     Complex[] freqRespd2 = ir2.applyResponseToInput(freqs);
     
-    return crossPower(results, freqs, freqRespd1, freqRespd2);
+    FFTResult out = crossPower(results, freqs, freqRespd1, freqRespd2);
+    timer.stop();
+    return out;
   }
   
   private static FFTResult crossPower(Complex[] results, double[] freqs, 
@@ -243,97 +298,44 @@ public class FFTResult {
   public static FFTResult crossPower(double[] data1, double[] data2,
       InstrumentResponse ir1, InstrumentResponse ir2, long interval) {
     //System.out.println("in FFTResult crossPower");
+    MetricsRegistry.Stopwatch timer = 
+        MetricsRegistry.start("spectral.crossPower");
     FFTResult selfPSD = spectralCalc(data1, data2, interval);
     Complex[] results = selfPSD.getFFT();
     double[] freqs = selfPSD.getFreqs();
     Complex[] freqRespd1 = ir1.applyResponseToInput(freqs);
     Complex[] freqRespd2 = ir2.applyResponseToInput(freqs);
     
-    return crossPower(results, freqs, freqRespd1, freqRespd2);
+    FFTResult out = crossPower(results, freqs, freqRespd1, freqRespd2);
+    timer.stop();
+    return out;
   }
   
   /**
    * Collects the data points in the Peterson new high noise model 
    * into a plottable format.
-   * Assumes that there is a text file in the .resources folder that contains 
-   * the NHNM data points for given input frequencies.
+   * The NHNM data points are read from the resources folder only once and
+   * kept in the {@link ResourceCatalog}; each call builds a new series.
    * @param freqSpace True if the data's x-axis should be units of Hz
    * (otherwise it is units of seconds, the interval between samples)
    * @return Plottable data series representing the NHNM
    */
   public static XYSeries getHighNoiseModel(boolean freqSpace) {
-    XYSeries xys = new XYSeries("NHNM");
-    try {
-      ClassLoader cl = FFTResult.class.getClassLoader();
-      InputStream is = cl.getResourceAsStream("NHNM.txt");
-      
-      BufferedReader fr = new BufferedReader( new InputStreamReader(is) );
-      String str = fr.readLine();
-      while (str != null) {
-        String[] values = str.split("\\s+");
-        double x = Double.parseDouble(values[0]); // period, in seconds
-        if (x > 1.0E3 + 1) {
-          break;
-        }
-        double y = Double.parseDouble(values[1]);
-        if (freqSpace) {
-          xys.add(1/x, y);
-        } else {
-          xys.add(x, y);
-        }
-        
-        str = fr.readLine();
-      }
-      fr.close();
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return xys;
+    return ResourceCatalog.getHighNoiseModel().toXYSeries(freqSpace);
   }
   
   /**
    * Collects the data points in the Peterson new low noise model 
    * into a plottable format.
-   * Assumes that there is a text file in the .resources folder that contains 
-   * the NLNM data points for given input frequencies. ("NLNM.txt")
+   * The NLNM data points are read from the resources folder ("NLNM.txt")
+   * only once and kept in the {@link ResourceCatalog}; each call builds a
+   * new series.
    * @param freqSpace True if the data's x-axis should be units of Hz
    * (otherwise it is units of seconds, the interval between samples)
    * @return Plottable data series representing the NLNM
    */
   public static XYSeries getLowNoiseModel(boolean freqSpace) {
-    XYSeries xys = new XYSeries("NLNM");
-    try {
-      
-      ClassLoader cl = FFTResult.class.getClassLoader();
-      
-      InputStream is = cl.getResourceAsStream("NLNM.txt");
-      
-      BufferedReader fr = new BufferedReader( new InputStreamReader(is) );
-      String str = fr.readLine();
-      while (str != null) {
-        String[] values = str.split("\\s+");
-        double x = Double.parseDouble(values[0]); // period, in seconds
-        if (x > 1.0E3 + 1) {
-          break;
-        }
-        double y = Double.parseDouble(values[3]);
-        if (freqSpace) {
-          xys.add(1/x, y);
-        } else {
-          xys.add(x, y);
-        }
-        
-        str = fr.readLine();
-      }
-      fr.close();
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return xys;
+    return ResourceCatalog.getLowNoiseModel().toXYSeries(freqSpace);
   }
   
   
@@ -374,10 +376,9 @@ public class FFTResult {
   public static Complex[] simpleFFT(double[] dataIn) {
     //System.out.println("in simpleFFT");
     
-    int padding = 2;
-    while ( padding < dataIn.length ) {
-      padding *= 2;
-    }
+    // pad to the nearest length the FFT plans can handle (which has factors
+    // of 2, 3, and 5 only), rather than the next power of two
+    int padding = FFTPlan.nextFastSize(dataIn.length, true);
 
     //System.out.println("padding: "+padding);
     
@@ -385,14 +386,21 @@ public class FFTResult {
     
     //System.out.println("length dataIn: "+dataIn.length);
     //pad the segment with zeros
-    for (int i = 0; i < dataIn.length; ++i) {
-      toFFT[i] = dataIn[i];
-    }
+    System.arraycopy(dataIn, 0, toFFT, 0, dataIn.length);
     
-    FastFourierTransformer fft = 
-        new FastFourierTransformer(DftNormalization.STANDARD);
+    int singleSide = padding / 2 + 1;
+    double[] re = new double[singleSide];
+    double[] im = new double[singleSide];
+    FFTPlan.getPlan(padding).forwardReal(toFFT, re, im);
     
-    Complex[] frqDomn = fft.transform(toFFT, TransformType.FORWARD);
+    // input is real, so the negative frequencies are conjugates of positive
+    Complex[] frqDomn = new Complex[padding];
+    for (int i = 0; i < singleSide; ++i) {
+      frqDomn[i] = new Complex(re[i], im[i]);
+    }
+    for (int i = 1; i < padding - i; ++i) {
+      frqDomn[padding - i] = frqDomn[i].conjugate();
+    }
     
     return frqDomn;
   }
@@ -416,14 +424,16 @@ public class FFTResult {
       }
     }
     
-    data = TimeSeriesUtils.demean(data);
+    TimeSeriesUtils.demeanInPlace(data);
     
     // data = TimeSeriesUtils.normalize(data);
     
-    Complex[] frqDomn = simpleFFT(data);
-    
-    int padding = frqDomn.length;
+    int padding = FFTPlan.nextFastSize(data.length, true);
     int singleSide = padding/2 + 1;
+    double[] toFFT = Arrays.copyOf(data, padding);
+    double[] re = new double[singleSide];
+    double[] im = new double[singleSide];
+    FFTPlan.getPlan(padding).forwardReal(toFFT, re, im);
     
     double nyquist = db.getSampleRate() / 2;
     //System.out.println("line 412 nyquist: "+nyquist);
@@ -435,7 +445,7 @@ public class FFTResult {
 
 
     for (int i = 0; i < singleSide; ++i) {
-      fftOut[i] = frqDomn[i];
+      fftOut[i] = new Complex(re[i], im[i]);
       frequencies[i] = i * deltaFrq;
       //GetOut.printf("%f, %f",frequencies[i],fftOut[i]);
       //GetOut.close();
@@ -463,7 +473,16 @@ public class FFTResult {
   singleSidedFilteredFFT(DataBlock db, boolean mustFlip) {
     //System.out.println("in singleSidedFilteredFFT");
     
-    double[] data = db.getData().clone();
+    // padding has factors of 2, 3, and 5 only, rather than a power of two
+    int padding = FFTPlan.nextFastSize(db.size(), true);
+    int singleSide = padding/2 + 1;
+    
+    // work in primitive arrays the size of the transform, rather than
+    // copying the data and then building a padded array of Complex objects
+    double[] data = new double[padding];
+    double[] re = new double[singleSide];
+    double[] im = new double[singleSide];
+    System.arraycopy(db.getData(), 0, data, 0, db.size());
     
     for (int i = 0; i < db.size(); ++i) {
       if (mustFlip) {
@@ -475,16 +494,21 @@ public class FFTResult {
 
     double sps = TimeSeriesUtils.ONE_HZ_INTERVAL / interval;
     
-    data = bandFilter(data, sps, 0.0, 0.1);
+    bandFilterInPlace(data, db.size(), sps, 0.0, 0.1);
     
-    data = TimeSeriesUtils.demean(data);
+    // demean only the data itself, so the padding stays zero
+    double mean = 0.;
+    for (int i = 0; i < db.size(); ++i) {
+      mean += data[i];
+    }
+    mean /= db.size();
+    for (int i = 0; i < db.size(); ++i) {
+      data[i] -= mean;
+    }
     
     // data = TimeSeriesUtils.normalize(data);
     
-    Complex[] frqDomn = simpleFFT(data);
-    
-    int padding = frqDomn.length;
-    int singleSide = padding/2 + 1;
+    FFTPlan.getPlan(padding).forwardReal(data, re, im);
     
     double nyquist = db.getSampleRate() / 2;
     //System.out.println("line 465 nyquist: "+nyquist);
@@ -494,7 +518,7 @@ public class FFTResult {
     double[] frequencies = new double[singleSide];
     
     for (int i = 0; i < singleSide; ++i) {
-      fftOut[i] = frqDomn[i];
+      fftOut[i] = new Complex(re[i], im[i]);
       frequencies[i] = i * deltaFrq;
     }
     
@@ -512,27 +536,20 @@ public class FFTResult {
    */
   public static double[] singleSidedInverseFFT(Complex[] freqDomn, int trim) {
     //System.out.println("in singleSidedInverseFFT");
-    FastFourierTransformer fft = 
-        new FastFourierTransformer(DftNormalization.STANDARD);
-     
     int padding = (freqDomn.length - 1) * 2;
     
-    Complex[] padded = new Complex[padding];
+    // the real-valued inverse only needs the non-negative frequencies
+    double[] re = new double[freqDomn.length];
+    double[] im = new double[freqDomn.length];
     for (int i = 0; i < freqDomn.length; ++i) {
-      padded[i] = freqDomn[i];
-    }
-    for (int i = 1; i < padding/2; ++i) {
-      // System.out.println(freqDomn.length+","+i);
-      padded[padded.length - i] = padded[i].conjugate();
+      re[i] = freqDomn[i].getReal();
+      im[i] = freqDomn[i].getImaginary();
     }
     
-    Complex[] timeSeriesCpx = 
-        fft.transform(padded, TransformType.INVERSE);
+    double[] inverse = new double[padding];
+    FFTPlan.getPlan(padding).inverseReal(re, im, inverse);
     
-    double[] timeSeries = new double[trim];
-    for (int i = 0; i < trim; ++i) {
-      timeSeries[i] = timeSeriesCpx[i].getReal();
-    }
+    double[] timeSeries = Arrays.copyOf(inverse, trim);
     
     return timeSeries;
   }
@@ -592,6 +609,7 @@ public class FFTResult {
 
     //System.out.println("this is where the signal preproc and fft happen" );
     
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("spectral.welch");
     boolean sameData = list1.equals(list2);
     
     // divide into windows of 1/4, moving up 1/16 of the data at a time
@@ -615,96 +633,61 @@ public class FFTResult {
     int singleSide = padding / 2 + 1;
     double deltaFreq = 1. / (padding * period);
     
-    Complex[] powSpectDens = new Complex[singleSide];
-    double wss = 0;
+    // running sums of the segments' spectra, as real and imaginary parts
+    double[] psdRe = new double[singleSide];
+    double[] psdIm = new double[singleSide];
+    
+    // taper weights (and so the taper's power loss) are the same for every
+    // segment, so they are only calculated once
+    WindowPreprocessor prep = new WindowPreprocessor(range, TAPER_WIDTH);
+    double wss = prep.getTaperPower();
     
     int segsProcessed = 0;
     int rangeStart = 0;
     int rangeEnd = range;
     
-    for (int i = 0; i < powSpectDens.length; ++i) {
-      powSpectDens[i] = Complex.ZERO;
+    // double arrays initialized with zeros, set as a power of two for FFT
+    // (i.e., effectively pre-padded on initialization); each segment only
+    // overwrites the first range points, so the padding stays zero
+    double[] toFFT1 = new double[padding];
+    double[] toFFT2 = null;
+    if (!sameData) {
+      toFFT2 = new double[padding];
+    }
+    
+    // the data is real, so only the non-negative frequencies are transformed
+    FFTPlan plan = FFTPlan.getPlan(padding);
+    double[] fftRe1 = new double[singleSide];
+    double[] fftIm1 = new double[singleSide];
+    double[] fftRe2 = fftRe1;
+    double[] fftIm2 = fftIm1;
+    if (!sameData) {
+      fftRe2 = new double[singleSide];
+      fftIm2 = new double[singleSide];
     }
     
 // list1 is all of the data?
     while ( rangeEnd <= list1.length ) {
       
-      Complex[] fftResult1 = new Complex[singleSide]; // first half of FFT reslt
-      Complex[] fftResult2 = null;
-      
-      if (!sameData) {
-        fftResult2 = new Complex[singleSide];
-      }
-      
-      // give us a new list we can modify to get the data of
-      //System.out.println("rangeStart,rangeEnd: "+rangeStart+", "+rangeEnd);
-      double[] data1Range = 
-          Arrays.copyOfRange(list1, rangeStart, rangeEnd);
-      double[] data2Range = null;
+      // stop between segments if the calculation has been abandoned
+      CancellationToken.checkInterrupted();
       
+      // detrend (which also demeans) and taper each segment in one pass,
+      // writing it straight into the buffer to be transformed
+      prep.apply(list1, rangeStart, toFFT1, 0);
+      plan.forwardReal(toFFT1, fftRe1, fftIm1);
       if (!sameData) {
-        data2Range = Arrays.copyOfRange(list2, rangeStart, rangeEnd);
-      }
-       
-      // double arrays initialized with zeros, set as a power of two for FFT
-      // (i.e., effectively pre-padded on initialization)
-      double[] toFFT1 = new double[padding];
-      double[] toFFT2 = null;
-      
-      // demean and detrend work in-place on the list
-      TimeSeriesUtils.detrend(data1Range);
-      TimeSeriesUtils.demeanInPlace(data1Range);
-      wss = cosineTaper(data1Range, TAPER_WIDTH);
-      //System.out.println("taper width"+TAPER_WIDTH);
-      // presumably we only need the last value of wss
-      
-      if (!sameData) {
-        TimeSeriesUtils.demeanInPlace(data2Range);
-        TimeSeriesUtils.detrend(data2Range);
-        wss = cosineTaper(data2Range, TAPER_WIDTH);
-        toFFT2 = new double[padding];
-      }
-      
-      // TODO: this can clearly be refactored
-      //System.out.println("padding the segment");
-      for (int i = 0; i < data1Range.length; ++i) {
-        // no point in using arraycopy -- must make sure each Number's a double
-        toFFT1[i] = data1Range[i];
-        if (!sameData) {
-          toFFT2[i] = data2Range[i];
-        }
-      }
-      
-      FastFourierTransformer fft = 
-          new FastFourierTransformer(DftNormalization.STANDARD);
-
-      //System.out.println("FFT");
-      Complex[] frqDomn1 = fft.transform(toFFT1, TransformType.FORWARD);
-      // use arraycopy now (as it's fast) to get the first half of the fft
-      System.arraycopy(frqDomn1, 0, fftResult1, 0, fftResult1.length);
-      
-      Complex[] frqDomn2 = null;
-      if (toFFT2 != null) {
-        frqDomn2 = fft.transform(toFFT2, TransformType.FORWARD);
-        System.arraycopy(frqDomn2, 0, fftResult2, 0, fftResult2.length);
+        prep.apply(list2, rangeStart, toFFT2, 0);
+        plan.forwardReal(toFFT2, fftRe2, fftIm2);
       }
       
       //System.out.println("performing PSD");
       for (int i = 0; i < singleSide; ++i) {
-        
-        Complex val1 = fftResult1[i];
-        Complex val2 = val1;
-        if (fftResult2 != null) {
-          val2 = fftResult2[i];
-        }
-        
-        val1 = val1.multiply(2);
-        val2 = val2.multiply(2);
-        
-        powSpectDens[i] = 
-            powSpectDens[i].add( 
-                val1.multiply( 
-                    val2.conjugate() ) );
+        // (2 * val1) * conj(2 * val2)
+        double re1 = fftRe1[i], im1 = fftIm1[i];
+        double re2 = fftRe2[i], im2 = fftIm2[i];
+        psdRe[i] += 4 * (re1 * re2 + im1 * im2);
+        psdIm[i] += 4 * (im1 * re2 - re1 * im2);
       }
       
       ++segsProcessed;
@@ -726,10 +709,12 @@ public class FFTResult {
     psdNormalization /= segsProcessed; // NOTE: divisor here should be 13
     //System.out.println(segsProcessed);
     
+    Complex[] powSpectDens = new Complex[singleSide];
     double[] frequencies = new double[singleSide];
     
     for (int i = 0; i < singleSide; ++i) {
-      powSpectDens[i] = powSpectDens[i].multiply(psdNormalization);
+      powSpectDens[i] = new Complex(psdRe[i] * psdNormalization, 
+          psdIm[i] * psdNormalization);
       frequencies[i] = i * deltaFreq;
     }
     
@@ -761,6 +746,7 @@ public class FFTResult {
       psdCFSmooth[iw] = powSpectDens[iw];
     }
     
+    timer.stop();
     return new FFTResult(psdCFSmooth, frequencies);
     
   }
@@ -808,6 +794,8 @@ public class FFTResult {
   spectralCalcMultitaper(double[] list1, double[] list2, long ivl) {
     ////System.out.println("in spectralCalcMultitaper part dos");
     
+    MetricsRegistry.Stopwatch timer = 
+        MetricsRegistry.start("spectral.multitaper");
     boolean sameData = list1.equals(list2);
     
     int padding = 2;
@@ -824,105 +812,95 @@ public class FFTResult {
     int singleSide = padding / 2 + 1;
     double deltaFreq = 1. / (padding * period);
     
-    Complex[] powSpectDens = new Complex[singleSide];
-    
-    for (int i = 0; i < powSpectDens.length; ++i) {
-      powSpectDens[i] = Complex.ZERO;
-    }
-   
-    Complex[] fftResult1 = new Complex[singleSide]; // first half of FFT result
-    for (int i = 0; i < fftResult1.length; ++i) {
-      fftResult1[i] = Complex.ZERO;
-    }
-    Complex[] fftResult2 = fftResult1;
-    // instantiate FFT-calculating object
-    FastFourierTransformer fft = 
-        new FastFourierTransformer(DftNormalization.STANDARD);
-    
-    if (!sameData) {
-      fftResult2 = new Complex[singleSide];    
-      for (int i = 0; i < fftResult2.length; ++i) {
-        fftResult2[i] = Complex.ZERO;
-      }
-    }
-    
-    // give us a new list we can modify to get the data of
-    double[] data1Range = list1.clone();
+    // detrend (which also demeans) into new arrays, leaving inputs as-is
+    WindowPreprocessor prep = new WindowPreprocessor(list1.length, 0.);
+    double[] data1Range = new double[list1.length];
+    prep.apply(list1, 0, data1Range, 0);
     double[] data2Range = data1Range;
     if (!sameData) {
-      data2Range = list2.clone();
+      data2Range = new double[list2.length];
+      prep.apply(list2, 0, data2Range, 0);
     }
     
-    // double arrays initialized with zeros, set as a power of two for FFT
-    // (i.e., effectively pre-padded on initialization)
-
     double[][] taperMat = 
         getMultitaperSeries(data1Range.length, TAPER_COUNT);
     // System.out.println("SIZES: " + padding + ", " + data1Range.size());
     
-    // demean and detrend work in-place on the list
-    TimeSeriesUtils.detrend(data1Range);
-    TimeSeriesUtils.demeanInPlace(data1Range);
-    // apply each taper, take FFT, and average the overall results
-    double[] data = data1Range;
-    for (int j = 0; j < taperMat.length; ++j) {
-      double[] toFFT = new double[padding];
-      double[] taperCurve = taperMat[j];
-      double taperSum = 0.;
-      for (int i = 0; i < data.length; ++i) {
-        taperSum += Math.abs(taperCurve[i]);
-        double point = data[i];
-        toFFT[i] = point * taperCurve[i];
-      }
-      Complex[] frqDomn = fft.transform(toFFT, TransformType.FORWARD);
-      for (int i = 0; i < fftResult1.length; ++i) {
-        fftResult1[i] = fftResult1[i].add( frqDomn[i].divide(taperSum) );
-      }
-    }
-    for (int i = 0; i < fftResult1.length; ++i) {
-      fftResult1[i] = fftResult1[i].divide(TAPER_COUNT);
-    }
+    // double array initialized with zeros, set as a power of two for FFT
+    // (i.e., effectively pre-padded on initialization); each taper only
+    // overwrites the data's length of it, so it can be reused between them
+    double[] toFFT = new double[padding];
+    FFTPlan plan = FFTPlan.getPlan(padding);
+    double[] workRe = new double[singleSide];
+    double[] workIm = new double[singleSide];
     
+    // apply each taper, take FFT, and average the overall results
+    double[] fftRe1 = new double[singleSide]; // first half of FFT result
+    double[] fftIm1 = new double[singleSide];
+    averageTaperedFFTs(data1Range, taperMat, plan, toFFT, 
+        workRe, workIm, fftRe1, fftIm1);
+    double[] fftRe2 = fftRe1;
+    double[] fftIm2 = fftIm1;
     if (!sameData) {
-      TimeSeriesUtils.detrend(data2Range);
-      TimeSeriesUtils.demeanInPlace(data2Range);
-      data = data2Range;
-      for (int j = 0; j < taperMat.length; ++j) {
-        double[] toFFT = new double[padding];
-        double[] taperCurve = taperMat[j];
-        double taperSum = 0.;
-        for (int i = 0; i < data.length; ++i) {
-          taperSum += Math.abs(taperCurve[i]);
-          double point = data[i];
-          toFFT[i] = point * taperCurve[i];
-        }
-        Complex[] frqDomn = fft.transform(toFFT, TransformType.FORWARD);
-        for (int i = 0; i < fftResult2.length; ++i) {
-          fftResult2[i] = fftResult2[i].add( frqDomn[i].divide(taperSum) );
-        }
-      }
-      for (int i = 0; i < fftResult2.length; ++i) {
-        fftResult2[i] = fftResult2[i].divide(TAPER_COUNT);
-      }
+      fftRe2 = new double[singleSide];
+      fftIm2 = new double[singleSide];
+      averageTaperedFFTs(data2Range, taperMat, plan, toFFT, 
+          workRe, workIm, fftRe2, fftIm2);
     }
     
+    Complex[] powSpectDens = new Complex[singleSide];
     double[] frequencies = new double[singleSide];
     for (int i = 0; i < singleSide; ++i) {
       frequencies[i] = i * deltaFreq;
-      Complex val1 = fftResult1[i];
-      Complex val2 = val1;
-      if (!sameData) {
-        val2 = fftResult2[i];
-      }
-      
+      // val1 * conj(val2)
+      double re1 = fftRe1[i], im1 = fftIm1[i];
+      double re2 = fftRe2[i], im2 = fftIm2[i];
       powSpectDens[i] = 
-          powSpectDens[i].add( val1.multiply( val2.conjugate() ) );
+          new Complex(re1 * re2 + im1 * im2, im1 * re2 - re1 * im2);
     }
     
+    timer.stop();
     return new FFTResult(powSpectDens, frequencies);
     
   }
   
+  /**
+   * Apply each of a set of tapers to data, take the FFT of each tapered
+   * series, and get the average of those FFTs (each one scaled by the sum
+   * of its taper's magnitude), as used in the multitaper PSD.
+   * @param data Detrended data to be tapered
+   * @param taperMat Taper curves, each as long as the data
+   * @param plan FFT plan for the padded length of the data
+   * @param toFFT Zero-padded buffer to hold tapered data (reused)
+   * @param workRe Buffer for real parts of each taper's FFT (reused)
+   * @param workIm Buffer for imaginary parts of each taper's FFT (reused)
+   * @param sumRe Array to write real parts of the averaged FFT into
+   * @param sumIm Array to write imaginary parts of the averaged FFT into
+   */
+  private static void averageTaperedFFTs(double[] data, double[][] taperMat,
+      FFTPlan plan, double[] toFFT, double[] workRe, double[] workIm,
+      double[] sumRe, double[] sumIm) {
+    for (int j = 0; j < taperMat.length; ++j) {
+      // stop between tapers if the calculation has been abandoned
+      CancellationToken.checkInterrupted();
+      double[] taperCurve = taperMat[j];
+      double taperSum = 0.;
+      for (int i = 0; i < data.length; ++i) {
+        taperSum += Math.abs(taperCurve[i]);
+        toFFT[i] = data[i] * taperCurve[i];
+      }
+      plan.forwardReal(toFFT, workRe, workIm);
+      for (int i = 0; i < sumRe.length; ++i) {
+        sumRe[i] += workRe[i] / taperSum;
+        sumIm[i] += workIm[i] / taperSum;
+      }
+    }
+    for (int i = 0; i < sumRe.length; ++i) {
+      sumRe[i] /= taperMat.length;
+      sumIm[i] /= taperMat.length;
+    }
+  }
+  
   final private Complex[] transform; // the FFT data
   
   final private double[] freqs; // array of frequencies matching the fft data
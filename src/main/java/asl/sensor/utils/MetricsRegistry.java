@@ -0,0 +1,429 @@
+package asl.sensor.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lightweight registry of named timers and counters, for finding out where
+ * the time in a calculation goes. Code being measured starts a stopwatch
+ * with the static start method and stops it once the stage is done (a stage
+ * that ends in an exception doesn't need to be recorded), and counts events
+ * with the static count method; these record into the registry current for
+ * the running thread, then into each parent of that registry in turn.
+ * Experiments set a registry of their own as current for the length of a
+ * run, with the global registry as its parent, so a run's own stage
+ * breakdown is kept while the global registry holds totals for the whole
+ * program. Threads with no current registry record into the global one only.
+ * Timers are keyed by stage name (e.g., "spectral.welch"); stages run inside
+ * other stages are included in the enclosing stage's time as well. Times use
+ * System.nanoTime, so are monotonic. Optionally, the bytes allocated by the
+ * thread running each stage can be sampled as well (see
+ * setAllocationSampling), where the JVM supports it; allocations made on
+ * other threads on a stage's behalf (i.e., in a thread pool) are not counted.
+ * @author akearns
+ *
+ */
+public class MetricsRegistry {
+  
+  /**
+   * Running totals of the time (and possibly allocation) taken by each run
+   * of a stage. Safe to update from multiple threads.
+   * @author akearns
+   *
+   */
+  public static class StageTimer {
+    
+    private final String name;
+    private final AtomicLong count;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+    private final AtomicLong allocatedBytes;
+    
+    /**
+     * Create a new timer with no entries
+     * @param name Name of the stage being timed
+     */
+    public StageTimer(String name) {
+      this.name = name;
+      count = new AtomicLong();
+      totalNanos = new AtomicLong();
+      maxNanos = new AtomicLong();
+      allocatedBytes = new AtomicLong();
+    }
+    
+    /**
+     * Get the total bytes allocated over all sampled runs of the stage
+     * @return Allocated bytes, 0 if allocation sampling was never enabled
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes.get();
+    }
+    
+    /**
+     * Get the number of times the stage has been completed
+     * @return Count of timed stage runs
+     */
+    public long getCount() {
+      return count.get();
+    }
+    
+    /**
+     * Get the longest time the stage has taken
+     * @return Maximum stage time in milliseconds
+     */
+    public double getMaxMillis() {
+      return maxNanos.get() / 1E6;
+    }
+    
+    /**
+     * Get the average time the stage has taken
+     * @return Mean stage time in milliseconds, 0 if it has never been run
+     */
+    public double getMeanMillis() {
+      long runs = count.get();
+      if (runs == 0) {
+        return 0.;
+      }
+      return totalNanos.get() / 1E6 / runs;
+    }
+    
+    /**
+     * Get the name of the stage being timed
+     * @return Stage name
+     */
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * Get the total time taken over all runs of the stage
+     * @return Total stage time in milliseconds
+     */
+    public double getTotalMillis() {
+      return totalNanos.get() / 1E6;
+    }
+    
+    /**
+     * Add the time taken by a run of this stage
+     * @param nanos Length of the stage in nanoseconds
+     * @param bytes Bytes allocated during the stage (0 if not sampled)
+     */
+    public void record(long nanos, long bytes) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      allocatedBytes.addAndGet(bytes);
+      long max = maxNanos.get();
+      while ( nanos > max && !maxNanos.compareAndSet(max, nanos) ) {
+        max = maxNanos.get();
+      }
+    }
+    
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append( String.format("%s: %d runs, total %.1f ms, max %.1f ms",
+          name, getCount(), getTotalMillis(), getMaxMillis() ) );
+      long bytes = getAllocatedBytes();
+      if (bytes > 0) {
+        sb.append( String.format(", %.1f MB allocated", bytes / 1E6) );
+      }
+      return sb.toString();
+    }
+  
+  }
+  
+  /**
+   * A single timing of a stage in progress, started by MetricsRegistry.start
+   * and recorded when stopped. Not to be shared between threads.
+   * @author akearns
+   *
+   */
+  public static class Stopwatch {
+    
+    private final MetricsRegistry registry;
+    private final String name;
+    private final long startNanos;
+    private final long startBytes;
+    private boolean stopped;
+    
+    /**
+     * Start timing a stage now
+     * @param registry Registry to record the stage's time into when stopped
+     * @param name Name of the stage
+     */
+    private Stopwatch(MetricsRegistry registry, String name) {
+      this.registry = registry;
+      this.name = name;
+      startBytes = getThreadAllocatedBytes();
+      startNanos = System.nanoTime();
+    }
+    
+    /**
+     * Stop timing and record the stage (only the first call has an effect)
+     * @return Time taken since the stopwatch was started, in nanoseconds
+     */
+    public long stop() {
+      long nanos = System.nanoTime() - startNanos;
+      if (stopped) {
+        return nanos;
+      }
+      stopped = true;
+      long bytes = 0L;
+      if (startBytes >= 0) {
+        bytes = Math.max( 0L, getThreadAllocatedBytes() - startBytes );
+      }
+      for (MetricsRegistry mr = registry; mr != null; mr = mr.parent) {
+        mr.getTimer(name).record(nanos, bytes);
+      }
+      return nanos;
+    }
+  
+  }
+  
+  private static final MetricsRegistry GLOBAL = new MetricsRegistry(null);
+  private static final ThreadLocal<MetricsRegistry> CURRENT =
+      new ThreadLocal<MetricsRegistry>();
+  private static volatile boolean sampleAllocations = false;
+  
+  /**
+   * Count an event (or a number of them, such as samples decoded) in the
+   * current thread's registry and its parents
+   * @param name Name of counter
+   * @param amount Amount to add to the counter
+   */
+  public static void count(String name, long amount) {
+    for (MetricsRegistry mr = getCurrent(); mr != null; mr = mr.parent) {
+      mr.getCounter(name).addAndGet(amount);
+    }
+  }
+  
+  /**
+   * Get the registry that code run on the current thread records into
+   * @return Registry set by setCurrent, or the global registry if none is set
+   */
+  public static MetricsRegistry getCurrent() {
+    MetricsRegistry current = CURRENT.get();
+    if (current == null) {
+      return GLOBAL;
+    }
+    return current;
+  }
+  
+  /**
+   * Get the registry of totals over the whole program
+   * @return Global registry, the root of all registries' parents
+   */
+  public static MetricsRegistry getGlobal() {
+    return GLOBAL;
+  }
+  
+  /**
+   * Get bytes allocated so far by the current thread, if being sampled
+   * @return Allocated bytes, or -1 if sampling is off or unsupported
+   */
+  private static long getThreadAllocatedBytes() {
+    if (!sampleAllocations) {
+      return -1L;
+    }
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if ( !(bean instanceof com.sun.management.ThreadMXBean) ) {
+      return -1L;
+    }
+    return ( (com.sun.management.ThreadMXBean) bean ).
+        getThreadAllocatedBytes( Thread.currentThread().getId() );
+  }
+  
+  /**
+   * Check whether the JVM can report the bytes allocated by each thread
+   * @return True if allocation sampling can be turned on
+   */
+  public static boolean isAllocationSamplingSupported() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    return bean instanceof com.sun.management.ThreadMXBean &&
+        ( (com.sun.management.ThreadMXBean) bean ).
+        isThreadAllocatedMemorySupported();
+  }
+  
+  /**
+   * Wrap a task so that it records into the registry current on this thread
+   * when run on another thread (i.e., when submitted to a thread pool)
+   * @param task Task to wrap
+   * @return Task that runs the given one with this thread's registry current
+   */
+  public static <T> Callable<T> recordingInCurrent(final Callable<T> task) {
+    final MetricsRegistry registry = CURRENT.get();
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        MetricsRegistry previous = setCurrent(registry);
+        try {
+          return task.call();
+        } finally {
+          setCurrent(previous);
+        }
+      }
+    };
+  }
+  
+  /**
+   * Turn sampling of per-thread allocated bytes in each timed stage on or
+   * off. Sampling costs a little more per stage than just timing does, and
+   * is ignored if not supported by the JVM.
+   * @param sample True if allocated bytes should be sampled
+   */
+  public static void setAllocationSampling(boolean sample) {
+    if ( sample && isAllocationSamplingSupported() ) {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      ( (com.sun.management.ThreadMXBean) bean ).
+          setThreadAllocatedMemoryEnabled(true);
+    }
+    sampleAllocations = sample && isAllocationSamplingSupported();
+  }
+  
+  /**
+   * Set the registry that code run on the current thread records into
+   * @param registry Registry to record into, or null for the global one
+   * @return The previously current registry (null if it was the global one),
+   * to be restored with another call to this once done
+   */
+  public static MetricsRegistry setCurrent(MetricsRegistry registry) {
+    MetricsRegistry previous = CURRENT.get();
+    if (registry == null || registry == GLOBAL) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(registry);
+    }
+    return previous;
+  }
+  
+  /**
+   * Start timing a stage, to be recorded into the current thread's registry
+   * (and its parents) when the returned stopwatch is stopped
+   * @param name Name of the stage
+   * @return Stopwatch to stop when the stage is done
+   */
+  public static Stopwatch start(String name) {
+    return new Stopwatch(getCurrent(), name);
+  }
+  
+  private final MetricsRegistry parent;
+  private final ConcurrentHashMap<String, StageTimer> timers;
+  private final ConcurrentHashMap<String, AtomicLong> counters;
+  
+  /**
+   * Create a new, empty registry
+   * @param parent Registry to also record everything recorded here into,
+   * such as the global registry (or null for none)
+   */
+  public MetricsRegistry(MetricsRegistry parent) {
+    this.parent = parent;
+    timers = new ConcurrentHashMap<String, StageTimer>();
+    counters = new ConcurrentHashMap<String, AtomicLong>();
+  }
+  
+  /**
+   * Remove all timers and counters from this registry (not its parents)
+   */
+  public void clear() {
+    timers.clear();
+    counters.clear();
+  }
+  
+  /**
+   * Get the value of a counter
+   * @param name Name of counter
+   * @return Total counted, 0 if nothing has been counted under that name
+   */
+  public long getCount(String name) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      return 0L;
+    }
+    return counter.get();
+  }
+  
+  /**
+   * Get the values of all counters
+   * @return Copy of counter values, sorted by name
+   */
+  public Map<String, Long> getCounts() {
+    Map<String, Long> out = new TreeMap<String, Long>();
+    for ( String name : counters.keySet() ) {
+      out.put( name, counters.get(name).get() );
+    }
+    return out;
+  }
+  
+  /**
+   * Get the counter of the given name, creating it if needed
+   * @param name Name of counter
+   * @return Counter
+   */
+  private AtomicLong getCounter(String name) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = counters.putIfAbsent(name, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    return counter;
+  }
+  
+  /**
+   * Get the timer of the given stage, creating it if needed
+   * @param name Name of stage
+   * @return Timer for that stage
+   */
+  public StageTimer getTimer(String name) {
+    StageTimer timer = timers.get(name);
+    if (timer == null) {
+      StageTimer created = new StageTimer(name);
+      timer = timers.putIfAbsent(name, created);
+      if (timer == null) {
+        timer = created;
+      }
+    }
+    return timer;
+  }
+  
+  /**
+   * Get the timers of all stages recorded in this registry
+   * @return Map from stage names to timers, sorted by name
+   */
+  public Map<String, StageTimer> getTimers() {
+    return new TreeMap<String, StageTimer>(timers);
+  }
+  
+  /**
+   * Get a breakdown of the recorded stages and counts as text
+   * @return Text with one line per timer, then one line per counter
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for ( StageTimer timer : getTimers().values() ) {
+      if (sb.length() > 0) {
+        sb.append('\n');
+      }
+      sb.append(timer);
+    }
+    Map<String, Long> counts = getCounts();
+    for ( String name : counts.keySet() ) {
+      if (sb.length() > 0) {
+        sb.append('\n');
+      }
+      sb.append(name);
+      sb.append(": ");
+      sb.append( counts.get(name) );
+    }
+    return sb.toString();
+  }
+
+}
@@ -96,6 +96,73 @@ public class NumericUtils {
     }
   }
   
+  /**
+   * Cumulative sums over an array of values, allowing the sum over any
+   * inclusive index range to be taken in constant time. The running sums are
+   * kept as an unevaluated pair of doubles (error-free transformation), so
+   * taking the difference of two large sums to get a small range's sum does
+   * not lose precision even when the values span many orders of magnitude,
+   * as is the case with PSD data.
+   * Non-finite values cannot be summed this way; ranges including them are
+   * reported by the isSummable method so callers can handle them directly.
+   * @author akearns
+   *
+   */
+  public static class PrefixSum {
+    
+    private final double[] high, low;
+    private final int[] unsummable;
+    
+    /**
+     * Build the cumulative sums over the given values
+     * @param values Values to be summed; any non-finite entries are not
+     * added into the sums but are instead tracked as unsummable
+     */
+    public PrefixSum(double[] values) {
+      high = new double[values.length + 1];
+      low = new double[values.length + 1];
+      unsummable = new int[values.length + 1];
+      
+      double sum = 0., error = 0.;
+      for (int i = 0; i < values.length; ++i) {
+        double value = values[i];
+        unsummable[i + 1] = unsummable[i];
+        if ( Double.isNaN(value) || Double.isInfinite(value) ) {
+          ++unsummable[i + 1];
+        } else {
+          // two-sum: next + (lost bits) == sum + value exactly
+          double next = sum + value;
+          double virtual = next - sum;
+          error += (sum - (next - virtual)) + (value - virtual);
+          sum = next;
+        }
+        high[i + 1] = sum;
+        low[i + 1] = error;
+      }
+    }
+    
+    /**
+     * Check that there are no non-finite values in an index range
+     * @param lower Starting index of range (inclusive)
+     * @param higher Ending index of range (inclusive)
+     * @return True if the sum over the range can be given by this object
+     */
+    public boolean isSummable(int lower, int higher) {
+      return unsummable[higher + 1] - unsummable[lower] == 0;
+    }
+    
+    /**
+     * Get the sum of the values in an index range
+     * @param lower Starting index of range (inclusive)
+     * @param higher Ending index of range (inclusive)
+     * @return Sum of the (finite) values within the range
+     */
+    public double sum(int lower, int higher) {
+      return (high[higher + 1] - high[lower]) + (low[higher + 1] - low[lower]);
+    }
+    
+  }
+  
   public static CpxMagComparator cmc;
   
   /**
@@ -0,0 +1,235 @@
+package asl.sensor.utils;
+
+import java.util.Arrays;
+
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+
+/**
+ * Reduces the number of points in a plot to roughly what can be seen at
+ * screen or report resolution, so that charts of long time series or
+ * finely-sampled spectra draw quickly. The domain of a series is divided into
+ * a fixed number of buckets (evenly spaced, or evenly spaced in log10 of x for
+ * plots with a logarithmic x-axis such as PSDs) and only the points with the
+ * minimum and maximum y-value in each bucket are kept, in their original
+ * order. Unlike keeping every Nth point, this keeps the envelope of the data,
+ * so narrow peaks (glitches, spectral lines) aren't dropped from the plot.
+ * The first and last points are always kept, so the plotted range doesn't
+ * change, and NaN points are kept so any breaks they make in a line remain.
+ * @author akearns
+ *
+ */
+public class PlotDownsampler {
+
+  /**
+   * Default number of buckets to divide a plot's domain into, a bit more
+   * than the width in pixels of a full-screen or report-sized chart
+   */
+  public static final int DEFAULT_BUCKETS = 2000;
+
+  /**
+   * Get the indices of the points of a series to keep when plotting it
+   * @param x X-values of the series
+   * @param y Y-values of the series
+   * @param buckets Number of buckets to divide the domain into
+   * @param logX True if buckets should be evenly spaced in log10 of x
+   * (ignored if any x-values are not positive)
+   * @return Indices of points to keep, in increasing order
+   */
+  public static int[] getEnvelopeIndices(double[] x, double[] y, int buckets,
+      boolean logX) {
+    int len = x.length;
+    if ( len <= 2 * buckets + 2 ) {
+      return allIndices(len);
+    }
+
+    double low = x[0];
+    double high = x[0];
+    for (int i = 1; i < len; ++i) {
+      low = Math.min(low, x[i]);
+      high = Math.max(high, x[i]);
+    }
+    if (logX && low > 0.) {
+      low = Math.log10(low);
+      high = Math.log10(high);
+    } else {
+      logX = false;
+    }
+    double width = (high - low) / buckets;
+    if ( !(width > 0.) ) {
+      // all points at the same x (or non-finite range), nothing to bucket by
+      return allIndices(len);
+    }
+
+    int[] bucketOf = new int[len];
+    for (int i = 0; i < len; ++i) {
+      double pos = x[i];
+      if (logX) {
+        pos = Math.log10(pos);
+      }
+      // clamp so that the highest point falls in the last bucket
+      int bucket = (int) ( (pos - low) / width );
+      bucketOf[i] = Math.max( 0, Math.min(buckets - 1, bucket) );
+    }
+    return getEnvelopeIndices(y, bucketOf);
+  }
+
+  /**
+   * Get the indices of the points of an evenly-sampled series (such as a
+   * time series) to keep when plotting it
+   * @param y Values of the series
+   * @param buckets Number of buckets to divide the series into
+   * @return Indices of points to keep, in increasing order
+   */
+  public static int[] getEnvelopeIndices(double[] y, int buckets) {
+    int len = y.length;
+    if ( len <= 2 * buckets + 2 ) {
+      return allIndices(len);
+    }
+
+    int[] bucketOf = new int[len];
+    for (int i = 0; i < len; ++i) {
+      bucketOf[i] = (int) ( (long) i * buckets / len );
+    }
+    return getEnvelopeIndices(y, bucketOf);
+  }
+
+  /**
+   * Produce a series with only the points needed to plot the given series
+   * at the given resolution
+   * @param xys Series to reduce
+   * @param buckets Number of buckets to divide the domain into
+   * @param logX True if the series is plotted with a logarithmic x-axis
+   * @return The same series if it is already small enough, or else a new
+   * series with the same key holding a subset of its points
+   */
+  public static XYSeries downsample(XYSeries xys, int buckets, boolean logX) {
+    if ( xys.getItemCount() <= 2 * buckets + 2 ) {
+      return xys;
+    }
+    double[][] points = xys.toArray();
+    double[] x = points[0];
+    double[] y = points[1];
+    int[] keep = getEnvelopeIndices(x, y, buckets, logX);
+
+    XYSeries out = new XYSeries( xys.getKey(), xys.getAutoSort(),
+        xys.getAllowDuplicateXValues() );
+    for (int idx : keep) {
+      // points are already in the series' order, so just append
+      out.add(x[idx], y[idx], false);
+    }
+    return out;
+  }
+
+  /**
+   * Produce a collection with each of its series reduced to the points needed
+   * to plot them at the given resolution
+   * @param xysc Collection of series to reduce
+   * @param buckets Number of buckets to divide the domain into
+   * @param logX True if the series are plotted with a logarithmic x-axis
+   * @return The same collection if all its series are already small enough,
+   * or else a new collection with the series in the same order and the same
+   * interval width settings
+   */
+  public static XYSeriesCollection downsample(XYSeriesCollection xysc,
+      int buckets, boolean logX) {
+    boolean anyReduced = false;
+    XYSeries[] reduced = new XYSeries[xysc.getSeriesCount()];
+    for (int i = 0; i < reduced.length; ++i) {
+      XYSeries xys = xysc.getSeries(i);
+      reduced[i] = downsample(xys, buckets, logX);
+      anyReduced |= reduced[i] != xys;
+    }
+    if (!anyReduced) {
+      return xysc;
+    }
+
+    XYSeriesCollection out = new XYSeriesCollection();
+    for (XYSeries xys : reduced) {
+      out.addSeries(xys);
+    }
+    // keep the interval width settings (i.e., auto width for PSD plots)
+    out.setAutoWidth( xysc.isAutoWidth() );
+    if ( !xysc.isAutoWidth() ) {
+      out.setIntervalWidth( xysc.getIntervalWidth() );
+    }
+    out.setIntervalPositionFactor( xysc.getIntervalPositionFactor() );
+    return out;
+  }
+
+  /**
+   * Get the index of every point in a series
+   * @param len Number of points
+   * @return Array of 0 to len - 1
+   */
+  private static int[] allIndices(int len) {
+    int[] out = new int[len];
+    for (int i = 0; i < len; ++i) {
+      out[i] = i;
+    }
+    return out;
+  }
+
+  /**
+   * Get the indices of the min and max points of each bucket, along with the
+   * first and last points and any NaN points
+   * @param y Values of the series
+   * @param bucketOf Bucket of each point (a run of consecutive points in
+   * the same bucket is reduced to its min and max)
+   * @return Indices of points to keep, in increasing order
+   */
+  private static int[] getEnvelopeIndices(double[] y, int[] bucketOf) {
+    int len = y.length;
+    int[] keep = new int[len];
+    int count = 0;
+
+    keep[count++] = 0;
+    int bucket = -1;
+    int minIdx = -1;
+    int maxIdx = -1;
+    for (int i = 1; i < len - 1; ++i) {
+      if (bucketOf[i] != bucket || Double.isNaN(y[i]) ) {
+        count = addBucket(keep, count, minIdx, maxIdx);
+        bucket = bucketOf[i];
+        minIdx = -1;
+        maxIdx = -1;
+      }
+      if ( Double.isNaN(y[i]) ) {
+        // keep the break in the line where the NaN is
+        keep[count++] = i;
+        continue;
+      }
+      if (minIdx < 0 || y[i] < y[minIdx]) {
+        minIdx = i;
+      }
+      if (maxIdx < 0 || y[i] > y[maxIdx]) {
+        maxIdx = i;
+      }
+    }
+    count = addBucket(keep, count, minIdx, maxIdx);
+    keep[count++] = len - 1;
+
+    return Arrays.copyOf(keep, count);
+  }
+
+  /**
+   * Add the min and max points of a bucket to the list of points to keep,
+   * in the order they appear in the series
+   * @param keep Indices of points being kept
+   * @param count Number of indices already in the list
+   * @param minIdx Index of bucket's minimum point (negative if bucket empty)
+   * @param maxIdx Index of bucket's maximum point (negative if bucket empty)
+   * @return New number of indices in the list
+   */
+  private static int addBucket(int[] keep, int count, int minIdx, int maxIdx) {
+    if (minIdx < 0) {
+      return count;
+    }
+    keep[count++] = Math.min(minIdx, maxIdx);
+    if (minIdx != maxIdx) {
+      keep[count++] = Math.max(minIdx, maxIdx);
+    }
+    return count;
+  }
+
+}
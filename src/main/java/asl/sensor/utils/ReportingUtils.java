@@ -1,23 +1,47 @@
 package asl.sensor.utils;
 
 import java.awt.Color;
-import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
-import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.Plot;
+import org.jfree.chart.plot.XYPlot;
 
 /**
  * This class defines functions relevant to creating output files,
@@ -25,10 +49,117 @@ import org.jfree.chart.JFreeChart;
  * Input, output, and test classes all use these functions, so by placing them
  * in a utility function with static methods the code inside those classes can
  * be simplified and redundant calls or procedures reduced.
+ * Charts are rasterized, and page images compressed, on a shared pool of
+ * worker threads; pages are still added to a document in the order given,
+ * on the calling thread, since PDF documents are not thread-safe.
+ * Charts shown in the GUI are live Swing components, so reports saved from
+ * the GUI take copies of them (see cloneCharts) on the Swing event thread
+ * and write the report from a background thread. If these methods are
+ * called from the event thread anyway (i.e., when a chart can't be copied),
+ * all of this is done on that thread instead, so the event thread is never
+ * left waiting on the pool.
  * @author akearns
  *
  */
 public class ReportingUtils {
+  
+  /**
+   * Ways that chart images can be stored in PDF pages. Lossless pages are
+   * exact, while JPEG pages are much smaller and faster to write but may show
+   * some blurring around lines and text.
+   * @author akearns
+   *
+   */
+  public static enum PageEncoding {
+    LOSSLESS,
+    JPEG;
+  }
+  
+  /**
+   * Image of a PDF page that has already been compressed, so that only
+   * copying the compressed bytes into the document needs to be done on the
+   * thread that owns the document
+   * @author akearns
+   *
+   */
+  private static class EncodedImage {
+    
+    private final byte[] bytes;
+    private final int width;
+    private final int height;
+    private final PageEncoding encoding;
+    
+    private EncodedImage(byte[] bytes, int width, int height,
+        PageEncoding encoding) {
+      this.bytes = bytes;
+      this.width = width;
+      this.height = height;
+      this.encoding = encoding;
+    }
+    
+  }
+  
+  /**
+   * How chart images are stored in the pages of one report. Passing these
+   * in lets reports written at the same time (i.e., by batch jobs) each use
+   * their own settings instead of the program-wide ones set by
+   * setPageEncoding and setJPEGQuality.
+   * @author akearns
+   *
+   */
+  public static class PageOptions {
+    
+    private final PageEncoding encoding;
+    private final float jpegQuality;
+    
+    /**
+     * Create a new set of page options
+     * @param encoding Encoding to use for PDF page images
+     * @param jpegQuality Quality of JPEG pages, from 0 (smallest) to 1 (best)
+     */
+    public PageOptions(PageEncoding encoding, float jpegQuality) {
+      this.encoding = encoding;
+      this.jpegQuality = Math.max( 0f, Math.min(1f, jpegQuality) );
+    }
+    
+    /**
+     * Get the encoding used for PDF page images
+     * @return Page image encoding
+     */
+    public PageEncoding getEncoding() {
+      return encoding;
+    }
+    
+    /**
+     * Get the quality used for JPEG-encoded PDF pages
+     * @return Quality from 0 (smallest) to 1 (best)
+     */
+    public float getJPEGQuality() {
+      return jpegQuality;
+    }
+    
+  }
+  
+  public static final float DEFAULT_JPEG_QUALITY = 0.85f;
+  
+  
+  private static final ExecutorService renderPool = 
+      Executors.newFixedThreadPool( 
+          Runtime.getRuntime().availableProcessors(),
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = 
+                  new Thread(r, "report-worker-" + count.incrementAndGet() );
+              // don't keep the program alive just for the (idle) pool
+              t.setDaemon(true);
+              return t;
+            }
+          });
+  
+  private static volatile PageEncoding pageEncoding = PageEncoding.LOSSLESS;
+  private static volatile float jpegQuality = DEFAULT_JPEG_QUALITY;
 
   /**
    * Merge a series of buffered images and write them to a single PDF page
@@ -49,24 +180,8 @@ public class ReportingUtils {
   public static void 
   bufferedImageToPDFPage(BufferedImage bi, PDDocument pdf) {
     
-    PDRectangle rec = 
-        new PDRectangle( (float) bi.getWidth(), 
-                         (float) bi.getHeight() );
-    PDPage page = new PDPage(rec);
-    
     try {
-      PDImageXObject  pdImageXObject = 
-          LosslessFactory.createFromImage(pdf, bi);
-      pdf.addPage(page);
-      PDPageContentStream contentStream = 
-          new PDPageContentStream(pdf, page, 
-                                  PDPageContentStream.AppendMode.OVERWRITE, 
-                                  true, false);
-
-      contentStream.drawImage( pdImageXObject, 0, 0, 
-          bi.getWidth(), bi.getHeight() );
-      contentStream.close();
-      
+      addImagePage( pdf, encodeImage(bi, pageEncoding, jpegQuality) );
     } catch (IOException e) {
       e.printStackTrace();
     } 
@@ -75,6 +190,40 @@ public class ReportingUtils {
     
   }
   
+  /**
+   * Add a page to a PDF document holding an already-compressed image
+   * @param pdf PDF to have the image appended to
+   * @param image Compressed image to place on the new page
+   * @throws IOException If the image could not be added to the document
+   */
+  private static void addImagePage(PDDocument pdf, EncodedImage image)
+      throws IOException {
+    
+    PDRectangle rec = 
+        new PDRectangle( (float) image.width, (float) image.height );
+    PDPage page = new PDPage(rec);
+    
+    PDImageXObject pdImageXObject;
+    ByteArrayInputStream bais = new ByteArrayInputStream(image.bytes);
+    if (image.encoding == PageEncoding.JPEG) {
+      pdImageXObject = JPEGFactory.createFromStream(pdf, bais);
+    } else {
+      // same form of image as pdfbox's LosslessFactory produces
+      pdImageXObject = new PDImageXObject(pdf, bais, COSName.FLATE_DECODE,
+          image.width, image.height, 8, PDDeviceRGB.INSTANCE);
+    }
+    pdf.addPage(page);
+    PDPageContentStream contentStream = 
+        new PDPageContentStream(pdf, page, 
+                                PDPageContentStream.AppendMode.OVERWRITE, 
+                                true, false);
+
+    contentStream.drawImage( pdImageXObject, 0, 0, 
+        image.width, image.height );
+    contentStream.close();
+    
+  }
+  
   /**
    * Converts a series of charts into a buffered image. Each chart has the
    * dimensions given as the width and height parameters, and so the resulting
@@ -89,23 +238,7 @@ public class ReportingUtils {
   public static BufferedImage 
   chartsToImage(int width, int height, JFreeChart... jfcs) {
     
-    BufferedImage[] bis = new BufferedImage[jfcs.length];
-    
-    for (int i = 0; i < jfcs.length; ++i) {
-      ChartPanel cp = new ChartPanel(jfcs[i]);
-      cp.setSize( new Dimension(width, height) );
-      BufferedImage temp = new BufferedImage(
-          (int) cp.getWidth(),
-          (int) cp.getHeight(),
-          BufferedImage.TYPE_INT_ARGB);
-      Graphics2D g = temp.createGraphics();
-      g = temp.createGraphics();
-      cp.printAll(g);
-      g.dispose();
-      bis[i] = temp;
-    }
-    
-    return mergeBufferedImages(bis);
+    return mergeBufferedImages( renderCharts(width, height, jfcs) );
   }
   
   /**
@@ -125,9 +258,12 @@ public class ReportingUtils {
     List<BufferedImage> imageList = new ArrayList<BufferedImage>();
     int totalNumber = charts.length;
     
+    // render all the charts at once, then split them into pages
+    BufferedImage[] rendered = renderCharts(width, height, charts);
+    
     if (totalNumber < perImg) {
       // if we can fit them all on a single page, then we'll do so
-      imageList.add( chartsToImage(width, height, charts) );
+      imageList.add( mergeBufferedImages(rendered) );
       return imageList.toArray( new BufferedImage[]{} );
     }
     
@@ -143,21 +279,21 @@ public class ReportingUtils {
     
     // handle all the pages with complete data here
     for (int i = 0; i < numFilledPages; ++i) {
-      JFreeChart[] onOnePage = new JFreeChart[perImg];
+      BufferedImage[] onOnePage = new BufferedImage[perImg];
       for (int j = 0; j < perImg; ++j) {
-        onOnePage[j] = charts[(perImg * i) + j];
+        onOnePage[j] = rendered[(perImg * i) + j];
       }
-      imageList.add( chartsToImage(width, height, onOnePage) );
+      imageList.add( mergeBufferedImages(onOnePage) );
     }
     
     // special case for a non-evenly dividing plot series
     if (lastPageChartCount != 0) {
       int lastIndex = numFilledPages * perImg;
-      JFreeChart[] lastPage = new JFreeChart[lastPageChartCount];
+      BufferedImage[] lastPage = new BufferedImage[lastPageChartCount];
       for (int j = 0; j < lastPageChartCount; ++j) {
-        lastPage[j] = charts[lastIndex + j];
+        lastPage[j] = rendered[lastIndex + j];
       }
-      BufferedImage lastPageImage = chartsToImage(width, height, lastPage);
+      BufferedImage lastPageImage = mergeBufferedImages(lastPage);
       BufferedImage space = createWhitespace(width, height * spacerCount);
       imageList.add( mergeBufferedImages(lastPageImage, space) );
     }
@@ -183,6 +319,88 @@ public class ReportingUtils {
     
   }
   
+  /**
+   * Takes in several pages' worth of charts and adds a PDF page for each,
+   * in the order given. All the charts are rendered, and all the pages
+   * compressed, concurrently, so this is faster than calling
+   * chartsToPDFPage for each page in turn.
+   * @param width Width of each chart to be added to the PDF
+   * @param height Height of each chart to be added to the PDF
+   * @param pdf PDF document to have the pages appended to
+   * @param pages Charts to place in the PDF, one array per page; empty
+   * arrays are skipped
+   */
+  public static void 
+  chartPagesToPDF(int width, int height, PDDocument pdf, 
+      JFreeChart[]... pages) {
+    chartPagesToPDF( width, height, pdf, getPageOptions(), pages );
+  }
+  
+  /**
+   * Takes in several pages' worth of charts and adds a PDF page for each,
+   * as in chartPagesToPDF, storing the page images as given by the options
+   * passed in rather than the program-wide settings
+   * @param width Width of each chart to be added to the PDF
+   * @param height Height of each chart to be added to the PDF
+   * @param pdf PDF document to have the pages appended to
+   * @param options How to store the page images
+   * @param pages Charts to place in the PDF, one array per page; empty
+   * arrays are skipped
+   */
+  public static void 
+  chartPagesToPDF(int width, int height, PDDocument pdf, 
+      PageOptions options, JFreeChart[]... pages) {
+    
+    List<JFreeChart> allCharts = new ArrayList<JFreeChart>();
+    for (JFreeChart[] page : pages) {
+      for (JFreeChart chart : page) {
+        allCharts.add(chart);
+      }
+    }
+    BufferedImage[] rendered = 
+        renderCharts( width, height, allCharts.toArray(new JFreeChart[]{}) );
+    
+    List<BufferedImage> pageImages = new ArrayList<BufferedImage>();
+    int chartIdx = 0;
+    for (JFreeChart[] page : pages) {
+      if (page.length == 0) {
+        continue;
+      }
+      BufferedImage[] onOnePage = new BufferedImage[page.length];
+      for (int i = 0; i < page.length; ++i) {
+        onOnePage[i] = rendered[chartIdx++];
+      }
+      pageImages.add( mergeBufferedImages(onOnePage) );
+    }
+    
+    imageListToPDFPages( pdf, options, 
+        pageImages.toArray(new BufferedImage[]{}) );
+    
+  }
+  
+  /**
+   * Copy a series of charts, so that the copies can be drawn on other threads
+   * while the originals are still shown (and possibly redrawn) in the GUI.
+   * This should be called on the Swing event thread. The copies have their
+   * own plots, axes and renderers but share the (unchanging) plotted data.
+   * @param charts Charts to copy
+   * @return Copies of the charts in the same order, or null if any of them
+   * could not be copied
+   */
+  public static JFreeChart[] cloneCharts(JFreeChart... charts) {
+    JFreeChart[] clones = new JFreeChart[charts.length];
+    try {
+      for (int i = 0; i < charts.length; ++i) {
+        clones[i] = (JFreeChart) charts[i].clone();
+      }
+    } catch (CloneNotSupportedException e) {
+      // i.e., a plot using a dataset or renderer that can't be copied
+      e.printStackTrace();
+      return null;
+    }
+    return clones;
+  }
+  
   public static BufferedImage createWhitespace(int width, int height) {
     BufferedImage out = new BufferedImage(width, height, 
         BufferedImage.TYPE_INT_RGB);
@@ -194,6 +412,130 @@ public class ReportingUtils {
     return out;
   }
   
+  /**
+   * Compress an image for placement in a PDF page. This doesn't touch any
+   * PDF document, and so can be done on any thread.
+   * @param bi Image to compress
+   * @param encoding Form to compress the image into
+   * @param quality JPEG quality, from 0 to 1 (ignored for lossless images)
+   * @return Compressed image data
+   * @throws IOException If the image could not be encoded
+   */
+  private static EncodedImage 
+  encodeImage(BufferedImage bi, PageEncoding encoding, float quality) 
+      throws IOException {
+    
+    int width = bi.getWidth();
+    int height = bi.getHeight();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    
+    if (encoding == PageEncoding.JPEG) {
+      // JPEG has no alpha channel, so make sure the image doesn't either
+      BufferedImage rgb = bi;
+      if ( bi.getType() != BufferedImage.TYPE_INT_RGB ) {
+        rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.setPaint(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.drawImage(bi, 0, 0, null);
+        g.dispose();
+      }
+      ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(quality);
+      ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
+      try {
+        writer.setOutput(ios);
+        writer.write( null, new IIOImage(rgb, null, null), param );
+      } finally {
+        writer.dispose();
+        ios.close();
+      }
+      return new EncodedImage( baos.toByteArray(), width, height, encoding );
+    }
+    
+    // flate-compressed 8-bit RGB samples, one row at a time
+    Deflater deflater = new Deflater();
+    int[] row = new int[width];
+    byte[] rowBytes = new byte[3 * width];
+    byte[] buffer = new byte[64 * 1024];
+    for (int y = 0; y < height; ++y) {
+      bi.getRGB(0, y, width, 1, row, 0, width);
+      for (int x = 0; x < width; ++x) {
+        int pixel = row[x];
+        rowBytes[3 * x] = (byte) (pixel >> 16);
+        rowBytes[3 * x + 1] = (byte) (pixel >> 8);
+        rowBytes[3 * x + 2] = (byte) pixel;
+      }
+      deflater.setInput(rowBytes);
+      while ( !deflater.needsInput() ) {
+        int len = deflater.deflate(buffer);
+        baos.write(buffer, 0, len);
+      }
+    }
+    deflater.finish();
+    while ( !deflater.finished() ) {
+      int len = deflater.deflate(buffer);
+      baos.write(buffer, 0, len);
+    }
+    deflater.end();
+    return new EncodedImage( baos.toByteArray(), width, height, encoding );
+  }
+  
+  /**
+   * Get the quality used for JPEG-encoded PDF pages
+   * @return Quality from 0 (smallest) to 1 (best)
+   */
+  public static float getJPEGQuality() {
+    return jpegQuality;
+  }
+  
+  /**
+   * Get the program-wide settings for storing chart images in PDF pages, as
+   * used by the methods here that aren't given any options
+   * @return Current page encoding and JPEG quality
+   */
+  public static PageOptions getPageOptions() {
+    return new PageOptions(pageEncoding, jpegQuality);
+  }
+  
+  /**
+   * Get how chart images are currently stored in PDF pages
+   * @return Encoding used for PDF page images
+   */
+  public static PageEncoding getPageEncoding() {
+    return pageEncoding;
+  }
+  
+  /**
+   * Get the objects a chart may modify while it is drawn (i.e., its axes,
+   * when auto-ranging) or that may be shared with other charts
+   * @param chart Chart to get the components of
+   * @return List of the chart's plot, axes, datasets, and renderers
+   */
+  private static List<Object> getDrawnComponents(JFreeChart chart) {
+    List<Object> parts = new ArrayList<Object>();
+    Plot plot = chart.getPlot();
+    parts.add(plot);
+    if (plot instanceof XYPlot) {
+      XYPlot xyp = (XYPlot) plot;
+      for (int i = 0; i < xyp.getDomainAxisCount(); ++i) {
+        parts.add( xyp.getDomainAxis(i) );
+      }
+      for (int i = 0; i < xyp.getRangeAxisCount(); ++i) {
+        parts.add( xyp.getRangeAxis(i) );
+      }
+      for (int i = 0; i < xyp.getDatasetCount(); ++i) {
+        parts.add( xyp.getDataset(i) );
+      }
+      for (int i = 0; i < xyp.getRendererCount(); ++i) {
+        parts.add( xyp.getRenderer(i) );
+      }
+    }
+    return parts;
+  }
+  
   /**
    * Writes multiple pages of charts to a PDF file, with the number of charts
    * to display per page set according to a parameter 
@@ -220,8 +562,56 @@ public class ReportingUtils {
    */
   public static void
   imageListToPDFPages(PDDocument pdf, BufferedImage... bis) {
-    for (BufferedImage bi : bis) {
-      bufferedImageToPDFPage(bi, pdf);
+    imageListToPDFPages( pdf, getPageOptions(), bis );
+  }
+  
+  /**
+   * Write a list of images to a pdf document, each image its own page,
+   * storing the images as given by the options passed in rather than the
+   * program-wide settings
+   * @param pdf PDF document to write to
+   * @param options How to store the page images
+   * @param bis List of buffered images to write. Each image is written to its
+   * own PDF page.
+   */
+  public static void
+  imageListToPDFPages(PDDocument pdf, PageOptions options, 
+      BufferedImage... bis) {
+    
+    final PageEncoding encoding = options.getEncoding();
+    final float quality = options.getJPEGQuality();
+    // as when adding pages one at a time, a page that can't be encoded is
+    // skipped without stopping the rest; its error is kept to report below
+    final IOException[] failures = new IOException[bis.length];
+    List<Callable<EncodedImage>> tasks = 
+        new ArrayList<Callable<EncodedImage>>();
+    for (int i = 0; i < bis.length; ++i) {
+      final BufferedImage bi = bis[i];
+      final int page = i;
+      tasks.add( new Callable<EncodedImage>() {
+        @Override
+        public EncodedImage call() {
+          try {
+            return encodeImage(bi, encoding, quality);
+          } catch (IOException e) {
+            failures[page] = e;
+            return null;
+          }
+        }
+      });
+    }
+    
+    List<EncodedImage> images = runAll(tasks);
+    for (int i = 0; i < images.size(); ++i) {
+      if (failures[i] != null) {
+        failures[i].printStackTrace();
+        continue;
+      }
+      try {
+        addImagePage( pdf, images.get(i) );
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
     }
   }
   
@@ -261,6 +651,149 @@ public class ReportingUtils {
     
   }
   
+  /**
+   * Draw a single chart into an image of the given size
+   * @param chart Chart to draw
+   * @param width Width of the image
+   * @param height Height of the image
+   * @return Image of the chart
+   */
+  private static BufferedImage 
+  renderChart(JFreeChart chart, int width, int height) {
+    // draw the chart the same way a default chart panel would, i.e., sizes
+    // past the panel's limits are drawn at the limit and then scaled, but
+    // without making a Swing component, so this can be done on any thread
+    double drawWidth = Math.max( ChartPanel.DEFAULT_MINIMUM_DRAW_WIDTH,
+        Math.min(ChartPanel.DEFAULT_MAXIMUM_DRAW_WIDTH, width) );
+    double drawHeight = Math.max( ChartPanel.DEFAULT_MINIMUM_DRAW_HEIGHT,
+        Math.min(ChartPanel.DEFAULT_MAXIMUM_DRAW_HEIGHT, height) );
+    BufferedImage temp = 
+        new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = temp.createGraphics();
+    g.transform( AffineTransform.getScaleInstance( 
+        width / drawWidth, height / drawHeight) );
+    chart.draw( g, new Rectangle2D.Double(0., 0., drawWidth, drawHeight) );
+    g.dispose();
+    return temp;
+  }
+  
+  /**
+   * Draw each of a series of charts into its own image, concurrently.
+   * Drawing a chart can update its axes (to fit their range to the data),
+   * so charts that share an axis or any other component (as when a panel
+   * reuses one x-axis for several plots) are drawn one after the other
+   * on the same thread.
+   * @param width Width of each chart's image
+   * @param height Height of each chart's image
+   * @param charts Charts to draw
+   * @return Images of the charts, in the same order
+   */
+  private static BufferedImage[] 
+  renderCharts(final int width, final int height, final JFreeChart... charts) {
+    
+    // group together charts with components in common (union-find)
+    final int[] group = new int[charts.length];
+    Map<Object, Integer> owner = new IdentityHashMap<Object, Integer>();
+    for (int i = 0; i < charts.length; ++i) {
+      group[i] = i;
+      for ( Object part : getDrawnComponents(charts[i]) ) {
+        if (part == null) {
+          continue;
+        }
+        Integer other = owner.get(part);
+        if (other == null) {
+          owner.put(part, i);
+          continue;
+        }
+        int root = other;
+        while (group[root] != root) {
+          root = group[root];
+        }
+        int thisRoot = i;
+        while (group[thisRoot] != thisRoot) {
+          thisRoot = group[thisRoot];
+        }
+        group[Math.max(root, thisRoot)] = Math.min(root, thisRoot);
+      }
+    }
+    
+    final BufferedImage[] images = new BufferedImage[charts.length];
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < charts.length; ++i) {
+      if (group[i] != i) {
+        continue;
+      }
+      final int root = i;
+      tasks.add( new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int j = root; j < charts.length; ++j) {
+            int jRoot = j;
+            while (group[jRoot] != jRoot) {
+              jRoot = group[jRoot];
+            }
+            if (jRoot == root) {
+              images[j] = renderChart(charts[j], width, height);
+            }
+          }
+          return null;
+        }
+      });
+    }
+    
+    runAll(tasks);
+    return images;
+  }
+  
+  /**
+   * Run a set of tasks on the report worker pool and wait for them all to
+   * finish. A single task, or tasks started from the Swing event thread
+   * (which shouldn't be left waiting on other threads), are just run on the
+   * calling thread.
+   * @param tasks Tasks to run
+   * @return Results of the tasks, in the same order
+   */
+  private static <T> List<T> runAll(List<Callable<T>> tasks) {
+    List<T> results = new ArrayList<T>();
+    try {
+      if ( tasks.size() == 1 || SwingUtilities.isEventDispatchThread() ) {
+        for (Callable<T> task : tasks) {
+          results.add( task.call() );
+        }
+        return results;
+      }
+      for ( Future<T> future : renderPool.invokeAll(tasks) ) {
+        results.add( future.get() );
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Report generation interrupted", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException( e.getCause() );
+    } catch (Exception e) {
+      // from running a single task directly
+      throw new RuntimeException(e);
+    }
+    return results;
+  }
+  
+  /**
+   * Set the quality used for JPEG-encoded PDF pages
+   * @param quality Quality from 0 (smallest) to 1 (best)
+   */
+  public static void setJPEGQuality(float quality) {
+    jpegQuality = Math.max( 0f, Math.min(1f, quality) );
+  }
+  
+  /**
+   * Set how chart images are stored in PDF pages created after this call.
+   * JPEG pages make for much smaller report files that are quicker to write.
+   * @param encoding Encoding to use for PDF page images
+   */
+  public static void setPageEncoding(PageEncoding encoding) {
+    pageEncoding = encoding;
+  }
+  
   /**
    * Add pages to a PDF document consisting of textual data with a series of
    * strings, where each string is written to a separate page
@@ -0,0 +1,332 @@
+package asl.sensor.utils;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jfree.data.xy.XYSeries;
+
+import asl.sensor.input.InstrumentResponse;
+
+/**
+ * Holds the data read from resources embedded in the program: the Peterson
+ * noise models and the RESP files listed in responses.txt. Each resource is
+ * read and parsed only once, the first time it is needed (or when the
+ * catalog is warmed up at startup), and is thread-safe to read from after.
+ * Noise models are kept as immutable arrays that plots are built from, and
+ * each embedded response is parsed into a single shared response object.
+ * @author akearns
+ *
+ */
+public class ResourceCatalog {
+  
+  /**
+   * One of the Peterson noise models (NLNM or NHNM) as parsed from its
+   * resource file, stored as power (dB) by period (s) with periods in
+   * increasing order. This object cannot be modified once created.
+   * @author akearns
+   *
+   */
+  public static class NoiseModel {
+    
+    private final String name;
+    private final double[] periods;
+    private final double[] power;
+    
+    /**
+     * Create a noise model from arrays of points, which are not copied
+     * @param name Name of the model (used as the plot series key)
+     * @param periods Periods of the points in seconds, in increasing order
+     * @param power Power of the points in dB
+     */
+    private NoiseModel(String name, double[] periods, double[] power) {
+      this.name = name;
+      this.periods = periods;
+      this.power = power;
+    }
+    
+    /**
+     * Get the name of the model
+     * @return "NLNM" or "NHNM"
+     */
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * Get the number of points in the model
+     * @return Number of points
+     */
+    public int size() {
+      return periods.length;
+    }
+    
+    /**
+     * Get the x-values of the model's points in increasing order
+     * @param freqSpace True if the values should be frequencies in Hz
+     * (otherwise they are periods in seconds)
+     * @return New array of x-values
+     */
+    public double[] getXValues(boolean freqSpace) {
+      if (!freqSpace) {
+        return periods.clone();
+      }
+      // periods are increasing, so frequencies go in reverse order
+      int len = periods.length;
+      double[] freqs = new double[len];
+      for (int i = 0; i < len; ++i) {
+        freqs[i] = 1. / periods[len - 1 - i];
+      }
+      return freqs;
+    }
+    
+    /**
+     * Get the y-values (power in dB) of the model's points, in the same
+     * order as the x-values returned for the same frequency setting
+     * @param freqSpace True if the values are ordered by frequency
+     * (otherwise they are ordered by period)
+     * @return New array of y-values
+     */
+    public double[] getYValues(boolean freqSpace) {
+      if (!freqSpace) {
+        return power.clone();
+      }
+      int len = power.length;
+      double[] reversed = new double[len];
+      for (int i = 0; i < len; ++i) {
+        reversed[i] = power[len - 1 - i];
+      }
+      return reversed;
+    }
+    
+    /**
+     * Build a plottable series of the model
+     * @param freqSpace True if the data's x-axis should be units of Hz
+     * (otherwise it is units of seconds)
+     * @return New series with the model's name as its key
+     */
+    public XYSeries toXYSeries(boolean freqSpace) {
+      XYSeries xys = new XYSeries(name);
+      double[] x = getXValues(freqSpace);
+      double[] y = getYValues(freqSpace);
+      // points are already in order, so each add just appends to the series
+      for (int i = 0; i < x.length; ++i) {
+        xys.add(x[i], y[i], false);
+      }
+      return xys;
+    }
+  
+  }
+  
+  /**
+   * Noise models are only parsed when this class is first used, which the
+   * JVM guarantees happens once, on a single thread
+   * @author akearns
+   *
+   */
+  private static class NoiseModelHolder {
+    // NHNM has power in the second column, NLNM in the fourth
+    static final NoiseModel NHNM = parseNoiseModel("NHNM", "NHNM.txt", 1);
+    static final NoiseModel NLNM = parseNoiseModel("NLNM", "NLNM.txt", 3);
+  }
+  
+  /**
+   * Embedded response names are likewise read in when first used
+   * @author akearns
+   *
+   */
+  private static class ResponseListHolder {
+    static final Set<String> NAMES = parseResponseList();
+  }
+  
+  /**
+   * Noise models only extend out to this period (s) when plotted
+   */
+  private static final double MAX_PERIOD = 1.0E3 + 1;
+  
+  private static final Map<String, InstrumentResponse> RESPONSES =
+      new ConcurrentHashMap<String, InstrumentResponse>();
+  
+  /**
+   * Get one of the response files embedded in the program. The file is only
+   * parsed the first time it is requested, and that same response is
+   * returned each time (responses can't be changed, so it is safe to share).
+   * @param fname Name of the response file, as listed in responses.txt
+   * @return The embedded response
+   * @throws IOException If no file with the given name exists or it could
+   * not be parsed
+   */
+  public static InstrumentResponse getEmbeddedResponse(String fname)
+      throws IOException {
+    InstrumentResponse cached = RESPONSES.get(fname);
+    if (cached == null) {
+      BufferedReader br = openResource(fname);
+      try {
+        cached = new InstrumentResponse(br, fname);
+      } finally {
+        br.close();
+      }
+      // if another thread parsed it first, use that one instead
+      InstrumentResponse prev = RESPONSES.putIfAbsent(fname, cached);
+      if (prev != null) {
+        cached = prev;
+      }
+    }
+    return cached;
+  }
+  
+  /**
+   * Get the names of all responses embedded into the program, derived from
+   * the responses.txt file in the resources folder
+   * @return Unmodifiable set of strings representing response filenames
+   */
+  public static Set<String> getEmbeddedResponseNames() {
+    return ResponseListHolder.NAMES;
+  }
+  
+  /**
+   * Get the Peterson new high noise model
+   * @return NHNM data, up to periods of 1000 seconds
+   */
+  public static NoiseModel getHighNoiseModel() {
+    return NoiseModelHolder.NHNM;
+  }
+  
+  /**
+   * Get the Peterson new low noise model
+   * @return NLNM data, up to periods of 1000 seconds
+   */
+  public static NoiseModel getLowNoiseModel() {
+    return NoiseModelHolder.NLNM;
+  }
+  
+  /**
+   * Open a resource embedded in the program for reading
+   * @param fname Name of the resource
+   * @return Reader of the resource's contents
+   * @throws FileNotFoundException If no resource has that name
+   */
+  private static BufferedReader openResource(String fname)
+      throws FileNotFoundException {
+    ClassLoader cl = ResourceCatalog.class.getClassLoader();
+    InputStream is = cl.getResourceAsStream(fname);
+    if (is == null) {
+      throw new FileNotFoundException("No embedded resource named " + fname);
+    }
+    return new BufferedReader( new InputStreamReader(is) );
+  }
+  
+  /**
+   * Read in a noise model from a resource file with whitespace-separated
+   * columns, where the first column is the period of each point
+   * @param name Name of the model
+   * @param fname Resource file to read from
+   * @param powerColumn Column holding the power of each point
+   * @return Noise model of the points with periods up to 1000 seconds
+   */
+  private static NoiseModel
+  parseNoiseModel(String name, String fname, int powerColumn) {
+    double[] periods = new double[0];
+    double[] power = new double[0];
+    int size = 0;
+    try {
+      BufferedReader fr = openResource(fname);
+      String str = fr.readLine();
+      while (str != null) {
+        String[] values = str.trim().split("\\s+");
+        double x = Double.parseDouble(values[0]); // period, in seconds
+        if (x > MAX_PERIOD) {
+          break;
+        }
+        if (size == periods.length) {
+          periods = Arrays.copyOf(periods, size * 2 + 16);
+          power = Arrays.copyOf(power, size * 2 + 16);
+        }
+        periods[size] = x;
+        power[size] = Double.parseDouble(values[powerColumn]);
+        ++size;
+        
+        str = fr.readLine();
+      }
+      fr.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return new NoiseModel(name,
+        Arrays.copyOf(periods, size), Arrays.copyOf(power, size) );
+  }
+  
+  /**
+   * Read in the list of embedded response files. There's no elegant way to
+   * find the embedded responses other than to load in their names from a
+   * list, so adding response files to the program requires adding their
+   * names to responses.txt. (Other ways to do this tend not to work the same
+   * way between an IDE and launching a jar.)
+   * @return Unmodifiable set of names read from responses.txt
+   */
+  private static Set<String> parseResponseList() {
+    Set<String> respFilenames = new HashSet<String>();
+    try {
+      BufferedReader respBuff = openResource("responses.txt");
+      String name = respBuff.readLine();
+      while (name != null) {
+        respFilenames.add(name);
+        name = respBuff.readLine();
+      }
+      respBuff.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return Collections.unmodifiableSet(respFilenames);
+  }
+  
+  /**
+   * Read in every embedded resource now, so that later requests for them
+   * don't have to wait for the parsing. Responses that can't be read are
+   * skipped here, and will report their error when requested directly.
+   */
+  public static void warmUp() {
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("catalog.warmUp");
+    getLowNoiseModel();
+    getHighNoiseModel();
+    for ( String fname : getEmbeddedResponseNames() ) {
+      try {
+        getEmbeddedResponse(fname);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    timer.stop();
+  }
+  
+  /**
+   * Start reading in every embedded resource on a background thread, which
+   * won't keep the program from exiting
+   * @return The thread doing the reading
+   */
+  public static Thread warmUpInBackground() {
+    Thread warmer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        warmUp();
+      }
+    }, "resource-catalog-warmup");
+    warmer.setDaemon(true);
+    warmer.setPriority(Thread.MIN_PRIORITY);
+    warmer.start();
+    return warmer;
+  }
+  
+  private ResourceCatalog() {
+    // only static access to the embedded resources
+  }
+
+}
@@ -0,0 +1,296 @@
+package asl.sensor.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.me.berndporr.iirj.Biquad;
+import uk.me.berndporr.iirj.ChebyshevI;
+
+/**
+ * IIR filter stored as a cascade of second-order sections (biquads), with
+ * the coefficients of each section taken from an iirj filter design. Designs
+ * are cached by their parameters, so repeated filtering with the same
+ * sample rate and corners doesn't redo the design. Filtering is done in
+ * place, running each section over the whole block of data before moving to
+ * the next rather than passing each sample through every section in turn
+ * (since each section starts at rest, the results are the same). Data can
+ * also be filtered forwards and then backwards, which cancels the phase
+ * shift of the filter and squares its magnitude response.
+ * This object holds no filter state between calls and cannot be modified
+ * once created, so a single instance can be used from multiple threads.
+ * @author akearns
+ *
+ */
+public class SOSFilter {
+  
+  /**
+   * Passband ripple (dB) used in Chebyshev filter designs
+   */
+  private static final double RIPPLE_DB = 1.;
+  
+  /**
+   * Batches with fewer total points than this are filtered on the calling
+   * thread, as handing them to other threads would take longer than the
+   * filtering
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+  
+  private static final Map<String, SOSFilter> DESIGNS =
+      new ConcurrentHashMap<String, SOSFilter>();
+  
+  // shared by every batch, rather than starting threads for each one
+  private static final ExecutorService filterPool = 
+      Executors.newFixedThreadPool( 
+          Runtime.getRuntime().availableProcessors(),
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = 
+                  new Thread(r, "filter-worker-" + count.incrementAndGet() );
+              // don't keep the program alive just for the (idle) pool
+              t.setDaemon(true);
+              return t;
+            }
+          });
+  
+  /**
+   * Get a Chebyshev type I band-pass filter. This uses the same design
+   * parameters as FFTResult has always used for its band-pass filter: the
+   * band center is taken as half the distance between the corners and the
+   * width as the full distance between them, with 1 dB of passband ripple.
+   * @param sps Sample rate of the data to be filtered (samples / sec)
+   * @param low Low corner frequency of the filter (Hz)
+   * @param high High corner frequency of the filter (Hz)
+   * @param order Order of the filter design
+   * @return Filter with those parameters, which may be shared with previous
+   * calls using the same parameters
+   */
+  public static SOSFilter
+  bandPass(double sps, double low, double high, int order) {
+    StringBuilder sb = new StringBuilder("chebyI-bp:");
+    sb.append(sps);
+    sb.append(',');
+    sb.append(low);
+    sb.append(',');
+    sb.append(high);
+    sb.append(',');
+    sb.append(order);
+    String key = sb.toString();
+    
+    SOSFilter design = DESIGNS.get(key);
+    if (design == null) {
+      ChebyshevI casc = new ChebyshevI();
+      casc.bandPass(order, sps, (high - low) / 2, high - low, RIPPLE_DB);
+      int sections = casc.getNumBiquads();
+      Biquad[] biquads = new Biquad[sections];
+      for (int i = 0; i < sections; ++i) {
+        biquads[i] = casc.getBiquad(i);
+      }
+      design = new SOSFilter(biquads);
+      MetricsRegistry.count("filter.designs", 1);
+      SOSFilter prev = DESIGNS.putIfAbsent(key, design);
+      if (prev != null) {
+        design = prev;
+      }
+    }
+    return design;
+  }
+  
+  // per-section coefficients, normalized so that a0 is 1
+  private final double[] b0, b1, b2, a1, a2;
+  
+  /**
+   * Create a filter from a cascade of biquads, whose coefficients are copied
+   * @param biquads Sections of the filter, in the order they are applied
+   */
+  private SOSFilter(Biquad[] biquads) {
+    int sections = biquads.length;
+    b0 = new double[sections];
+    b1 = new double[sections];
+    b2 = new double[sections];
+    a1 = new double[sections];
+    a2 = new double[sections];
+    for (int i = 0; i < sections; ++i) {
+      Biquad bq = biquads[i];
+      // iirj stores coefficients already divided through by a0
+      b0[i] = bq.getB0();
+      b1[i] = bq.getB1();
+      b2[i] = bq.getB2();
+      a1[i] = bq.getA1();
+      a2[i] = bq.getA2();
+    }
+  }
+  
+  /**
+   * Filter data, returning the result in a new array
+   * @param data Data to filter (not modified)
+   * @return Filtered copy of the data
+   */
+  public double[] filter(double[] data) {
+    double[] filtered = data.clone();
+    filterInPlace(filtered, 0, filtered.length);
+    return filtered;
+  }
+  
+  /**
+   * Filter several series (such as the channels of a sensor) in place,
+   * each on its own thread if there is enough data to be worth doing so
+   * @param series Data to be filtered, each of which is replaced with its
+   * filtered values
+   * @param zeroPhase True if each series should be filtered both forwards
+   * and backwards to remove the filter's phase shift
+   * @throws CancellationException if the calling thread is interrupted
+   * while waiting on the filtering threads
+   */
+  public void filterAll(final double[][] series, final boolean zeroPhase) {
+    long totalPoints = 0;
+    for (double[] data : series) {
+      totalPoints += data.length;
+    }
+    
+    if (series.length < 2 || totalPoints < PARALLEL_THRESHOLD) {
+      for (double[] data : series) {
+        filterInPlace(data, 0, data.length, zeroPhase);
+      }
+      return;
+    }
+    
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final double[] data : series) {
+      Callable<Void> task = new Callable<Void>() {
+        @Override
+        public Void call() {
+          filterInPlace(data, 0, data.length, zeroPhase);
+          return null;
+        }
+      };
+      tasks.add( MetricsRegistry.recordingInCurrent(task) );
+    }
+    
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    try {
+      for (Callable<Void> task : tasks) {
+        results.add( filterPool.submit(task) );
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Filtering interrupted");
+    } catch (ExecutionException e) {
+      if ( e.getCause() instanceof CancellationException ) {
+        throw (CancellationException) e.getCause();
+      }
+      throw new RuntimeException( e.getCause() );
+    } finally {
+      // the pool is shared, so stop only this batch's tasks if it's abandoned
+      for (Future<Void> result : results) {
+        result.cancel(true);
+      }
+    }
+  }
+  
+  /**
+   * Filter part of an array of data in place, in the forward direction only
+   * @param data Data to filter (modified)
+   * @param start Index of the first point to filter
+   * @param length Number of points to filter
+   */
+  public void filterInPlace(double[] data, int start, int length) {
+    filterInPlace(data, start, length, false);
+  }
+  
+  /**
+   * Filter part of an array of data in place
+   * @param data Data to filter (modified)
+   * @param start Index of the first point to filter
+   * @param length Number of points to filter
+   * @param zeroPhase True if the data should also be filtered backwards after
+   * being filtered forwards, to remove the filter's phase shift
+   */
+  public void
+  filterInPlace(double[] data, int start, int length, boolean zeroPhase) {
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("filter.iir");
+    for (int s = 0; s < b0.length; ++s) {
+      forwardSection(s, data, start, start + length);
+    }
+    if (zeroPhase) {
+      for (int s = 0; s < b0.length; ++s) {
+        backwardSection(s, data, start, start + length);
+      }
+    }
+    timer.stop();
+  }
+  
+  /**
+   * Filter data forwards and then backwards, returning the result in a new
+   * array. The result has no phase shift from the filter, but the ends of the
+   * data have transients from both passes.
+   * @param data Data to filter (not modified)
+   * @return Filtered copy of the data
+   */
+  public double[] filterZeroPhase(double[] data) {
+    double[] filtered = data.clone();
+    filterInPlace(filtered, 0, filtered.length, true);
+    return filtered;
+  }
+  
+  /**
+   * Get the number of second-order sections in the filter
+   * @return Number of sections
+   */
+  public int getSectionCount() {
+    return b0.length;
+  }
+  
+  /**
+   * Run one section of the filter backwards over part of the data,
+   * starting at rest (direct form II)
+   * @param s Index of the section
+   * @param data Data to filter in place
+   * @param from Index of the first point of the data to filter
+   * @param to Index after the last point of the data to filter
+   */
+  private void backwardSection(int s, double[] data, int from, int to) {
+    double sb0 = b0[s], sb1 = b1[s], sb2 = b2[s], sa1 = a1[s], sa2 = a2[s];
+    double v1 = 0., v2 = 0.;
+    for (int i = to - 1; i >= from; --i) {
+      double w = data[i] - sa1 * v1 - sa2 * v2;
+      data[i] = sb0 * w + sb1 * v1 + sb2 * v2;
+      v2 = v1;
+      v1 = w;
+    }
+  }
+  
+  /**
+   * Run one section of the filter forwards over part of the data, starting
+   * at rest (direct form II, the same as iirj uses by default)
+   * @param s Index of the section
+   * @param data Data to filter in place
+   * @param from Index of the first point of the data to filter
+   * @param to Index after the last point of the data to filter
+   */
+  private void forwardSection(int s, double[] data, int from, int to) {
+    double sb0 = b0[s], sb1 = b1[s], sb2 = b2[s], sa1 = a1[s], sa2 = a2[s];
+    double v1 = 0., v2 = 0.;
+    for (int i = from; i < to; ++i) {
+      double w = data[i] - sa1 * v1 - sa2 * v2;
+      data[i] = sb0 * w + sb1 * v1 + sb2 * v2;
+      v2 = v1;
+      v1 = w;
+    }
+  }
+
+}
@@ -0,0 +1,212 @@
+package asl.sensor.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Fixed-size record of the most recent evaluations made by a least-squares
+ * solver, for diagnosing fits that converge poorly. Each entry is the
+ * solver's parameter vector at an evaluation along with the residual
+ * (weighted cost) there, the evaluation count, and which solver start it
+ * came from when the solver is run from several initial guesses.
+ * Entries are kept as primitive arrays in a ring buffer allocated once, so
+ * the trace's memory use is bounded by its depth no matter how long the
+ * solver runs; once full, each new entry replaces the oldest one.
+ * Recording is synchronized so a trace can be shared by concurrent solvers.
+ * @author akearns
+ *
+ */
+public class SolverTrace {
+  
+  private final double[][] parameters;
+  private final double[] residuals;
+  private final int[] starts;
+  private final long[] evaluations;
+  
+  private int next; // index of ring buffer the next entry will be written to
+  private int count; // number of entries currently held
+  private long recorded; // number of entries ever recorded
+  
+  /**
+   * Create a new, empty trace
+   * @param depth Maximum number of (most recent) entries to keep
+   */
+  public SolverTrace(int depth) {
+    if (depth < 1) {
+      throw new IllegalArgumentException("Trace depth must be positive");
+    }
+    parameters = new double[depth][];
+    residuals = new double[depth];
+    starts = new int[depth];
+    evaluations = new long[depth];
+    next = 0;
+    count = 0;
+    recorded = 0;
+  }
+  
+  /**
+   * Clear out all entries from the trace
+   */
+  public synchronized void clear() {
+    next = 0;
+    count = 0;
+    recorded = 0;
+  }
+  
+  /**
+   * Get the maximum number of entries this trace will keep
+   * @return Depth of the trace's ring buffer
+   */
+  public int getDepth() {
+    return residuals.length;
+  }
+  
+  /**
+   * Get the evaluation count of an entry, i.e., how many entries had been
+   * recorded before it (including those no longer held in the trace)
+   * @param index Index of entry, where 0 is the oldest entry still held
+   * @return Evaluation number of that entry, starting from 0
+   */
+  public synchronized long getEvaluation(int index) {
+    return evaluations[getSlot(index)];
+  }
+  
+  /**
+   * Get a copy of the solver parameters of an entry
+   * @param index Index of entry, where 0 is the oldest entry still held
+   * @return Parameter vector of that entry
+   */
+  public synchronized double[] getParameters(int index) {
+    return parameters[getSlot(index)].clone();
+  }
+  
+  /**
+   * Get the residual (weighted cost) of an entry
+   * @param index Index of entry, where 0 is the oldest entry still held
+   * @return Residual of the solver's model at that entry's parameters
+   */
+  public synchronized double getResidual(int index) {
+    return residuals[getSlot(index)];
+  }
+  
+  /**
+   * Get the ring buffer location of an entry
+   * @param index Index of entry, where 0 is the oldest entry still held
+   * @return Index into the ring buffer arrays holding that entry's data
+   */
+  private int getSlot(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("No trace entry at " + index);
+    }
+    int depth = residuals.length;
+    return (next - count + index + depth) % depth;
+  }
+  
+  /**
+   * Get the solver start that produced an entry
+   * @param index Index of entry, where 0 is the oldest entry still held
+   * @return Index of the solver's initial guess that entry came from
+   */
+  public synchronized int getStart(int index) {
+    return starts[getSlot(index)];
+  }
+  
+  /**
+   * Get the total number of entries ever recorded into this trace, which
+   * may be more than the number held if older entries have been replaced
+   * @return Number of recorded entries
+   */
+  public synchronized long getTotalRecorded() {
+    return recorded;
+  }
+  
+  /**
+   * Add a new entry to the trace, replacing the oldest if the trace is full.
+   * The parameters are copied into storage owned by the trace, which is only
+   * reallocated if the parameter vector's length changes.
+   * @param start Index of the solver start being evaluated
+   * @param params Parameter vector the solver is evaluating
+   * @param residual Residual (weighted cost) of the model at those parameters
+   */
+  public synchronized void record(int start, double[] params,
+      double residual) {
+    double[] slot = parameters[next];
+    if (slot == null || slot.length != params.length) {
+      slot = new double[params.length];
+      parameters[next] = slot;
+    }
+    System.arraycopy(params, 0, slot, 0, params.length);
+    residuals[next] = residual;
+    starts[next] = start;
+    evaluations[next] = recorded;
+    
+    ++recorded;
+    next = (next + 1) % residuals.length;
+    if (count < residuals.length) {
+      ++count;
+    }
+  }
+  
+  /**
+   * Get the number of entries currently held in the trace
+   * @return Number of entries, at most the trace's depth
+   */
+  public synchronized int size() {
+    return count;
+  }
+  
+  /**
+   * Produce the contents of the trace as CSV text, oldest entry first
+   * @return CSV of trace, as would be written by writeCSV
+   */
+  public String toCSV() {
+    StringBuilder sb = new StringBuilder();
+    try {
+      writeCSV(sb);
+    } catch (IOException e) {
+      // StringBuilder does not do any IO, so this should never happen
+      throw new RuntimeException(e);
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Write the contents of the trace in CSV format, oldest entry first.
+   * Each row has the evaluation number, solver start, residual, and then
+   * each of the solver parameters.
+   * @param out Destination to write the CSV text to
+   * @throws IOException If the destination cannot be written to
+   */
+  public synchronized void writeCSV(Appendable out) throws IOException {
+    int numParams = 0;
+    for (int i = 0; i < count; ++i) {
+      numParams = Math.max( numParams, parameters[getSlot(i)].length );
+    }
+    
+    out.append("evaluation,start,residual");
+    for (int i = 0; i < numParams; ++i) {
+      out.append(",param");
+      out.append( String.valueOf(i) );
+    }
+    out.append('\n');
+    
+    for (int i = 0; i < count; ++i) {
+      int slot = getSlot(i);
+      out.append( String.valueOf(evaluations[slot]) );
+      out.append(',');
+      out.append( String.valueOf(starts[slot]) );
+      out.append(',');
+      out.append( String.valueOf(residuals[slot]) );
+      for (double param : parameters[slot]) {
+        out.append(',');
+        out.append( String.valueOf(param) );
+      }
+      out.append('\n');
+    }
+    
+    if (out instanceof Writer) {
+      ( (Writer) out ).flush();
+    }
+  }
+
+}
@@ -155,9 +155,12 @@ public class TimeSeriesUtils {
     // with 1Hz that comes out as a ratio of 5/2, which won't
     // downsample neatly in some cases so we would first upsample,
     // filter out any noise terms, then downsample
+    MetricsRegistry.Stopwatch timer = 
+        MetricsRegistry.start("timeseries.decimate");
     double[] upped = upsample(data,upf);
     double[] lpfed = lowPassFilter(upped, higherFreq, lowerFreq);
     double[] down = downsample(lpfed,dnf);
+    timer.stop();
 
     return down;
 
@@ -209,40 +212,21 @@ public class TimeSeriesUtils {
    * @return Array of doubles with linear detrend removed
    */
   public static double[] detrend (double[] dataSet) {
-    double sumX = 0.0;
-    double sumY = 0.0;
-    double sumXSqd = 0.0;
-    double sumXY = 0.0;
-    
-    for (int i = 0; i < dataSet.length; ++i) {
-      sumX += (double) i;
-      sumXSqd += (double) i * (double) i;
-      double value = dataSet[i];
-      sumXY += value * (double) i;
-      sumY += value;
-    }
-    
-    // brackets here so you don't get confused thinking this should be
-    // algebraic division (in which case we'd just factor out the size term)
-    // 
-    
-    double del = sumXSqd - ( sumX * sumX / dataSet.length );
-    
-    double slope = sumXY - ( sumX * sumY / dataSet.length );
-    slope /= del;
-    
-    double yOffset = (sumXSqd * sumY) - (sumX * sumXY);
-    yOffset /= del * dataSet.length;
-    
-    double[] detrended = new double[dataSet.length];
-    
-    for (int i = 0; i < dataSet.length; ++i) {
-      detrended[i] = dataSet[i] - ( (slope * i) + yOffset);
-    }
-    
+    double[] detrended = dataSet.clone();
+    detrendInPlace(detrended);
     return detrended;
   }
   
+  /**
+   * In-place subtraction of linear trend (and thus also the mean) from each
+   * point in an array of doubles.
+   * @param dataSet The data to have the trend removed from.
+   */
+  public static void detrendInPlace(double[] dataSet) {
+    WindowPreprocessor wp = new WindowPreprocessor(dataSet.length, 0.);
+    wp.apply(dataSet, 0, dataSet, 0);
+  }
+  
   /**
    * In-place subtraction of trend from each point in an incoming data set.
    * This is a necessary step in calculating the power-spectral density.
@@ -598,7 +582,9 @@ public class TimeSeriesUtils {
   public static Pair<Long, Map<Long, double[]>>
     getTimeSeriesMap(String[] filenames, String filter) 
        throws FileNotFoundException {  
+    MetricsRegistry.Stopwatch timer = MetricsRegistry.start("seed.decode");
     long interval = 0L;
+    long samples = 0L;
     DataInputStream dis;
     
     Map<Long, double[]> timeListMap = new HashMap<Long, double[]>();
@@ -697,6 +683,7 @@ public class TimeSeriesUtils {
               }
               
               timeListMap.put(start, values);
+              samples += values.length;
 
             }
           } catch(EOFException e) {
@@ -723,6 +710,8 @@ public class TimeSeriesUtils {
       }
     }
 
+    MetricsRegistry.count("seed.samples", samples);
+    timer.stop();
     return new Pair<Long, Map<Long, double[]>>(interval, timeListMap);
   }
 
@@ -0,0 +1,133 @@
+package asl.sensor.utils;
+
+/**
+ * Prepares windows of timeseries data for an FFT or correlation by removing
+ * the linear trend (and with it the mean), or only the mean, and applying a
+ * cosine taper.
+ * Rather than detrending, demeaning and tapering in separate passes over a
+ * copy of each window, this makes one pass over the window to get the
+ * linear-fit statistics and a second that writes the detrended and tapered
+ * values straight into a buffer given by the caller (which may be the
+ * source array itself). Taper weights depend only on the window length, so
+ * they are calculated once when the preprocessor is created and reused for
+ * every window.
+ * @author akearns
+ *
+ */
+public class WindowPreprocessor {
+  
+  private final int length;
+  private final boolean detrend; // false if only the mean is removed
+  private final double[] ramp; // taper weights for each end of the window
+  private final double taperPower;
+  
+  // sum of the squared distances of each index from the center of window
+  private final double centeredSumSqd;
+  
+  /**
+   * Create a preprocessor for windows of data of a given length, which
+   * removes the linear trend from each window
+   * @param length Number of points in each window
+   * @param taperWidth Fraction of the window tapered at each end, between 0
+   * (no taper, so only the trend is removed) and 0.5
+   */
+  public WindowPreprocessor(int length, double taperWidth) {
+    this(length, taperWidth, true);
+  }
+  
+  /**
+   * Create a preprocessor for windows of data of a given length
+   * @param length Number of points in each window
+   * @param taperWidth Fraction of the window tapered at each end, between 0
+   * (no taper) and 0.5
+   * @param detrend True if the linear trend of each window is removed, false
+   * if only its mean is
+   */
+  public WindowPreprocessor(int length, double taperWidth, boolean detrend) {
+    if (taperWidth < 0. || taperWidth > 0.5) {
+      throw new IllegalArgumentException("Taper width must be in [0, 0.5]");
+    }
+    this.length = length;
+    this.detrend = detrend;
+    
+    // same weights and power loss as FFTResult.cosineTaper
+    double rampWidth = taperWidth * length;
+    ramp = new double[(int) Math.ceil(rampWidth)];
+    double wss = 0.;
+    for (int i = 0; i < ramp.length; ++i) {
+      ramp[i] = 0.5 * ( 1.0 - Math.cos( (double) i * Math.PI / rampWidth) );
+      wss += 2.0 * ramp[i] * ramp[i];
+    }
+    taperPower = wss + ( length - (2 * rampWidth) );
+    
+    // closed form of sum of (i - (n-1)/2)^2 over the indices of the window
+    double n = length;
+    centeredSumSqd = n * (n * n - 1.) / 12.;
+  }
+  
+  /**
+   * Detrend (or demean) and taper one window of data. The trend is fit over
+   * the window only, and the result is written to the destination buffer; any other
+   * values in that buffer (such as zero-padding) are left as they are.
+   * @param src Data to take the window from
+   * @param srcPos Index of the first point of the window in the data
+   * @param dest Buffer to write the window to, which can be the source
+   * @param destPos Index in the buffer to write the window's first point to
+   */
+  public void apply(double[] src, int srcPos, double[] dest, int destPos) {
+    if (length == 0) {
+      return;
+    }
+    
+    // get the fit statistics in one pass, relative to the window's center
+    // (this keeps large offsets in the data from swamping the slope)
+    double center = (length - 1) / 2.;
+    double sumY = 0.;
+    double sumXY = 0.;
+    for (int i = 0; i < length; ++i) {
+      double value = src[srcPos + i];
+      sumY += value;
+      sumXY += (i - center) * value;
+    }
+    double mean = sumY / length;
+    double slope = 0.;
+    if (detrend && centeredSumSqd > 0.) {
+      slope = sumXY / centeredSumSqd;
+    }
+    // trend at index i is mean + slope * (i - center) = offset + slope * i
+    double offset = mean - slope * center;
+    
+    // then remove the trend and taper in a second pass
+    int rampEnd = Math.min(ramp.length, length);
+    int tailStart = Math.max(length - ramp.length, rampEnd);
+    for (int i = 0; i < rampEnd; ++i) {
+      double value = src[srcPos + i] - (offset + slope * i);
+      dest[destPos + i] = value * ramp[i];
+    }
+    for (int i = rampEnd; i < tailStart; ++i) {
+      dest[destPos + i] = src[srcPos + i] - (offset + slope * i);
+    }
+    for (int i = tailStart; i < length; ++i) {
+      double value = src[srcPos + i] - (offset + slope * i);
+      dest[destPos + i] = value * ramp[length - 1 - i];
+    }
+  }
+  
+  /**
+   * Get the number of points in each window
+   * @return Window length
+   */
+  public int getLength() {
+    return length;
+  }
+  
+  /**
+   * Get the power kept after tapering a window, used to correct PSD values
+   * for the taper's power loss
+   * @return Sum of the squared taper weights over the window
+   */
+  public double getTaperPower() {
+    return taperPower;
+  }
+
+}
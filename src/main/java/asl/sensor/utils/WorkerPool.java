@@ -0,0 +1,130 @@
+package asl.sensor.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool shared by the experiment calculations that split their work
+ * into concurrent tasks (i.e., solver starts, per-input PSDs, or spectrogram
+ * windows), so that the number of calculation threads stays bounded by the
+ * number of processors rather than each calculation starting its own.
+ * Tasks may themselves submit tasks to this pool, as when an experiment runs
+ * other experiments concurrently: a thread waiting on a task that no worker
+ * has started yet runs that task itself, so waiting tasks can't use up every
+ * worker and leave the tasks they wait on stuck in the queue.
+ * Since the pool is shared, callers that stop waiting on their tasks (such
+ * as when a run is cancelled) cancel only their own tasks (see cancelAll),
+ * never the pool itself.
+ * @author akearns
+ *
+ */
+public class WorkerPool {
+
+  private static final ExecutorService pool =
+      Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(),
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t =
+                  new Thread(r, "calc-worker-" + count.incrementAndGet() );
+              // don't keep the program alive just for the (idle) pool
+              t.setDaemon(true);
+              return t;
+            }
+          });
+
+  /**
+   * Wait for the result of a task submitted with submitAll, running the task
+   * on the calling thread if no worker has started it yet
+   * @param future Task to get the result of
+   * @return Result of the task
+   * @throws InterruptedException If the calling thread is interrupted while
+   * waiting on a worker running the task
+   * @throws ExecutionException If the task threw an exception
+   */
+  public static <T> T await(Future<T> future)
+      throws InterruptedException, ExecutionException {
+    if ( future instanceof RunnableFuture && !future.isDone() ) {
+      // does nothing if a worker has already started the task
+      ( (RunnableFuture<T>) future ).run();
+    }
+    return future.get();
+  }
+
+  /**
+   * Cancel any of a set of tasks that haven't finished, interrupting those
+   * that are running; used when a caller stops waiting on its tasks
+   * @param futures Tasks submitted by the caller
+   */
+  public static void cancelAll(List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Run a set of tasks on the pool and get their results. If the calling
+   * thread is interrupted or any task fails, the rest of the tasks are
+   * cancelled.
+   * @param tasks Tasks to run
+   * @param description What the tasks do, for the message of the exception
+   * thrown if they are interrupted
+   * @return Results of the tasks, in the same order
+   * @throws CancellationException If the calling thread is interrupted, or a
+   * task was cancelled (i.e., its experiment run was cancelled)
+   * @throws RuntimeException Wrapping the first exception thrown by a task
+   */
+  public static <T> List<T>
+  invokeAll(List<? extends Callable<T>> tasks, String description) {
+    List<Future<T>> futures = submitAll(tasks);
+    List<T> results = new ArrayList<T>();
+    try {
+      for (Future<T> future : futures) {
+        results.add( await(future) );
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException(description + " interrupted");
+    } catch (ExecutionException e) {
+      if ( e.getCause() instanceof CancellationException ) {
+        throw (CancellationException) e.getCause();
+      }
+      throw new RuntimeException( e.getCause() );
+    } finally {
+      // tasks that are already done aren't affected
+      cancelAll(futures);
+    }
+    return results;
+  }
+
+  /**
+   * Start a set of tasks on the pool. Results should be waited on with
+   * await, and any tasks whose results are no longer wanted cancelled with
+   * cancelAll.
+   * @param tasks Tasks to run
+   * @return Futures of the tasks, in the same order
+   */
+  public static <T> List<Future<T>>
+  submitAll(List<? extends Callable<T>> tasks) {
+    List<Future<T>> futures = new ArrayList<Future<T>>();
+    for (Callable<T> task : tasks) {
+      FutureTask<T> future = new FutureTask<T>(task);
+      futures.add(future);
+      pool.execute(future);
+    }
+    return futures;
+  }
+
+}
@@ -1,6 +1,8 @@
 package asl.sensor.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -8,17 +10,85 @@ import java.io.FileNotFoundException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.junit.Test;
 
 import asl.sensor.experiment.AzimuthExperiment;
 import asl.sensor.gui.InputPanel;
 import asl.sensor.input.DataStore;
+import asl.sensor.utils.MetricsRegistry;
 import asl.sensor.utils.TimeSeriesUtils;
 
 public class AzimuthTest {
 
+  @Test
+  public void cancelStopsRun() throws Exception {
+    
+    final DataStore ds = new DataStore();
+    
+    String currentDir = System.getProperty("user.dir");
+    String folder = currentDir + "/test-data/azi-16off/";
+    String[] prefixes = new String[]{"00_LH1", "00_LH2", "XX_LH1"};
+    String extension = ".512.seed";
+    
+    for (int i = 0; i < prefixes.length; ++i) {
+      String fName = folder + prefixes[i] + extension;
+      String seriesName = 
+          new ArrayList<String>( TimeSeriesUtils.getMplexNameSet(fName) ).
+          get(0);
+      ds.setBlock(i, fName, seriesName);
+    }
+    
+    final AzimuthExperiment azi = new AzimuthExperiment();
+    
+    // cancel once the solver has started going through windows
+    final CountDownLatch windowsStarted = new CountDownLatch(1);
+    azi.addChangeListener( new ChangeListener() {
+      @Override
+      public void stateChanged(ChangeEvent e) {
+        if ( azi.getProgress() > 0.1 ) {
+          windowsStarted.countDown();
+        }
+      }
+    });
+    
+    final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+    Thread run = new Thread( new Runnable() {
+      @Override
+      public void run() {
+        try {
+          azi.runExperimentOnData(ds);
+        } catch (Throwable t) {
+          thrown.set(t);
+        }
+      }
+    });
+    run.start();
+    
+    assertTrue( windowsStarted.await(60, TimeUnit.SECONDS) );
+    long cancelTime = System.nanoTime();
+    azi.cancel();
+    run.join(5000);
+    long stopMillis = 
+        TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - cancelTime );
+    
+    assertFalse( run.isAlive() );
+    assertTrue( thrown.get() instanceof CancellationException );
+    assertTrue( azi.isCancelled() );
+    assertNull( azi.getCurves() );
+    // a single window's evaluation is the most that should run after cancel
+    assertTrue( "Took " + stopMillis + " ms to stop", stopMillis < 1000 );
+  }
+
   @Test
   public void getsCorrectAngle() {
     
@@ -75,6 +145,43 @@ public class AzimuthTest {
     
   }
   
+  @Test
+  public void recordsStageMetrics() throws Exception {
+    DataStore ds = new DataStore();
+    
+    String currentDir = System.getProperty("user.dir");
+    String folder = currentDir + "/test-data/azi-16off/";
+    String[] prefixes = new String[]{"00_LH1", "00_LH2", "XX_LH1"};
+    String extension = ".512.seed";
+    
+    for (int i = 0; i < prefixes.length; ++i) {
+      String fName = folder + prefixes[i] + extension;
+      String seriesName = 
+          new ArrayList<String>( TimeSeriesUtils.getMplexNameSet(fName) ).
+          get(0);
+      ds.setBlock(i, fName, seriesName);
+    }
+    
+    AzimuthExperiment azi = new AzimuthExperiment();
+    long globalFits = MetricsRegistry.getGlobal().
+        getTimer("solver.fit").getCount();
+    azi.runExperimentOnData(ds);
+    
+    MetricsRegistry metrics = azi.getMetrics();
+    Map<String, MetricsRegistry.StageTimer> timers = metrics.getTimers();
+    assertEquals( 1, timers.get("experiment.run").getCount() );
+    assertEquals( 1, timers.get("experiment.backend").getCount() );
+    // initial fit over the whole range, then one per window
+    long fits = timers.get("solver.fit").getCount();
+    assertTrue( fits > 1 );
+    assertTrue( metrics.getCount("solver.evaluations") >= fits );
+    assertTrue( timers.get("experiment.run").getTotalMillis() >= 
+        timers.get("experiment.backend").getTotalMillis() );
+    // everything recorded for the run also goes into the program's totals
+    assertTrue( MetricsRegistry.getGlobal().
+        getTimer("solver.fit").getCount() >= globalFits + fits );
+  }
+  
   @Test
   public void findsAntipolarCorrectly() {
     DataStore ds = new DataStore();
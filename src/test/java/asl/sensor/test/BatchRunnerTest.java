@@ -0,0 +1,159 @@
+package asl.sensor.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+import asl.sensor.BatchRunner;
+import asl.sensor.experiment.ExperimentEnum;
+import asl.sensor.utils.ReportingUtils;
+
+public class BatchRunnerTest {
+  
+  public static final String folder = "test-data/noise-neg159db/";
+  
+  public String getManifest() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("# comments and blank lines are ignored\n\n");
+    sb.append("output = testResultImages/batch\n");
+    sb.append("threads = 2\n");
+    sb.append("jobMemoryMB = 100000\n");
+    sb.append("[job]\n");
+    sb.append("name = noise\n");
+    sb.append("experiment = NOISE\n");
+    for (int i = 0; i < 3; ++i) {
+      String prefix = (i == 2) ? "TST6." : "";
+      String seed = (i == 1) ? "10_BH0.512.seed" : "00_BH0.512.seed";
+      sb.append("seed." + i + " = " + folder + prefix + seed + "\n");
+      sb.append("embeddedResp." + i + " = T-compact_Q330HR_BH_40\n");
+    }
+    sb.append("start = 2016-07-14T01:00:00\n");
+    sb.append("end = 2016-07-14T02:00:00\n");
+    sb.append("[job]\n");
+    sb.append("experiment = stcal\n");
+    sb.append("seed.0 = " + folder + "missing.seed\n");
+    return sb.toString();
+  }
+  
+  @Test
+  public void manifestParsesJobs() {
+    try {
+      BatchRunner runner =
+          BatchRunner.fromManifest( new StringReader( getManifest() ) );
+      assertEquals( new File("testResultImages/batch"),
+          runner.getOutputFolder() );
+      List<BatchRunner.Job> jobs = runner.getJobs();
+      assertEquals( 2, jobs.size() );
+      assertEquals( "noise", jobs.get(0).getName() );
+      assertEquals( ExperimentEnum.NOISE, jobs.get(0).getExperiment() );
+      assertTrue( jobs.get(0).getMemoryEstimateMB() > 0 );
+      // unnamed jobs are named by their position in the manifest
+      assertEquals( "job2", jobs.get(1).getName() );
+      assertEquals( ExperimentEnum.STCAL, jobs.get(1).getExperiment() );
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail();
+    }
+  }
+  
+  @Test
+  public void jobsWriteReports() {
+    try {
+      BatchRunner runner =
+          BatchRunner.fromManifest( new StringReader( getManifest() ) );
+      List<BatchRunner.JobResult> results = runner.runAll();
+      assertTrue( results.get(0).getMessage(),
+          results.get(0).isSuccessful() );
+      assertFalse( results.get(1).isSuccessful() );
+      
+      File jobFolder = new File( runner.getOutputFolder(), "noise" );
+      String[] reports = jobFolder.list();
+      boolean hasPDF = false;
+      for (String name : reports) {
+        hasPDF |= name.endsWith(".pdf");
+      }
+      assertTrue(hasPDF);
+      assertTrue( new File(jobFolder, "chart1.png").exists() );
+      assertTrue( new File(jobFolder, "data.csv").exists() );
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail();
+    }
+  }
+  
+  @Test
+  public void manifestSetsReportOptionsPerRunner() throws IOException {
+    String manifest = "pdfImages = jpeg\njpegQuality = 0.5\n" +
+        "[job]\nexperiment = NOISE\n";
+    ReportingUtils.PageEncoding previous = ReportingUtils.getPageEncoding();
+    BatchRunner runner = BatchRunner.fromManifest( new StringReader(manifest) );
+    ReportingUtils.PageOptions options = runner.getPageOptions();
+    assertEquals( ReportingUtils.PageEncoding.JPEG, options.getEncoding() );
+    assertEquals( 0.5f, options.getJPEGQuality(), 1E-6f );
+    // other reports (i.e., from other runners or the GUI) are unaffected
+    assertEquals( previous, ReportingUtils.getPageEncoding() );
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void manifestRejectsUnknownSettings() throws IOException {
+    String manifest = "[job]\nexperiment = NOISE\nfrequency = 20\n";
+    BatchRunner.fromManifest( new StringReader(manifest) );
+  }
+  
+  @Test
+  public void manifestRejectsUnsafeJobNames() throws IOException {
+    String[] unsafe = new String[]{
+        "..", "../noise", "a/b", "a\\b", "C:noise", "noise?", "noise.",
+        "NUL", "com1.txt"};
+    for (String name : unsafe) {
+      String manifest = "[job]\nname = " + name + "\nexperiment = NOISE\n";
+      try {
+        BatchRunner.fromManifest( new StringReader(manifest) );
+        fail("Accepted job name " + name);
+      } catch (IllegalArgumentException e) {
+        // expected; the name would write outside the output folder or
+        // can't be a folder name on Windows
+      }
+    }
+    String manifest = "[job]\nname = ANMO 00 (day 1)\nexperiment = NOISE\n";
+    BatchRunner runner = BatchRunner.fromManifest( new StringReader(manifest) );
+    assertEquals( "ANMO 00 (day 1)", runner.getJobs().get(0).getName() );
+  }
+  
+  @Test
+  public void failedJobsDoNotStopBatch() {
+    File output = new File("testResultImages/batch");
+    BatchRunner runner = new BatchRunner(output, 2, 100000);
+    
+    BatchRunner.Job missing = new BatchRunner.Job("missing",
+        ExperimentEnum.STCAL);
+    missing.setSeed(0, new String[]{folder + "missing.seed"}, null);
+    runner.addJob(missing);
+    
+    // too large for a (tiny) per-job memory limit
+    BatchRunner.Job large = new BatchRunner.Job("large",
+        ExperimentEnum.NOISE);
+    large.setSeed(0, new String[]{folder + "00_BH0.512.seed"}, null);
+    BatchRunner small = new BatchRunner(output, 1, 0);
+    small.addJob(large);
+    
+    List<BatchRunner.JobResult> results = runner.runAll();
+    assertEquals( 1, results.size() );
+    assertFalse( results.get(0).isSuccessful() );
+    
+    results = small.runAll();
+    assertFalse( results.get(0).isSuccessful() );
+    assertTrue( results.get(0).getMessage().contains("limit") );
+    
+    assertTrue( new File(output, "batchSummary.csv").exists() );
+  }
+
+}
@@ -1,11 +1,13 @@
 package asl.sensor.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 
+import org.jfree.data.xy.XYSeries;
 import org.junit.Test;
 
 import asl.sensor.gui.InputPanel;
@@ -56,4 +58,59 @@ public class DataBlockTest {
 
   }
   
-}
\ No newline at end of file
+  @Test
+  public void plotSeriesKeepsPeaks() {
+    String name;
+    try {
+      name = new ArrayList<String>( 
+            TimeSeriesUtils.getMplexNameSet(filename1)
+          ).get(0);
+      
+      DataBlock db = TimeSeriesUtils.getTimeSeries(filename1, name);
+      
+      // add a one-sample spike that every-Nth skipping would likely miss
+      double[] data = db.getData().clone();
+      int spikeIdx = data.length / 2 + 1;
+      double max = Double.NEGATIVE_INFINITY;
+      double min = Double.POSITIVE_INFINITY;
+      for (double point : data) {
+        max = Math.max(max, point);
+        min = Math.min(min, point);
+      }
+      data[spikeIdx] = max + 1000.;
+      db.setData(data);
+      
+      XYSeries xys = db.toXYSeries();
+      assertTrue( xys.getItemCount() <= 100000 + 2 );
+      assertEquals( max + 1000., xys.getMaxY(), 0. );
+      assertEquals( min, xys.getMinY(), 0. );
+      
+      // time range of the plot is the same as the data's
+      double startSec = db.getStartTime() / DataBlock.TIME_FACTOR;
+      assertEquals( startSec, xys.getMinX(), 0. );
+      
+      // zoomed-in plots still match the data in the zoomed window
+      long len = db.getEndTime() - db.getStartTime();
+      long start = db.getStartTime() + len / 3;
+      db.trim(start, start + len / 3);
+      xys = db.toXYSeries();
+      double[] window = db.getData();
+      max = Double.NEGATIVE_INFINITY;
+      min = Double.POSITIVE_INFINITY;
+      for (double point : window) {
+        max = Math.max(max, point);
+        min = Math.min(min, point);
+      }
+      assertTrue( xys.getItemCount() <= 100000 + 2 );
+      assertEquals( max, xys.getMaxY(), 0. );
+      assertEquals( min, xys.getMinY(), 0. );
+      startSec = db.getStartTime() / DataBlock.TIME_FACTOR;
+      assertEquals( startSec, xys.getMinX(), 1. );
+      
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+      fail();
+    }
+  }
+  
+}
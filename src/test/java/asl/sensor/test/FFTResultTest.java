@@ -3,6 +3,8 @@ package asl.sensor.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -19,6 +21,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.TimeZone;
 
 import javax.imageio.ImageIO;
@@ -39,13 +42,19 @@ import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 import org.junit.Test;
 
+import uk.me.berndporr.iirj.ChebyshevI;
+
 import asl.sensor.gui.InputPanel;
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.BlockConvolver;
+import asl.sensor.utils.FFTPlan;
 import asl.sensor.utils.FFTResult;
 import asl.sensor.utils.NumericUtils;
 import asl.sensor.utils.ReportingUtils;
+import asl.sensor.utils.SOSFilter;
 import asl.sensor.utils.TimeSeriesUtils;
+import asl.sensor.utils.WindowPreprocessor;
 
 public class FFTResultTest {
 
@@ -436,6 +445,311 @@ public class FFTResultTest {
     }
   }
   
+  @Test
+  public void windowPreprocessorMatchesSeparateSteps() {
+    // sloped data with an offset, so both mean and trend must be removed
+    double[] data = new double[400];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = 1000. + 0.5 * i + 20. * Math.sin(i / 7.);
+    }
+    int start = 50;
+    int len = 200;
+    
+    double[] expected = 
+        TimeSeriesUtils.detrend( Arrays.copyOfRange(data, start, start + len) );
+    double wss = FFTResult.cosineTaper(expected, 0.1);
+    
+    // leave room around the window in the output to check it isn't touched
+    WindowPreprocessor prep = new WindowPreprocessor(len, 0.1);
+    double[] result = new double[len + 10];
+    prep.apply(data, start, result, 5);
+    
+    assertEquals(wss, prep.getTaperPower(), 1E-10);
+    for (int i = 0; i < len; ++i) {
+      assertEquals(expected[i], result[i + 5], 1E-8);
+    }
+    for (int i = 0; i < 5; ++i) {
+      assertEquals(0., result[i], 0.);
+      assertEquals(0., result[len + 5 + i], 0.);
+    }
+    
+    // applying the taper in-place should give the same result
+    double[] inPlace = Arrays.copyOfRange(data, start, start + len);
+    prep.apply(inPlace, 0, inPlace, 0);
+    for (int i = 0; i < len; ++i) {
+      assertEquals(expected[i], inPlace[i], 1E-8);
+    }
+    
+    // without detrending, only the mean is taken out before tapering
+    double[] demeaned = 
+        TimeSeriesUtils.demean( Arrays.copyOfRange(data, start, start + len) );
+    FFTResult.cosineTaper(demeaned, 0.1);
+    prep = new WindowPreprocessor(len, 0.1, false);
+    prep.apply(data, start, result, 5);
+    for (int i = 0; i < len; ++i) {
+      assertEquals(demeaned[i], result[i + 5], 1E-8);
+    }
+  }
+  
+  @Test
+  public void sosFilterMatchesIirjCascade() {
+    double sps = 40.;
+    double low = 0.;
+    double high = 0.1;
+    double[] data = new double[4000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = Math.sin(i / 50.) + 0.3 * Math.sin(i * 1.3) + 0.001 * i;
+    }
+    
+    ChebyshevI casc = new ChebyshevI();
+    casc.bandPass(1, sps, (high - low) / 2, high - low, 1.);
+    double[] expected = new double[data.length];
+    for (int i = 0; i < data.length; ++i) {
+      expected[i] = casc.filter(data[i]);
+    }
+    
+    double[] filtered = FFTResult.bandFilter(data, sps, low, high);
+    for (int i = 0; i < data.length; ++i) {
+      assertEquals(expected[i], filtered[i], 1E-12);
+    }
+    
+    // designs are cached, and the same design gives the same filter
+    assertTrue( SOSFilter.bandPass(sps, low, high, 1) == 
+        SOSFilter.bandPass(sps, low, high, 1) );
+    
+    // filtering several series at once gives the same result as one at a time
+    double[][] batch = new double[][]{data.clone(), data.clone()};
+    FFTResult.bandFilterAllInPlace(batch, sps, low, high);
+    for (double[] series : batch) {
+      for (int i = 0; i < data.length; ++i) {
+        assertEquals(expected[i], series[i], 1E-12);
+      }
+    }
+  }
+  
+  @Test
+  public void zeroPhaseFilterDoesNotShiftPeaks() {
+    double sps = 1.;
+    double period = 200.; // well inside the filter's passband
+    double[] data = new double[6000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = Math.sin(2 * Math.PI * i / period);
+    }
+    
+    double[] oneWay = FFTResult.bandFilter(data, sps, 0., 0.1);
+    double[] zeroPhase = FFTResult.bandFilterZeroPhase(data, sps, 0., 0.1);
+    
+    // compare over the middle of the data, away from the transients
+    double oneWayLag = 0.;
+    double zeroPhaseLag = 0.;
+    int start = 2000;
+    int end = 4000;
+    double[] lags = new double[2];
+    for (int lag = -20; lag <= 20; ++lag) {
+      double oneWaySum = 0.;
+      double zeroPhaseSum = 0.;
+      for (int i = start; i < end; ++i) {
+        oneWaySum += data[i] * oneWay[i + lag];
+        zeroPhaseSum += data[i] * zeroPhase[i + lag];
+      }
+      if (lag == -20 || oneWaySum > lags[0]) {
+        lags[0] = oneWaySum;
+        oneWayLag = lag;
+      }
+      if (lag == -20 || zeroPhaseSum > lags[1]) {
+        lags[1] = zeroPhaseSum;
+        zeroPhaseLag = lag;
+      }
+    }
+    
+    assertEquals(0., zeroPhaseLag, 0.);
+    assertNotEquals(0., oneWayLag, 0.);
+  }
+  
+  @Test
+  public void blockConvolutionMatchesDirectConvolution() {
+    double[] kernel = new double[37];
+    for (int i = 0; i < kernel.length; ++i) {
+      kernel[i] = Math.cos(i / 3.) / (i + 1);
+    }
+    double[] data = new double[1000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = Math.sin(i / 11.) + ( (i % 7) - 3 ) / 10.;
+    }
+    
+    int fullLength = data.length + kernel.length - 1;
+    double[] expected = new double[fullLength];
+    for (int i = 0; i < data.length; ++i) {
+      for (int j = 0; j < kernel.length; ++j) {
+        expected[i + j] += data[i] * kernel[j];
+      }
+    }
+    
+    // small blocks, so the data spans many of them
+    BlockConvolver bc = new BlockConvolver(kernel, 64);
+    double[] direct = bc.convolve(data);
+    assertEquals(data.length, direct.length);
+    for (int i = 0; i < data.length; ++i) {
+      assertEquals(expected[i], direct[i], 1E-10);
+    }
+    
+    // streaming the data in uneven pieces gives the full convolution
+    final List<Double> streamed = new ArrayList<Double>();
+    BlockConvolver.Stream stream = bc.openStream(new BlockConvolver.Sink() {
+      @Override
+      public void accept(double[] block, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i) {
+          streamed.add(block[i]);
+        }
+      }
+    });
+    int pos = 0;
+    int piece = 1;
+    while (pos < data.length) {
+      int len = Math.min(piece, data.length - pos);
+      stream.push(data, pos, len);
+      pos += len;
+      piece = (piece * 3) % 101 + 1;
+    }
+    stream.flush();
+    assertEquals(fullLength, streamed.size());
+    for (int i = 0; i < fullLength; ++i) {
+      assertEquals(expected[i], streamed.get(i), 1E-10);
+    }
+  }
+  
+  @Test
+  public void firBandFilterMatchesWholeRecordFilter() {
+    double sps = 20.;
+    double low = 0.5, high = 2., lowStop = 0.25, highStop = 4.;
+    Random random = new Random(1);
+    double[] data = new double[20000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = random.nextGaussian();
+    }
+    double[] filtered = 
+        FFTResult.bandFilterWithCuts(data, sps, low, high, lowStop, highStop);
+    
+    // apply the same response to one transform of the whole (padded) record
+    int padding = FFTPlan.nextFastSize(2 * data.length, true);
+    double[] toFFT = Arrays.copyOf(data, padding);
+    double[] re = new double[padding / 2 + 1];
+    double[] im = new double[re.length];
+    FFTPlan plan = FFTPlan.getPlan(padding);
+    plan.forwardReal(toFFT, re, im);
+    for (int i = 0; i < re.length; ++i) {
+      double x = i * sps / padding;
+      double scale = 1.;
+      if (x < lowStop || x > highStop) {
+        scale = 0.;
+      } else if (x < low) {
+        scale = (x - lowStop) / (low - lowStop);
+      } else if (x > high) {
+        scale = (x - highStop) / (high - highStop);
+      }
+      re[i] *= scale;
+      im[i] *= scale;
+    }
+    double[] expected = new double[padding];
+    plan.inverseReal(re, im, expected);
+    
+    // away from the ends, the FIR approximation is within 1% of the exact
+    // filter's output (in RMS)
+    double errorSum = 0.;
+    double powerSum = 0.;
+    for (int i = 1000; i < data.length - 1000; ++i) {
+      double diff = filtered[i] - expected[i];
+      errorSum += diff * diff;
+      powerSum += expected[i] * expected[i];
+    }
+    assertTrue( Math.sqrt(errorSum / powerSum) < 0.01 );
+  }
+  
+  @Test
+  public void firBandFilterKeepsPassbandAndRemovesStopband() {
+    double sps = 20.;
+    double[] pass = new double[20000];
+    double[] stop = new double[pass.length];
+    for (int i = 0; i < pass.length; ++i) {
+      pass[i] = Math.sin(NumericUtils.TAU * 1. * i / sps);
+      stop[i] = Math.sin(NumericUtils.TAU * 7. * i / sps);
+    }
+    
+    double[] passOut = 
+        FFTResult.bandFilterWithCuts(pass, sps, 0.5, 2., 0.25, 4.);
+    double[] stopOut = 
+        FFTResult.bandFilterWithCuts(stop, sps, 0.5, 2., 0.25, 4.);
+    
+    // check away from the ends, where the kernel runs past the data
+    for (int i = 5000; i < 15000; ++i) {
+      assertEquals(pass[i], passOut[i], 1E-2);
+      assertEquals(0., stopOut[i], 1E-2);
+    }
+  }
+  
+  @Test
+  public void fftPlanHandlesMixedRadixAndRealData() {
+    // 360 = 2^3 * 3^2 * 5, so every radix is used
+    int size = 360;
+    assertTrue( FFTPlan.isFastSize(size) );
+    assertFalse( FFTPlan.isFastSize(7 * 64) );
+    assertEquals( 450, FFTPlan.nextFastSize(449, false) );
+    assertEquals( 32, FFTPlan.nextFastSize(31, true) );
+    
+    double[] data = new double[size];
+    for (int i = 0; i < size; ++i) {
+      data[i] = Math.sin(i / 5.) + 0.01 * i * i - ( (i % 3) * 0.7 );
+    }
+    
+    // compare against direct calculation of the DFT
+    FFTPlan plan = FFTPlan.getPlan(size);
+    double[] re = data.clone();
+    double[] im = new double[size];
+    plan.forward(re, im);
+    double[] halfRe = new double[size / 2 + 1];
+    double[] halfIm = new double[size / 2 + 1];
+    plan.forwardReal(data, halfRe, halfIm);
+    for (int k = 0; k < size; ++k) {
+      double sumRe = 0.;
+      double sumIm = 0.;
+      for (int t = 0; t < size; ++t) {
+        double angle = -NumericUtils.TAU * ( (k * t) % size ) / size;
+        sumRe += data[t] * Math.cos(angle);
+        sumIm += data[t] * Math.sin(angle);
+      }
+      assertEquals(sumRe, re[k], 1E-8);
+      assertEquals(sumIm, im[k], 1E-8);
+      if (k <= size / 2) {
+        assertEquals(sumRe, halfRe[k], 1E-8);
+        assertEquals(sumIm, halfIm[k], 1E-8);
+      }
+    }
+    
+    // both inverse transforms get back the original data
+    plan.inverse(re, im);
+    double[] back = new double[size];
+    plan.inverseReal(halfRe, halfIm, back);
+    for (int i = 0; i < size; ++i) {
+      assertEquals(data[i], re[i], 1E-10);
+      assertEquals(0., im[i], 1E-10);
+      assertEquals(data[i], back[i], 1E-10);
+    }
+    
+    // shorter transforms reuse the scratch space sized for this one
+    double[] shortRe = Arrays.copyOf(data, 90);
+    double[] shortIm = new double[90];
+    FFTPlan.getPlan(90).forward(shortRe, shortIm);
+    FFTPlan.getPlan(90).inverse(shortRe, shortIm);
+    for (int i = 0; i < 90; ++i) {
+      assertEquals(data[i], shortRe[i], 1E-10);
+    }
+    
+    // recently used plans are cached, but not those of very long transforms
+    assertSame( plan, FFTPlan.getPlan(size) );
+    int longSize = 2 * FFTPlan.MAX_CACHED_SIZE;
+    assertNotSame( FFTPlan.getPlan(longSize), FFTPlan.getPlan(longSize) );
+  }
+  
   @Test
   public void fftInversionTest() {
     double[] timeSeries = {10, 11, 12, 11, 10, 11, 12, 11, 10, 11, 12};
@@ -606,6 +920,23 @@ public class FFTResultTest {
   }
 
   
+  @Test
+  public void noiseModelInEitherSpace() {
+    XYSeries byPeriod = FFTResult.getLowNoiseModel(false);
+    XYSeries byFreq = FFTResult.getLowNoiseModel(true);
+    int count = byPeriod.getItemCount();
+    assertEquals( count, byFreq.getItemCount() );
+    // shortest period in the file is 0.1s, and the model stops at 1000s
+    assertEquals( 0.1, byPeriod.getX(0).doubleValue(), 1E-10 );
+    assertEquals( -168., byPeriod.getY(0).doubleValue(), 1E-10 );
+    assertEquals( 10., byFreq.getX(count - 1).doubleValue(), 1E-10 );
+    assertEquals( -168., byFreq.getY(count - 1).doubleValue(), 1E-10 );
+    assertTrue( byPeriod.getMaxX() <= 1.0E3 + 1 );
+    // each call builds a new series from the same parsed data
+    assertTrue( byFreq != FFTResult.getLowNoiseModel(true) );
+    assertEquals( "NHNM", FFTResult.getHighNoiseModel(true).getKey() );
+  }
+  
   @Test
   public void rangeCopyTest() {
   
@@ -12,12 +12,13 @@ import org.junit.Test;
 
 import asl.sensor.experiment.GainExperiment;
 import asl.sensor.input.DataStore;
+import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.NumericUtils;
 import asl.sensor.utils.TimeSeriesUtils;
 
 public class GainTest {
 
-  @Test
-  public void testGainCalculation() {
+  private static DataStore getGainData() {
     
     DataStore ds = new DataStore();
     
@@ -61,6 +62,14 @@ public class GainTest {
     
     ds.trim(start, end);
     
+    return ds;
+  }
+  
+  @Test
+  public void testGainCalculation() {
+    
+    DataStore ds = getGainData();
+    
     GainExperiment ge = new GainExperiment();
     ge.runExperimentOnData(ds);
     
@@ -70,4 +79,38 @@ public class GainTest {
     assertEquals(11714., gain, 2.0);
     
   }
+  
+  @Test
+  public void statsFromSumsMatchDirectCalculation() {
+    
+    DataStore ds = getGainData();
+    
+    GainExperiment ge = new GainExperiment();
+    ge.runExperimentOnData(ds);
+    
+    // data is trimmed by experiment, so these match the experiment's PSDs
+    FFTResult psd0 = ds.getPSD(0);
+    FFTResult psd1 = ds.getPSD(1);
+    double[] freqs = psd0.getFreqs();
+    
+    int[][] bands = new int[][]{{1, 10}, {20, 400}, {300, 301}, 
+      {5, freqs.length - 3}};
+    
+    for (int[] band : bands) {
+      // band edges exactly on frequencies give the range [low, high + 1]
+      int low = band[0];
+      int high = band[1] + 1;
+      double[] stats = 
+          ge.getStatsFromFreqs(0, freqs[band[0]], freqs[band[1]]);
+      
+      double mean0 = NumericUtils.getFFTMean(psd0, low, high);
+      double mean1 = NumericUtils.getFFTMean(psd1, low, high);
+      double ratio = (mean0+Double.MIN_VALUE) / (mean1+Double.MIN_VALUE);
+      double sigma = NumericUtils.getFFTSDev(psd0, psd1, ratio, low, high);
+      
+      assertEquals( Math.sqrt(ratio), stats[0], Math.sqrt(ratio) * 1E-10 );
+      assertEquals( sigma, stats[1], sigma * 1E-6 );
+    }
+    
+  }
 }
@@ -8,7 +8,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
 
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.linear.RealVector;
@@ -16,6 +18,7 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.junit.Test;
 
 import asl.sensor.input.InstrumentResponse;
+import asl.sensor.input.RespFile;
 import asl.sensor.input.TransferFunction;
 import asl.sensor.input.Unit;
 import asl.sensor.utils.NumericUtils;
@@ -44,6 +47,42 @@ public class InstrumentResponseTest {
     }
   }
   
+  @Test
+  public void builderLeavesOriginalUnchanged() {
+    assertTrue(
+        InstrumentResponse.parseInstrumentList().contains("STS25_Q330HR") );
+    
+    InstrumentResponse first, second;
+    try {
+      first = InstrumentResponse.loadEmbeddedResponse("STS25_Q330HR");
+      second = InstrumentResponse.loadEmbeddedResponse("STS25_Q330HR");
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail();
+      return;
+    }
+    
+    // embedded responses are only parsed once
+    assertTrue( first == second );
+    List<Complex> poles = first.getPoles();
+    
+    InstrumentResponse changed = new InstrumentResponse.Builder(first).
+        setName("changed").
+        setPoles( new Complex[]{new Complex(-1., 0.)} ).build();
+    assertEquals( "changed", changed.getName() );
+    assertEquals( 1, changed.getPoles().size() );
+    assertEquals( first.getZeros(), changed.getZeros() );
+    assertEquals( "STS25_Q330HR", first.getName() );
+    assertEquals( poles, first.getPoles() );
+    
+    // rebuilding from the fit vector of the response gives the same poles
+    double[] fitVector = first.polesToVector(false, 100.).toArray();
+    InstrumentResponse rebuilt = 
+        first.buildResponseFromFitVector(fitVector, false, 0);
+    assertEquals( poles, rebuilt.getPoles() );
+    assertEquals( first.getZeros(), rebuilt.getZeros() );
+  }
+  
   @Test
   public void testFileParse() {
     String filename = "./test-data/resp-parse/RESP.XX.NS087..BHZ.STS1.20.2400";
@@ -104,6 +143,50 @@ public class InstrumentResponseTest {
 
   }
   
+  @Test
+  public void respFileIndexesEachEpoch() {
+    String currentDir = System.getProperty("user.dir");
+    String filename = currentDir + 
+        "/test-data/resp-parse/multiepoch.txt";
+    try {
+      RespFile resp = new RespFile(filename);
+      List<RespFile.Epoch> epochs = resp.getEpochs();
+      assertEquals( 2, epochs.size() );
+      assertEquals( "GS_TST5_10_BHZ", epochs.get(0).getName() );
+      // first epoch is from 2016, day 193 to day 196
+      Calendar cCal = Calendar.getInstance( TimeZone.getTimeZone("UTC") );
+      cCal.clear();
+      cCal.set(Calendar.YEAR, 2016);
+      cCal.set(Calendar.DAY_OF_YEAR, 193);
+      assertEquals( cCal.getTimeInMillis(), epochs.get(0).getStartTime() );
+      cCal.set(Calendar.DAY_OF_YEAR, 196);
+      long secondStart = cCal.getTimeInMillis();
+      assertEquals( secondStart, epochs.get(0).getEndTime() );
+      assertEquals( secondStart, epochs.get(1).getStartTime() );
+      
+      RespFile.Epoch match = resp.getEpoch("GS_TST5_10_BHZ", secondStart - 1);
+      assertTrue( match == epochs.get(0) );
+      match = resp.getEpoch("GS_TST5_10_BHZ", secondStart);
+      assertTrue( match == epochs.get(1) );
+      assertTrue( resp.getEpoch("GS_TST5_00_BHZ", secondStart) == null );
+      
+      // each epoch parses to a single-epoch response; the last one should
+      // match what is read in when parsing the whole file
+      InstrumentResponse whole = new InstrumentResponse(filename);
+      InstrumentResponse last = resp.getResponse( epochs.get(1) );
+      assertEquals( 1, last.getEpochsCounted() );
+      assertEquals( whole.getPoles(), last.getPoles() );
+      assertEquals( whole.getZeros(), last.getZeros() );
+      assertTrue( Arrays.equals( whole.getGain(), last.getGain() ) );
+      assertEquals( whole.getNormalization(), last.getNormalization(), 0. );
+      // responses are only parsed once
+      assertTrue( last == resp.getResponse( epochs.get(1) ) );
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail();
+    }
+  }
+  
   @Test
   public void testStringOutput() {
     
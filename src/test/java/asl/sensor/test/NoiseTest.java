@@ -1,6 +1,8 @@
 package asl.sensor.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.io.FileNotFoundException;
@@ -13,6 +15,8 @@ import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 import org.junit.Test;
 
+import asl.sensor.experiment.CurveSet;
+import asl.sensor.experiment.ExperimentCache;
 import asl.sensor.experiment.NoiseExperiment;
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
@@ -282,6 +286,58 @@ public class NoiseTest {
     }
   }
   
+  @Test
+  public void rerunOnSameDataUsesCachedResults() {
+    String folder = "test-data/noise-neg159db/";
+    String[] data = new String[3];
+    data[0] = "00_BH0.512.seed";
+    data[1] = "10_BH0.512.seed";
+    data[2] = "TST6." + data[0];
+    String resp = "T-compact_Q330HR_BH_40";
+    try {
+      DataStore ds = new DataStore();
+      for (int i = 0; i < data.length; ++i) {
+        DataBlock db = TimeSeriesUtils.getFirstTimeSeries(folder + data[i]);
+        ds.setBlock(i, db);
+        ds.setEmbedResponse(i, resp);
+      }
+      Calendar startCal = ds.getBlock(0).getStartCalendar();
+      startCal.set(Calendar.HOUR_OF_DAY, 1);
+      Calendar endCal = (Calendar) startCal.clone();
+      endCal.set(Calendar.HOUR_OF_DAY, 2);
+      ds.trim(startCal, endCal);
+      
+      ExperimentCache cache = new ExperimentCache(4);
+      NoiseExperiment ne = new NoiseExperiment();
+      ne.setCache(cache);
+      ne.runExperimentOnData(ds);
+      CurveSet first = ne.getCurves().get(0);
+      assertEquals( 0, cache.getHits() );
+      
+      // a new experiment with the same settings and data gets the result
+      NoiseExperiment rerun = new NoiseExperiment();
+      rerun.setCache(cache);
+      rerun.runExperimentOnData(ds);
+      assertEquals( 1, cache.getHits() );
+      assertSame( first, rerun.getCurves().get(0) );
+      
+      // but changing the parameters or the data range requires a new result
+      rerun.setFreqSpace(true);
+      rerun.runExperimentOnData(ds);
+      assertNotSame( first, rerun.getCurves().get(0) );
+      endCal.set(Calendar.HOUR_OF_DAY, 1);
+      endCal.set(Calendar.MINUTE, 30);
+      ds.trim(startCal, endCal);
+      ne.runExperimentOnData(ds);
+      assertNotSame( first, ne.getCurves().get(0) );
+      assertEquals( 1, cache.getHits() );
+      assertEquals( 3, cache.size() );
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail();
+    }
+  }
+  
   //@Test
   public void anotherDamnPrintFunction() {
     // still beats feeding the inputs in by hand though
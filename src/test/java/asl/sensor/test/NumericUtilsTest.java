@@ -45,6 +45,19 @@ public class NumericUtilsTest {
       assertEquals(averaged[i], test[i], 1E-25);
     }
   }
+  
+  @Test
+  public void prefixSumKeepsPrecisionOfSmallRanges() {
+    // large values up front would swamp a plain running double sum
+    double[] values = new double[]{1E10, 3E10, 1E-6, 2E-6, 4E-6, 
+        Double.NaN, 5.};
+    NumericUtils.PrefixSum sums = new NumericUtils.PrefixSum(values);
+    assertEquals(7E-6, sums.sum(2, 4), 1E-20);
+    assertEquals(4E10, sums.sum(0, 1), 1E-5);
+    assertTrue( sums.isSummable(0, 4) );
+    assertFalse( sums.isSummable(4, 6) );
+    assertTrue( sums.isSummable(6, 6) );
+    assertEquals(5., sums.sum(6, 6), 1E-25);
+  }
 
 }
-  
@@ -1,7 +1,9 @@
 package asl.sensor.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -30,6 +32,7 @@ import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 import org.junit.Test;
 
+import asl.sensor.experiment.ExperimentCache;
 import asl.sensor.experiment.ExperimentEnum;
 import asl.sensor.experiment.ExperimentFactory;
 import asl.sensor.experiment.RandomizedExperiment;
@@ -881,6 +884,101 @@ public class RandomizedExperimentTest {
     return ds;
   }
 
+  @Test
+  public void multiStartFitIsNoWorseThanNominalStart() {
+    
+    try {
+      DataStore ds = setUpTest1();
+      
+      RandomizedExperiment rCal = (RandomizedExperiment)
+          ExperimentFactory.createExperiment(ExperimentEnum.RANDM);
+      rCal.setLowFreq(false);
+      rCal.runExperimentOnData(ds);
+      double nominalResid = rCal.getFitResidual();
+      assertEquals( 1, rCal.getStartResiduals().length );
+      
+      final int starts = 4;
+      rCal = (RandomizedExperiment)
+          ExperimentFactory.createExperiment(ExperimentEnum.RANDM);
+      rCal.setLowFreq(false);
+      rCal.setMultiStart(starts);
+      rCal.runExperimentOnData(ds);
+      
+      double[] resids = rCal.getStartResiduals();
+      int[] iters = rCal.getStartIterations();
+      assertEquals( starts, resids.length );
+      assertEquals( starts, iters.length );
+      
+      // first start is the same problem as a single-start fit
+      assertEquals( nominalResid, resids[0], 1E-10 * nominalResid );
+      
+      int best = rCal.getBestStart();
+      for (double resid : resids) {
+        assertTrue( resids[best] <= resid || Double.isNaN(resid) );
+      }
+      assertEquals( iters[best], rCal.getIterations() );
+      assertEquals( resids[best], rCal.getFitResidual(), 
+          1E-10 * resids[best] );
+      assertTrue( rCal.getFitResidual() <= nominalResid );
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail();
+    }
+    
+  }
+  
+  @Test
+  public void cachedResultsMatchFreshRun() {
+    
+    try {
+      DataStore ds = setUpTest1();
+      ExperimentCache cache = new ExperimentCache(4);
+      
+      RandomizedExperiment fresh = new RandomizedExperiment();
+      fresh.setMultiStart(2);
+      fresh.setCache(cache);
+      fresh.runExperimentOnData(ds);
+      assertEquals( 0, cache.getHits() );
+      assertEquals( 1, cache.size() );
+      
+      RandomizedExperiment restored = new RandomizedExperiment();
+      restored.setMultiStart(2);
+      restored.setCache(cache);
+      restored.runExperimentOnData(ds);
+      assertEquals( 1, cache.getHits() );
+      
+      assertEquals( fresh.getStart(), restored.getStart() );
+      assertEquals( fresh.getEnd(), restored.getEnd() );
+      assertEquals( fresh.getCurves(), restored.getCurves() );
+      assertEquals( fresh.getInputNames(), restored.getInputNames() );
+      assertEquals( fresh.getGapRegions(), restored.getGapRegions() );
+      assertEquals( fresh.getInitResidual(), restored.getInitResidual(), 0. );
+      assertEquals( fresh.getFitResidual(), restored.getFitResidual(), 0. );
+      assertEquals( fresh.getInitialPoles(), restored.getInitialPoles() );
+      assertEquals( fresh.getInitialZeros(), restored.getInitialZeros() );
+      assertEquals( fresh.getFitPoles(), restored.getFitPoles() );
+      assertEquals( fresh.getFitZeros(), restored.getFitZeros() );
+      assertEquals( fresh.getFitResponse(), restored.getFitResponse() );
+      assertEquals( fresh.getIterations(), restored.getIterations() );
+      assertEquals( fresh.getBestStart(), restored.getBestStart() );
+      assertArrayEquals( fresh.getStartResiduals(),
+          restored.getStartResiduals(), 0. );
+      assertArrayEquals( fresh.getStartIterations(),
+          restored.getStartIterations() );
+      assertArrayEquals( fresh.getWeights(), restored.getWeights(), 0. );
+      assertArrayEquals( fresh.getFreqList(), restored.getFreqList(), 0. );
+      
+      // the restored experiment has its own copies of the results
+      assertNotSame( fresh.getStartResiduals(),
+          restored.getStartResiduals() );
+      assertNotSame( fresh.getFreqList(), restored.getFreqList() );
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail();
+    }
+    
+  }
+  
   @Test
   public void testCalculationResult1() {
     
@@ -970,7 +1068,8 @@ public class RandomizedExperimentTest {
       sb.append("BELOW RESULTS FOR EXPECTED BEST FIT (YELLOW CURVE)\n");
       double[] expectedParams = new double[]{-3.580104E+1, +7.122400E+1};
       ir = ir.buildResponseFromFitVector(expectedParams, lowFreq, 0);
-      ir.setName("Best-fit params");
+      ir = new InstrumentResponse.Builder(ir).
+          setName("Best-fit params").build();
       ds.setResponse(1, ir);
       rCal.runExperimentOnData(ds);
       
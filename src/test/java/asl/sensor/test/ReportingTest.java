@@ -1,6 +1,16 @@
 package asl.sensor.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+import java.awt.image.BufferedImage;
+
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
 import org.junit.Test;
 
 import asl.sensor.utils.ReportingUtils;
@@ -14,4 +24,55 @@ public class ReportingTest {
     ReportingUtils.textListToPDFPages(pdf, toReport);
   }
   
+  @Test
+  public void chartPagesInEitherEncoding() throws Exception {
+    JFreeChart[] charts = new JFreeChart[3];
+    for (int i = 0; i < charts.length; ++i) {
+      XYSeries xys = new XYSeries("Chart " + i);
+      for (int j = 0; j < 100; ++j) {
+        xys.add( j, Math.sin(j * (i + 1) / 10.) );
+      }
+      charts[i] = ChartFactory.createXYLineChart( "Chart " + i, "x", "y",
+          new XYSeriesCollection(xys) );
+    }
+    
+    ReportingUtils.PageEncoding previous = ReportingUtils.getPageEncoding();
+    for ( ReportingUtils.PageEncoding encoding :
+      ReportingUtils.PageEncoding.values() ) {
+      ReportingUtils.PageOptions options = new ReportingUtils.PageOptions(
+          encoding, ReportingUtils.DEFAULT_JPEG_QUALITY);
+      PDDocument pdf = new PDDocument();
+      // empty pages are skipped
+      ReportingUtils.chartPagesToPDF( 640, 480, pdf, options, charts,
+          new JFreeChart[]{}, new JFreeChart[]{charts[0]} );
+      assertEquals( 2, pdf.getNumberOfPages() );
+      pdf.close();
+    }
+    // options passed in don't change the program-wide settings
+    assertEquals( previous, ReportingUtils.getPageEncoding() );
+  }
+  
+  @Test
+  public void clonedChartsDrawLikeOriginals() {
+    XYSeries xys = new XYSeries("Data");
+    for (int j = 0; j < 100; ++j) {
+      xys.add( j, Math.cos(j / 10.) );
+    }
+    JFreeChart chart = ChartFactory.createXYLineChart( "Chart", "x", "y",
+        new XYSeriesCollection(xys) );
+    JFreeChart[] clones = ReportingUtils.cloneCharts(chart);
+    assertNotNull(clones);
+    assertNotSame( chart.getXYPlot(), clones[0].getXYPlot() );
+    assertNotSame( chart.getXYPlot().getDomainAxis(),
+        clones[0].getXYPlot().getDomainAxis() );
+    
+    BufferedImage original = ReportingUtils.chartsToImage(640, 480, chart);
+    BufferedImage copy = ReportingUtils.chartsToImage(640, 480, clones);
+    for (int x = 0; x < original.getWidth(); ++x) {
+      for (int y = 0; y < original.getHeight(); ++y) {
+        assertEquals( original.getRGB(x, y), copy.getRGB(x, y) );
+      }
+    }
+  }
+  
 }
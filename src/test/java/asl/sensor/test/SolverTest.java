@@ -1,5 +1,6 @@
 package asl.sensor.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
@@ -15,6 +16,8 @@ import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.util.Pair;
 import org.junit.Test;
 
+import asl.sensor.utils.SolverTrace;
+
 public class SolverTest {
 
   @Test
@@ -174,6 +177,35 @@ public class SolverTest {
     }
   }
   
+  @Test
+  public void solverTraceKeepsMostRecentEntries() {
+    int depth = 3;
+    SolverTrace trace = new SolverTrace(depth);
+    double[] params = new double[2];
+    for (int i = 0; i < 5; ++i) {
+      params[0] = i;
+      params[1] = -i;
+      trace.record(i % 2, params, 10. * i);
+    }
+    
+    assertEquals( depth, trace.size() );
+    assertEquals( 5, trace.getTotalRecorded() );
+    for (int i = 0; i < depth; ++i) {
+      int evaluation = i + 2; // the first two entries have been replaced
+      assertEquals( evaluation, trace.getEvaluation(i) );
+      assertEquals( evaluation % 2, trace.getStart(i) );
+      assertEquals( 10. * evaluation, trace.getResidual(i), 0. );
+      double[] expected = new double[]{evaluation, -evaluation};
+      assertArrayEquals( expected, trace.getParameters(i), 0. );
+    }
+    
+    String[] rows = trace.toCSV().split("\n");
+    assertEquals( depth + 1, rows.length );
+    assertEquals( "evaluation,start,residual,param0,param1", rows[0] );
+    assertEquals( "2,0,20.0,2.0,-2.0", rows[1] );
+    assertEquals( "4,0,40.0,4.0,-4.0", rows[depth] );
+  }
+  
   public double calcRosenbrock(double[] vars) {
     double x = vars[0];
     double y = vars[1];
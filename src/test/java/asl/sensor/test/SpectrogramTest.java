@@ -0,0 +1,170 @@
+package asl.sensor.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+
+import asl.sensor.experiment.SpectrogramExperiment;
+import asl.sensor.input.DataBlock;
+import asl.sensor.input.DataStore;
+import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.FFTResult;
+import asl.sensor.utils.TimeSeriesUtils;
+
+public class SpectrogramTest {
+  
+  /**
+   * Average a PSD into the bands of a spectrogram, the same way as the
+   * experiment does, to compare against its results
+   * @param psd PSD of some data, with the response applied
+   * @param bandFreqs Center frequencies of the spectrogram's bands
+   * @return Power in dB of each band
+   */
+  private static double[] getBandPowers(FFTResult psd, double[] bandFreqs) {
+    Complex[] values = psd.getFFT();
+    double[] freqs = psd.getFreqs();
+    // each band is an octave wide
+    double halfBand = Math.sqrt(2.);
+    double[] bands = new double[bandFreqs.length];
+    for (int j = 0; j < bandFreqs.length; ++j) {
+      double sum = 0.;
+      int count = 0;
+      for (int i = 1; i < freqs.length; ++i) {
+        if (freqs[i] >= bandFreqs[j] / halfBand &&
+            freqs[i] < bandFreqs[j] * halfBand) {
+          sum += values[i].getReal();
+          ++count;
+        }
+      }
+      bands[j] = 10 * Math.log10(sum / count);
+    }
+    return bands;
+  }
+  
+  public DataStore setUpTest() throws FileNotFoundException {
+    String folder = "test-data/noise-neg159db/";
+    String data = "00_BH0.512.seed";
+    String resp = "T-compact_Q330HR_BH_40";
+    DataStore ds = new DataStore();
+    DataBlock db = TimeSeriesUtils.getFirstTimeSeries(folder + data);
+    ds.setBlock(0, db);
+    ds.setEmbedResponse(0, resp);
+    Calendar startCal = ds.getBlock(0).getStartCalendar();
+    startCal.set(Calendar.HOUR_OF_DAY, 0);
+    startCal.set(Calendar.MINUTE, 59);
+    startCal.set(Calendar.SECOND, 59);
+    startCal.set(Calendar.MILLISECOND, 994);
+    Calendar endCal = (Calendar) startCal.clone();
+    endCal.set(Calendar.HOUR_OF_DAY, 7);
+    endCal.set(Calendar.MINUTE, 0);
+    endCal.set(Calendar.SECOND, 0);
+    endCal.set(Calendar.MILLISECOND, 25);
+    ds.trim(startCal, endCal);
+    return ds;
+  }
+  
+  @Test
+  public void densitiesSumToOneInEachBand() {
+    try {
+      DataStore ds = setUpTest();
+      SpectrogramExperiment exp = new SpectrogramExperiment();
+      exp.runExperimentOnData(ds);
+      
+      // 6 hours of hour-long windows starting every half hour
+      assertEquals( 11, exp.getPowers().length );
+      assertEquals( 1800., exp.getWindowSpacing(), 1E-6 );
+      
+      for (float[] band : exp.getDensities()) {
+        double sum = 0.;
+        for (float density : band) {
+          sum += density;
+        }
+        assertEquals(1., sum, 1E-5);
+      }
+      
+      // data is steadily near the NLNM from 40 to 60 seconds, but has a
+      // transient around 20 seconds that only some windows pick up
+      double[] bandFreqs = exp.getBandFrequencies();
+      float[][] powers = exp.getPowers();
+      for (int j = 0; j < bandFreqs.length; ++j) {
+        double period = 1. / bandFreqs[j];
+        if (period >= 40. && period <= 60.) {
+          for (float[] window : powers) {
+            assertEquals(-159., window[j], 3.);
+          }
+        } else if (period >= 19. && period <= 21.) {
+          float min = Float.POSITIVE_INFINITY;
+          float max = Float.NEGATIVE_INFINITY;
+          for (float[] window : powers) {
+            min = Math.min(min, window[j]);
+            max = Math.max(max, window[j]);
+          }
+          assertTrue(max - min > 10.);
+        }
+      }
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+      fail();
+    }
+  }
+  
+  @Test
+  public void windowsMatchPSDsOfTrimmedData() {
+    try {
+      DataStore ds = setUpTest();
+      SpectrogramExperiment exp = new SpectrogramExperiment();
+      exp.setWindowLength(3600.);
+      exp.setWindowOverlap(0.75);
+      exp.runExperimentOnData(ds);
+      
+      DataBlock db = ds.getBlock(0);
+      InstrumentResponse ir = ds.getResponse(0);
+      double[] data = db.getData();
+      long interval = db.getInterval();
+      double sps = (double) TimeSeriesUtils.ONE_HZ_INTERVAL / interval;
+      int windowPoints = (int) Math.round(3600. * sps);
+      
+      double[] offsets = exp.getWindowOffsets();
+      float[][] powers = exp.getPowers();
+      double[] bandFreqs = exp.getBandFrequencies();
+      assertEquals( 21, powers.length );
+      
+      // segments shared between windows give the same PSDs as if each
+      // window were calculated on its own
+      int[] toCheck = new int[]{0, 1, 10, powers.length - 1};
+      for (int w : toCheck) {
+        int start = (int) Math.round(offsets[w] * sps);
+        double[] window =
+            Arrays.copyOfRange(data, start, start + windowPoints);
+        FFTResult psd =
+            FFTResult.crossPower(window, window, ir, ir, interval);
+        double[] expected = getBandPowers(psd, bandFreqs);
+        for (int j = 0; j < expected.length; ++j) {
+          assertEquals(expected[j], powers[w][j], 1E-3);
+        }
+      }
+      
+      // with a window longer than the data, the one PSD covers all of it
+      exp.setWindowLength(1E6);
+      exp.runExperimentOnData(ds);
+      assertEquals( 1, exp.getPowers().length );
+      FFTResult psd = FFTResult.crossPower(data, data, ir, ir, interval);
+      double[] expected = getBandPowers( psd, exp.getBandFrequencies() );
+      assertTrue( expected.length > 0 );
+      for (int j = 0; j < expected.length; ++j) {
+        assertEquals(expected[j], exp.getPowers()[0][j], 1E-3);
+      }
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+      fail();
+    }
+  }
+
+}